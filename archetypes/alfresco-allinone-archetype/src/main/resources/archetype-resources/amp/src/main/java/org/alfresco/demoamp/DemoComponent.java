@@ -1,8 +1,14 @@
 package org.alfresco.demoamp;
 
-import java.util.logging.Logger;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.alfresco.model.ContentModel;
 import org.alfresco.repo.module.AbstractModuleComponent;
+import org.alfresco.repo.nodelocator.NodeLocatorService;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -16,11 +22,50 @@ public class DemoComponent extends AbstractModuleComponent
 {
 	Log log = LogFactory.getLog(DemoComponent.class);
 	
+    private NodeService nodeService;
+    
+    private NodeLocatorService nodeLocatorService;
+    
+    private NodeBatchProcessor nodeBatchProcessor;
+    
+    public void setNodeService(NodeService nodeService)
+    {
+        this.nodeService = nodeService;
+    }
+    
+    public void setNodeLocatorService(NodeLocatorService nodeLocatorService)
+    {
+        this.nodeLocatorService = nodeLocatorService;
+    }
+    
+    public void setNodeBatchProcessor(NodeBatchProcessor nodeBatchProcessor)
+    {
+        this.nodeBatchProcessor = nodeBatchProcessor;
+    }
+    
+    /**
+     * Walks the children of Company Home the way a module bootstrap or data 
+     * migration should walk many nodes: in batches, each in its own transaction, 
+     * on several threads
+     */
     @Override
     protected void executeInternal() throws Throwable
     {
         System.out.println("DemoComponent has been executed");
         log.debug("Test debug logging is working");
         log.info("This should not be outputted by default");
+        List<NodeRef> nodeRefs = new ArrayList<NodeRef>();
+        NodeRef companyHome = nodeLocatorService.getNode("companyhome", null, null);
+        for (ChildAssociationRef childAssocRef : nodeService.getChildAssocs(companyHome))
+        {
+            nodeRefs.add(childAssocRef.getChildRef());
+        }
+        nodeBatchProcessor.process("DemoComponent", nodeRefs, new NodeBatchProcessor.NodeWorker()
+        {
+            public void process(NodeRef nodeRef) throws Throwable
+            {
+                log.debug("Company Home child: " + nodeService.getProperty(nodeRef, ContentModel.PROP_NAME));
+            }
+        });
     }
 }
@@ -0,0 +1,129 @@
+package org.alfresco.demoamp;
+
+import java.util.Collection;
+
+import org.alfresco.repo.batch.BatchProcessor;
+import org.alfresco.repo.batch.BatchProcessor.BatchProcessWorkerAdaptor;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.transaction.TransactionService;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.ApplicationEventPublisherAware;
+
+/**
+ * Processes large sets of nodes (e.g. in a module bootstrap or data migration) 
+ * with a pool of worker threads, one retrying transaction per batch of nodes, 
+ * instead of walking them on a single thread in one long transaction.
+ * 
+ * A failing node only rolls back (and retries) its own batch: the other 
+ * batches are committed, and the failure is logged. Progress is logged every 
+ * loggingInterval nodes, and the overall throughput once done.
+ * 
+ * Uses the Alfresco BatchProcessor, see service-context.xml for the 
+ * batch size and number of threads.
+ */
+public class NodeBatchProcessor implements ApplicationEventPublisherAware
+{
+    private static Log log = LogFactory.getLog(NodeBatchProcessor.class);
+    
+    private TransactionService transactionService;
+    
+    private ApplicationEventPublisher applicationEventPublisher;
+    
+    private int batchSize = 100;
+    
+    private int workerThreads = 4;
+    
+    private int loggingInterval = 1000;
+    
+    /**
+     * The work done on each node, in the transaction of its batch
+     */
+    public interface NodeWorker
+    {
+        void process(NodeRef nodeRef) throws Throwable;
+    }
+    
+    public void setTransactionService(TransactionService transactionService)
+    {
+        this.transactionService = transactionService;
+    }
+    
+    public void setApplicationEventPublisher(ApplicationEventPublisher applicationEventPublisher)
+    {
+        this.applicationEventPublisher = applicationEventPublisher;
+    }
+    
+    /**
+     * @param batchSize the number of nodes processed in each transaction
+     */
+    public void setBatchSize(int batchSize)
+    {
+        this.batchSize = batchSize;
+    }
+    
+    /**
+     * @param workerThreads the number of batches processed at the same time
+     */
+    public void setWorkerThreads(int workerThreads)
+    {
+        this.workerThreads = workerThreads;
+    }
+    
+    /**
+     * @param loggingInterval the number of nodes processed between progress logs
+     */
+    public void setLoggingInterval(int loggingInterval)
+    {
+        this.loggingInterval = loggingInterval;
+    }
+    
+    /**
+     * Processes nodes in batches, as the current user (or as system when there 
+     * is none), returning once all of them have been processed
+     * 
+     * @param processName the name of the process, used in the logs
+     * @return the number of nodes processed successfully
+     */
+    public int process(String processName, Collection<NodeRef> nodeRefs, final NodeWorker worker)
+    {
+        final String runAsUser = AuthenticationUtil.getRunAsUser() != null 
+                ? AuthenticationUtil.getRunAsUser() : AuthenticationUtil.getSystemUserName();
+        BatchProcessor<NodeRef> batchProcessor = new BatchProcessor<NodeRef>(processName, 
+                transactionService.getRetryingTransactionHelper(), nodeRefs, workerThreads, batchSize, 
+                applicationEventPublisher, log, loggingInterval);
+        long start = System.currentTimeMillis();
+        int processed = batchProcessor.process(new BatchProcessWorkerAdaptor<NodeRef>()
+        {
+            @Override
+            public String getIdentifier(NodeRef nodeRef)
+            {
+                return nodeRef.toString();
+            }
+            
+            @Override
+            public void beforeProcess() throws Throwable
+            {
+                AuthenticationUtil.setRunAsUser(runAsUser);
+            }
+            
+            @Override
+            public void afterProcess() throws Throwable
+            {
+                AuthenticationUtil.clearCurrentSecurityContext();
+            }
+            
+            public void process(NodeRef nodeRef) throws Throwable
+            {
+                worker.process(nodeRef);
+            }
+        }, true);
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        log.info(processName + ": processed " + processed + " of " + nodeRefs.size() + " nodes in " + elapsed + " ms (" 
+                + (processed * 1000L / elapsed) + " nodes/s, " + workerThreads + " threads, batches of " + batchSize + "), " 
+                + batchProcessor.getTotalErrors() + " errors");
+        return processed;
+    }
+}
@@ -0,0 +1,258 @@
+package org.alfresco.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A minimal HTTP client of the Alfresco web scripts used by the load test,
+ * authenticating with a ticket (alf_ticket) obtained by login.
+ *
+ * One client is used by each virtual user, so that users do not share
+ * tickets nor connections.
+ */
+public class AlfrescoClient
+{
+    private static final String UTF_8 = "UTF-8";
+
+    private final String url;
+
+    private final int timeout;
+
+    private String ticket;
+
+    /**
+     * @param url the URL of the Alfresco webapp, e.g. http://localhost:8080/alfresco
+     * @param timeout the connect and read timeout of each request, in milliseconds
+     */
+    public AlfrescoClient(String url, int timeout)
+    {
+        this.url = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Logs in, the ticket obtained being used by the next requests
+     */
+    public void login(String username, String password) throws IOException
+    {
+        Response response = request("POST", "/service/api/login",
+                "{\"username\": " + quote(username) + ", \"password\": " + quote(password) + "}", "application/json");
+        String loggedIn = response.isSuccess() ? jsonValue(response.getBody(), "ticket") : null;
+        if (loggedIn == null)
+        {
+            throw new IOException("Login of " + username + " failed with HTTP status " + response.getStatus());
+        }
+        ticket = loggedIn;
+    }
+
+    /**
+     * Waits for the Alfresco webapp to answer, e.g. while the run-wars execution bootstraps the repository
+     *
+     * @param timeout how long to wait, in milliseconds
+     */
+    public void waitUntilStarted(long timeout) throws IOException, InterruptedException
+    {
+        long end = System.currentTimeMillis() + timeout;
+        while (true)
+        {
+            try
+            {
+                if (request("GET", "/service/api/server", null, null).isSuccess())
+                {
+                    return;
+                }
+            }
+            catch (IOException e)
+            {
+                // Not listening yet
+            }
+            if (System.currentTimeMillis() > end)
+            {
+                throw new IOException(url + " did not start within " + (timeout / 1000) + " seconds");
+            }
+            Thread.sleep(2000);
+        }
+    }
+
+    /**
+     * @return the nodeRef of Company Home
+     */
+    public String getCompanyHome() throws IOException
+    {
+        Response response = request("GET", "/service/api/nodelocator/companyhome", null, null);
+        String nodeRef = response.isSuccess() ? jsonValue(response.getBody(), "nodeRef") : null;
+        if (nodeRef == null)
+        {
+            throw new IOException("Could not locate Company Home, HTTP status " + response.getStatus());
+        }
+        return nodeRef;
+    }
+
+    /**
+     * @return the nodeRef of the folder created
+     */
+    public String createFolder(String parentNodeRef, String name) throws IOException
+    {
+        Response response = request("POST", "/service/api/node/folder/" + toPath(parentNodeRef),
+                "{\"name\": " + quote(name) + "}", "application/json");
+        String nodeRef = response.isSuccess() ? jsonValue(response.getBody(), "nodeRef") : null;
+        if (nodeRef == null)
+        {
+            throw new IOException("Could not create folder " + name + ", HTTP status " + response.getStatus());
+        }
+        return nodeRef;
+    }
+
+    /**
+     * Deletes a file or folder, and what it contains
+     */
+    public Response delete(String nodeRef) throws IOException
+    {
+        return request("DELETE", "/service/slingshot/doclib/action/file/node/" + toPath(nodeRef), null, null);
+    }
+
+    /**
+     * Uploads a new file to a folder
+     */
+    public Response upload(String folderNodeRef, String name, byte[] content) throws IOException
+    {
+        String boundary = "----loadtest" + UUID.randomUUID().toString().replace("-", "");
+        ByteArrayOutputStream body = new ByteArrayOutputStream(content.length + 512);
+        writePart(body, boundary, "destination", null);
+        body.write((folderNodeRef + "\r\n").getBytes(UTF_8));
+        writePart(body, boundary, "filedata", name);
+        body.write(content);
+        body.write(("\r\n--" + boundary + "--\r\n").getBytes(UTF_8));
+        return send("POST", "/service/api/upload", body.toByteArray(), "multipart/form-data; boundary=" + boundary);
+    }
+
+    private static void writePart(OutputStream body, String boundary, String name, String fileName) throws IOException
+    {
+        StringBuilder part = new StringBuilder("--").append(boundary).append("\r\n")
+                .append("Content-Disposition: form-data; name=\"").append(name).append('"');
+        if (fileName != null)
+        {
+            part.append("; filename=\"").append(fileName).append("\"\r\nContent-Type: application/octet-stream");
+        }
+        body.write(part.append("\r\n\r\n").toString().getBytes(UTF_8));
+    }
+
+    public Response request(String method, String path, String body, String contentType) throws IOException
+    {
+        return send(method, path, body != null ? body.getBytes(UTF_8) : null, contentType);
+    }
+
+    /**
+     * Sends a request to a path of the Alfresco webapp, e.g. /service/api/server, with the ticket of the
+     * client if logged in. The response body is always read, so that the connection can be reused
+     */
+    public Response send(String method, String path, byte[] body, String contentType) throws IOException
+    {
+        String target = url + path;
+        if (ticket != null)
+        {
+            target += (path.indexOf('?') >= 0 ? "&" : "?") + "alf_ticket=" + URLEncoder.encode(ticket, UTF_8);
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL(target).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        if (body != null)
+        {
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", contentType);
+            OutputStream out = connection.getOutputStream();
+            try
+            {
+                out.write(body);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        if (in != null)
+        {
+            try
+            {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1)
+                {
+                    content.write(buffer, 0, read);
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        return new Response(status, content.toString(UTF_8));
+    }
+
+    /**
+     * @return workspace/SpacesStore/id for workspace://SpacesStore/id, as used in web script URLs
+     */
+    static String toPath(String nodeRef)
+    {
+        return nodeRef.replace("://", "/");
+    }
+
+    /**
+     * @return the first string value of a field of a JSON document, good enough for the responses of the web
+     *         scripts used here
+     */
+    static String jsonValue(String json, String name)
+    {
+        Matcher matcher = Pattern.compile("\"" + Pattern.quote(name) + "\"\\s*:\\s*\"([^\"]*)\"").matcher(json);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static String quote(String value)
+    {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * The status and body of a response
+     */
+    public static class Response
+    {
+        private final int status;
+
+        private final String body;
+
+        Response(int status, String body)
+        {
+            this.status = status;
+            this.body = body;
+        }
+
+        public int getStatus()
+        {
+            return status;
+        }
+
+        public String getBody()
+        {
+            return body;
+        }
+
+        public boolean isSuccess()
+        {
+            return status >= 200 && status < 300;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.alfresco.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * The latencies of the requests of a workload, recorded by all the virtual
+ * users during the measured period of the load test.
+ *
+ * Latencies are kept as they are (in microseconds) rather than in buckets,
+ * so that the percentiles are exact: a load test sends a few hundred
+ * thousand requests at most.
+ */
+public class LatencyStats
+{
+    private final String name;
+
+    private long[] latencies = new long[1024];
+
+    private int count;
+
+    private int errors;
+
+    public LatencyStats(String name)
+    {
+        this.name = name;
+    }
+
+    /**
+     * @param latency the time taken by a request, in microseconds
+     * @param success whether the request succeeded
+     */
+    public synchronized void record(long latency, boolean success)
+    {
+        if (count == latencies.length)
+        {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = latency;
+        if (!success)
+        {
+            errors++;
+        }
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public synchronized int getCount()
+    {
+        return count;
+    }
+
+    public synchronized int getErrors()
+    {
+        return errors;
+    }
+
+    /**
+     * @return the requests per second over a period
+     */
+    public synchronized double getThroughput(long elapsedMillis)
+    {
+        return elapsedMillis > 0 ? count * 1000d / elapsedMillis : 0;
+    }
+
+    /**
+     * @param percentile e.g. 95 for the p95
+     * @return the latency of the percentile (nearest rank), in milliseconds
+     */
+    public synchronized double getPercentile(double percentile)
+    {
+        if (count == 0)
+        {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * count);
+        return sorted[Math.max(0, Math.min(count, rank) - 1)] / 1000d;
+    }
+
+    /**
+     * @return the mean latency, in milliseconds
+     */
+    public synchronized double getMean()
+    {
+        long total = 0;
+        for (int i = 0; i < count; i++)
+        {
+            total += latencies[i];
+        }
+        return count > 0 ? total / 1000d / count : 0;
+    }
+}
@@ -0,0 +1,347 @@
+package org.alfresco.loadtest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Drives a mix of concurrent workloads (login, folder browsing, upload,
+ * search, custom web scripts, see {@link Workload}) against the Alfresco
+ * webapp started by the run-wars execution of the runner, then reports the
+ * throughput and the p50, p95 and p99 latencies of each workload.
+ *
+ * The results are compared to a baseline (the results of a previous run,
+ * kept with the sources): the load test fails when a latency grew past the
+ * baseline by more than the tolerance, or when too many requests failed.
+ * The first run, or a run with loadtest.baseline.update=true, records the
+ * baseline instead.
+ *
+ * Configured by loadtest.properties, whose properties can all be overridden
+ * as system properties, e.g. -Dloadtest.threads=50. Run by the loadtest
+ * profile of the runner, see its POM.
+ */
+public class LoadTest
+{
+    private static final String CONFIGURATION = "loadtest.properties";
+
+    private static final String PREFIX = "loadtest.";
+
+    private static final String ALL = "all";
+
+    private static final double[] PERCENTILES = { 50, 95, 99 };
+
+    private final Properties config;
+
+    public LoadTest(Properties config)
+    {
+        this.config = config;
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        Properties config = new Properties();
+        InputStream in = LoadTest.class.getClassLoader().getResourceAsStream(CONFIGURATION);
+        if (in != null)
+        {
+            try
+            {
+                config.load(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        for (String name : System.getProperties().stringPropertyNames())
+        {
+            if (name.startsWith(PREFIX))
+            {
+                config.setProperty(name, System.getProperty(name));
+            }
+        }
+        List<String> failures = new LoadTest(config).run();
+        if (!failures.isEmpty())
+        {
+            StringBuilder message = new StringBuilder("Load test failed:");
+            for (String failure : failures)
+            {
+                message.append("\n  ").append(failure);
+            }
+            // Fails the build, rather than exiting the JVM it runs in
+            throw new IllegalStateException(message.toString());
+        }
+    }
+
+    /**
+     * Runs the load test
+     *
+     * @return the regressions and errors failing the load test, if any
+     */
+    public List<String> run() throws Exception
+    {
+        String url = get("url");
+        int requestTimeout = getInt("requestTimeout") * 1000;
+        AlfrescoClient admin = new AlfrescoClient(url, requestTimeout);
+        System.out.println("Waiting for " + url + " to start");
+        admin.waitUntilStarted(getInt("startupTimeout") * 1000L);
+        admin.login(get("username"), get("password"));
+        String folder = admin.createFolder(admin.getCompanyHome(), "loadtest-" + System.currentTimeMillis());
+
+        Map<String, LatencyStats> stats;
+        try
+        {
+            stats = measure(url, requestTimeout, folder);
+        }
+        finally
+        {
+            admin.delete(folder);
+        }
+
+        Properties results = report(stats, getInt("duration") * 1000L);
+        File reportDirectory = new File(get("reportDirectory"));
+        reportDirectory.mkdirs();
+        store(results, new File(reportDirectory, "results.properties"));
+        return checkResults(stats, results);
+    }
+
+    /**
+     * Runs the virtual users, each picking workloads at random (by weight) until the end of the load test. The
+     * requests sent during the warm-up period are not measured
+     */
+    private Map<String, LatencyStats> measure(final String url, final int requestTimeout, final String folder)
+            throws InterruptedException, ExecutionException
+    {
+        final List<Workload> workloads = new ArrayList<Workload>();
+        final Map<String, LatencyStats> stats = new LinkedHashMap<String, LatencyStats>();
+        int totalWeight = 0;
+        for (String name : get("workloads").split(","))
+        {
+            if (name.trim().length() > 0)
+            {
+                Workload workload = new Workload(name.trim(), config);
+                workloads.add(workload);
+                stats.put(workload.getName(), new LatencyStats(workload.getName()));
+                totalWeight += workload.getWeight();
+            }
+        }
+        stats.put(ALL, new LatencyStats(ALL));
+        final int weights = totalWeight;
+        final byte[] uploadContent = new byte[getInt("upload.size")];
+        new Random(0).nextBytes(uploadContent);
+
+        int threads = getInt("threads");
+        long rampUp = getInt("rampUp") * 1000L;
+        final long measureStart = System.currentTimeMillis() + getInt("warmup") * 1000L;
+        final long end = measureStart + getInt("duration") * 1000L;
+        System.out.println("Running " + threads + " virtual users for " + get("warmup") + "s of warm-up and "
+                + get("duration") + "s of measures, workloads: " + workloads.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> users = new ArrayList<Future<Void>>();
+        for (int i = 0; i < threads; i++)
+        {
+            final long delay = rampUp * i / threads;
+            users.add(executor.submit(new Callable<Void>()
+            {
+                public Void call() throws Exception
+                {
+                    Thread.sleep(delay);
+                    AlfrescoClient client = new AlfrescoClient(url, requestTimeout);
+                    client.login(get("username"), get("password"));
+                    Workload.Session session = new Workload.Session(client, get("username"), get("password"), folder,
+                            uploadContent);
+                    Random random = new Random();
+                    long now;
+                    while ((now = System.currentTimeMillis()) < end)
+                    {
+                        Workload workload = pick(workloads, random.nextInt(weights));
+                        long start = System.nanoTime();
+                        boolean success;
+                        try
+                        {
+                            success = workload.execute(session);
+                        }
+                        catch (IOException e)
+                        {
+                            success = false;
+                        }
+                        long latency = (System.nanoTime() - start) / 1000;
+                        if (now >= measureStart)
+                        {
+                            stats.get(workload.getName()).record(latency, success);
+                            stats.get(ALL).record(latency, success);
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        executor.shutdown();
+        try
+        {
+            for (Future<Void> user : users)
+            {
+                user.get();
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        return stats;
+    }
+
+    private static Workload pick(List<Workload> workloads, int weight)
+    {
+        for (Workload workload : workloads)
+        {
+            weight -= workload.getWeight();
+            if (weight < 0)
+            {
+                return workload;
+            }
+        }
+        return workloads.get(workloads.size() - 1);
+    }
+
+    /**
+     * Prints the results, and returns them as [workload].[metric] properties
+     */
+    private static Properties report(Map<String, LatencyStats> stats, long elapsed)
+    {
+        Properties results = new Properties();
+        System.out.println("------------------------------------------------------------------------------");
+        System.out.println(String.format(Locale.ENGLISH, "%-16s %9s %7s %9s %9s %9s %9s %9s",
+                "Workload", "Requests", "Errors", "Req/s", "Mean ms", "p50 ms", "p95 ms", "p99 ms"));
+        for (LatencyStats stat : stats.values())
+        {
+            System.out.println(String.format(Locale.ENGLISH, "%-16s %9d %7d %9.1f %9.1f %9.1f %9.1f %9.1f",
+                    stat.getName(), stat.getCount(), stat.getErrors(), stat.getThroughput(elapsed), stat.getMean(),
+                    stat.getPercentile(50), stat.getPercentile(95), stat.getPercentile(99)));
+            results.setProperty(stat.getName() + ".count", String.valueOf(stat.getCount()));
+            results.setProperty(stat.getName() + ".errors", String.valueOf(stat.getErrors()));
+            results.setProperty(stat.getName() + ".throughput", format(stat.getThroughput(elapsed)));
+            results.setProperty(stat.getName() + ".mean", format(stat.getMean()));
+            for (double percentile : PERCENTILES)
+            {
+                results.setProperty(stat.getName() + ".p" + (int) percentile, format(stat.getPercentile(percentile)));
+            }
+        }
+        System.out.println("------------------------------------------------------------------------------");
+        return results;
+    }
+
+    /**
+     * Compares the results to the baseline, or records them as the baseline if there is none yet
+     */
+    private List<String> checkResults(Map<String, LatencyStats> stats, Properties results) throws IOException
+    {
+        List<String> failures = new ArrayList<String>();
+        double maxErrorRate = getDouble("maxErrorRate");
+        for (LatencyStats stat : stats.values())
+        {
+            if (stat.getCount() > 0 && stat.getErrors() > stat.getCount() * maxErrorRate)
+            {
+                failures.add(stat.getName() + ": " + stat.getErrors() + " of " + stat.getCount() + " requests failed");
+            }
+        }
+
+        File baselineFile = new File(get("baseline"));
+        if (!baselineFile.isFile() || Boolean.parseBoolean(get("baseline.update")))
+        {
+            store(results, baselineFile);
+            System.out.println("Recorded the results as the baseline of the next runs in " + baselineFile);
+            return failures;
+        }
+        Properties baseline = new Properties();
+        InputStream in = new FileInputStream(baselineFile);
+        try
+        {
+            baseline.load(in);
+        }
+        finally
+        {
+            in.close();
+        }
+        double tolerance = getDouble("baseline.tolerance");
+        double minDelta = getDouble("baseline.minDelta");
+        for (String metric : get("baseline.metrics").split(","))
+        {
+            for (String workload : stats.keySet())
+            {
+                String key = workload + "." + metric.trim();
+                if (baseline.getProperty(key) == null || results.getProperty(key) == null)
+                {
+                    continue;
+                }
+                double expected = Double.parseDouble(baseline.getProperty(key));
+                double actual = Double.parseDouble(results.getProperty(key));
+                // Small absolute changes of fast requests are noise rather than regressions
+                if (actual > expected * (1 + tolerance) && actual - expected > minDelta)
+                {
+                    failures.add(String.format(Locale.ENGLISH, "%s latency regressed from %.1f ms to %.1f ms (baseline %s)",
+                            key, expected, actual, baselineFile));
+                }
+            }
+        }
+        if (failures.isEmpty())
+        {
+            System.out.println("No latency regression against the baseline " + baselineFile);
+        }
+        return failures;
+    }
+
+    private static void store(Properties properties, File file) throws IOException
+    {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try
+        {
+            properties.store(out, "Load test results");
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static String format(double value)
+    {
+        return String.format(Locale.ENGLISH, "%.1f", value);
+    }
+
+    private String get(String name)
+    {
+        String value = config.getProperty(PREFIX + name);
+        if (value == null)
+        {
+            throw new IllegalArgumentException("No " + PREFIX + name + " configured in " + CONFIGURATION);
+        }
+        return value.trim();
+    }
+
+    private int getInt(String name)
+    {
+        return Integer.parseInt(get(name));
+    }
+
+    private double getDouble(String name)
+    {
+        return Double.parseDouble(get(name));
+    }
+}
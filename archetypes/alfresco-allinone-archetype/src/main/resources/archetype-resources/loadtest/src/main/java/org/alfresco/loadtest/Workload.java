@@ -0,0 +1,146 @@
+package org.alfresco.loadtest;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * One kind of request of the load test mix, configured in loadtest.properties
+ * as loadtest.workload.[name].*:
+ *
+ * <ul>
+ * <li>type: login (logs in again), upload (uploads a new file to the folder
+ * of the load test) or http (the default: any web script)</li>
+ * <li>method, path, body and contentType: the request sent by http
+ * workloads, e.g. GET /service/slingshot/search?term=loadtest. {folder}
+ * is replaced by the nodeRef path (workspace/SpacesStore/id) of the folder
+ * of the load test, and {random} by a random UUID</li>
+ * <li>weight: how often the workload is picked, relatively to the others
+ * (1 by default)</li>
+ * </ul>
+ */
+public class Workload
+{
+    public static final String TYPE_LOGIN = "login";
+
+    public static final String TYPE_UPLOAD = "upload";
+
+    public static final String TYPE_HTTP = "http";
+
+    private final String name;
+
+    private final String type;
+
+    private final String method;
+
+    private final String path;
+
+    private final String body;
+
+    private final String contentType;
+
+    private final int weight;
+
+    public Workload(String name, Properties properties)
+    {
+        String prefix = "loadtest.workload." + name + ".";
+        this.name = name;
+        this.type = properties.getProperty(prefix + "type", TYPE_HTTP);
+        this.method = properties.getProperty(prefix + "method", "GET");
+        this.path = properties.getProperty(prefix + "path");
+        this.body = properties.getProperty(prefix + "body");
+        this.contentType = properties.getProperty(prefix + "contentType", "application/json");
+        this.weight = Integer.parseInt(properties.getProperty(prefix + "weight", "1"));
+        if (TYPE_HTTP.equals(type) && path == null)
+        {
+            throw new IllegalArgumentException("No " + prefix + "path set for workload " + name);
+        }
+        if (!TYPE_HTTP.equals(type) && !TYPE_LOGIN.equals(type) && !TYPE_UPLOAD.equals(type))
+        {
+            throw new IllegalArgumentException("Unknown type " + type + " of workload " + name);
+        }
+    }
+
+    /**
+     * Sends the request of the workload
+     *
+     * @param session the virtual user sending it
+     * @return whether the request succeeded
+     */
+    public boolean execute(Session session) throws IOException
+    {
+        if (TYPE_LOGIN.equals(type))
+        {
+            session.getClient().login(session.getUsername(), session.getPassword());
+            return true;
+        }
+        if (TYPE_UPLOAD.equals(type))
+        {
+            return session.getClient().upload(session.getFolder(), "loadtest-" + UUID.randomUUID() + ".bin",
+                    session.getUploadContent()).isSuccess();
+        }
+        String resolvedPath = path.replace("{folder}", AlfrescoClient.toPath(session.getFolder()))
+                .replace("{random}", UUID.randomUUID().toString());
+        return session.getClient().request(method, resolvedPath, body, contentType).isSuccess();
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public int getWeight()
+    {
+        return weight;
+    }
+
+    /**
+     * What a virtual user needs to send the requests of the workloads
+     */
+    public static class Session
+    {
+        private final AlfrescoClient client;
+
+        private final String username;
+
+        private final String password;
+
+        private final String folder;
+
+        private final byte[] uploadContent;
+
+        public Session(AlfrescoClient client, String username, String password, String folder, byte[] uploadContent)
+        {
+            this.client = client;
+            this.username = username;
+            this.password = password;
+            this.folder = folder;
+            this.uploadContent = uploadContent;
+        }
+
+        public AlfrescoClient getClient()
+        {
+            return client;
+        }
+
+        public String getUsername()
+        {
+            return username;
+        }
+
+        public String getPassword()
+        {
+            return password;
+        }
+
+        public String getFolder()
+        {
+            return folder;
+        }
+
+        public byte[] getUploadContent()
+        {
+            return uploadContent;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+    Licensed to the Apache Software Foundation (ASF) under one or more
+	contributor license agreements.  See the NOTICE file distributed with
+	this work for additional information regarding copyright ownership.
+	The ASF licenses this file to You under the Apache License, Version 2.0
+	(the "License"); you may not use this file except in compliance with
+	the License.  You may obtain a copy of the License at
+
+	http://www.apache.org/licenses/LICENSE-2.0
+
+	Unless required by applicable law or agreed to in writing, software
+	distributed under the License is distributed on an "AS IS" BASIS,
+	WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+	See the License for the specific language governing permissions and
+	limitations under the License.
+ */
+package org.alfresco.demoamp;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.alfresco.model.ContentModel;
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.util.ISO8601DateFormat;
+import org.apache.commons.codec.binary.Base64;
+import org.springframework.extensions.webscripts.AbstractWebScript;
+import org.springframework.extensions.webscripts.Cache;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptException;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+import org.springframework.extensions.webscripts.json.JSONWriter;
+
+/**
+ * Lists the children of a folder, a page at a time:
+ * GET /demoamp/children/{store_type}/{store_id}/{id}?maxItems=50&cursor=...
+ *
+ * The children are read a page at a time from the database (the canned query
+ * of the FileFolderService, unsorted so that it stops once the page is read)
+ * rather than all at once, and written as JSON straight to the response as
+ * they are read, without building a model or a JSON object first: listing a
+ * folder of a million children costs the same as listing one of a hundred.
+ * Each response holds the cursor of the next page, if any, to be passed back
+ * as is.
+ *
+ * Each page has an ETag (a hash of the children listed and of their
+ * modification dates) and a Last-Modified date: conditional requests
+ * (If-None-Match, or If-Modified-Since) of a page which did not change are
+ * answered with a 304, without writing it again. Prefer the ETag: deleting a
+ * child does not change the Last-Modified date of the page.
+ *
+ * See children.get.desc.xml and service-context.xml.
+ */
+public class ChildrenWebScript extends AbstractWebScript
+{
+    public static final int DEFAULT_MAX_ITEMS = 50;
+
+    public static final int MAX_ITEMS_LIMIT = 1000;
+
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private NodeService nodeService;
+
+    private FileFolderService fileFolderService;
+
+    private NamespaceService namespaceService;
+
+    public void setNodeService(NodeService nodeService)
+    {
+        this.nodeService = nodeService;
+    }
+
+    public void setFileFolderService(FileFolderService fileFolderService)
+    {
+        this.fileFolderService = fileFolderService;
+    }
+
+    public void setNamespaceService(NamespaceService namespaceService)
+    {
+        this.namespaceService = namespaceService;
+    }
+
+    public void execute(WebScriptRequest req, WebScriptResponse res) throws IOException
+    {
+        Map<String, String> templateVars = req.getServiceMatch().getTemplateVars();
+        NodeRef folder = new NodeRef(templateVars.get("store_type"), templateVars.get("store_id"), templateVars.get("id"));
+        if (!nodeService.exists(folder))
+        {
+            throw new WebScriptException(Status.STATUS_NOT_FOUND, "No folder " + folder);
+        }
+        int maxItems = DEFAULT_MAX_ITEMS;
+        if (req.getParameter("maxItems") != null)
+        {
+            try
+            {
+                maxItems = Integer.parseInt(req.getParameter("maxItems"));
+            }
+            catch (NumberFormatException e)
+            {
+                throw new WebScriptException(Status.STATUS_BAD_REQUEST, "Invalid maxItems " + req.getParameter("maxItems"));
+            }
+            if (maxItems < 1 || maxItems > MAX_ITEMS_LIMIT)
+            {
+                throw new WebScriptException(Status.STATUS_BAD_REQUEST, "maxItems must be between 1 and " + MAX_ITEMS_LIMIT);
+            }
+        }
+
+        PagingRequest pagingRequest = toPagingRequest(req.getParameter("cursor"), maxItems);
+        PagingResults<FileInfo> page = fileFolderService.list(folder, true, true, null, null, pagingRequest);
+        String eTag = getETag(page, pagingRequest);
+        Date lastModified = getLastModified(folder, page);
+
+        Cache cache = new Cache();
+        cache.setNeverCache(false);
+        cache.setMustRevalidate(true);
+        cache.setETag(eTag);
+        cache.setLastModified(lastModified);
+        res.setCache(cache);
+        if (isNotModified(req, eTag, lastModified))
+        {
+            res.setStatus(Status.STATUS_NOT_MODIFIED);
+            return;
+        }
+        res.setContentType("application/json;charset=UTF-8");
+        res.setContentEncoding("UTF-8");
+        writePage(page, pagingRequest, res.getWriter());
+    }
+
+    /**
+     * @param cursor the cursor returned with the previous page, null for the first page
+     * @return the request of the page of the cursor
+     */
+    public PagingRequest toPagingRequest(String cursor, int maxItems)
+    {
+        if (cursor == null || cursor.length() == 0)
+        {
+            return new PagingRequest(0, maxItems, null);
+        }
+        // The position of the page, and the id of the query (whose results may still be cached)
+        String[] values = new String(Base64.decodeBase64(cursor), UTF_8).split(",", 2);
+        try
+        {
+            int skipCount = Integer.parseInt(values[0]);
+            if (skipCount < 0)
+            {
+                throw new NumberFormatException();
+            }
+            return new PagingRequest(skipCount, maxItems, values.length > 1 && values[1].length() > 0 ? values[1] : null);
+        }
+        catch (NumberFormatException e)
+        {
+            throw new WebScriptException(Status.STATUS_BAD_REQUEST, "Invalid cursor " + cursor);
+        }
+    }
+
+    /**
+     * @return the cursor of the page following a page, null if it was the last one
+     */
+    public String getNextCursor(PagingResults<FileInfo> page, PagingRequest pagingRequest)
+    {
+        if (!page.hasMoreItems())
+        {
+            return null;
+        }
+        String next = (pagingRequest.getSkipCount() + page.getPage().size()) + ","
+                + (page.getQueryExecutionId() != null ? page.getQueryExecutionId() : "");
+        return Base64.encodeBase64URLSafeString(next.getBytes(UTF_8));
+    }
+
+    /**
+     * Writes a page of children as JSON, one child at a time:
+     * {"items": [{"nodeRef": ..., "name": ..., "type": ..., "isFolder": ..., "modified": ..., "mimetype": ...}, ...],
+     *  "hasMoreItems": ..., "nextCursor": ...}
+     */
+    public void writePage(PagingResults<FileInfo> page, PagingRequest pagingRequest, Writer writer) throws IOException
+    {
+        JSONWriter json = new JSONWriter(writer);
+        json.startObject();
+        json.startValue("items");
+        json.startArray();
+        for (FileInfo child : page.getPage())
+        {
+            json.startObject();
+            json.writeValue("nodeRef", child.getNodeRef().toString());
+            json.writeValue("name", child.getName());
+            json.writeValue("type", child.getType().toPrefixString(namespaceService));
+            json.writeValue("isFolder", child.isFolder());
+            if (child.getModifiedDate() != null)
+            {
+                json.writeValue("modified", ISO8601DateFormat.format(child.getModifiedDate()));
+            }
+            if (child.getContentData() != null)
+            {
+                json.writeValue("mimetype", child.getContentData().getMimetype());
+            }
+            json.endObject();
+        }
+        json.endArray();
+        json.endValue();
+        json.writeValue("hasMoreItems", page.hasMoreItems());
+        String nextCursor = getNextCursor(page, pagingRequest);
+        if (nextCursor != null)
+        {
+            json.writeValue("nextCursor", nextCursor);
+        }
+        else
+        {
+            json.writeNullValue("nextCursor");
+        }
+        json.endObject();
+        writer.flush();
+    }
+
+    /**
+     * @return a hash of the children of the page, of their modification dates and of the position of the page
+     */
+    public String getETag(PagingResults<FileInfo> page, PagingRequest pagingRequest)
+    {
+        try
+        {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update((pagingRequest.getSkipCount() + "," + pagingRequest.getMaxItems() + "," + page.hasMoreItems()).getBytes(UTF_8));
+            for (FileInfo child : page.getPage())
+            {
+                digest.update(child.getNodeRef().toString().getBytes(UTF_8));
+                Date modified = child.getModifiedDate();
+                digest.update(String.valueOf(modified != null ? modified.getTime() : 0).getBytes(UTF_8));
+            }
+            StringBuilder eTag = new StringBuilder();
+            for (byte b : digest.digest())
+            {
+                eTag.append(String.format("%02x", b));
+            }
+            return eTag.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the latest modification date of the folder and of the children of the page
+     */
+    private Date getLastModified(NodeRef folder, PagingResults<FileInfo> page)
+    {
+        Date lastModified = (Date) nodeService.getProperty(folder, ContentModel.PROP_MODIFIED);
+        for (FileInfo child : page.getPage())
+        {
+            if (child.getModifiedDate() != null && (lastModified == null || child.getModifiedDate().after(lastModified)))
+            {
+                lastModified = child.getModifiedDate();
+            }
+        }
+        return lastModified;
+    }
+
+    /**
+     * @return whether the page the client has is still the current one: If-None-Match is used when given, as
+     *         If-Modified-Since (to the second) misses deleted children
+     */
+    private boolean isNotModified(WebScriptRequest req, String eTag, Date lastModified)
+    {
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null)
+        {
+            for (String candidate : ifNoneMatch.split(","))
+            {
+                String value = candidate.trim();
+                if (value.startsWith("W/"))
+                {
+                    value = value.substring(2);
+                }
+                if (value.equals("*") || value.replace("\"", "").equals(eTag))
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = req.getHeader("If-Modified-Since");
+        if (ifModifiedSince == null || lastModified == null)
+        {
+            return false;
+        }
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try
+        {
+            return lastModified.getTime() / 1000 <= format.parse(ifModifiedSince).getTime() / 1000;
+        }
+        catch (ParseException e)
+        {
+            // Not a valid date: the page is sent
+            return false;
+        }
+    }
+}
@@ -16,12 +16,28 @@
  */
 package org.alfresco.demoamp;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.alfresco.model.ContentModel;
+import org.alfresco.repo.cache.SimpleCache;
 import org.alfresco.repo.module.AbstractModuleComponent;
+import org.alfresco.repo.node.NodeServicePolicies;
 import org.alfresco.repo.nodelocator.NodeLocatorService;
+import org.alfresco.repo.policy.Behaviour.NotificationFrequency;
+import org.alfresco.repo.policy.JavaBehaviour;
+import org.alfresco.repo.policy.PolicyComponent;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.repository.ChildAssociationRef;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
-import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.transaction.TransactionService;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -30,16 +46,40 @@ import org.apache.commons.logging.LogFactory;
  * Uses the NodeLocatorService to easily find nodes and the 
  * NodeService to display them
  * 
+ * Child counts are cached in a transactional cache (see service-context.xml), 
+ * so that listing many folders does not count the children of each of them 
+ * in the database every time. Entries are invalidated by node policies whenever 
+ * a child association is created or deleted (or a node moved or deleted); as 
+ * with the Alfresco caches, the changes only reach the shared cache when the 
+ * transaction commits, so that a count read by a concurrent transaction before 
+ * the change is committed is not put back in the shared cache. Listing many 
+ * nodes at once should use the bulk childNodesCount(Collection), which only 
+ * counts the children of the nodes missing from the cache, in one read-only 
+ * transaction.
+ * 
  * @author Gabriele Columbro
  * @author Maurizio Pillitu
  */
-public class DemoComponent extends AbstractModuleComponent
+public class DemoComponent extends AbstractModuleComponent implements NodeServicePolicies.OnCreateChildAssociationPolicy,
+        NodeServicePolicies.OnDeleteChildAssociationPolicy, NodeServicePolicies.OnDeleteNodePolicy, NodeServicePolicies.OnMoveNodePolicy
 {
     Log log = LogFactory.getLog(DemoComponent.class);
     
     private NodeService nodeService;
     
     private NodeLocatorService nodeLocatorService;
+    
+    private PolicyComponent policyComponent;
+    
+    private TransactionService transactionService;
+    
+    private NodeBatchProcessor nodeBatchProcessor;
+    
+    private SimpleCache<NodeRef, Integer> childCountCache;
+    
+    private final AtomicLong cacheHits = new AtomicLong();
+    
+    private final AtomicLong cacheMisses = new AtomicLong();
 
     public void setNodeService(NodeService nodeService) {
         this.nodeService = nodeService;
@@ -48,9 +88,45 @@ public class DemoComponent extends AbstractModuleComponent
     public void setNodeLocatorService(NodeLocatorService nodeLocatorService) {
         this.nodeLocatorService = nodeLocatorService;
     }
+    
+    public void setPolicyComponent(PolicyComponent policyComponent) {
+        this.policyComponent = policyComponent;
+    }
+    
+    public void setTransactionService(TransactionService transactionService) {
+        this.transactionService = transactionService;
+    }
+    
+    public void setChildCountCache(SimpleCache<NodeRef, Integer> childCountCache) {
+        this.childCountCache = childCountCache;
+    }
+    
+    public void setNodeBatchProcessor(NodeBatchProcessor nodeBatchProcessor) {
+        this.nodeBatchProcessor = nodeBatchProcessor;
+    }
+    
+    /**
+     * Registers the module component, and binds the behaviours keeping the 
+     * child counts cache up to date
+     */
+    @Override
+    public void init()
+    {
+        super.init();
+        policyComponent.bindAssociationBehaviour(NodeServicePolicies.OnCreateChildAssociationPolicy.QNAME,
+                ContentModel.TYPE_BASE, new JavaBehaviour(this, "onCreateChildAssociation", NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindAssociationBehaviour(NodeServicePolicies.OnDeleteChildAssociationPolicy.QNAME,
+                ContentModel.TYPE_BASE, new JavaBehaviour(this, "onDeleteChildAssociation", NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnDeleteNodePolicy.QNAME,
+                ContentModel.TYPE_BASE, new JavaBehaviour(this, "onDeleteNode", NotificationFrequency.EVERY_EVENT));
+        policyComponent.bindClassBehaviour(NodeServicePolicies.OnMoveNodePolicy.QNAME,
+                ContentModel.TYPE_BASE, new JavaBehaviour(this, "onMoveNode", NotificationFrequency.EVERY_EVENT));
+    }
 
     /**
-     * Bogus component execution 
+     * Bogus component execution, walking the children of Company Home the way 
+     * a module bootstrap or data migration should walk many nodes: in batches, 
+     * each in its own transaction, on several threads
      */
     @Override
     protected void executeInternal() throws Throwable
@@ -58,6 +134,18 @@ public class DemoComponent extends AbstractModuleComponent
         System.out.println("DemoComponent has been executed");
         log.debug("Test debug logging. Congratulation your AMP is working");
         log.info("This is only for information purposed. Better remove me from the log in Production");
+        List<NodeRef> nodeRefs = new ArrayList<NodeRef>();
+        for (ChildAssociationRef childAssocRef : nodeService.getChildAssocs(getCompanyHome()))
+        {
+            nodeRefs.add(childAssocRef.getChildRef());
+        }
+        nodeBatchProcessor.process("DemoComponent", nodeRefs, new NodeBatchProcessor.NodeWorker()
+        {
+            public void process(NodeRef nodeRef) throws Throwable
+            {
+                log.debug("Company Home child: " + nodeService.getProperty(nodeRef, ContentModel.PROP_NAME));
+            }
+        });
     }
     
     /**
@@ -69,7 +157,119 @@ public class DemoComponent extends AbstractModuleComponent
      */
     public int childNodesCount(NodeRef nodeRef)
     {
-        return nodeService.countChildAssocs(nodeRef, true);
+        Integer count = childCountCache.get(nodeRef);
+        if (count != null)
+        {
+            cacheHits.incrementAndGet();
+            return count;
+        }
+        cacheMisses.incrementAndGet();
+        count = nodeService.countChildAssocs(nodeRef, true);
+        childCountCache.put(nodeRef, count);
+        if (log.isDebugEnabled())
+        {
+            log.debug("Counted the children of " + nodeRef + ", child count cache hits: " + cacheHits.get() 
+                    + ", misses: " + cacheMisses.get());
+        }
+        return count;
+    }
+    
+    /**
+     * Bulk version of childNodesCount(NodeRef), to be used when listing many 
+     * nodes (e.g. all the folders of a page): the counts found in the cache 
+     * are served from it, and only the missing ones are read from the 
+     * repository, all in the same read-only transaction.
+     * 
+     * @return the number of child nodes of each node, in the order of the 
+     *         nodes, each node once
+     */
+    public Map<NodeRef, Integer> childNodesCount(Collection<NodeRef> nodeRefs)
+    {
+        Map<NodeRef, Integer> counts = new LinkedHashMap<NodeRef, Integer>();
+        final Set<NodeRef> misses = new LinkedHashSet<NodeRef>();
+        for (NodeRef nodeRef : new LinkedHashSet<NodeRef>(nodeRefs))
+        {
+            Integer count = childCountCache.get(nodeRef);
+            counts.put(nodeRef, count);
+            if (count == null)
+            {
+                misses.add(nodeRef);
+            }
+        }
+        int hits = counts.size() - misses.size();
+        cacheHits.addAndGet(hits);
+        cacheMisses.addAndGet(misses.size());
+        if (!misses.isEmpty())
+        {
+            RetryingTransactionCallback<Map<NodeRef, Integer>> countMisses = new RetryingTransactionCallback<Map<NodeRef, Integer>>()
+            {
+                public Map<NodeRef, Integer> execute() throws Throwable
+                {
+                    Map<NodeRef, Integer> missingCounts = new LinkedHashMap<NodeRef, Integer>();
+                    for (NodeRef nodeRef : misses)
+                    {
+                        int count = nodeService.countChildAssocs(nodeRef, true);
+                        childCountCache.put(nodeRef, count);
+                        missingCounts.put(nodeRef, count);
+                    }
+                    return missingCounts;
+                }
+            };
+            counts.putAll(transactionService.getRetryingTransactionHelper().doInTransaction(countMisses, true));
+        }
+        if (log.isDebugEnabled())
+        {
+            log.debug("Counted the children of " + counts.size() + " nodes, " + hits + " from the cache and " 
+                    + misses.size() + " from the repository, child count cache hits: " + cacheHits.get() 
+                    + ", misses: " + cacheMisses.get());
+        }
+        return counts;
+    }
+    
+    /**
+     * @return the number of child counts read from the cache since startup
+     */
+    public long getCacheHits()
+    {
+        return cacheHits.get();
+    }
+    
+    /**
+     * @return the number of child counts read from the repository since startup
+     */
+    public long getCacheMisses()
+    {
+        return cacheMisses.get();
+    }
+    
+    public void onCreateChildAssociation(ChildAssociationRef childAssocRef, boolean isNewNode)
+    {
+        invalidate(childAssocRef.getParentRef());
+    }
+    
+    public void onDeleteChildAssociation(ChildAssociationRef childAssocRef)
+    {
+        invalidate(childAssocRef.getParentRef());
+    }
+    
+    public void onDeleteNode(ChildAssociationRef childAssocRef, boolean isNodeArchived)
+    {
+        invalidate(childAssocRef.getParentRef());
+        invalidate(childAssocRef.getChildRef());
+    }
+    
+    public void onMoveNode(ChildAssociationRef oldChildAssocRef, ChildAssociationRef newChildAssocRef)
+    {
+        invalidate(oldChildAssocRef.getParentRef());
+        invalidate(newChildAssocRef.getParentRef());
+    }
+    
+    private void invalidate(NodeRef parentRef)
+    {
+        if (parentRef != null)
+        {
+            childCountCache.remove(parentRef);
+        }
     }
     
     /**
@@ -0,0 +1,379 @@
+package org.alfresco.demoamp.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.alfresco.demoamp.ChildrenWebScript;
+import org.alfresco.maven.rad.PooledRemote;
+import org.alfresco.maven.rad.PooledRemoteTestRunner;
+import org.alfresco.model.ContentModel;
+import org.alfresco.query.PagingRequest;
+import org.alfresco.query.PagingResults;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.model.FileFolderService;
+import org.alfresco.service.cmr.model.FileInfo;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.extensions.webscripts.Cache;
+import org.springframework.extensions.webscripts.Match;
+import org.springframework.extensions.webscripts.Status;
+import org.springframework.extensions.webscripts.WebScriptRequest;
+import org.springframework.extensions.webscripts.WebScriptResponse;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Checks that the ChildrenWebScript streams its pages: writing the first page
+ * of a large folder allocates about as much memory as writing the first page
+ * of a small one (while writing the whole large folder at once allocates
+ * several times more), paging with the cursors lists every child exactly once,
+ * and the ETag of a page changes when one of its children does. The
+ * conditional requests are sent to execute(), with mocked requests and
+ * responses.
+ */
+@RunWith(PooledRemoteTestRunner.class)
+@PooledRemote(runnerClass=SpringJUnit4ClassRunner.class)
+@ContextConfiguration("classpath:alfresco/application-context.xml")
+public class ChildrenWebScriptTest {
+
+    private static final String ADMIN_USER_NAME = "admin";
+
+    private static final int SMALL_FOLDER = 100;
+
+    private static final int LARGE_FOLDER = 1000;
+
+    private static final int PAGE_SIZE = 50;
+
+    private static final Pattern NEXT_CURSOR = Pattern.compile("\"nextCursor\"\\s*:\\s*\"([^\"]+)\"");
+
+    private static final Pattern HAS_NO_MORE_ITEMS = Pattern.compile("\"hasMoreItems\"\\s*:\\s*false");
+
+    private static final Pattern NODE_REF = Pattern.compile("\"nodeRef\"\\s*:\\s*\"([^\"]+)\"");
+
+    @Autowired
+    protected ChildrenWebScript childrenWebScript;
+
+    @Autowired
+    @Qualifier("NodeService")
+    protected NodeService nodeService;
+
+    @Autowired
+    @Qualifier("FileFolderService")
+    protected FileFolderService fileFolderService;
+
+    @Autowired
+    @Qualifier("TransactionService")
+    protected TransactionService transactionService;
+
+    private NodeRef smallFolder;
+
+    private NodeRef largeFolder;
+
+    @Before
+    public void createFolders() {
+        AuthenticationUtil.setFullyAuthenticatedUser(ADMIN_USER_NAME);
+        smallFolder = createFolder("childrenWebScript-small-", SMALL_FOLDER);
+        largeFolder = createFolder("childrenWebScript-large-", LARGE_FOLDER);
+    }
+
+    @After
+    public void deleteFolders() {
+        for (NodeRef folder : new NodeRef[] { smallFolder, largeFolder }) {
+            nodeService.addAspect(folder, ContentModel.ASPECT_TEMPORARY, null);
+            nodeService.deleteNode(folder);
+        }
+    }
+
+    @Test
+    public void testMemoryDoesNotGrowWithTheFolder() {
+        com.sun.management.ThreadMXBean threads = getThreadMXBean();
+        // Warms up the caches and the code paths of both folders first
+        writePage(smallFolder, PAGE_SIZE);
+        writePage(largeFolder, PAGE_SIZE);
+        writePage(largeFolder, LARGE_FOLDER);
+
+        long small = Long.MAX_VALUE;
+        long large = Long.MAX_VALUE;
+        long whole = Long.MAX_VALUE;
+        // Least of a few runs, to leave out the allocations of the first one or of the caches
+        for (int i = 0; i < 5; i++) {
+            long start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            writePage(smallFolder, PAGE_SIZE);
+            small = Math.min(small, threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start);
+            start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            writePage(largeFolder, PAGE_SIZE);
+            large = Math.min(large, threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start);
+            start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            writePage(largeFolder, LARGE_FOLDER);
+            whole = Math.min(whole, threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start);
+        }
+        // The measure follows the number of children read: twenty times the children of the first page
+        assertTrue("All " + LARGE_FOLDER + " children allocated " + whole + " bytes, the first " + PAGE_SIZE + " "
+                + large + " bytes", whole > 4 * large);
+        // Ten times the children: the page of the large folder would cost about ten times more if it were not streamed
+        assertTrue("First page of " + LARGE_FOLDER + " children allocated " + large + " bytes, of " + SMALL_FOLDER
+                + " children " + small + " bytes", large < 2 * small + 512 * 1024);
+    }
+
+    @Test
+    public void testCursorsListEachChildOnce() {
+        Set<String> listed = new HashSet<String>();
+        String cursor = null;
+        int pages = 0;
+        do {
+            String page = writePage(largeFolder, cursor);
+            Matcher nodeRef = NODE_REF.matcher(page);
+            int children = 0;
+            while (nodeRef.find()) {
+                assertTrue("Listed twice: " + nodeRef.group(1), listed.add(nodeRef.group(1)));
+                children++;
+            }
+            assertTrue(children <= PAGE_SIZE);
+            Matcher nextCursor = NEXT_CURSOR.matcher(page);
+            cursor = nextCursor.find() ? nextCursor.group(1) : null;
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(LARGE_FOLDER, listed.size());
+        assertEquals(LARGE_FOLDER / PAGE_SIZE, pages);
+    }
+
+    @Test
+    public void testETagChangesWithTheChildren() {
+        String eTag = getETag(smallFolder);
+        assertNotNull(eTag);
+        assertEquals(eTag, getETag(smallFolder));
+
+        transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>() {
+            public Void execute() throws Throwable {
+                NodeRef child = fileFolderService.list(smallFolder, true, true, null, null, new PagingRequest(1))
+                        .getPage().get(0).getNodeRef();
+                nodeService.setProperty(child, ContentModel.PROP_TITLE, "Modified");
+                return null;
+            }
+        });
+        assertFalse(eTag.equals(getETag(smallFolder)));
+    }
+
+    @Test
+    public void testLastPageHasNoCursor() {
+        String page = writePage(smallFolder, childrenWebScript.toPagingRequest(null, SMALL_FOLDER));
+        assertFalse(NEXT_CURSOR.matcher(page).find());
+        assertTrue(page, HAS_NO_MORE_ITEMS.matcher(page).find());
+    }
+
+    @Test
+    public void testExecuteSendsThePageWithItsETag() throws Exception {
+        StringWriter writer = new StringWriter();
+        WebScriptResponse res = execute(smallFolder, null, null, writer);
+
+        verify(res, never()).setStatus(anyInt());
+        Cache cache = getCache(res);
+        assertNotNull(cache.getETag());
+        assertNotNull(cache.getLastModified());
+        assertTrue(cache.getMustRevalidate());
+        assertEquals(getETag(smallFolder, ChildrenWebScript.MAX_ITEMS_LIMIT), cache.getETag());
+        Matcher nodeRef = NODE_REF.matcher(writer.toString());
+        int children = 0;
+        while (nodeRef.find()) {
+            children++;
+        }
+        assertEquals(SMALL_FOLDER, children);
+    }
+
+    @Test
+    public void testExecuteAnswersConditionalRequestsOfAnUnchangedPage() throws Exception {
+        Cache cache = getCache(execute(smallFolder, null, null, new StringWriter()));
+
+        WebScriptResponse res = execute(smallFolder, "W/\"other\", \"" + cache.getETag() + "\"", null, null);
+        verify(res).setStatus(Status.STATUS_NOT_MODIFIED);
+        verify(res, never()).getWriter();
+        assertEquals(cache.getETag(), getCache(res).getETag());
+
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        res = execute(smallFolder, null, format.format(cache.getLastModified()), null);
+        verify(res).setStatus(Status.STATUS_NOT_MODIFIED);
+        verify(res, never()).getWriter();
+
+        // If-None-Match wins over If-Modified-Since
+        StringWriter writer = new StringWriter();
+        res = execute(smallFolder, "\"other\"", format.format(cache.getLastModified()), writer);
+        verify(res, never()).setStatus(anyInt());
+        assertTrue(writer.toString(), NODE_REF.matcher(writer.toString()).find());
+    }
+
+    @Test
+    public void testExecuteChangesTheETagWhenAChildIsAdded() throws Exception {
+        String eTag = getCache(execute(smallFolder, null, null, new StringWriter())).getETag();
+
+        transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>() {
+            public Void execute() throws Throwable {
+                createNode(smallFolder, ContentModel.ASSOC_CONTAINS, "added", ContentModel.TYPE_CONTENT);
+                return null;
+            }
+        });
+        StringWriter writer = new StringWriter();
+        WebScriptResponse res = execute(smallFolder, "\"" + eTag + "\"", null, writer);
+        verify(res, never()).setStatus(anyInt());
+        assertFalse(eTag.equals(getCache(res).getETag()));
+        assertTrue(writer.toString(), writer.toString().contains("\"added\""));
+    }
+
+    private void writePage(final NodeRef folder, final int maxItems) {
+        transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>() {
+            public Void execute() throws Throwable {
+                PagingRequest pagingRequest = childrenWebScript.toPagingRequest(null, maxItems);
+                childrenWebScript.writePage(list(folder, pagingRequest), pagingRequest, new DiscardingWriter());
+                return null;
+            }
+        }, true);
+    }
+
+    private String writePage(NodeRef folder, String cursor) {
+        return writePage(folder, childrenWebScript.toPagingRequest(cursor, PAGE_SIZE));
+    }
+
+    private String writePage(final NodeRef folder, final PagingRequest pagingRequest) {
+        return transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<String>() {
+            public String execute() throws Throwable {
+                StringWriter writer = new StringWriter();
+                childrenWebScript.writePage(list(folder, pagingRequest), pagingRequest, writer);
+                return writer.toString();
+            }
+        }, true);
+    }
+
+    private String getETag(NodeRef folder) {
+        return getETag(folder, PAGE_SIZE);
+    }
+
+    private String getETag(final NodeRef folder, final int maxItems) {
+        return transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<String>() {
+            public String execute() throws Throwable {
+                PagingRequest pagingRequest = childrenWebScript.toPagingRequest(null, maxItems);
+                return childrenWebScript.getETag(list(folder, pagingRequest), pagingRequest);
+            }
+        }, true);
+    }
+
+    /**
+     * Requests the whole folder, in a single page, as a client would
+     *
+     * @param writer the writer of the response, null when it should not be written
+     * @return the mocked response
+     */
+    private WebScriptResponse execute(NodeRef folder, String ifNoneMatch, String ifModifiedSince, Writer writer)
+            throws Exception {
+        Map<String, String> templateVars = new HashMap<String, String>();
+        templateVars.put("store_type", folder.getStoreRef().getProtocol());
+        templateVars.put("store_id", folder.getStoreRef().getIdentifier());
+        templateVars.put("id", folder.getId());
+        Match match = mock(Match.class);
+        when(match.getTemplateVars()).thenReturn(templateVars);
+        final WebScriptRequest req = mock(WebScriptRequest.class);
+        when(req.getServiceMatch()).thenReturn(match);
+        when(req.getParameter("maxItems")).thenReturn(String.valueOf(ChildrenWebScript.MAX_ITEMS_LIMIT));
+        when(req.getHeader("If-None-Match")).thenReturn(ifNoneMatch);
+        when(req.getHeader("If-Modified-Since")).thenReturn(ifModifiedSince);
+        final WebScriptResponse res = mock(WebScriptResponse.class);
+        when(res.getWriter()).thenReturn(writer);
+        // In a transaction, as run by the web script container
+        transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<Void>() {
+            public Void execute() throws Throwable {
+                childrenWebScript.execute(req, res);
+                return null;
+            }
+        }, true);
+        return res;
+    }
+
+    private static Cache getCache(WebScriptResponse res) {
+        ArgumentCaptor<Cache> cache = ArgumentCaptor.forClass(Cache.class);
+        verify(res).setCache(cache.capture());
+        return cache.getValue();
+    }
+
+    private PagingResults<FileInfo> list(NodeRef folder, PagingRequest pagingRequest) {
+        // As listed by the web script
+        return fileFolderService.list(folder, true, true, null, null, pagingRequest);
+    }
+
+    private NodeRef createFolder(final String name, final int children) {
+        return transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<NodeRef>() {
+            public NodeRef execute() throws Throwable {
+                // Not under Company Home, whose children other tests count
+                NodeRef root = nodeService.getRootNode(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+                NodeRef folder = createNode(root, ContentModel.ASSOC_CHILDREN, name + System.currentTimeMillis(), ContentModel.TYPE_FOLDER);
+                for (int i = 0; i < children; i++) {
+                    createNode(folder, ContentModel.ASSOC_CONTAINS, "child-" + i, ContentModel.TYPE_CONTENT);
+                }
+                return folder;
+            }
+        });
+    }
+
+    private NodeRef createNode(NodeRef parent, QName assocType, String name, QName type) {
+        Map<QName, Serializable> properties = new HashMap<QName, Serializable>();
+        properties.put(ContentModel.PROP_NAME, name);
+        return nodeService.createNode(parent, assocType,
+                QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, name), type, properties).getChildRef();
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        // Allocated bytes per thread are only measured by HotSpot
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+        return threads;
+    }
+
+    /**
+     * Keeps nothing, so that only the allocations of the web script are measured
+     */
+    private static class DiscardingWriter extends Writer {
+
+        public void write(char[] buffer, int offset, int length) {
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    }
+}
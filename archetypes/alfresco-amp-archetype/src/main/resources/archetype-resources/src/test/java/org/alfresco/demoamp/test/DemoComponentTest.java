@@ -3,12 +3,24 @@ package org.alfresco.demoamp.test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.alfresco.demoamp.DemoComponent;
+import org.alfresco.maven.rad.PooledRemote;
+import org.alfresco.maven.rad.PooledRemoteTestRunner;
 import org.alfresco.model.ContentModel;
 import org.alfresco.repo.security.authentication.AuthenticationUtil;
 import org.alfresco.service.cmr.repository.NodeRef;
 import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
 import org.apache.log4j.Logger;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -19,17 +31,15 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
-import com.tradeshift.test.remote.Remote;
-import com.tradeshift.test.remote.RemoteTestRunner;
 
 /**
  * A simple class demonstrating how to run out-of-container tests 
  * loading Alfresco application context.
  * 
- * This class uses the RemoteTestRunner to try and connect to 
- * localhost:4578 and send the test name and method to be executed on 
- * a running Alfresco. One or more hostnames can be configured in the @Remote
- * annotation.
+ * This class uses the PooledRemoteTestRunner to try and connect to 
+ * localhost:4579 and send its test methods to be executed on 
+ * a running Alfresco, where test classes run in parallel. One or more 
+ * endpoints can be configured in the @PooledRemote annotation.
  * 
  * If there is no available remote server to run the test, it falls 
  * back on local running of JUnits.
@@ -43,8 +53,8 @@ import com.tradeshift.test.remote.RemoteTestRunner;
  *
  */
 
-@RunWith(RemoteTestRunner.class)
-@Remote(runnerClass=SpringJUnit4ClassRunner.class)
+@RunWith(PooledRemoteTestRunner.class)
+@PooledRemote(runnerClass=SpringJUnit4ClassRunner.class)
 @ContextConfiguration("classpath:alfresco/application-context.xml")
 public class DemoComponentTest {
     
@@ -84,4 +94,53 @@ public class DemoComponentTest {
         assertEquals(7, childNodeCount);
     }
 
+    @Test
+    public void testChildNodesCountCache() {
+        AuthenticationUtil.setFullyAuthenticatedUser(ADMIN_USER_NAME);
+        NodeRef companyHome = demoComponent.getCompanyHome();
+        NodeRef folder = createFolder(companyHome, "childNodesCountCache-" + System.currentTimeMillis());
+        try {
+            assertEquals(Integer.valueOf(0), demoComponent.childNodesCount(Collections.singleton(folder)).get(folder));
+
+            // Cached counts are served without reading the repository, only the missing ones are, each node once
+            NodeRef other = createFolder(companyHome, "childNodesCountCache-other-" + System.currentTimeMillis());
+            try {
+                long hits = demoComponent.getCacheHits();
+                long misses = demoComponent.getCacheMisses();
+                Map<NodeRef, Integer> counts = demoComponent.childNodesCount(Arrays.asList(folder, other, folder, other));
+                assertEquals(Arrays.asList(folder, other), new ArrayList<NodeRef>(counts.keySet()));
+                assertEquals(Integer.valueOf(0), counts.get(folder));
+                assertEquals(Integer.valueOf(0), counts.get(other));
+                // Other tests may count children at the same time
+                assertTrue(demoComponent.getCacheHits() > hits);
+                assertTrue(demoComponent.getCacheMisses() > misses);
+                hits = demoComponent.getCacheHits();
+                assertEquals(0, demoComponent.childNodesCount(other));
+                assertTrue(demoComponent.getCacheHits() > hits);
+            } finally {
+                nodeService.addAspect(other, ContentModel.ASPECT_TEMPORARY, null);
+                nodeService.deleteNode(other);
+            }
+
+            // Creating and deleting children invalidates the cached count
+            NodeRef first = createFolder(folder, "first");
+            createFolder(folder, "second");
+            assertEquals(2, demoComponent.childNodesCount(folder));
+            nodeService.addAspect(first, ContentModel.ASPECT_TEMPORARY, null);
+            nodeService.deleteNode(first);
+            assertEquals(1, demoComponent.childNodesCount(folder));
+            assertEquals(nodeService.countChildAssocs(folder, true), demoComponent.childNodesCount(folder));
+        } finally {
+            nodeService.addAspect(folder, ContentModel.ASPECT_TEMPORARY, null);
+            nodeService.deleteNode(folder);
+        }
+    }
+
+    private NodeRef createFolder(NodeRef parent, String name) {
+        Map<QName, Serializable> properties = new HashMap<QName, Serializable>();
+        properties.put(ContentModel.PROP_NAME, name);
+        return nodeService.createNode(parent, ContentModel.ASSOC_CONTAINS,
+                QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, name), ContentModel.TYPE_FOLDER, properties).getChildRef();
+    }
+
 }
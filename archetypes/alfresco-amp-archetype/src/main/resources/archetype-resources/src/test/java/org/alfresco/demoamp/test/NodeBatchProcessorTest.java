@@ -0,0 +1,121 @@
+package org.alfresco.demoamp.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.alfresco.demoamp.NodeBatchProcessor;
+import org.alfresco.maven.rad.PooledRemote;
+import org.alfresco.maven.rad.PooledRemoteTestRunner;
+import org.alfresco.model.ContentModel;
+import org.alfresco.repo.security.authentication.AuthenticationUtil;
+import org.alfresco.repo.transaction.RetryingTransactionHelper.RetryingTransactionCallback;
+import org.alfresco.service.cmr.repository.NodeRef;
+import org.alfresco.service.cmr.repository.NodeService;
+import org.alfresco.service.cmr.repository.StoreRef;
+import org.alfresco.service.namespace.NamespaceService;
+import org.alfresco.service.namespace.QName;
+import org.alfresco.service.transaction.TransactionService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+/**
+ * Checks that the NodeBatchProcessor processes every node exactly once,
+ * whatever the number of threads and the batch size: each node gets a
+ * counter property incremented in the transaction of its batch, so that
+ * batches retried or processed twice would show up.
+ */
+@RunWith(PooledRemoteTestRunner.class)
+@PooledRemote(runnerClass=SpringJUnit4ClassRunner.class)
+@ContextConfiguration("classpath:alfresco/application-context.xml")
+public class NodeBatchProcessorTest {
+
+    private static final String ADMIN_USER_NAME = "admin";
+
+    private static final int NODES = 250;
+
+    @Autowired
+    protected ApplicationContext applicationContext;
+
+    @Autowired
+    @Qualifier("NodeService")
+    protected NodeService nodeService;
+
+    @Autowired
+    @Qualifier("TransactionService")
+    protected TransactionService transactionService;
+
+    private NodeRef folder;
+
+    private List<NodeRef> nodeRefs;
+
+    @Before
+    public void createNodes() {
+        AuthenticationUtil.setFullyAuthenticatedUser(ADMIN_USER_NAME);
+        nodeRefs = transactionService.getRetryingTransactionHelper().doInTransaction(new RetryingTransactionCallback<List<NodeRef>>() {
+            public List<NodeRef> execute() throws Throwable {
+                // Not under Company Home, whose children other tests count
+                NodeRef root = nodeService.getRootNode(StoreRef.STORE_REF_WORKSPACE_SPACESSTORE);
+                folder = createNode(root, ContentModel.ASSOC_CHILDREN, "nodeBatchProcessor-" + System.currentTimeMillis(), ContentModel.TYPE_FOLDER);
+                List<NodeRef> created = new ArrayList<NodeRef>();
+                for (int i = 0; i < NODES; i++) {
+                    created.add(createNode(folder, ContentModel.ASSOC_CONTAINS, "node-" + i, ContentModel.TYPE_CONTENT));
+                }
+                return created;
+            }
+        });
+    }
+
+    @After
+    public void deleteNodes() {
+        nodeService.addAspect(folder, ContentModel.ASPECT_TEMPORARY, null);
+        nodeService.deleteNode(folder);
+    }
+
+    @Test
+    public void testProcessesEachNodeExactlyOnce() {
+        final ConcurrentMap<NodeRef, AtomicInteger> attempts = new ConcurrentHashMap<NodeRef, AtomicInteger>();
+        // Many small batches, rather than the configured ones, so that threads do compete
+        NodeBatchProcessor nodeBatchProcessor = new NodeBatchProcessor();
+        nodeBatchProcessor.setTransactionService(transactionService);
+        nodeBatchProcessor.setApplicationEventPublisher(applicationContext);
+        nodeBatchProcessor.setBatchSize(20);
+        nodeBatchProcessor.setWorkerThreads(4);
+        int processed = nodeBatchProcessor.process("NodeBatchProcessorTest", nodeRefs, new NodeBatchProcessor.NodeWorker() {
+            public void process(NodeRef nodeRef) throws Throwable {
+                attempts.putIfAbsent(nodeRef, new AtomicInteger());
+                attempts.get(nodeRef).incrementAndGet();
+                String count = (String) nodeService.getProperty(nodeRef, ContentModel.PROP_DESCRIPTION);
+                nodeService.setProperty(nodeRef, ContentModel.PROP_DESCRIPTION, String.valueOf(count == null ? 1 : Integer.parseInt(count) + 1));
+            }
+        });
+
+        assertEquals(NODES, processed);
+        // Every node was processed, and every committed batch processed its nodes once
+        assertEquals(NODES, attempts.size());
+        for (NodeRef nodeRef : nodeRefs) {
+            assertEquals(nodeRef.toString(), "1", nodeService.getProperty(nodeRef, ContentModel.PROP_DESCRIPTION));
+        }
+    }
+
+    private NodeRef createNode(NodeRef parent, QName assocType, String name, QName type) {
+        Map<QName, Serializable> properties = new HashMap<QName, Serializable>();
+        properties.put(ContentModel.PROP_NAME, name);
+        return nodeService.createNode(parent, assocType,
+                QName.createQName(NamespaceService.CONTENT_MODEL_1_0_URI, name), type, properties).getChildRef();
+    }
+}
@@ -0,0 +1,177 @@
+package org.alfresco.maven.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.maven.plugin.archiver.ParallelZipWriter;
+import org.alfresco.maven.plugin.install.AmpDescriptor;
+import org.alfresco.maven.plugin.install.WarOverlayEngine;
+import org.alfresco.repo.module.tool.ModuleManagementTool;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time taken to unpack synthetic AMPs onto a WAR, as the install goal and the AMP overlays of the
+ * maven-war-plugin do: with the ModuleManagementTool (one AMP at a time), with the WarOverlayEngine onto an exploded
+ * WAR and a WAR file, and unpacking unchanged AMPs again onto the same exploded WAR.
+ * <p/>
+ * Installing modifies the WAR, so every invocation works on a fresh copy made (and not measured) beforehand.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AmpInstallBenchmark {
+
+    @Param({"500", "5000"})
+    public int fileCount;
+
+    @Param({"10"})
+    public int jarCount;
+
+    /** Size of each web asset, in KB */
+    @Param({"64"})
+    public int assetSize;
+
+    /** Number of AMPs overlaid onto the WAR, as for Share builds depending on several AMPs */
+    @Param({"1", "4"})
+    public int ampCount;
+
+    private File workDirectory;
+    private File baseWar;
+    private File baseWarFile;
+    private File installedWar;
+    private List<File> amps;
+    private File war;
+    private File warFile;
+    private final Log log = new QuietLog();
+
+    @Setup
+    public void setUp() throws IOException {
+        workDirectory = Files.createTempDirectory("amp-install").toFile();
+        amps = new ArrayList<File>();
+        for (int i = 0; i < ampCount; i++) {
+            SyntheticAmp amp = new SyntheticAmp("benchmark" + i, fileCount, jarCount, assetSize);
+            amps.add(amp.createAmp(new File(workDirectory, amp.getModuleId()), new File(workDirectory, amp.getModuleId() + ".amp")));
+        }
+        baseWar = SyntheticAmp.createWar(new File(workDirectory, "war"));
+        baseWarFile = new File(workDirectory, "war.war");
+        createWarFile(baseWar, baseWarFile);
+        installedWar = new File(workDirectory, "installed");
+        FileUtils.copyDirectory(baseWar, installedWar);
+        install(installedWar);
+    }
+
+    /**
+     * Copies the WAR to install onto; not part of the measured time
+     */
+    @Setup(Level.Invocation)
+    public void copyWar() throws IOException {
+        war = new File(workDirectory, "war-copy");
+        FileUtils.deleteDirectory(war);
+        FileUtils.copyDirectory(baseWar, war);
+        warFile = new File(workDirectory, "war-copy.war");
+        FileUtils.copyFile(baseWarFile, warFile);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(workDirectory);
+    }
+
+    @Benchmark
+    public void moduleManagementTool() throws Exception {
+        ModuleManagementTool mmt = new ModuleManagementTool();
+        mmt.setVerbose(false);
+        for (File amp : amps) {
+            mmt.installModule(amp.getAbsolutePath(), war.getAbsolutePath(), false, true, false);
+        }
+    }
+
+    @Benchmark
+    public void overlayExplodedWar() throws IOException {
+        install(war);
+    }
+
+    @Benchmark
+    public void overlayWarFile() throws IOException {
+        install(warFile);
+    }
+
+    /**
+     * Unpacks the same AMPs again onto a WAR they are installed in, one by one as the AMP overlays are
+     */
+    @Benchmark
+    public void overlayUnchanged() throws IOException {
+        WarOverlayEngine engine = new WarOverlayEngine(installedWar, 0, log);
+        for (File ampFile : amps) {
+            List<AmpDescriptor> amp = engine.read(Collections.singletonList(ampFile));
+            try {
+                engine.reinstall(amp);
+            } finally {
+                WarOverlayEngine.close(amp);
+            }
+        }
+    }
+
+    private void install(File target) throws IOException {
+        WarOverlayEngine engine = new WarOverlayEngine(target, 0, log);
+        List<AmpDescriptor> descriptors = engine.read(amps);
+        try {
+            engine.install(descriptors, false);
+        } finally {
+            WarOverlayEngine.close(descriptors);
+        }
+    }
+
+    private static void createWarFile(File directory, File warFile) throws IOException {
+        ParallelZipWriter writer = new ParallelZipWriter(warFile, 1);
+        writer.addDirectory(directory, "", new String[]{"**"}, new String[0]);
+        writer.write();
+    }
+
+    /**
+     * Keeps the engine progress messages out of the benchmark output
+     */
+    private static class QuietLog extends SystemStreamLog {
+
+        @Override
+        public boolean isInfoEnabled() {
+            return false;
+        }
+
+        @Override
+        public void info(CharSequence content) {
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        @Override
+        public void debug(CharSequence content) {
+        }
+    }
+}
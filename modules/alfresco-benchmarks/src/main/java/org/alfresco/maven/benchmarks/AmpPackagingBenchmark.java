@@ -0,0 +1,96 @@
+package org.alfresco.maven.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.maven.plugin.archiver.AmpArchiver;
+import org.alfresco.maven.plugin.archiver.ParallelZipWriter;
+import org.apache.commons.io.FileUtils;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time taken to package the content of a synthetic AMP, as the amp goal does, with the plexus
+ * archiver (the default), the parallel archiver and the parallel archiver producing reproducible AMPs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AmpPackagingBenchmark {
+
+    @Param({"500", "5000"})
+    public int fileCount;
+
+    @Param({"10"})
+    public int jarCount;
+
+    /** Size of each web asset, in KB */
+    @Param({"64"})
+    public int assetSize;
+
+    @Param({"0"})
+    public int threads;
+
+    private File workDirectory;
+    private File ampDirectory;
+    private File ampFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        workDirectory = Files.createTempDirectory("amp-packaging").toFile();
+        ampDirectory = new File(workDirectory, "amp");
+        ampFile = new File(workDirectory, "benchmark.amp");
+        new SyntheticAmp("benchmark", fileCount, jarCount, assetSize).createTree(ampDirectory);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(workDirectory);
+    }
+
+    @Benchmark
+    public long plexusArchiver() throws Exception {
+        AmpArchiver archiver = new AmpArchiver();
+        archiver.enableLogging(new ConsoleLogger(Logger.LEVEL_WARN, "amp"));
+        archiver.setDestFile(ampFile);
+        archiver.setForced(true);
+        archiver.addDirectory(ampDirectory, "", new String[]{"**"}, new String[0]);
+        archiver.createArchive();
+        return ampFile.length();
+    }
+
+    @Benchmark
+    public long parallelArchiver() throws IOException {
+        ParallelZipWriter writer = new ParallelZipWriter(ampFile, threads);
+        writer.addDirectory(ampDirectory, "", new String[]{"**"}, new String[0]);
+        writer.write();
+        return ampFile.length();
+    }
+
+    @Benchmark
+    public long reproducibleArchiver() throws IOException {
+        ParallelZipWriter writer = new ParallelZipWriter(ampFile, threads);
+        writer.setSorted(true);
+        writer.setFixedTime(318211200000L);
+        writer.addDirectory(ampDirectory, "", new String[]{"**"}, new String[0]);
+        writer.write();
+        return ampFile.length();
+    }
+}
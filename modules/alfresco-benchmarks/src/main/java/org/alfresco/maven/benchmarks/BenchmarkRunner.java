@@ -0,0 +1,31 @@
+package org.alfresco.maven.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.openjdk.jmh.Main;
+
+/**
+ * Runs the benchmarks with the JMH command line (see java -jar benchmarks.jar -h), writing the results as JSON to
+ * jmh-result.json unless another result format or file is given, so that they can be compared between releases.
+ * <p/>
+ * The size of the synthetic AMPs is set with JMH parameters, e.g. -p fileCount=1000 -p jarCount=50 -p assetSize=256
+ */
+public class BenchmarkRunner {
+
+    static final String RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<String>(Arrays.asList(args));
+        if (!options.contains("-rf")) {
+            options.add("-rf");
+            options.add("json");
+        }
+        if (!options.contains("-rff")) {
+            options.add("-rff");
+            options.add(RESULT_FILE);
+        }
+        Main.main(options.toArray(new String[options.size()]));
+    }
+}
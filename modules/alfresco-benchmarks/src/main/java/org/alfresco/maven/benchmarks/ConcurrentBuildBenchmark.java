@@ -0,0 +1,173 @@
+package org.alfresco.maven.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.alfresco.maven.plugin.archiver.AmpUnArchiver;
+import org.alfresco.maven.plugin.archiver.ParallelZipWriter;
+import org.alfresco.maven.plugin.install.InstalledModule;
+import org.alfresco.maven.plugin.install.WarOverlayEngine;
+import org.apache.commons.io.FileUtils;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Stress test of the plugin under parallel reactor builds (mvn -T): many generated AMP modules are packaged
+ * (reproducibly) and overlaid onto a WAR of their own by the AMP unarchiver at the same time, one thread per
+ * module as Maven does, and compared with the same build run on a single thread.
+ * <p/>
+ * Every invocation checks that each AMP is identical to the one built single threaded and that each WAR holds
+ * its module (and no other), failing the run otherwise, so that state shared between modules shows up as an
+ * error rather than as a faster build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConcurrentBuildBenchmark {
+
+    /** Number of AMP modules in the reactor */
+    @Param({"16"})
+    public int modules;
+
+    /** Number of modules built at the same time, 0 for one per core (as -T 1C) */
+    @Param({"1", "0"})
+    public int threads;
+
+    @Param({"500"})
+    public int fileCount;
+
+    @Param({"5"})
+    public int jarCount;
+
+    /** Size of each web asset, in KB */
+    @Param({"64"})
+    public int assetSize;
+
+    private File workDirectory;
+    private File baseWar;
+    private List<Module> reactor;
+    private ExecutorService executor;
+
+    @Setup
+    public void setUp() throws IOException {
+        workDirectory = Files.createTempDirectory("concurrent-build").toFile();
+        baseWar = SyntheticAmp.createWar(new File(workDirectory, "war"));
+        reactor = new ArrayList<Module>();
+        for (int i = 0; i < modules; i++) {
+            Module module = new Module(new SyntheticAmp("module" + i, fileCount, jarCount, assetSize), new File(workDirectory, "module" + i));
+            module.amp.createTree(module.ampDirectory);
+            module.packageAmp(module.expectedAmp);
+            reactor.add(module);
+        }
+        executor = Executors.newFixedThreadPool(threads > 0 ? threads : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Resets the WAR of every module; not part of the measured time
+     */
+    @Setup(Level.Invocation)
+    public void cleanWars() throws IOException {
+        for (Module module : reactor) {
+            FileUtils.deleteDirectory(module.war);
+            FileUtils.copyDirectory(baseWar, module.war);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        FileUtils.deleteDirectory(workDirectory);
+    }
+
+    @Benchmark
+    public int build() throws Exception {
+        List<Future<Void>> builds = new ArrayList<Future<Void>>();
+        for (final Module module : reactor) {
+            builds.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    module.build();
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> build : builds) {
+            try {
+                build.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Concurrent module build failed", e.getCause());
+            }
+        }
+        return builds.size();
+    }
+
+    /**
+     * A module of the reactor, building its AMP and overlaying it onto its WAR
+     */
+    private static class Module {
+
+        private final SyntheticAmp amp;
+        private final File ampDirectory;
+        private final File ampFile;
+        private final File expectedAmp;
+        private final File war;
+
+        Module(SyntheticAmp amp, File directory) {
+            this.amp = amp;
+            this.ampDirectory = new File(directory, "amp");
+            this.ampFile = new File(directory, amp.getModuleId() + ".amp");
+            this.expectedAmp = new File(directory, "expected.amp");
+            this.war = new File(directory, "war");
+        }
+
+        void packageAmp(File target) throws IOException {
+            ParallelZipWriter writer = new ParallelZipWriter(target, 1);
+            writer.setSorted(true);
+            writer.setFixedTime(318211200000L);
+            writer.addDirectory(ampDirectory, "", new String[]{"**"}, new String[0]);
+            writer.write();
+        }
+
+        void build() throws IOException {
+            packageAmp(ampFile);
+            if (!FileUtils.contentEquals(ampFile, expectedAmp)) {
+                throw new IllegalStateException(ampFile + " differs from the AMP built single threaded");
+            }
+            // One unarchiver per overlay, as the per-lookup component is
+            AmpUnArchiver unArchiver = new AmpUnArchiver();
+            unArchiver.enableLogging(new ConsoleLogger(Logger.LEVEL_WARN, amp.getModuleId()));
+            unArchiver.setSourceFile(ampFile);
+            unArchiver.setDestDirectory(war);
+            unArchiver.extract();
+            if (InstalledModule.read(war, amp.getModuleId()) == null
+                    || !WarOverlayEngine.getInstalledModules(war).equals(Collections.singleton(amp.getModuleId()))) {
+                throw new IllegalStateException(war + " does not hold exactly " + amp.getModuleId());
+            }
+        }
+    }
+}
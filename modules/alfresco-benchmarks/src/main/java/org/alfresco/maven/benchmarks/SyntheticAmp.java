@@ -0,0 +1,119 @@
+package org.alfresco.maven.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.alfresco.maven.plugin.archiver.ParallelZipWriter;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Generates the content of an AMP (as found in target/${project.build.finalName} before packaging) and of the
+ * WAR it is installed onto, with a configurable number of files, dependency JARs and size of web assets.
+ * Content is generated from a fixed seed, so that every benchmark run works on the same files.
+ */
+public class SyntheticAmp {
+
+    private static final long SEED = 42L;
+    private static final String TEXT = "<bean id=\"module.component\" class=\"org.alfresco.module.Component\" parent=\"baseComponent\"/>\n";
+
+    private final String moduleId;
+    private final int fileCount;
+    private final int jarCount;
+    private final int assetSize;
+
+    /**
+     * @param moduleId  the id of the module
+     * @param fileCount the number of configuration and web script files (text, compressing well)
+     * @param jarCount  the number of dependency JARs in lib (about 100 KB each)
+     * @param assetSize the size in KB of each web asset (random bytes, as images, not compressing)
+     */
+    public SyntheticAmp(String moduleId, int fileCount, int jarCount, int assetSize) {
+        this.moduleId = moduleId;
+        this.fileCount = fileCount;
+        this.jarCount = jarCount;
+        this.assetSize = assetSize;
+    }
+
+    public String getModuleId() {
+        return moduleId;
+    }
+
+    /**
+     * Writes the AMP content (module.properties, config, lib and web folders) into a folder
+     */
+    public void createTree(File directory) throws IOException {
+        Random random = new Random(SEED);
+        FileUtils.writeStringToFile(new File(directory, "module.properties"), "module.id=" + moduleId
+                + "\nmodule.version=1.0\nmodule.title=" + moduleId + "\nmodule.description=Synthetic benchmark module\n", "UTF-8");
+        for (int i = 0; i < fileCount; i++) {
+            String folder = i % 2 == 0
+                    ? "config/alfresco/module/" + moduleId + "/context/part" + (i % 10)
+                    : "config/alfresco/extension/templates/webscripts/" + moduleId + "/ws" + (i % 20);
+            StringBuilder content = new StringBuilder();
+            for (int lines = 20 + random.nextInt(200); lines > 0; lines--) {
+                content.append(TEXT);
+            }
+            FileUtils.writeStringToFile(new File(directory, folder + "/file" + i + (i % 2 == 0 ? ".xml" : ".ftl")),
+                    content.toString(), "UTF-8");
+        }
+        for (int i = 0; i < jarCount; i++) {
+            createJar(new File(directory, "lib/dependency-" + i + ".jar"), random);
+        }
+        for (int i = 0; i < Math.max(1, fileCount / 10); i++) {
+            byte[] asset = new byte[assetSize * 1024];
+            random.nextBytes(asset);
+            FileUtils.writeByteArrayToFile(new File(directory, "web/images/" + moduleId + "/asset" + i + ".png"), asset);
+        }
+    }
+
+    /**
+     * Writes the AMP content into a folder and packages it as an AMP
+     */
+    public File createAmp(File directory, File ampFile) throws IOException {
+        createTree(directory);
+        ParallelZipWriter writer = new ParallelZipWriter(ampFile, 1);
+        writer.addDirectory(directory, "", new String[]{"**"}, new String[0]);
+        writer.write();
+        return ampFile;
+    }
+
+    /**
+     * Writes a minimal exploded WAR, holding the usual Alfresco folders, for the AMP to be installed onto
+     */
+    public static File createWar(File directory) throws IOException {
+        FileUtils.writeStringToFile(new File(directory, "META-INF/MANIFEST.MF"), "Manifest-Version: 1.0\n", "UTF-8");
+        FileUtils.writeStringToFile(new File(directory, "WEB-INF/web.xml"), "<web-app/>\n", "UTF-8");
+        FileUtils.writeStringToFile(new File(directory, "WEB-INF/classes/alfresco/web-client-config.xml"), "<config/>\n", "UTF-8");
+        new File(directory, "WEB-INF/lib").mkdirs();
+        new File(directory, "images").mkdirs();
+        return directory;
+    }
+
+    private static void createJar(File jar, Random random) throws IOException {
+        jar.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(jar);
+        try {
+            ZipOutputStream zip = new ZipOutputStream(out);
+            for (int i = 0; i < 50; i++) {
+                byte[] content = new byte[2048];
+                random.nextBytes(content);
+                // Class files compress to about half their size
+                for (int j = 0; j < content.length; j += 2) {
+                    content[j] = 0;
+                }
+                zip.putNextEntry(new ZipEntry("org/example/" + jar.getName().replace(".jar", "") + "/Class" + i + ".class"));
+                zip.write(content);
+                zip.closeEntry();
+            }
+            zip.finish();
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package org.alfresco.maven.rad;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A long running JVM keeping the Alfresco application context warm for the tests of the enable-alfresco-testing
+ * profile, started from the module with (see the alfresco-test-daemon profile of the SDK parent POM):
+ * <pre>
+ * mvn process-test-classes -Palfresco-test-daemon
+ * </pre>
+ * It runs a {@link PooledRemoteServer} with the test classpath of the module, listening on the loopback interface
+ * and accepting test classes from the clients knowing the shared secret of the user: {@link PooledRemoteTestRunner}s
+ * finding no webapp server ship their compiled test classes to the daemon instead, which loads them in a
+ * disposable {@link ShippedClassLoader} on top of the module classes. The Spring contexts loaded by the tests (e.g.
+ * alfresco/application-context.xml) are kept by the test context cache of the daemon JVM, so the repository is only
+ * bootstrapped by the first run; the next mvn test runs only pay for the tests themselves, even when the test
+ * classes changed.
+ * <p/>
+ * Changes to the main classes or to the configuration of the module are not picked up: restart the daemon.
+ */
+public class AlfrescoTestDaemon {
+
+    public static final int DEFAULT_PORT = 4580;
+
+    /**
+     * @param args the port (4580 by default) and the number of test classes run at the same time (the number of
+     *             processors by default)
+     */
+    public static void main(String[] args) throws InterruptedException {
+        final PooledRemoteServer server = new PooledRemoteServer();
+        server.setPort(args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT);
+        if (args.length > 1) {
+            server.setWorkers(Integer.parseInt(args[1]));
+        }
+        server.setAcceptTestClasses(true);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.stop();
+                stopped.countDown();
+            }
+        });
+        server.start();
+        System.out.println("Alfresco test daemon started, press Ctrl+C to stop it");
+        stopped.await();
+    }
+}
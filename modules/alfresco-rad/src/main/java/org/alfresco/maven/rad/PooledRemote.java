@@ -0,0 +1,38 @@
+package org.alfresco.maven.rad;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.junit.runner.Runner;
+import org.junit.runners.BlockJUnit4ClassRunner;
+
+/**
+ * Configures the remote execution of a test class run with the {@link PooledRemoteTestRunner}, or of a
+ * {@link PooledRemoteSuite}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface PooledRemote {
+
+    /**
+     * The runner the test class is run with inside the webapp (and locally when no server is reachable),
+     * e.g. SpringJUnit4ClassRunner
+     */
+    Class<? extends Runner> runnerClass() default BlockJUnit4ClassRunner.class;
+
+    /**
+     * The host:port of the {@link PooledRemoteServer}(s) to run the tests on; test classes are spread across them.
+     * Overridden by the alfresco.rad.endpoints system property (comma separated)
+     */
+    String[] endpoints() default {"localhost:" + PooledRemoteServer.DEFAULT_PORT};
+
+    /**
+     * For suites, the number of connections (and therefore of test classes run at the same time) to the servers.
+     * Overridden by the alfresco.rad.connections system property
+     */
+    int connections() default 4;
+}
@@ -0,0 +1,413 @@
+package org.alfresco.maven.rad;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.runner.Description;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Request;
+import org.junit.runner.Result;
+import org.junit.runner.Runner;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * Runs the tests sent by {@link PooledRemoteTestRunner}s inside the running webapp (see rad-context.xml), with the
+ * webapp classloader, so that tests can use the Alfresco application context.
+ * <p/>
+ * Unlike the junit-remote RemoteServer, which runs one test method at a time, the server accepts any number of
+ * connections, each carrying any number of test classes, and runs up to "workers" test classes at the same time.
+ * The events of each test (with its time) are streamed back to the client as they happen.
+ * <p/>
+ * The server only listens on the loopback interface, unless given another bind address, and only serves clients
+ * proving they know the shared secret of the user (see {@link RemoteTestProtocol}). Only servers accepting test
+ * classes (the {@link AlfrescoTestDaemon}) let clients ship their compiled test classes, which are loaded by a
+ * {@link ShippedClassLoader}; the server of the webapp runs the test classes deployed in the webapp.
+ */
+public class PooledRemoteServer {
+
+    public static final int DEFAULT_PORT = 4579;
+
+    /** Number of sets of shipped test classes kept loaded, e.g. from successive builds */
+    private static final int TEST_CLASS_LOADERS = 4;
+
+    /** Time given to clients to answer the handshake */
+    private static final int HANDSHAKE_TIMEOUT = 10000;
+
+    private boolean enabled = true;
+    private int port = DEFAULT_PORT;
+    private String bindAddress;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private boolean acceptTestClasses;
+
+    private byte[] secret;
+    private ClassLoader classLoader;
+    private ServerSocket serverSocket;
+    private ExecutorService connections;
+    private ExecutorService testWorkers;
+
+    /** Classloaders of the shipped test classes by fingerprint, least recently used first */
+    private final Map<String, ClassLoader> testClassLoaders = new LinkedHashMap<String, ClassLoader>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ClassLoader> eldest) {
+            return size() > TEST_CLASS_LOADERS;
+        }
+    };
+
+    /**
+     * @param enabled whether start actually starts the server
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    /**
+     * @param bindAddress the host name or address of the interface to listen on, the loopback interface if empty
+     */
+    public void setBindAddress(String bindAddress) {
+        this.bindAddress = bindAddress;
+    }
+
+    /**
+     * @param workers the number of test classes run at the same time, the number of processors if 0 or less
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @param acceptTestClasses whether clients may ship their test classes, which the server then loads and runs.
+     *                          Only enable it for servers started on purpose to run the tests of the user
+     */
+    public void setAcceptTestClasses(boolean acceptTestClasses) {
+        this.acceptTestClasses = acceptTestClasses;
+    }
+
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            secret = RemoteTestProtocol.getSecret();
+        } catch (IOException e) {
+            System.out.println("Could not read the shared secret of the JUnit pooled remote server: " + e);
+            return;
+        }
+        classLoader = Thread.currentThread().getContextClassLoader() != null
+                ? Thread.currentThread().getContextClassLoader() : getClass().getClassLoader();
+        InetSocketAddress address;
+        try {
+            address = new InetSocketAddress(bindAddress == null || bindAddress.trim().length() == 0
+                    ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bindAddress.trim()), port);
+            serverSocket = new ServerSocket();
+            serverSocket.setReuseAddress(true);
+            serverSocket.bind(address);
+        } catch (IOException e) {
+            System.out.println("Could not start the JUnit pooled remote server on port " + port + ": " + e);
+            return;
+        }
+        testWorkers = Executors.newFixedThreadPool(workers, daemonThreads("rad-test-worker"));
+        connections = Executors.newCachedThreadPool(daemonThreads("rad-test-connection"));
+        Thread acceptor = daemonThreads("rad-test-server").newThread(new Runnable() {
+            public void run() {
+                accept();
+            }
+        });
+        acceptor.start();
+        System.out.println("JUnit pooled remote server listening on " + address + " with " + workers + " workers");
+    }
+
+    public void stop() {
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+            connections.shutdownNow();
+            testWorkers.shutdownNow();
+        }
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                connections.execute(new Runnable() {
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.out.println("JUnit pooled remote server could not accept a connection: " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the requests of a connection one after the other, until the client closes it
+     */
+    private void serve(Socket socket) {
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT);
+            if (!authenticate(in, out)) {
+                System.out.println("JUnit pooled remote server rejected a connection from " + socket.getRemoteSocketAddress()
+                        + ": wrong shared secret");
+                return;
+            }
+            socket.setSoTimeout(0);
+            while (true) {
+                String command;
+                try {
+                    command = in.readUTF();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (!RemoteTestProtocol.RUN.equals(command)) {
+                    return;
+                }
+                final String className = in.readUTF();
+                final String runnerClassName = in.readUTF();
+                final long budget = in.readLong();
+                final Set<String> tests = new HashSet<String>();
+                for (int count = in.readInt(); count > 0; count--) {
+                    tests.add(in.readUTF());
+                }
+                final ClassLoader testClassLoader = readTestClasses(in);
+                try {
+                    testWorkers.submit(new Callable<Void>() {
+                        public Void call() throws Exception {
+                            run(testClassLoader, className, runnerClassName, budget, tests, out);
+                            return null;
+                        }
+                    }).get();
+                } catch (ExecutionException e) {
+                    out.writeUTF(RemoteTestProtocol.ERROR);
+                    RemoteTestProtocol.writeString(out, getTrace(e.getCause()));
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.out.println("JUnit pooled remote server connection failed: " + e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+
+    /**
+     * Challenges the client to prove it knows the shared secret
+     *
+     * @return whether it does
+     */
+    private boolean authenticate(DataInputStream in, DataOutputStream out) throws IOException {
+        byte[] challenge = RemoteTestProtocol.newChallenge();
+        out.writeUTF(RemoteTestProtocol.HELLO);
+        RemoteTestProtocol.writeBytes(out, challenge);
+        out.flush();
+        int length = in.readInt();
+        byte[] expected = RemoteTestProtocol.sign(secret, challenge);
+        if (length != expected.length) {
+            out.writeUTF(RemoteTestProtocol.DENIED);
+            out.flush();
+            return false;
+        }
+        byte[] answer = new byte[length];
+        in.readFully(answer);
+        if (!MessageDigest.isEqual(expected, answer)) {
+            out.writeUTF(RemoteTestProtocol.DENIED);
+            out.flush();
+            return false;
+        }
+        out.writeUTF(RemoteTestProtocol.ACCEPTED);
+        out.writeBoolean(acceptTestClasses);
+        out.flush();
+        return true;
+    }
+
+    /**
+     * Reads the test classes shipped with a request, if any
+     *
+     * @return the classloader to load the test classes with, null if the request refers to test classes shipped
+     *         earlier but since dropped
+     * @throws IOException if test classes are shipped to a server not accepting them
+     */
+    private ClassLoader readTestClasses(DataInputStream in) throws IOException {
+        String fingerprint = in.readUTF();
+        if (fingerprint.length() == 0) {
+            in.readInt();
+            return classLoader;
+        }
+        if (!acceptTestClasses) {
+            throw new IOException("test classes were shipped to a server not accepting them");
+        }
+        int count = in.readInt();
+        synchronized (testClassLoaders) {
+            if (count > 0) {
+                Map<String, byte[]> files = new HashMap<String, byte[]>();
+                for (; count > 0; count--) {
+                    files.put(in.readUTF(), RemoteTestProtocol.readBytes(in));
+                }
+                if (!testClassLoaders.containsKey(fingerprint)) {
+                    testClassLoaders.put(fingerprint, new ShippedClassLoader(classLoader, files));
+                }
+            }
+            return testClassLoaders.get(fingerprint);
+        }
+    }
+
+    /**
+     * @param budget the startup budget of the client, in milliseconds, 0 for none: the modules started by this JVM
+     *               (e.g. by the tests) over it fail the test class, as they would have failed the context started by
+     *               the client
+     */
+    private void run(ClassLoader testClassLoader, String className, String runnerClassName, long budget,
+                     final Set<String> tests, DataOutputStream out) throws Exception {
+        if (testClassLoader == null) {
+            throw new IllegalStateException("The test classes of " + className + " are no longer available, run the tests again");
+        }
+        Thread.currentThread().setContextClassLoader(testClassLoader);
+        Class<?> testClass = Class.forName(className, true, testClassLoader);
+        Runner runner = (Runner) Class.forName(runnerClassName, true, testClassLoader).getConstructor(Class.class).newInstance(testClass);
+        Request request = Request.runner(runner);
+        if (!tests.isEmpty()) {
+            request = request.filterWith(new Filter() {
+                @Override
+                public boolean shouldRun(Description description) {
+                    if (description.isTest()) {
+                        return tests.contains(description.getDisplayName());
+                    }
+                    for (Description child : description.getChildren()) {
+                        if (shouldRun(child)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+
+                @Override
+                public String describe() {
+                    return "tests " + tests;
+                }
+            });
+        }
+        JUnitCore core = new JUnitCore();
+        core.addListener(new StreamingListener(out));
+        Result result = core.run(request);
+        String overBudget = StartupProfiler.getBudgetFailure(budget);
+        if (overBudget != null) {
+            out.writeUTF(RemoteTestProtocol.FAILED);
+            out.writeUTF(className);
+            RemoteTestProtocol.writeString(out, overBudget);
+        }
+        out.writeUTF(RemoteTestProtocol.DONE);
+        out.writeLong(result.getRunTime());
+    }
+
+    private static String getTrace(Throwable throwable) {
+        StringWriter trace = new StringWriter();
+        throwable.printStackTrace(new PrintWriter(trace));
+        return trace.toString();
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * Streams the events of a run to the client, with the time of each test
+     */
+    private static class StreamingListener extends RunListener {
+
+        private final DataOutputStream out;
+        private final Map<Description, Long> starts = new HashMap<Description, Long>();
+
+        StreamingListener(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void testStarted(Description description) throws Exception {
+            starts.put(description, System.currentTimeMillis());
+            out.writeUTF(RemoteTestProtocol.STARTED);
+            out.writeUTF(description.getDisplayName());
+        }
+
+        @Override
+        public void testFailure(Failure failure) throws Exception {
+            out.writeUTF(RemoteTestProtocol.FAILED);
+            out.writeUTF(failure.getDescription().getDisplayName());
+            RemoteTestProtocol.writeString(out, failure.getTrace());
+        }
+
+        @Override
+        public void testAssumptionFailure(Failure failure) {
+            try {
+                out.writeUTF(RemoteTestProtocol.ASSUMPTION_FAILED);
+                out.writeUTF(failure.getDescription().getDisplayName());
+                RemoteTestProtocol.writeString(out, failure.getTrace());
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void testIgnored(Description description) throws Exception {
+            out.writeUTF(RemoteTestProtocol.IGNORED);
+            out.writeUTF(description.getDisplayName());
+        }
+
+        @Override
+        public void testFinished(Description description) throws Exception {
+            Long start = starts.remove(description);
+            out.writeUTF(RemoteTestProtocol.FINISHED);
+            out.writeUTF(description.getDisplayName());
+            out.writeLong(start != null ? System.currentTimeMillis() - start : 0);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package org.alfresco.maven.rad;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.runner.Description;
+import org.junit.runner.manipulation.Sorter;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runner.notification.StoppedByUserException;
+import org.junit.runners.Suite;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+import org.junit.runners.model.RunnerScheduler;
+
+/**
+ * Runs the test classes of a suite (run with the {@link PooledRemoteTestRunner}) on {@link PooledRemoteServer}s,
+ * several at a time: the classes are shared out, largest first, between "connections" threads, each taking the
+ * next class as soon as it is done with the previous one, over its own (reused) connection.
+ * <pre>
+ * &#64;RunWith(PooledRemoteSuite.class)
+ * &#64;PooledRemote(connections = 8)
+ * &#64;SuiteClasses({FirstComponentTest.class, SecondComponentTest.class})
+ * public class IntegrationSuite {
+ * </pre>
+ * Once run, the slowest tests are printed, and the time of every test is written as CSV to the file named by the
+ * alfresco.rad.timings system property, if set.
+ */
+public class PooledRemoteSuite extends Suite {
+
+    public static final String CONNECTIONS_PROPERTY = "alfresco.rad.connections";
+
+    private static final int SLOWEST_TESTS = 10;
+
+    private final int connections;
+
+    public PooledRemoteSuite(Class<?> klass, RunnerBuilder builder) throws InitializationError {
+        super(klass, builder);
+        PooledRemote remote = klass.getAnnotation(PooledRemote.class);
+        String connections = System.getProperty(CONNECTIONS_PROPERTY);
+        if (connections != null && connections.trim().length() > 0) {
+            this.connections = Integer.parseInt(connections.trim());
+        } else {
+            this.connections = remote != null ? remote.connections() : 4;
+        }
+        // Largest classes first, so that the last classes to finish are short ones
+        sort(new Sorter(new Comparator<Description>() {
+            public int compare(Description a, Description b) {
+                return b.testCount() - a.testCount();
+            }
+        }));
+        setScheduler(new RunnerScheduler() {
+
+            private ExecutorService executor;
+
+            public synchronized void schedule(Runnable childStatement) {
+                if (executor == null) {
+                    executor = Executors.newFixedThreadPool(Math.max(1, PooledRemoteSuite.this.connections));
+                }
+                executor.execute(childStatement);
+            }
+
+            public synchronized void finished() {
+                if (executor == null) {
+                    return;
+                }
+                executor.shutdown();
+                try {
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    executor.shutdownNow();
+                    Thread.currentThread().interrupt();
+                }
+                executor = null;
+            }
+        });
+    }
+
+    @Override
+    public void run(RunNotifier notifier) {
+        super.run(new SynchronizedRunNotifier(notifier));
+        try {
+            RemoteTestTimings.report(System.out, SLOWEST_TESTS);
+        } catch (IOException e) {
+            System.out.println("Could not write the remote test timings: " + e);
+        }
+    }
+
+    /**
+     * Serializes the events of the classes run at the same time, as run listeners are generally not thread safe
+     */
+    private static class SynchronizedRunNotifier extends RunNotifier {
+
+        private final RunNotifier delegate;
+
+        SynchronizedRunNotifier(RunNotifier delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public synchronized void addListener(RunListener listener) {
+            delegate.addListener(listener);
+        }
+
+        @Override
+        public synchronized void removeListener(RunListener listener) {
+            delegate.removeListener(listener);
+        }
+
+        @Override
+        public synchronized void fireTestStarted(Description description) throws StoppedByUserException {
+            delegate.fireTestStarted(description);
+        }
+
+        @Override
+        public synchronized void fireTestFailure(Failure failure) {
+            delegate.fireTestFailure(failure);
+        }
+
+        @Override
+        public synchronized void fireTestAssumptionFailed(Failure failure) {
+            delegate.fireTestAssumptionFailed(failure);
+        }
+
+        @Override
+        public synchronized void fireTestIgnored(Description description) {
+            delegate.fireTestIgnored(description);
+        }
+
+        @Override
+        public synchronized void fireTestFinished(Description description) {
+            delegate.fireTestFinished(description);
+        }
+
+        @Override
+        public synchronized void pleaseStop() {
+            delegate.pleaseStop();
+        }
+    }
+}
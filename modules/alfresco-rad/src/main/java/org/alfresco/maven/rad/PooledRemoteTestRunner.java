@@ -0,0 +1,152 @@
+package org.alfresco.maven.rad;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.runner.Description;
+import org.junit.runner.Runner;
+import org.junit.runner.manipulation.Filter;
+import org.junit.runner.manipulation.Filterable;
+import org.junit.runner.manipulation.NoTestsRemainException;
+import org.junit.runner.manipulation.Sortable;
+import org.junit.runner.manipulation.Sorter;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.BlockJUnit4ClassRunner;
+import org.junit.runners.model.InitializationError;
+
+/**
+ * Runs a test class inside a running Alfresco, on a {@link PooledRemoteServer}, with the runner configured by
+ * {@link PooledRemote} (e.g. SpringJUnit4ClassRunner):
+ * <pre>
+ * &#64;RunWith(PooledRemoteTestRunner.class)
+ * &#64;PooledRemote(runnerClass = SpringJUnit4ClassRunner.class)
+ * &#64;ContextConfiguration("classpath:alfresco/application-context.xml")
+ * public class MyComponentTest {
+ * </pre>
+ * All the tests of the class are sent in a single request, over a pooled connection reused by the next classes, and
+ * their events are reported as the server runs them. Test classes run at the same time (e.g. by a
+ * {@link PooledRemoteSuite}, or by Surefire with parallel=classes) each use their own connection, and are run in
+ * parallel by the server workers. When no server is reachable the class is run on the {@link AlfrescoTestDaemon}
+ * (see the alfresco.rad.daemon system property) if one is running, otherwise locally, like the junit-remote
+ * RemoteTestRunner does.
+ * <p/>
+ * Unlike junit-remote, the compiled test classes are shipped to the {@link AlfrescoTestDaemon}, which loads them in a
+ * disposable classloader, so that it runs the test classes just compiled. The server of the webapp, which does not
+ * accept shipped classes, runs the test classes deployed in the webapp.
+ */
+public class PooledRemoteTestRunner extends Runner implements Filterable, Sortable {
+
+    public static final String ENDPOINTS_PROPERTY = "alfresco.rad.endpoints";
+
+    /** The host:port of the {@link AlfrescoTestDaemon} used when no endpoint is reachable, empty to disable it */
+    public static final String DAEMON_PROPERTY = "alfresco.rad.daemon";
+
+    private static final AtomicInteger NEXT_ENDPOINT = new AtomicInteger();
+
+    private final Class<?> testClass;
+    private final Class<? extends Runner> runnerClass;
+    private final String[] endpoints;
+    private final Runner delegate;
+
+    public PooledRemoteTestRunner(Class<?> testClass) throws InitializationError {
+        this.testClass = testClass;
+        PooledRemote remote = testClass.getAnnotation(PooledRemote.class);
+        this.runnerClass = remote != null ? remote.runnerClass() : BlockJUnit4ClassRunner.class;
+        String endpoints = System.getProperty(ENDPOINTS_PROPERTY);
+        if (endpoints != null && endpoints.trim().length() > 0) {
+            this.endpoints = endpoints.trim().split("\\s*,\\s*");
+        } else {
+            this.endpoints = remote != null ? remote.endpoints() : new String[]{"localhost:" + PooledRemoteServer.DEFAULT_PORT};
+        }
+        try {
+            this.delegate = runnerClass.getConstructor(Class.class).newInstance(testClass);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof InitializationError) {
+                throw (InitializationError) e.getCause();
+            }
+            throw new InitializationError(e.getCause());
+        } catch (Exception e) {
+            throw new InitializationError(e);
+        }
+    }
+
+    @Override
+    public Description getDescription() {
+        return delegate.getDescription();
+    }
+
+    /**
+     * @return the number of tests of the class, used by suites to run the largest classes first
+     */
+    @Override
+    public int testCount() {
+        return delegate.testCount();
+    }
+
+    public void filter(Filter filter) throws NoTestsRemainException {
+        filter.apply(delegate);
+    }
+
+    public void sort(Sorter sorter) {
+        sorter.apply(delegate);
+    }
+
+    @Override
+    public void run(RunNotifier notifier) {
+        Description description = getDescription();
+        Map<String, Description> descriptions = new HashMap<String, Description>();
+        List<String> tests = new ArrayList<String>();
+        collect(description, descriptions, tests);
+        // Spreads the test classes across the endpoints
+        String endpoint = endpoints[(NEXT_ENDPOINT.getAndIncrement() & Integer.MAX_VALUE) % endpoints.length];
+        RemoteConnection connection;
+        try {
+            connection = RemoteConnection.acquire(endpoint);
+        } catch (IOException e) {
+            String daemon = System.getProperty(DAEMON_PROPERTY, "localhost:" + AlfrescoTestDaemon.DEFAULT_PORT).trim();
+            try {
+                if (daemon.length() == 0) {
+                    throw e;
+                }
+                connection = RemoteConnection.acquire(daemon);
+            } catch (IOException daemonException) {
+                System.out.println("No JUnit pooled remote server found at " + endpoint + " (" + e.getMessage() + "), running "
+                        + testClass.getName() + " locally");
+                delegate.run(notifier);
+                return;
+            }
+            endpoint = daemon;
+        }
+        TestClasses testClasses;
+        try {
+            testClasses = TestClasses.forClass(testClass);
+        } catch (IOException e) {
+            System.out.println("Could not read the test classes of " + testClass.getName() + " (" + e.getMessage()
+                    + "), running them with the classes of " + endpoint);
+            testClasses = TestClasses.NONE;
+        }
+        try {
+            connection.run(testClass, runnerClass.getName(), description, descriptions, tests, testClasses, notifier);
+            RemoteConnection.release(connection);
+        } catch (IOException e) {
+            connection.close();
+            notifier.fireTestFailure(new Failure(description, e));
+        }
+    }
+
+    private static void collect(Description description, Map<String, Description> descriptions, List<String> tests) {
+        descriptions.put(description.getDisplayName(), description);
+        if (description.isTest()) {
+            tests.add(description.getDisplayName());
+        }
+        for (Description child : description.getChildren()) {
+            collect(child, descriptions, tests);
+        }
+    }
+}
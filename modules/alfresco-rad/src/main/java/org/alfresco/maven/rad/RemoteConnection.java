@@ -0,0 +1,223 @@
+package org.alfresco.maven.rad;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+
+/**
+ * A connection to a {@link PooledRemoteServer} (in the webapp or in the {@link AlfrescoTestDaemon}), authenticated
+ * with the shared secret, sending test classes (to servers accepting them) and replaying the events of their remote
+ * run.
+ * <p/>
+ * Connections are pooled per endpoint and reused by the test classes run one after the other (or at the same time,
+ * each on its own connection); they are closed when the JVM exits.
+ */
+class RemoteConnection {
+
+    private static final int CONNECT_TIMEOUT = 2000;
+
+    private static final ConcurrentMap<String, BlockingDeque<RemoteConnection>> IDLE = new ConcurrentHashMap<String, BlockingDeque<RemoteConnection>>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                for (BlockingDeque<RemoteConnection> connections : IDLE.values()) {
+                    for (RemoteConnection connection = connections.poll(); connection != null; connection = connections.poll()) {
+                        connection.close();
+                    }
+                }
+            }
+        });
+    }
+
+    private final String endpoint;
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    /** Fingerprints of the test classes already shipped over this connection */
+    private final Set<String> shipped = new HashSet<String>();
+    /** Whether the server loads the test classes shipped by the client, rather than running its own */
+    private final boolean acceptsTestClasses;
+
+    private RemoteConnection(String endpoint) throws IOException {
+        this.endpoint = endpoint;
+        int separator = endpoint.lastIndexOf(':');
+        String host = separator > 0 ? endpoint.substring(0, separator) : endpoint;
+        int port = separator > 0 ? Integer.parseInt(endpoint.substring(separator + 1)) : PooledRemoteServer.DEFAULT_PORT;
+        socket = new Socket();
+        socket.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT);
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        try {
+            acceptsTestClasses = handshake();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Answers the challenge of the server with the shared secret
+     *
+     * @return whether the server accepts shipped test classes
+     * @throws IOException if the server rejected the secret
+     */
+    private boolean handshake() throws IOException {
+        if (!RemoteTestProtocol.HELLO.equals(in.readUTF())) {
+            throw new IOException("Not a JUnit pooled remote server");
+        }
+        byte[] challenge = RemoteTestProtocol.readBytes(in);
+        RemoteTestProtocol.writeBytes(out, RemoteTestProtocol.sign(RemoteTestProtocol.getSecret(), challenge));
+        out.flush();
+        if (!RemoteTestProtocol.ACCEPTED.equals(in.readUTF())) {
+            throw new IOException("The server rejected the shared secret, set the same " + RemoteTestProtocol.SECRET_PROPERTY
+                    + " system property on both sides");
+        }
+        return in.readBoolean();
+    }
+
+    /**
+     * @return an idle connection to the endpoint, or a new one
+     * @throws IOException if the endpoint cannot be reached
+     */
+    static RemoteConnection acquire(String endpoint) throws IOException {
+        RemoteConnection connection = getIdle(endpoint).pollFirst();
+        return connection != null ? connection : new RemoteConnection(endpoint);
+    }
+
+    /**
+     * Returns a connection to the pool once its run is over
+     */
+    static void release(RemoteConnection connection) {
+        getIdle(connection.endpoint).offerFirst(connection);
+    }
+
+    private static BlockingDeque<RemoteConnection> getIdle(String endpoint) {
+        BlockingDeque<RemoteConnection> idle = IDLE.get(endpoint);
+        if (idle == null) {
+            IDLE.putIfAbsent(endpoint, new LinkedBlockingDeque<RemoteConnection>());
+            idle = IDLE.get(endpoint);
+        }
+        return idle;
+    }
+
+    String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Runs tests of a class remotely, firing their events as they are received
+     *
+     * @param descriptions the descriptions of the class and of its tests, by display name
+     * @param tests        the display names of the tests to run
+     * @param testClasses  the test classes to run the tests with, shipped unless already sent over this connection
+     */
+    void run(Class<?> testClass, String runnerClass, Description classDescription, Map<String, Description> descriptions,
+             Collection<String> tests, TestClasses testClasses, RunNotifier notifier) throws IOException {
+        out.writeUTF(RemoteTestProtocol.RUN);
+        out.writeUTF(testClass.getName());
+        out.writeUTF(runnerClass);
+        out.writeLong(Long.getLong(StartupProfiler.BUDGET_PROPERTY, 0));
+        out.writeInt(tests.size());
+        for (String test : tests) {
+            out.writeUTF(test);
+        }
+        // Servers not accepting test classes run their own
+        String fingerprint = acceptsTestClasses ? testClasses.getFingerprint() : "";
+        out.writeUTF(fingerprint);
+        if (fingerprint.length() > 0 && shipped.add(fingerprint)) {
+            out.writeInt(testClasses.getFiles().size());
+            for (Map.Entry<String, byte[]> file : testClasses.getFiles().entrySet()) {
+                out.writeUTF(file.getKey());
+                RemoteTestProtocol.writeBytes(out, file.getValue());
+            }
+        } else {
+            out.writeInt(0);
+        }
+        out.flush();
+        String status = RemoteTestTimings.PASSED;
+        while (true) {
+            String event = in.readUTF();
+            if (RemoteTestProtocol.DONE.equals(event)) {
+                in.readLong();
+                return;
+            }
+            if (RemoteTestProtocol.ERROR.equals(event)) {
+                // e.g. the server dropped the test classes: ship them again next time
+                shipped.clear();
+                notifier.fireTestFailure(new Failure(classDescription, new RemoteTestException(RemoteTestProtocol.readString(in))));
+                return;
+            }
+            String name = in.readUTF();
+            Description description = descriptions.containsKey(name) ? descriptions.get(name) : classDescription;
+            if (RemoteTestProtocol.STARTED.equals(event)) {
+                status = RemoteTestTimings.PASSED;
+                notifier.fireTestStarted(description);
+            } else if (RemoteTestProtocol.FAILED.equals(event)) {
+                status = RemoteTestTimings.FAILED;
+                notifier.fireTestFailure(new Failure(description, new RemoteTestException(RemoteTestProtocol.readString(in))));
+            } else if (RemoteTestProtocol.ASSUMPTION_FAILED.equals(event)) {
+                status = RemoteTestTimings.SKIPPED;
+                notifier.fireTestAssumptionFailed(new Failure(description, new RemoteTestException(RemoteTestProtocol.readString(in))));
+            } else if (RemoteTestProtocol.IGNORED.equals(event)) {
+                RemoteTestTimings.record(testClass.getName(), name, RemoteTestTimings.IGNORED, 0, endpoint);
+                notifier.fireTestIgnored(description);
+            } else if (RemoteTestProtocol.FINISHED.equals(event)) {
+                RemoteTestTimings.record(testClass.getName(), name, status, in.readLong(), endpoint);
+                notifier.fireTestFinished(description);
+            } else {
+                throw new IOException("Unexpected remote test event " + event);
+            }
+        }
+    }
+
+    void close() {
+        try {
+            out.writeUTF(RemoteTestProtocol.CLOSE);
+            out.flush();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Closing anyway
+        }
+    }
+
+    /**
+     * A failure of a remote test, carrying its remote stack trace as message
+     */
+    static class RemoteTestException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        RemoteTestException(String trace) {
+            super(trace);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            // The local stack trace is meaningless
+            return this;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.alfresco.maven.rad;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.UUID;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The messages exchanged between the {@link PooledRemoteTestRunner} and the {@link PooledRemoteServer}.
+ * <p/>
+ * A connection starts with a handshake proving that the client knows the shared secret (see {@link #getSecret()}):
+ * the server sends HELLO and a random challenge, the client answers with the HMAC-SHA256 of the challenge keyed
+ * with the secret, and the server answers ACCEPTED, followed by whether it accepts shipped test classes, or DENIED
+ * and closes the connection. Nothing else is read from the client before.
+ * <p/>
+ * A connection then carries any number of requests, one after the other: RUN, the test class name, the runner class
+ * name, the startup budget of the client (see {@link StartupProfiler}, 0 for none), the display names of the tests to
+ * run (all of them if none), then the fingerprint of the test classes folder
+ * the class comes from (empty to use the classes of the server) and the number of files of that folder followed by
+ * their path and content; files are only sent (otherwise their number is 0) with the first request of the connection
+ * using that fingerprint, and only to servers accepting them (otherwise the fingerprint is empty). The server answers each request with the events of the run (STARTED, FAILED,
+ * ASSUMPTION_FAILED, IGNORED, FINISHED with the test time), followed by a FAILED of the class itself when the
+ * modules started by the server are over the budget, and ended by DONE (with the run time) or ERROR (with the
+ * stack trace) when the class could not be run at all. CLOSE ends the connection.
+ */
+final class RemoteTestProtocol {
+
+    /**
+     * System property holding the shared secret; when not set, the secret is read from (or, the first time,
+     * generated into) SECRET_FILE in the user home, which only the user can read
+     */
+    static final String SECRET_PROPERTY = "alfresco.rad.secret";
+    static final String SECRET_FILE = ".m2/alfresco-rad.secret";
+
+    static final String HELLO = "hello";
+    static final String ACCEPTED = "accepted";
+    static final String DENIED = "denied";
+
+    static final String RUN = "run";
+    static final String CLOSE = "close";
+
+    static final String STARTED = "started";
+    static final String FAILED = "failed";
+    static final String ASSUMPTION_FAILED = "assumption-failed";
+    static final String IGNORED = "ignored";
+    static final String FINISHED = "finished";
+    static final String DONE = "done";
+    static final String ERROR = "error";
+
+    private static final String HMAC = "HmacSHA256";
+    private static final int SECRET_SIZE = 32;
+
+    private RemoteTestProtocol() {
+    }
+
+    /**
+     * @return the secret shared by the clients and servers of the user, from the alfresco.rad.secret system property
+     *         or from the secret file (created if missing)
+     */
+    static byte[] getSecret() throws IOException {
+        String secret = System.getProperty(SECRET_PROPERTY);
+        if (secret != null && secret.trim().length() > 0) {
+            return secret.trim().getBytes("UTF-8");
+        }
+        Path file = new File(System.getProperty("user.home"), SECRET_FILE).toPath();
+        if (!Files.isRegularFile(file)) {
+            createSecret(file);
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length == 0) {
+            throw new IOException("The shared secret file " + file + " is empty");
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes a random secret, only readable by the user when the file system supports POSIX permissions, to a
+     * temporary file then moved in place, so that clients and servers never read a partial secret
+     */
+    private static void createSecret(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID());
+        if (Files.getFileAttributeView(file.getParent(), PosixFileAttributeView.class) != null) {
+            Files.createFile(temp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(temp);
+        }
+        try {
+            byte[] random = new byte[SECRET_SIZE];
+            new SecureRandom().nextBytes(random);
+            StringBuilder secret = new StringBuilder();
+            for (byte b : random) {
+                secret.append(String.format("%02x", b));
+            }
+            Files.write(temp, secret.toString().getBytes("US-ASCII"));
+            try {
+                Files.move(temp, file);
+            } catch (FileAlreadyExistsException e) {
+                // Created at the same time by another JVM: use that one
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * @return a random challenge for the handshake
+     */
+    static byte[] newChallenge() {
+        byte[] challenge = new byte[SECRET_SIZE];
+        new SecureRandom().nextBytes(challenge);
+        return challenge;
+    }
+
+    /**
+     * @return the answer to a handshake challenge, the HMAC-SHA256 of the challenge keyed with the secret
+     */
+    static byte[] sign(byte[] secret, byte[] challenge) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(new SecretKeySpec(secret, HMAC));
+            return mac.doFinal(challenge);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(HMAC + " is not available", e);
+        }
+    }
+
+    /**
+     * Writes a string of any length (writeUTF is limited to 64 KB, which stack traces can exceed)
+     */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value.getBytes("UTF-8"));
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), "UTF-8");
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
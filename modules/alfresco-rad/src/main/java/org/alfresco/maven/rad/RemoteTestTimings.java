@@ -0,0 +1,136 @@
+package org.alfresco.maven.rad;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The time of each test run remotely in this JVM, as measured inside the webapp, so that the slowest tests
+ * (and the balance of the test classes across connections) can be looked at.
+ * <p/>
+ * The {@link PooledRemoteSuite} prints the slowest tests once run, and writes all timings as CSV to the file named
+ * by the alfresco.rad.timings system property, if set.
+ */
+public final class RemoteTestTimings {
+
+    public static final String TIMINGS_PROPERTY = "alfresco.rad.timings";
+
+    static final String PASSED = "passed";
+    static final String FAILED = "failed";
+    static final String SKIPPED = "skipped";
+    static final String IGNORED = "ignored";
+
+    static final String CSV_HEADER = "class,test,status,elapsedMs,endpoint";
+
+    private static final ConcurrentLinkedQueue<Timing> TIMINGS = new ConcurrentLinkedQueue<Timing>();
+
+    private RemoteTestTimings() {
+    }
+
+    static void record(String testClass, String test, String status, long elapsed, String endpoint) {
+        TIMINGS.add(new Timing(testClass, test, status, elapsed, endpoint));
+    }
+
+    /**
+     * @return the timings recorded so far, slowest first
+     */
+    public static List<Timing> getTimings() {
+        List<Timing> timings = new ArrayList<Timing>(TIMINGS);
+        Collections.sort(timings, new Comparator<Timing>() {
+            public int compare(Timing a, Timing b) {
+                return a.elapsed > b.elapsed ? -1 : a.elapsed < b.elapsed ? 1 : 0;
+            }
+        });
+        return timings;
+    }
+
+    /**
+     * Prints the slowest tests and, if the alfresco.rad.timings system property is set, writes all timings to that file
+     */
+    static void report(PrintStream out, int slowest) throws IOException {
+        List<Timing> timings = getTimings();
+        long total = 0;
+        for (Timing timing : timings) {
+            total += timing.elapsed;
+        }
+        out.println("Ran " + timings.size() + " tests remotely (" + total + " ms of test time), slowest:");
+        for (Timing timing : timings.subList(0, Math.min(slowest, timings.size()))) {
+            out.println(String.format("  %8d ms  %s", timing.elapsed, timing.test));
+        }
+        String file = System.getProperty(TIMINGS_PROPERTY);
+        if (file == null || file.trim().length() == 0) {
+            return;
+        }
+        File csv = new File(file.trim());
+        if (csv.getAbsoluteFile().getParentFile() != null) {
+            csv.getAbsoluteFile().getParentFile().mkdirs();
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(csv), "UTF-8");
+        try {
+            writer.write(CSV_HEADER + "\n");
+            for (Timing timing : timings) {
+                writer.write(timing.testClass + "," + quote(timing.test) + "," + timing.status + "," + timing.elapsed + "," + timing.endpoint + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String quote(String value) {
+        return value.indexOf(',') < 0 && value.indexOf('"') < 0 ? value : "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * The time of a remote test
+     */
+    public static class Timing {
+
+        private final String testClass;
+        private final String test;
+        private final String status;
+        private final long elapsed;
+        private final String endpoint;
+
+        Timing(String testClass, String test, String status, long elapsed, String endpoint) {
+            this.testClass = testClass;
+            this.test = test;
+            this.status = status;
+            this.elapsed = elapsed;
+            this.endpoint = endpoint;
+        }
+
+        public String getTestClass() {
+            return testClass;
+        }
+
+        /**
+         * @return the display name of the test, e.g. testWiring(org.alfresco.demoamp.test.DemoComponentTest)
+         */
+        public String getTest() {
+            return test;
+        }
+
+        /**
+         * @return passed, failed, skipped (assumption failed) or ignored
+         */
+        public String getStatus() {
+            return status;
+        }
+
+        public long getElapsed() {
+            return elapsed;
+        }
+
+        public String getEndpoint() {
+            return endpoint;
+        }
+    }
+}
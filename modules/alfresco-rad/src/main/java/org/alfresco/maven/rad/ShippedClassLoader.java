@@ -0,0 +1,102 @@
+package org.alfresco.maven.rad;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+
+/**
+ * Loads the test classes (and test resources) shipped by a client, in preference to the ones found by its parent,
+ * the classloader of the webapp or of the {@link AlfrescoTestDaemon}: tests run the classes just compiled by the
+ * client, while everything else (Alfresco, the module classes, the cached Spring contexts) is shared.
+ * <p/>
+ * A new classloader is created for each set of test classes, and dropped once no longer used, so that changed test
+ * classes never clash with the ones loaded before. Shipped resources are served from memory, through URLs of the
+ * "shipped" protocol, so that they are found through getResource as well as getResourceAsStream.
+ */
+class ShippedClassLoader extends ClassLoader {
+
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String PROTOCOL = "shipped";
+
+    private final Map<String, byte[]> files;
+
+    /**
+     * @param files the shipped files, by path (e.g. org/alfresco/MyTest.class)
+     */
+    ShippedClassLoader(ClassLoader parent, Map<String, byte[]> files) {
+        super(parent);
+        this.files = files;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded == null) {
+                byte[] bytes = files.get(name.replace('.', '/') + CLASS_SUFFIX);
+                if (bytes == null) {
+                    return super.loadClass(name, resolve);
+                }
+                loaded = defineClass(name, bytes, 0, bytes.length);
+            }
+            if (resolve) {
+                resolveClass(loaded);
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * Shipped resources (e.g. test Spring contexts) are found before the parent's, like the shipped classes
+     */
+    @Override
+    public URL getResource(String name) {
+        URL url = findResource(name);
+        return url != null ? url : super.getResource(name);
+    }
+
+    @Override
+    protected URL findResource(String name) {
+        final byte[] bytes = files.get(name.startsWith("/") ? name.substring(1) : name);
+        if (bytes == null) {
+            return null;
+        }
+        try {
+            return new URL(PROTOCOL, null, -1, "/" + name, new URLStreamHandler() {
+                @Override
+                protected URLConnection openConnection(URL url) {
+                    return new URLConnection(url) {
+                        @Override
+                        public void connect() {
+                        }
+
+                        @Override
+                        public InputStream getInputStream() {
+                            return new ByteArrayInputStream(bytes);
+                        }
+
+                        @Override
+                        public int getContentLength() {
+                            return bytes.length;
+                        }
+                    };
+                }
+            });
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) throws IOException {
+        URL url = findResource(name);
+        return url != null ? Collections.enumeration(Collections.singletonList(url)) : Collections.<URL>emptyEnumeration();
+    }
+}
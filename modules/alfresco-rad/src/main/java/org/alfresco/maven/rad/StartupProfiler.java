@@ -0,0 +1,492 @@
+package org.alfresco.maven.rad;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.FatalBeanException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.BeanFactoryAware;
+import org.springframework.beans.factory.NoSuchBeanDefinitionException;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessorAdapter;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.Ordered;
+
+/**
+ * Times the startup of the modules: the instantiation (constructor), the initialization (init method and
+ * afterPropertiesSet) and the whole creation of every bean of the application context, less the creation of the
+ * beans it depends on, and the execution of every module component (AbstractModuleComponent, e.g. the
+ * DemoComponent executeInternal). Beans are attributed to the module whose alfresco/module/[module id] folder
+ * defines them (module-context.xml, service-context.xml...), components to their module id. Components are timed by
+ * wrapping the ModuleService bean they register with, so that the module service executes timing proxies of them.
+ * <p/>
+ * Enabled by importing classpath*:alfresco/rad/startup-profiler-context.xml from the module-context.xml (a no-op
+ * when alfresco-rad is not on the classpath). Once the context is refreshed, and the module components executed, the
+ * profiler prints a ranked report of the module startup, and writes it to the file named by the
+ * alfresco.rad.startup.report system property, if set. If the alfresco.rad.startup.budget system property is set (in
+ * milliseconds), a module startup over the budget fails the context refresh, and so the tests of the
+ * enable-alfresco-testing profile. The tests run remotely (see {@link PooledRemoteTestRunner}) send their budget to
+ * the server, which fails them when the context it started is over it (see {@link #getBudgetFailure}).
+ */
+public class StartupProfiler extends InstantiationAwareBeanPostProcessorAdapter implements BeanFactoryAware,
+        ApplicationContextAware, ApplicationListener<ContextRefreshedEvent>, Ordered {
+
+    public static final String BUDGET_PROPERTY = "alfresco.rad.startup.budget";
+    public static final String REPORT_PROPERTY = "alfresco.rad.startup.report";
+    public static final String TOP_PROPERTY = "alfresco.rad.startup.top";
+
+    static final String BEAN = "bean";
+    static final String COMPONENT = "component";
+
+    private static final String MODULE_COMPONENT = "org.alfresco.repo.module.AbstractModuleComponent";
+    private static final String MODULE_SERVICE = "org.alfresco.service.cmr.module.ModuleService";
+    private static final Pattern MODULE_RESOURCE = Pattern.compile("alfresco/module/([^/\\]]+)/");
+    private static final double MILLI = 1000000d;
+
+    /** The module startup of the last context profiled in this classloader, in nanoseconds, -1 if none yet */
+    private static volatile long lastModuleStartup = -1;
+
+    /** The beans being created by each thread, the bean depending on the others first */
+    private final ThreadLocal<List<Frame>> creations = new ThreadLocal<List<Frame>>() {
+        @Override
+        protected List<Frame> initialValue() {
+            return new ArrayList<Frame>();
+        }
+    };
+    private final List<Timing> timings = Collections.synchronizedList(new ArrayList<Timing>());
+    /** The components registered with the module service, to the proxies timing their execution */
+    private final Map<Object, Object> timedComponents = Collections.synchronizedMap(new IdentityHashMap<Object, Object>());
+    /** The module services, to the proxies registering the timing proxies of the components in their place */
+    private final Map<Object, Object> timingModuleServices = Collections.synchronizedMap(new IdentityHashMap<Object, Object>());
+    /** The module services whose proxy was exposed early (to resolve a circular reference), by Spring itself */
+    private final Set<Object> earlyModuleServices = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    private final long created = System.nanoTime();
+
+    private ConfigurableListableBeanFactory beanFactory;
+    private ApplicationContext applicationContext;
+    private long budget = Long.getLong(BUDGET_PROPERTY, 0);
+    private String reportFile = System.getProperty(REPORT_PROPERTY);
+    private int top = Integer.getInteger(TOP_PROPERTY, 20);
+    private volatile boolean reported;
+
+    public void setBeanFactory(BeanFactory beanFactory) {
+        if (beanFactory instanceof ConfigurableListableBeanFactory) {
+            this.beanFactory = (ConfigurableListableBeanFactory) beanFactory;
+        }
+    }
+
+    public void setApplicationContext(ApplicationContext applicationContext) {
+        this.applicationContext = applicationContext;
+    }
+
+    /**
+     * @param budget the maximum startup time of the modules, in milliseconds, 0 for none
+     */
+    public void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @param reportFile the file the report is written to, if any
+     */
+    public void setReportFile(String reportFile) {
+        this.reportFile = reportFile;
+    }
+
+    /**
+     * @param top the number of beans and components listed by the report
+     */
+    public void setTop(int top) {
+        this.top = top;
+    }
+
+    /**
+     * Reports after the other listeners, among which the module starter executing the module components
+     */
+    public int getOrder() {
+        return LOWEST_PRECEDENCE;
+    }
+
+    @Override
+    public Object postProcessBeforeInstantiation(Class<?> beanClass, String beanName) throws BeansException {
+        start(beanName);
+        return null;
+    }
+
+    @Override
+    public boolean postProcessAfterInstantiation(Object bean, String beanName) throws BeansException {
+        // Not called before instantiation when created again (prototypes, inner beans)
+        Frame frame = find(beanName);
+        if (frame == null) {
+            frame = start(beanName);
+        }
+        frame.instantiated = System.nanoTime();
+        frame.nestedAtInstantiation = frame.nested;
+        return true;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        Frame frame = find(beanName);
+        if (frame != null) {
+            frame.initializing = System.nanoTime();
+            frame.nestedAtInitialization = frame.nested;
+        }
+        return bean;
+    }
+
+    @Override
+    public Object getEarlyBeanReference(Object bean, String beanName) throws BeansException {
+        if (!implementsModuleService(bean.getClass())) {
+            return bean;
+        }
+        synchronized (earlyModuleServices) {
+            earlyModuleServices.add(bean);
+        }
+        return getTimingModuleService(bean);
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        Object processed = bean;
+        if (implementsModuleService(bean.getClass())) {
+            synchronized (earlyModuleServices) {
+                // Spring exposes the early reference in place of the bean returned as is
+                processed = earlyModuleServices.contains(bean) ? bean : getTimingModuleService(bean);
+            }
+        }
+        List<Frame> frames = creations.get();
+        Frame frame = find(beanName);
+        // Also called for the objects created by factory beans, which were not started
+        if (frame == null || frame.initializing == 0) {
+            return processed;
+        }
+        // Drops the beans whose creation failed
+        while (frames.get(frames.size() - 1) != frame) {
+            frames.remove(frames.size() - 1);
+        }
+        frames.remove(frames.size() - 1);
+        long end = System.nanoTime();
+        long total = end - frame.start;
+        if (!frames.isEmpty()) {
+            frames.get(frames.size() - 1).nested += total;
+        }
+        long instantiation = frame.instantiated > 0 ? frame.instantiated - frame.start - frame.nestedAtInstantiation : 0;
+        long initialization = end - frame.initializing - (frame.nested - frame.nestedAtInitialization);
+        timings.add(new Timing(BEAN, frame.module, beanName, total - frame.nested, instantiation, initialization));
+        return processed;
+    }
+
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        // Also notified of the refresh of the child contexts (e.g. subsystems)
+        if (event.getApplicationContext() != applicationContext || reported) {
+            return;
+        }
+        reported = true;
+        long moduleStartup = 0;
+        for (Timing timing : getTimings(true)) {
+            moduleStartup += timing.self;
+        }
+        lastModuleStartup = moduleStartup;
+        String report = getReport(moduleStartup);
+        System.out.println(report);
+        if (reportFile != null && reportFile.trim().length() > 0) {
+            File file = new File(reportFile.trim());
+            try {
+                file.getAbsoluteFile().getParentFile().mkdirs();
+                Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+                try {
+                    out.write(report);
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                System.out.println("Could not write the startup report to " + file + ": " + e);
+            }
+        }
+        String failure = getBudgetFailure(budget);
+        if (failure != null) {
+            throw new FatalBeanException(failure);
+        }
+    }
+
+    /**
+     * @param budget the maximum startup time of the modules, in milliseconds, 0 for none
+     * @return why the modules of the last context profiled in this classloader started over the budget, null if they
+     *         did not, or if no context was profiled
+     */
+    static String getBudgetFailure(long budget) {
+        long moduleStartup = lastModuleStartup;
+        if (budget <= 0 || moduleStartup < 0 || moduleStartup / MILLI <= budget) {
+            return null;
+        }
+        return String.format(Locale.ENGLISH, "The modules started in %.1f ms, over the startup budget of %d ms (%s)"
+                + " - see the startup report", moduleStartup / MILLI, budget, BUDGET_PROPERTY);
+    }
+
+    /**
+     * @return the timings of the module beans and components, or of the other beans, slowest first
+     */
+    List<Timing> getTimings(boolean modules) {
+        List<Timing> selected = new ArrayList<Timing>();
+        synchronized (timings) {
+            for (Timing timing : timings) {
+                if ((timing.module != null) == modules) {
+                    selected.add(timing);
+                }
+            }
+        }
+        Collections.sort(selected, new Comparator<Timing>() {
+            public int compare(Timing a, Timing b) {
+                return a.self > b.self ? -1 : a.self < b.self ? 1 : 0;
+            }
+        });
+        return selected;
+    }
+
+    String getReport(long moduleStartup) {
+        List<Timing> moduleTimings = getTimings(true);
+        List<Timing> otherTimings = getTimings(false);
+        StringBuilder report = new StringBuilder();
+        report.append(String.format(Locale.ENGLISH, "Module startup: %.1f ms%s, in a context refreshed in %.1f ms%n",
+                moduleStartup / MILLI, budget > 0 ? " (budget " + budget + " ms)" : "", (System.nanoTime() - created) / MILLI));
+
+        Map<String, long[]> modules = new TreeMap<String, long[]>();
+        for (Timing timing : moduleTimings) {
+            if (!modules.containsKey(timing.module)) {
+                // Beans, bean time, components, component time
+                modules.put(timing.module, new long[4]);
+            }
+            long[] module = modules.get(timing.module);
+            int offset = BEAN.equals(timing.kind) ? 0 : 2;
+            module[offset]++;
+            module[offset + 1] += timing.self;
+        }
+        report.append(String.format(Locale.ENGLISH, "%n%-30s %8s %10s %10s %13s %10s%n", "Module", "Beans", "Beans ms",
+                "Components", "Components ms", "Total ms"));
+        for (Map.Entry<String, long[]> module : modules.entrySet()) {
+            long[] values = module.getValue();
+            report.append(String.format(Locale.ENGLISH, "%-30s %8d %10.1f %10d %13.1f %10.1f%n", module.getKey(),
+                    values[0], values[1] / MILLI, values[2], values[3] / MILLI, (values[1] + values[3]) / MILLI));
+        }
+
+        report.append(String.format(Locale.ENGLISH, "%nSlowest module beans and components (self time, less the beans "
+                + "they depend on)%n"));
+        appendTimings(report, moduleTimings);
+        report.append(String.format(Locale.ENGLISH, "%nSlowest other beans%n"));
+        appendTimings(report, otherTimings);
+        return report.toString();
+    }
+
+    private void appendTimings(StringBuilder report, List<Timing> ranked) {
+        report.append(String.format(Locale.ENGLISH, "%10s %10s %10s  %-9s %-20s %s%n", "Self ms", "Create ms", "Init ms",
+                "Kind", "Module", "Name"));
+        for (Timing timing : ranked.subList(0, Math.min(top, ranked.size()))) {
+            report.append(String.format(Locale.ENGLISH, "%10.1f %10.1f %10.1f  %-9s %-20s %s%n", timing.self / MILLI,
+                    timing.instantiation / MILLI, timing.initialization / MILLI, timing.kind,
+                    timing.module != null ? timing.module : "-", timing.name));
+        }
+    }
+
+    private Frame start(String beanName) {
+        List<Frame> frames = creations.get();
+        Frame frame = new Frame(beanName, getModule(beanName, frames.isEmpty() ? null : frames.get(frames.size() - 1)));
+        frames.add(frame);
+        return frame;
+    }
+
+    private Frame find(String beanName) {
+        List<Frame> frames = creations.get();
+        for (int i = frames.size() - 1; i >= 0; i--) {
+            if (frames.get(i).beanName.equals(beanName)) {
+                return frames.get(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the id of the module defining a bean, the module of the enclosing bean for inner beans, or null
+     */
+    private String getModule(String beanName, Frame enclosing) {
+        if (beanFactory == null) {
+            return null;
+        }
+        try {
+            String resource = beanFactory.getBeanDefinition(beanName).getResourceDescription();
+            Matcher matcher = MODULE_RESOURCE.matcher(resource != null ? resource.replace('\\', '/') : "");
+            return matcher.find() ? matcher.group(1) : null;
+        } catch (NoSuchBeanDefinitionException e) {
+            return enclosing != null ? enclosing.module : null;
+        }
+    }
+
+    private static boolean isModuleComponent(Class<?> type) {
+        for (Class<?> superclass = type; superclass != null; superclass = superclass.getSuperclass()) {
+            if (MODULE_COMPONENT.equals(superclass.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the proxy of a module service registering the proxies timing the execution of the components in
+     *         their place: components are executed by the module service, at startup, rather than called by other beans
+     */
+    private Object getTimingModuleService(final Object moduleService) {
+        synchronized (timingModuleServices) {
+            Object timing = timingModuleServices.get(moduleService);
+            if (timing != null) {
+                return timing;
+            }
+            timing = Proxy.newProxyInstance(moduleService.getClass().getClassLoader(), getInterfaces(moduleService.getClass()),
+                    new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if ("registerComponent".equals(method.getName()) && args != null && args.length == 1
+                                    && args[0] != null && isModuleComponent(args[0].getClass())) {
+                                args = new Object[] { getTimedComponent(args[0]) };
+                            }
+                            try {
+                                return method.invoke(moduleService, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                        }
+                    });
+            timingModuleServices.put(moduleService, timing);
+            return timing;
+        }
+    }
+
+    /**
+     * @return the proxy timing the execution of a component, the same for all the components depending on it, so that
+     *         the module service sees a single object
+     */
+    private Object getTimedComponent(final Object component) {
+        synchronized (timedComponents) {
+            Object timed = timedComponents.get(component);
+            if (timed != null) {
+                return timed;
+            }
+            timed = Proxy.newProxyInstance(component.getClass().getClassLoader(), getInterfaces(component.getClass()),
+                    new InvocationHandler() {
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            if ("equals".equals(method.getName()) && args != null && args.length == 1) {
+                                return proxy == args[0];
+                            }
+                            if ("hashCode".equals(method.getName()) && args == null) {
+                                return System.identityHashCode(proxy);
+                            }
+                            long start = System.nanoTime();
+                            Object result;
+                            try {
+                                result = method.invoke(component, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                            if ("execute".equals(method.getName()) && args == null) {
+                                long elapsed = System.nanoTime() - start;
+                                String module = String.valueOf(component.getClass().getMethod("getModuleId").invoke(component));
+                                String name = String.valueOf(component.getClass().getMethod("getName").invoke(component));
+                                timings.add(new Timing(COMPONENT, module, name, elapsed, 0, elapsed));
+                            } else if ("getDependsOn".equals(method.getName()) && result instanceof List) {
+                                // The dependencies are executed first, through their proxies too
+                                List<Object> dependencies = new ArrayList<Object>();
+                                for (Object dependency : (List<?>) result) {
+                                    dependencies.add(isModuleComponent(dependency.getClass())
+                                            ? getTimedComponent(dependency) : dependency);
+                                }
+                                result = dependencies;
+                            }
+                            return result;
+                        }
+                    });
+            timedComponents.put(component, timed);
+            return timed;
+        }
+    }
+
+    private static Class<?>[] getInterfaces(Class<?> type) {
+        Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+        for (Class<?> superclass = type; superclass != null; superclass = superclass.getSuperclass()) {
+            Collections.addAll(interfaces, superclass.getInterfaces());
+        }
+        return interfaces.toArray(new Class<?>[0]);
+    }
+
+    private static boolean implementsModuleService(Class<?> type) {
+        for (Class<?> implemented : getInterfaces(type)) {
+            if (MODULE_SERVICE.equals(implemented.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A bean being created
+     */
+    private static class Frame {
+
+        final String beanName;
+        final String module;
+        final long start = System.nanoTime();
+        long instantiated;
+        long initializing;
+        /** The time spent creating the beans it depends on */
+        long nested;
+        long nestedAtInstantiation;
+        long nestedAtInitialization;
+
+        Frame(String beanName, String module) {
+            this.beanName = beanName;
+            this.module = module;
+        }
+    }
+
+    /**
+     * The startup time of a bean or module component, in nanoseconds
+     */
+    static class Timing {
+
+        final String kind;
+        final String module;
+        final String name;
+        final long self;
+        final long instantiation;
+        final long initialization;
+
+        Timing(String kind, String module, String name, long self, long instantiation, long initialization) {
+            this.kind = kind;
+            this.module = module;
+            this.name = name;
+            this.self = self;
+            this.instantiation = instantiation;
+            this.initialization = initialization;
+        }
+    }
+}
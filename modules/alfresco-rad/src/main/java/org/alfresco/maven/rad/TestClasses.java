@@ -0,0 +1,116 @@
+package org.alfresco.maven.rad;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The compiled test classes (and test resources) folder a test class was loaded from, shipped to the server running
+ * the test so that it runs the classes just compiled rather than the ones deployed in the webapp (which would
+ * otherwise have to be byte identical, e.g. kept in sync by JRebel).
+ * <p/>
+ * The folder is read once per JVM; its fingerprint (the hash of all its files) identifies it on the server.
+ */
+final class TestClasses {
+
+    /** Test classes not loaded from a folder (e.g. from a JAR) are not shipped */
+    static final TestClasses NONE = new TestClasses("", Collections.<String, byte[]>emptyMap());
+
+    private static final ConcurrentMap<File, TestClasses> FOLDERS = new ConcurrentHashMap<File, TestClasses>();
+
+    private final String fingerprint;
+    private final Map<String, byte[]> files;
+
+    private TestClasses(String fingerprint, Map<String, byte[]> files) {
+        this.fingerprint = fingerprint;
+        this.files = files;
+    }
+
+    /**
+     * @return the test classes folder the class was loaded from
+     */
+    static TestClasses forClass(Class<?> testClass) throws IOException {
+        CodeSource codeSource = testClass.getProtectionDomain().getCodeSource();
+        URL location = codeSource != null ? codeSource.getLocation() : null;
+        if (location == null || !"file".equals(location.getProtocol())) {
+            return NONE;
+        }
+        File folder;
+        try {
+            folder = new File(location.toURI());
+        } catch (URISyntaxException e) {
+            return NONE;
+        }
+        if (!folder.isDirectory()) {
+            return NONE;
+        }
+        TestClasses classes = FOLDERS.get(folder);
+        if (classes == null) {
+            Map<String, byte[]> files = new TreeMap<String, byte[]>();
+            read(folder, "", files);
+            FOLDERS.putIfAbsent(folder, new TestClasses(fingerprint(files), files));
+            classes = FOLDERS.get(folder);
+        }
+        return classes;
+    }
+
+    /**
+     * @return the hash of the files, empty if there are none
+     */
+    String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return the content of the files, by path relative to the folder (e.g. org/alfresco/MyTest.class)
+     */
+    Map<String, byte[]> getFiles() {
+        return files;
+    }
+
+    private static void read(File folder, String path, Map<String, byte[]> files) throws IOException {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String childPath = path + child.getName();
+            if (child.isDirectory()) {
+                read(child, childPath + "/", files);
+            } else {
+                files.put(childPath, Files.readAllBytes(child.toPath()));
+            }
+        }
+    }
+
+    private static String fingerprint(Map<String, byte[]> files) throws IOException {
+        if (files.isEmpty()) {
+            return "";
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                digest.update(file.getKey().getBytes("UTF-8"));
+                digest.update((byte) 0);
+                digest.update(file.getValue());
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-1 is not available in this JVM", e);
+        }
+    }
+}
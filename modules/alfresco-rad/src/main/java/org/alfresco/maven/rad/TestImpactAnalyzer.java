@@ -0,0 +1,424 @@
+package org.alfresco.maven.rad;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Finds what a test class touches in the module under test, i.e. in the folders of the test classpath (test classes,
+ * module classes and configuration), as opposed to the Alfresco JARs:
+ * <ul>
+ * <li>the module classes it references, directly or through the classes it references</li>
+ * <li>the Spring beans of the module contexts it uses: referenced by id or alias (e.g. getBean("demoComponent") or
+ * &#64;Qualifier("demoComponent")), or whose class is, or extends, a class it references (e.g. an &#64;Autowired
+ * DemoComponent), together with the beans they refer to</li>
+ * <li>the Spring context files defining those beans</li>
+ * </ul>
+ * The classes implementing the beans touched are themselves followed, until nothing new is found. The other files of
+ * the folders (models, properties, web scripts, ...) cannot be related to tests: see {@link #getConfigFiles()}.
+ */
+class TestImpactAnalyzer {
+
+    private static final String CLASS_SUFFIX = ".class";
+    private static final String BEANS = "beans";
+    private static final String BEAN = "bean";
+
+    private final List<File> folders;
+    /** Class files of the folders, by internal name (e.g. org/alfresco/Demo) */
+    private final Map<String, File> classFiles = new HashMap<String, File>();
+    private final Map<String, ClassInfo> classInfos = new HashMap<String, ClassInfo>();
+    private final List<Bean> beans = new ArrayList<Bean>();
+    private final Set<File> springFiles = new TreeSet<File>();
+    private final Set<File> configFiles = new TreeSet<File>();
+
+    /**
+     * @param folders the folders of the test classpath, the JARs being left out
+     */
+    TestImpactAnalyzer(List<File> folders) throws IOException {
+        this.folders = folders;
+        List<File> resources = new ArrayList<File>();
+        for (File folder : folders) {
+            index(folder, "", resources);
+        }
+        DocumentBuilder builder = newDocumentBuilder();
+        for (File resource : resources) {
+            if (!resource.getName().endsWith(".xml") || !readBeans(builder, resource)) {
+                configFiles.add(resource);
+            }
+        }
+    }
+
+    List<File> getFolders() {
+        return folders;
+    }
+
+    /**
+     * @return the Spring context files of the folders, related to the tests using their beans
+     */
+    Set<File> getSpringFiles() {
+        return springFiles;
+    }
+
+    /**
+     * @return the other non class files of the folders, which may affect any test
+     */
+    Set<File> getConfigFiles() {
+        return configFiles;
+    }
+
+    /**
+     * @param className the binary name of the test class
+     * @return what the test class touches, or null if it is not in the folders
+     */
+    Impact analyze(String className) throws IOException {
+        String internalName = className.replace('.', '/');
+        if (!classFiles.containsKey(internalName)) {
+            return null;
+        }
+        Set<String> classes = new LinkedHashSet<String>();
+        Set<String> strings = new HashSet<String>();
+        Set<Bean> touched = new LinkedHashSet<Bean>();
+        Deque<String> pending = new ArrayDeque<String>();
+        pending.add(internalName);
+        while (!pending.isEmpty()) {
+            while (!pending.isEmpty()) {
+                String name = pending.poll();
+                if (classes.add(name)) {
+                    ClassInfo info = getClassInfo(name);
+                    strings.addAll(info.strings);
+                    pending.addAll(info.references);
+                }
+            }
+            for (Bean bean : beans) {
+                if (!touched.contains(bean) && isTouched(bean, classes, strings)) {
+                    touch(bean, touched, pending);
+                }
+            }
+        }
+        Impact impact = new Impact();
+        for (String name : classes) {
+            impact.classes.add(name.replace('/', '.'));
+            impact.inputs.add(classFiles.get(name));
+        }
+        for (Bean bean : touched) {
+            impact.beans.add(bean.names.isEmpty() ? String.valueOf(bean.type) : bean.names.get(0));
+            impact.inputs.add(bean.file);
+        }
+        return impact;
+    }
+
+    private boolean isTouched(Bean bean, Set<String> classes, Set<String> strings) throws IOException {
+        for (String name : bean.names) {
+            if (strings.contains(name)) {
+                return true;
+            }
+        }
+        if (bean.type == null) {
+            return false;
+        }
+        // The bean class, or any of its module supertypes (e.g. the interface a test autowires)
+        Deque<String> types = new ArrayDeque<String>(Collections.singleton(bean.type.replace('.', '/')));
+        Set<String> seen = new HashSet<String>();
+        while (!types.isEmpty()) {
+            String type = types.poll();
+            if (classes.contains(type)) {
+                return true;
+            }
+            if (seen.add(type) && classFiles.containsKey(type)) {
+                types.addAll(getClassInfo(type).supertypes);
+            }
+        }
+        return false;
+    }
+
+    private void touch(Bean bean, Set<Bean> touched, Deque<String> pending) {
+        if (!touched.add(bean)) {
+            return;
+        }
+        for (String type : bean.types) {
+            String name = type.replace('.', '/');
+            if (classFiles.containsKey(name)) {
+                pending.add(name);
+            }
+        }
+        for (String ref : bean.refs) {
+            for (Bean other : beans) {
+                if (other.names.contains(ref)) {
+                    touch(other, touched, pending);
+                }
+            }
+        }
+    }
+
+    private void index(File folder, String path, List<File> resources) {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String childPath = path + child.getName();
+            if (child.isDirectory()) {
+                index(child, childPath + "/", resources);
+            } else if (childPath.endsWith(CLASS_SUFFIX)) {
+                String name = childPath.substring(0, childPath.length() - CLASS_SUFFIX.length());
+                // The first folder wins, like on the classpath
+                if (!classFiles.containsKey(name)) {
+                    classFiles.put(name, child);
+                }
+            } else {
+                resources.add(child);
+            }
+        }
+    }
+
+    private ClassInfo getClassInfo(String name) throws IOException {
+        ClassInfo info = classInfos.get(name);
+        if (info == null) {
+            info = readClass(classFiles.get(name));
+            classInfos.put(name, info);
+        }
+        return info;
+    }
+
+    /**
+     * Reads the constant pool of a class file: the classes it references (by class constant, in type descriptors or
+     * signatures, or as a string, e.g. Class.forName), and its strings (e.g. bean ids)
+     */
+    private ClassInfo readClass(File classFile) throws IOException {
+        ClassInfo info = new ClassInfo();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(classFile)));
+        try {
+            in.readInt();
+            in.readUnsignedShort();
+            in.readUnsignedShort();
+            int count = in.readUnsignedShort();
+            String[] utf8 = new String[count];
+            int[] classNames = new int[count];
+            for (int index = 1; index < count; index++) {
+                int tag = in.readUnsignedByte();
+                switch (tag) {
+                    case 1:
+                        utf8[index] = in.readUTF();
+                        break;
+                    case 7:
+                        classNames[index] = in.readUnsignedShort();
+                        break;
+                    case 8: case 16: case 19: case 20:
+                        in.readUnsignedShort();
+                        break;
+                    case 15:
+                        in.readUnsignedByte();
+                        in.readUnsignedShort();
+                        break;
+                    case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+                        in.readInt();
+                        break;
+                    case 5: case 6:
+                        in.readLong();
+                        index++;
+                        break;
+                    default:
+                        throw new IOException("Unknown constant pool tag " + tag + " in " + classFile);
+                }
+            }
+            in.readUnsignedShort();
+            String thisClass = utf8[classNames[in.readUnsignedShort()]];
+            int superClass = in.readUnsignedShort();
+            if (superClass != 0) {
+                info.supertypes.add(utf8[classNames[superClass]]);
+            }
+            for (int interfaces = in.readUnsignedShort(); interfaces > 0; interfaces--) {
+                info.supertypes.add(utf8[classNames[in.readUnsignedShort()]]);
+            }
+            for (String value : utf8) {
+                if (value != null) {
+                    info.strings.add(value);
+                    addReferences(value, info.references);
+                }
+            }
+            info.references.remove(thisClass);
+        } finally {
+            in.close();
+        }
+        return info;
+    }
+
+    private void addReferences(String value, Set<String> references) {
+        addReference(value, references);
+        addReference(value.replace('.', '/'), references);
+        for (int start = value.indexOf('L'); start >= 0; start = value.indexOf('L', start + 1)) {
+            int end = start + 1;
+            while (end < value.length() && value.charAt(end) != ';' && value.charAt(end) != '<') {
+                end++;
+            }
+            if (end < value.length()) {
+                addReference(value.substring(start + 1, end), references);
+            }
+        }
+    }
+
+    private void addReference(String name, Set<String> references) {
+        if (classFiles.containsKey(name)) {
+            references.add(name);
+        }
+    }
+
+    /**
+     * Reads the top level beans of a Spring context file
+     *
+     * @return false if the file is not a Spring context file
+     */
+    private boolean readBeans(DocumentBuilder builder, File file) {
+        Element root;
+        try {
+            root = builder.parse(file).getDocumentElement();
+        } catch (Exception e) {
+            return false;
+        }
+        if (!BEANS.equals(getName(root))) {
+            return false;
+        }
+        springFiles.add(file);
+        Map<String, List<String>> aliases = new HashMap<String, List<String>>();
+        List<Bean> fileBeans = new ArrayList<Bean>();
+        NodeList elements = root.getElementsByTagNameNS("*", "*");
+        for (int index = 0; index < elements.getLength(); index++) {
+            Element element = (Element) elements.item(index);
+            if (BEAN.equals(getName(element)) && BEANS.equals(getName(element.getParentNode()))) {
+                fileBeans.add(readBean(element, file));
+            } else if ("alias".equals(getName(element))) {
+                if (!aliases.containsKey(element.getAttribute("name"))) {
+                    aliases.put(element.getAttribute("name"), new ArrayList<String>());
+                }
+                aliases.get(element.getAttribute("name")).add(element.getAttribute("alias"));
+            }
+        }
+        for (Bean bean : fileBeans) {
+            for (String name : new ArrayList<String>(bean.names)) {
+                if (aliases.containsKey(name)) {
+                    bean.names.addAll(aliases.get(name));
+                }
+            }
+        }
+        beans.addAll(fileBeans);
+        return true;
+    }
+
+    private static Bean readBean(Element element, File file) {
+        Bean bean = new Bean(file);
+        if (element.getAttribute("id").length() > 0) {
+            bean.names.add(element.getAttribute("id"));
+        }
+        for (String name : element.getAttribute("name").split("[,;\\s]+")) {
+            if (name.length() > 0) {
+                bean.names.add(name);
+            }
+        }
+        if (element.getAttribute("class").length() > 0) {
+            bean.type = element.getAttribute("class");
+        }
+        // The bean and its inner beans, with their references to other beans
+        List<Element> elements = new ArrayList<Element>();
+        elements.add(element);
+        NodeList children = element.getElementsByTagNameNS("*", "*");
+        for (int index = 0; index < children.getLength(); index++) {
+            elements.add((Element) children.item(index));
+        }
+        for (Element child : elements) {
+            NamedNodeMap attributes = child.getAttributes();
+            for (int index = 0; index < attributes.getLength(); index++) {
+                Attr attribute = (Attr) attributes.item(index);
+                String name = attribute.getLocalName() != null ? attribute.getLocalName() : attribute.getName();
+                String value = attribute.getValue().trim();
+                if ("class".equals(name) && BEAN.equals(getName(child))) {
+                    bean.types.add(value);
+                } else if ("value".equals(name) || "key".equals(name)) {
+                    // Class names set as values (e.g. of an interface property)
+                    bean.types.add(value);
+                } else if ("ref".equals(name) || "parent".equals(name) || "local".equals(name) || name.endsWith("-ref")
+                        || ("bean".equals(name) && !BEAN.equals(getName(child)))) {
+                    bean.refs.add(value);
+                } else if ("depends-on".equals(name)) {
+                    bean.refs.addAll(Arrays.asList(value.split("[,;\\s]+")));
+                }
+            }
+            if ("value".equals(getName(child))) {
+                bean.types.add(child.getTextContent().trim());
+            }
+        }
+        return bean;
+    }
+
+    private static String getName(Node node) {
+        return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+    }
+
+    private static DocumentBuilder newDocumentBuilder() throws IOException {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setValidating(false);
+        try {
+            // Spring 1.x contexts declare a DTD, which must not be fetched
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+            return factory.newDocumentBuilder();
+        } catch (Exception e) {
+            throw new IOException("Could not create an XML parser", e);
+        }
+    }
+
+    /**
+     * What a test class touches
+     */
+    static class Impact {
+
+        /** The module classes, by binary name */
+        final Set<String> classes = new TreeSet<String>();
+        /** The module beans, by id (or class when anonymous) */
+        final Set<String> beans = new TreeSet<String>();
+        /** The class files and Spring context files, changes to which affect the test */
+        final Set<File> inputs = new TreeSet<File>();
+    }
+
+    private static class ClassInfo {
+
+        final Set<String> references = new HashSet<String>();
+        final Set<String> strings = new HashSet<String>();
+        final List<String> supertypes = new ArrayList<String>();
+    }
+
+    private static class Bean {
+
+        final File file;
+        final List<String> names = new ArrayList<String>();
+        final Set<String> types = new HashSet<String>();
+        final Set<String> refs = new HashSet<String>();
+        String type;
+
+        Bean(File file) {
+            this.file = file;
+        }
+    }
+}
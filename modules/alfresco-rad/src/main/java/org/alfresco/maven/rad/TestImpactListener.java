@@ -0,0 +1,204 @@
+package org.alfresco.maven.rad;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+/**
+ * Records, for each test class run, whether all its tests passed and what it touches in the module (see
+ * {@link TestImpactAnalyzer}), so that the next build only runs the test classes affected by what changed since
+ * (see the select-tests goal of the alfresco-maven-plugin). Registered as a Surefire listener by the
+ * enable-alfresco-testing profile, which also sets the alfresco.rad.impact.directory system property.
+ * <p/>
+ * The records are written to that folder, once the run is over:
+ * <ul>
+ * <li>tests/&lt;test class&gt;.properties: the outcome of the class (passed or failed), the module beans it
+ * touches, and the SHA-1 of each class and Spring context file it touches, as input.&lt;path&gt;</li>
+ * <li>module.properties: the classpath folders of the module, the Spring context files found in them
+ * (spring.&lt;path&gt;) and the SHA-1 of every other file (config.&lt;path&gt;), whose changes affect all tests</li>
+ * </ul>
+ */
+public class TestImpactListener extends RunListener {
+
+    public static final String DIRECTORY_PROPERTY = "alfresco.rad.impact.directory";
+
+    static final String TESTS_FOLDER = "tests";
+    static final String MODULE_RECORD = "module.properties";
+    static final String OUTCOME = "outcome";
+    static final String BEANS = "beans";
+    static final String FOLDERS = "folders";
+    static final String INPUT_PREFIX = "input.";
+    static final String SPRING_PREFIX = "spring.";
+    static final String CONFIG_PREFIX = "config.";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final Log LOG = LogFactory.getLog(TestImpactListener.class);
+
+    /** Whether all the tests of each class run (and not recorded yet) passed */
+    private final Map<String, Boolean> outcomes = new LinkedHashMap<String, Boolean>();
+
+    public TestImpactListener() {
+        // Surefire does not always end the run with testRunFinished (e.g. when forked per test class)
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                record();
+            }
+        });
+    }
+
+    @Override
+    public void testStarted(Description description) {
+        synchronized (outcomes) {
+            if (!outcomes.containsKey(description.getClassName())) {
+                outcomes.put(description.getClassName(), Boolean.TRUE);
+            }
+        }
+    }
+
+    @Override
+    public void testFailure(Failure failure) {
+        synchronized (outcomes) {
+            outcomes.put(failure.getDescription().getClassName(), Boolean.FALSE);
+        }
+    }
+
+    @Override
+    public void testRunFinished(Result result) {
+        record();
+    }
+
+    /**
+     * Writes the records of the classes run since the last call
+     */
+    void record() {
+        Map<String, Boolean> recorded;
+        synchronized (outcomes) {
+            recorded = new LinkedHashMap<String, Boolean>(outcomes);
+            outcomes.clear();
+        }
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (recorded.isEmpty() || directory == null || directory.trim().length() == 0) {
+            return;
+        }
+        File impactDirectory = new File(directory.trim());
+        try {
+            TestImpactAnalyzer analyzer = new TestImpactAnalyzer(getFolders());
+            Map<File, String> checksums = new HashMap<File, String>();
+            Properties module = new Properties();
+            StringBuilder folders = new StringBuilder();
+            for (File folder : analyzer.getFolders()) {
+                folders.append(folders.length() > 0 ? File.pathSeparator : "").append(folder.getAbsolutePath());
+            }
+            module.setProperty(FOLDERS, folders.toString());
+            for (File file : analyzer.getSpringFiles()) {
+                module.setProperty(SPRING_PREFIX + file.getAbsolutePath(), checksum(file, checksums));
+            }
+            for (File file : analyzer.getConfigFiles()) {
+                module.setProperty(CONFIG_PREFIX + file.getAbsolutePath(), checksum(file, checksums));
+            }
+            store(module, new File(impactDirectory, MODULE_RECORD));
+            for (Map.Entry<String, Boolean> outcome : recorded.entrySet()) {
+                TestImpactAnalyzer.Impact impact = analyzer.analyze(outcome.getKey());
+                if (impact == null) {
+                    continue;
+                }
+                Properties test = new Properties();
+                test.setProperty(OUTCOME, outcome.getValue() ? RemoteTestTimings.PASSED : RemoteTestTimings.FAILED);
+                StringBuilder beans = new StringBuilder();
+                for (String bean : impact.beans) {
+                    beans.append(beans.length() > 0 ? "," : "").append(bean);
+                }
+                test.setProperty(BEANS, beans.toString());
+                for (File input : impact.inputs) {
+                    test.setProperty(INPUT_PREFIX + input.getAbsolutePath(), checksum(input, checksums));
+                }
+                store(test, new File(impactDirectory, TESTS_FOLDER + File.separator + outcome.getKey() + ".properties"));
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not record the test impact of " + recorded.keySet() + " to " + impactDirectory, e);
+        }
+    }
+
+    /**
+     * @return the folders of the test classpath (Surefire runs the tests with a manifest only JAR, but passes the
+     *         actual test classpath as a system property)
+     */
+    private static List<File> getFolders() {
+        String classPath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+        List<File> folders = new ArrayList<File>();
+        for (String element : classPath.split(File.pathSeparator)) {
+            File folder = new File(element).getAbsoluteFile();
+            if (element.length() > 0 && folder.isDirectory() && !folders.contains(folder)) {
+                folders.add(folder);
+            }
+        }
+        return folders;
+    }
+
+    private static void store(Properties properties, File file) throws IOException {
+        file.getParentFile().mkdirs();
+        // Written aside then renamed, as forked JVMs may record at the same time
+        File temp = new File(file.getPath() + "." + Thread.currentThread().getId() + "." + System.nanoTime());
+        OutputStream out = new FileOutputStream(temp);
+        try {
+            properties.store(out, "Alfresco RAD test impact record - do not edit");
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+            temp.delete();
+            throw new IOException("Could not write " + file);
+        }
+    }
+
+    private static String checksum(File file, Map<File, String> checksums) throws IOException {
+        String checksum = checksums.get(file);
+        if (checksum == null) {
+            MessageDigest digest;
+            try {
+                digest = MessageDigest.getInstance("SHA-1");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException("SHA-1 is not available in this JVM", e);
+            }
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+            char[] chars = new char[digest.getDigestLength() * 2];
+            byte[] bytes = digest.digest();
+            for (int i = 0; i < bytes.length; i++) {
+                chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+                chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+            }
+            checksum = new String(chars);
+            checksums.put(file, checksum);
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,67 @@
+package org.alfresco.maven.tomcat;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import javax.servlet.ServletContext;
+
+import org.apache.tomcat.JarScannerCallback;
+import org.apache.tomcat.util.scan.StandardJarScanner;
+
+/**
+ * A Tomcat 7 JarScanner skipping the JARs of its webapp listed in jarsToSkip, on top of the JARs Tomcat skips anyway
+ * (the tomcat.util.scan.DefaultJarScanner.jarsToSkip system property): unlike the system property, the list is per
+ * webapp. Each scan skips a copy of the JARs Tomcat skips with the jarsToSkip of the webapp added, so that the global
+ * list is left as is, and the other webapps of the same Tomcat still scan the JARs this one skips. The list is written in the generated tomcat context.xml by the jar-scan goal of the alfresco-maven-plugin,
+ * with the WEB-INF/lib JARs that hold no TLD, web fragment, ServletContainerInitializer, static resources or Servlet
+ * 3.0 annotated class, so that Tomcat only opens the few JARs which need scanning when starting the webapp:
+ * <pre>
+ * &lt;JarScanner className="org.alfresco.maven.tomcat.SkippingJarScanner" scanClassPath="false" jarsToSkip="a.jar,b.jar"/&gt;
+ * </pre>
+ * Runs in Tomcat, so alfresco-tomcat needs to be a dependency of the tomcat7-maven-plugin.
+ */
+public class SkippingJarScanner extends StandardJarScanner {
+
+    private static final String DEFAULT_JARS_TO_SKIP = "tomcat.util.scan.DefaultJarScanner.jarsToSkip";
+
+    private Set<String> jarsToSkip = Collections.emptySet();
+
+    /**
+     * @param jarsToSkip the file names of the JARs not to scan, comma separated
+     */
+    public void setJarsToSkip(String jarsToSkip) {
+        this.jarsToSkip = toSet(jarsToSkip);
+    }
+
+    public String getJarsToSkip() {
+        StringBuilder list = new StringBuilder();
+        for (String jar : jarsToSkip) {
+            list.append(list.length() > 0 ? "," : "").append(jar);
+        }
+        return list.toString();
+    }
+
+    @Override
+    public void scan(ServletContext context, ClassLoader classloader, JarScannerCallback callback, Set<String> jarsToSkip) {
+        // Tomcat passes the JARs its TLD or web fragment scan skips, or null for the default ones: shared by all the webapps
+        Set<String> skipped = new HashSet<String>(jarsToSkip != null ? jarsToSkip : toSet(System.getProperty(DEFAULT_JARS_TO_SKIP)));
+        skipped.addAll(this.jarsToSkip);
+        super.scan(context, classloader, callback, skipped);
+    }
+
+    private static Set<String> toSet(String list) {
+        Set<String> jars = new HashSet<String>();
+        if (list != null) {
+            StringTokenizer tokenizer = new StringTokenizer(list, ",");
+            while (tokenizer.hasMoreTokens()) {
+                String jar = tokenizer.nextToken().trim();
+                if (jar.length() > 0) {
+                    jars.add(jar);
+                }
+            }
+        }
+        return jars;
+    }
+}
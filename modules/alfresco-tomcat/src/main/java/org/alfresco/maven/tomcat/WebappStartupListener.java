@@ -0,0 +1,129 @@
+package org.alfresco.maven.tomcat;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.LifecycleState;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * A Tomcat 7 context listener starting the webapps of its host in parallel, and reporting how long each one took to
+ * start. The tomcat7-maven-plugin starts its webapps (e.g. Solr, Alfresco and Share in the all-in-one runner) one after
+ * the other, on the single start thread of its host: when the first webapp with this listener starts, the listener
+ * gives the host startStopThreads threads, so that the webapps not started yet start right away, side by side.
+ * <pre>
+ * &lt;Listener className="org.alfresco.maven.tomcat.WebappStartupListener" startStopThreads="0"/&gt;
+ * </pre>
+ * Once all the webapps of the host started, the startup time of each one is logged (through the JULI logging of
+ * Tomcat), along with the time it took to start them all, so that cold starts can be compared.
+ * <p/>
+ * Runs in Tomcat, so alfresco-tomcat needs to be a dependency of the tomcat7-maven-plugin.
+ */
+public class WebappStartupListener implements LifecycleListener {
+
+    private static final Log LOG = LogFactory.getLog(WebappStartupListener.class);
+
+    private static final EnumSet<LifecycleState> STARTING = EnumSet.of(LifecycleState.NEW, LifecycleState.INITIALIZING,
+            LifecycleState.INITIALIZED, LifecycleState.STARTING_PREP, LifecycleState.STARTING);
+
+    /** The startup of the webapps of each host, as a JVM may run several Tomcats one after the other */
+    private static final Map<Container, HostStartup> HOSTS = new WeakHashMap<Container, HostStartup>();
+
+    private int startStopThreads = 0;
+
+    private long start;
+
+    /**
+     * @param startStopThreads the number of webapps of the host started at the same time: 0 for one per processor, a
+     *                         negative number for one per processor less that number, 1 to start them one at a time
+     */
+    public void setStartStopThreads(int startStopThreads) {
+        this.startStopThreads = startStopThreads;
+    }
+
+    public int getStartStopThreads() {
+        return startStopThreads;
+    }
+
+    public void lifecycleEvent(LifecycleEvent event) {
+        if (!(event.getLifecycle() instanceof Context)) {
+            return;
+        }
+        Context context = (Context) event.getLifecycle();
+        if (Lifecycle.BEFORE_START_EVENT.equals(event.getType())) {
+            start = System.currentTimeMillis();
+            Container host = context.getParent();
+            if (host != null) {
+                getHostStartup(host).started(start);
+                if (host.getStartStopThreads() != startStopThreads) {
+                    // Starts the webapps still waiting on the start thread of the host
+                    host.setStartStopThreads(startStopThreads);
+                }
+            }
+        } else if (Lifecycle.AFTER_START_EVENT.equals(event.getType())) {
+            String name = context.getName().length() > 0 ? context.getName() : "/";
+            long time = System.currentTimeMillis() - start;
+            LOG.info("Started webapp " + name + " in " + time + " ms");
+            Container host = context.getParent();
+            if (host != null) {
+                getHostStartup(host).report(host, name, time);
+            }
+        }
+    }
+
+    private static HostStartup getHostStartup(Container host) {
+        synchronized (HOSTS) {
+            HostStartup startup = HOSTS.get(host);
+            if (startup == null) {
+                startup = new HostStartup();
+                HOSTS.put(host, startup);
+            }
+            return startup;
+        }
+    }
+
+    /**
+     * The startup times of the webapps of a host
+     */
+    private static class HostStartup {
+
+        private long start = Long.MAX_VALUE;
+        private final List<String> webapps = new ArrayList<String>();
+        private long total;
+
+        synchronized void started(long time) {
+            start = Math.min(start, time);
+        }
+
+        /**
+         * Records the startup time of a webapp, and logs the startup times of all the webapps once they started
+         */
+        synchronized void report(Container host, String name, long time) {
+            webapps.add(String.format("%10d ms  %s", time, name));
+            total += time;
+            Container[] children = host.findChildren();
+            for (Container child : children) {
+                if (STARTING.contains(child.getState())) {
+                    return;
+                }
+            }
+            if (webapps.size() > 1) {
+                StringBuilder report = new StringBuilder("Started " + webapps.size() + " webapps in "
+                        + (System.currentTimeMillis() - start) + " ms (their startup times add up to " + total + " ms):");
+                for (String webapp : webapps) {
+                    report.append(System.getProperty("line.separator")).append(webapp);
+                }
+                LOG.info(report);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.alfresco.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.model.Plugin;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Base class of the goals recording the webapps run by the tomcat7-maven-plugin with Java Flight Recorder, and
+ * reporting the hotspots of the recording (see {@link FlightRecording} and {@link ProfileReport}).
+ */
+public abstract class AbstractProfilingMojo extends AbstractMojo {
+
+    private static final String TOMCAT_PLUGIN = "org.apache.tomcat.maven:tomcat7-maven-plugin";
+
+    /**
+     * @parameter default-value="${project}"
+     * @readonly
+     * @required
+     */
+    protected MavenProject project;
+
+    /**
+     * The Java Flight Recorder recording file, which can also be opened in Java Mission Control
+     *
+     * @parameter property="maven.alfresco.profile.recording" default-value="${project.build.directory}/alfresco-profile/recording.jfr"
+     * @required
+     */
+    protected File recordingFile;
+
+    /**
+     * Skips recording and reporting
+     *
+     * @parameter property="maven.alfresco.profile.skip" default-value="false"
+     */
+    protected boolean skipProfiling;
+
+    /**
+     * Whether to print a summary of the time and bytes of each phase of the goal, and write it as JSON and CSV to
+     * metricsDirectory. The metrics are otherwise only logged in debug mode
+     *
+     * @parameter property="maven.alfresco.metrics" default-value="false"
+     */
+    protected boolean reportMetrics;
+
+    /**
+     * Folder the metrics reports are written to, named after the goal
+     *
+     * @parameter property="maven.alfresco.metricsDirectory" default-value="${project.build.directory}/alfresco-metrics"
+     */
+    protected File metricsDirectory;
+
+    protected FlightRecording getRecording() {
+        return new FlightRecording(recordingFile);
+    }
+
+    protected void reportMetrics(BuildMetrics buildMetrics) throws MojoExecutionException {
+        try {
+            buildMetrics.report(getLog(), reportMetrics ? metricsDirectory : null);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing build metrics to " + metricsDirectory, e);
+        }
+    }
+
+    /**
+     * @return whether the project runs webapps with the tomcat7-maven-plugin (e.g. the amp-to-war profile of an AMP, or
+     *         the run profile of the all-in-one runner), as only these are profiled in a multi-module build
+     */
+    protected boolean runsTomcat() {
+        Plugin tomcat = project.getPlugin(TOMCAT_PLUGIN);
+        return tomcat != null && !tomcat.getExecutions().isEmpty();
+    }
+}
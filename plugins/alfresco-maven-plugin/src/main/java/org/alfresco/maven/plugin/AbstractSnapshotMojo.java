@@ -0,0 +1,207 @@
+package org.alfresco.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
+import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.repository.RepositorySystem;
+
+/**
+ * Base class of the goals capturing and restoring snapshots of the embedded repository of the project
+ * (see {@link RepositorySnapshot}). Snapshots are keyed by the Alfresco WAR and by the AMPs the project installs
+ * into it: the project itself when it is an AMP, and its AMP dependencies. Their coordinates are not enough, as
+ * SNAPSHOT versions (starting with the project's own AMP) change between builds: the key also holds a hash of the
+ * content of each archive, computed from the names, sizes and CRCs of its entries (read from the ZIP central
+ * directory only), so that it neither reads the whole WAR nor depends on the time the AMP was built.
+ */
+public abstract class AbstractSnapshotMojo extends AbstractMojo {
+
+    static final String ALF_DATA = "alf_data";
+    static final String SOLR_HOME = "solr_home";
+
+    /**
+     * The Alfresco data folder (content store, H2 database) of the embedded repository
+     *
+     * @parameter property="maven.alfresco.dataLocation" default-value="${project.basedir}/${alfresco.data.location}"
+     * @required
+     */
+    protected File dataLocation;
+
+    /**
+     * The Solr home folder (configuration and indexes) of the embedded repository
+     *
+     * @parameter property="maven.alfresco.solrHome" default-value="${project.basedir}/solr_home"
+     */
+    protected File solrHome;
+
+    /**
+     * Folder holding the repository snapshots, shared by all projects and builds on the machine
+     *
+     * @parameter property="maven.alfresco.snapshotDirectory" default-value="${user.home}/.m2/alfresco-repository-snapshots"
+     * @required
+     */
+    protected File snapshotDirectory;
+
+    /**
+     * The groupId of the Alfresco WAR the repository runs
+     *
+     * @parameter default-value="${alfresco.client.war.groupId}"
+     */
+    protected String warGroupId;
+
+    /**
+     * The artifactId of the Alfresco WAR the repository runs
+     *
+     * @parameter default-value="${alfresco.client.war}"
+     */
+    protected String warArtifactId;
+
+    /**
+     * The version of the Alfresco WAR the repository runs
+     *
+     * @parameter default-value="${alfresco.client.war.version}"
+     */
+    protected String warVersion;
+
+    /**
+     * Skips capturing and restoring repository snapshots
+     *
+     * @parameter property="maven.alfresco.snapshot.skip" default-value="false"
+     */
+    protected boolean skipSnapshot;
+
+    /**
+     * Whether to print a summary of the time, bytes read and written and files processed by each phase of the
+     * goal, and write it as JSON and CSV to metricsDirectory. The metrics are otherwise only logged in debug mode
+     *
+     * @parameter property="maven.alfresco.metrics" default-value="false"
+     */
+    protected boolean reportMetrics;
+
+    /**
+     * Folder the metrics reports are written to, named after the goal
+     *
+     * @parameter property="maven.alfresco.metricsDirectory" default-value="${project.build.directory}/alfresco-metrics"
+     */
+    protected File metricsDirectory;
+
+    /**
+     * The AMP built by the project, when the project is an AMP
+     *
+     * @parameter property="maven.alfresco.ampLocation" default-value="${project.build.directory}/${project.build.finalName}.amp"
+     */
+    protected File ampLocation;
+
+    /**
+     * [Read Only] The Maven project.
+     *
+     * @parameter default-value="${project}"
+     * @required
+     * @readonly
+     */
+    protected MavenProject project;
+
+    /**
+     * @component
+     */
+    protected RepositorySystem repositorySystem;
+
+    /**
+     * @parameter default-value="${localRepository}"
+     * @required
+     * @readonly
+     */
+    protected ArtifactRepository localRepository;
+
+    /**
+     * @return the Alfresco WAR coordinates
+     */
+    protected String getWar() {
+        return warGroupId + ":" + warArtifactId + ":" + warVersion;
+    }
+
+    /**
+     * @return the AMPs installed into the WAR, groupId:artifactId to version, sorted
+     */
+    protected Map<String, String> getModules() {
+        Map<String, String> modules = new TreeMap<String, String>();
+        if ("amp".equals(project.getPackaging())) {
+            modules.put(project.getGroupId() + ":" + project.getArtifactId(), project.getVersion());
+        }
+        for (Object dependency : project.getDependencies()) {
+            Dependency amp = (Dependency) dependency;
+            if ("amp".equals(amp.getType())) {
+                modules.put(amp.getGroupId() + ":" + amp.getArtifactId(), amp.getVersion());
+            }
+        }
+        return modules;
+    }
+
+    /**
+     * @throws MojoFailureException if the WAR or one of the AMPs cannot be found, e.g. the project AMP is not built yet
+     */
+    protected RepositorySnapshot getSnapshot() throws MojoExecutionException, MojoFailureException {
+        try {
+            String war = getWar() + ":" + ArtifactCache.contentHash(resolve(repositorySystem.createArtifact(warGroupId, warArtifactId, warVersion, "war")));
+            Map<String, String> modules = new TreeMap<String, String>();
+            if ("amp".equals(project.getPackaging())) {
+                if (!ampLocation.isFile()) {
+                    throw new MojoFailureException("The AMP of the project is not built yet: " + ampLocation);
+                }
+                modules.put(project.getGroupId() + ":" + project.getArtifactId(), project.getVersion() + ":" + ArtifactCache.contentHash(ampLocation));
+            }
+            for (Object dependency : project.getDependencies()) {
+                Dependency amp = (Dependency) dependency;
+                if ("amp".equals(amp.getType())) {
+                    Artifact artifact = project.getArtifactMap().get(amp.getGroupId() + ":" + amp.getArtifactId());
+                    File file = artifact != null && artifact.getFile() != null ? artifact.getFile()
+                            : resolve(repositorySystem.createDependencyArtifact(amp));
+                    modules.put(amp.getGroupId() + ":" + amp.getArtifactId(), amp.getVersion() + ":" + ArtifactCache.contentHash(file));
+                }
+            }
+            return new RepositorySnapshot(snapshotDirectory, RepositorySnapshot.key(war, modules), getLog());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error reading the WAR and AMPs of the repository snapshot", e);
+        }
+    }
+
+    private File resolve(Artifact artifact) throws MojoFailureException {
+        ArtifactResolutionResult result = repositorySystem.resolve(new ArtifactResolutionRequest()
+                .setArtifact(artifact)
+                .setLocalRepository(localRepository)
+                .setRemoteRepositories(project.getRemoteArtifactRepositories()));
+        if (!result.isSuccess() || artifact.getFile() == null || !artifact.getFile().isFile()) {
+            throw new MojoFailureException("Could not resolve " + artifact.getId());
+        }
+        return artifact.getFile();
+    }
+
+    /**
+     * @return the repository folders, by their name in the snapshot
+     */
+    protected Map<String, File> getFolders() {
+        Map<String, File> folders = new LinkedHashMap<String, File>();
+        folders.put(ALF_DATA, dataLocation);
+        folders.put(SOLR_HOME, solrHome);
+        return folders;
+    }
+
+    protected void reportBuildMetrics(BuildMetrics buildMetrics) throws MojoExecutionException {
+        try {
+            buildMetrics.report(getLog(), reportMetrics ? metricsDirectory : null);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing build metrics to " + metricsDirectory, e);
+        }
+    }
+}
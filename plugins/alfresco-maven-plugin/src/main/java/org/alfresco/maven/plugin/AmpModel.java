@@ -12,5 +12,16 @@ public class AmpModel {
 
     public static final String AMP_FOLDER_LIB = "lib";
 
+    public static final String AMP_FOLDER_WEB = "web";
+
+    public static final String AMP_FOLDER_CONFIG = "config";
+
+    /**
+     * The ModuleManagementTool mounts WARs and AMPs through the TrueZIP virtual file system, whose state is
+     * global to the JVM: installs through it (by the install goal or the AMP unarchiver) are serialized on
+     * this lock, so that parallel (-T) builds do not unmount archives another module is installing into
+     */
+    public static final Object MODULE_MANAGEMENT_TOOL_LOCK = new Object();
+
     public static final List<String> EXTENSION_LIST = Arrays.asList(new String[] {"jar","ejb","ejb-client","test-jar"});
 }
@@ -1,21 +1,47 @@
 package org.alfresco.maven.plugin;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.datatype.DatatypeConfigurationException;
+import javax.xml.datatype.DatatypeFactory;
 
 import org.alfresco.maven.plugin.archiver.AmpArchiver;
+import org.alfresco.maven.plugin.archiver.ParallelZipWriter;
+import org.alfresco.maven.plugin.install.AmpDescriptor;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.maven.archiver.MavenArchiveConfiguration;
 import org.apache.maven.archiver.MavenArchiver;
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactResolutionRequest;
+import org.apache.maven.artifact.resolver.ArtifactResolutionResult;
 import org.apache.maven.artifact.resolver.filter.ScopeArtifactFilter;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
+import org.apache.maven.repository.RepositorySystem;
 import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.codehaus.plexus.archiver.jar.Manifest;
+import org.codehaus.plexus.util.StringUtils;
 
 /**
  * Builds an AMP archive of the current project's contents. 
@@ -37,6 +63,17 @@ import org.codehaus.plexus.archiver.jar.JarArchiver;
  */
 public class AmpMojo extends AbstractMojo {
 
+    /**
+     * Time of the entries of reproducible archives when outputTimestamp is not set (1980-02-01T00:00:00Z)
+     */
+    static final long DEFAULT_OUTPUT_TIME = 318211200000L;
+
+    private static final String STAGING_COPY = "copy";
+    private static final String STAGING_LINK = "link";
+
+    private static final String DUPLICATES_EXCLUDE = "exclude";
+    private static final String DUPLICATES_REPORT = "report";
+
     /**
      * Name of the generated AMP and JAR artifacts
      *
@@ -130,23 +167,314 @@ public class AmpMojo extends AbstractMojo {
      */
     protected MavenArchiveConfiguration archive = new MavenArchiveConfiguration();
 
+    /**
+     * Whether the AMP packaging should be incremental. When enabled, the JAR, AMP and config archives are
+     * only re-created if their inputs changed since the previous build (as recorded in buildStateFile) and
+     * archives whose inputs were only added or modified are patched rather than rebuilt from scratch.
+     *
+     * @parameter property="maven.alfresco.incremental" default-value="false"
+     */
+    protected boolean incremental;
+
+    /**
+     * Whether incremental packaging should compare the SHA-1 of the inputs rather than only their
+     * size and modification time. Slower, but avoids re-creating archives when files are merely touched.
+     *
+     * @parameter property="maven.alfresco.incrementalHashing" default-value="false"
+     */
+    protected boolean incrementalHashing;
+
+    /**
+     * File where incremental packaging records the fingerprints of the inputs of the last build
+     *
+     * @parameter property="maven.alfresco.buildStateFile" default-value="${project.build.directory}/amp-build-state.properties"
+     */
+    protected File buildStateFile;
+
+    /**
+     * Whether the JAR, AMP and config archives should be written by the parallel archiver, which deflates
+     * entries concurrently on archiverThreads threads and stores already compressed entries (e.g. JARs, images)
+     * as they are, instead of the default (single threaded) plexus JarArchiver.
+     * When enabled, archives are always re-created as a whole, even when packaging incrementally.
+     *
+     * @parameter property="maven.alfresco.parallelArchiver" default-value="false"
+     */
+    protected boolean parallelArchiver;
+
+    /**
+     * Number of threads used by the parallel archiver to compress entries. Defaults to the number of available processors
+     *
+     * @parameter property="maven.alfresco.archiverThreads" default-value="0"
+     */
+    protected int archiverThreads;
+
+    /**
+     * Whether the AMP should also be built with the archiver not selected by parallelArchiver, in order to
+     * report the time taken by both archivers and verify that they produce the same content. The build fails
+     * if the content of the two AMPs differs.
+     *
+     * @parameter property="maven.alfresco.compareArchivers" default-value="false"
+     */
+    protected boolean compareArchivers;
+
+    /**
+     * Whether the JAR, AMP and config archives should be reproducible, i.e. byte-identical when built twice from
+     * the same inputs: entries are sorted by name, get the same modification time (outputTimestamp) and permissions
+     * and the manifest does not contain the user and JDK the archives were built with. Reproducible archives are
+     * always written by the parallel archiver.
+     * Reproducible output is also enabled when outputTimestamp is set.
+     *
+     * @parameter property="maven.alfresco.reproducible" default-value="false"
+     */
+    protected boolean reproducible;
+
+    /**
+     * The time set on all the entries of reproducible archives, either as an ISO 8601 date/time
+     * (e.g. 2014-01-01T00:00:00Z) or as a number of seconds since the epoch. When not set, reproducible archives
+     * use 1980-02-01T00:00:00Z.
+     *
+     * @parameter property="maven.alfresco.outputTimestamp" default-value="${project.build.outputTimestamp}"
+     */
+    protected String outputTimestamp;
+
+    /**
+     * How runtime dependencies are staged into the AMP lib folder: "copy" copies them from the local repository,
+     * "link" hard links them instead (falling back to copy when the file system does not support hard links
+     * or the local repository is on another file system), which saves both time and disk space.
+     * In both cases, dependencies which are already staged, with the same size and modification time as when
+     * they were staged (as recorded in stagedDependenciesFile), are left untouched.
+     *
+     * @parameter property="maven.alfresco.dependencyStaging" default-value="copy"
+     */
+    protected String dependencyStaging;
+
+    /**
+     * File recording the dependencies staged into the AMP lib folder by the last build, with the size and
+     * modification time of their source and target, used to skip the unchanged ones and to remove the ones which
+     * are no longer dependencies of the project
+     *
+     * @parameter property="maven.alfresco.stagedDependenciesFile" default-value="${project.build.directory}/amp-staged-dependencies.txt"
+     */
+    protected File stagedDependenciesFile;
+
+    /**
+     * Whether to reconcile the dependencies staged into the AMP lib folder with the libraries of the WAR the AMP
+     * targets: dependencies the WAR already ships (same groupId and artifactId in the same version, or same classes)
+     * are duplicates, dependencies it ships in another version, or sharing some classes with one of its libraries,
+     * are conflicts. Both are logged and written to dependencyReportFile
+     *
+     * @parameter property="maven.alfresco.reconcileDependencies" default-value="false"
+     */
+    protected boolean reconcileDependencies;
+
+    /**
+     * What to do with the dependencies the target WAR already ships: exclude them from the AMP, or only report them
+     *
+     * @parameter property="maven.alfresco.duplicateDependencies" default-value="exclude"
+     */
+    protected String duplicateDependencies;
+
+    /**
+     * Whether to fail the build when reconciling finds conflicts, or duplicates which are not excluded
+     *
+     * @parameter property="maven.alfresco.failOnConflict" default-value="false"
+     */
+    protected boolean failOnConflict;
+
+    /**
+     * The WAR the AMP targets, as a WAR file or an exploded WAR folder. The WAR is otherwise resolved from the
+     * targetWarGroupId, targetWarArtifactId and targetWarVersion coordinates
+     *
+     * @parameter property="maven.alfresco.targetWarLocation"
+     */
+    protected File targetWarLocation;
+
+    /**
+     * The groupId of the WAR the AMP targets
+     *
+     * @parameter default-value="${alfresco.client.war.groupId}"
+     */
+    protected String targetWarGroupId;
+
+    /**
+     * The artifactId of the WAR the AMP targets
+     *
+     * @parameter default-value="${alfresco.client.war}"
+     */
+    protected String targetWarArtifactId;
+
+    /**
+     * The version of the WAR the AMP targets
+     *
+     * @parameter default-value="${alfresco.client.war.version}"
+     */
+    protected String targetWarVersion;
+
+    /**
+     * The report of the duplicates and conflicts found when reconciling the dependencies with the target WAR
+     *
+     * @parameter property="maven.alfresco.dependencyReportFile" default-value="${project.build.directory}/amp-dependency-report.txt"
+     */
+    protected File dependencyReportFile;
+
+    /**
+     * File the index of the libraries of the target WAR is kept in, so that the WAR is only read again when it changes
+     *
+     * @parameter property="maven.alfresco.warIndexFile" default-value="${project.build.directory}/amp-war-index.properties"
+     */
+    protected File warIndexFile;
+
+    /**
+     * Whether to print a summary of the time, bytes read and written and entries processed by each phase of the
+     * goal (staging dependencies, creating the JAR, the AMP and the config JAR), and write it as JSON and CSV
+     * to metricsDirectory. The metrics are otherwise only logged in debug mode
+     *
+     * @parameter property="maven.alfresco.metrics" default-value="false"
+     */
+    protected boolean reportMetrics;
+
+    /**
+     * Folder the metrics reports are written to, as amp.json and amp.csv
+     *
+     * @parameter property="maven.alfresco.metricsDirectory" default-value="${project.build.directory}/alfresco-metrics"
+     */
+    protected File metricsDirectory;
+
+    /**
+     * Whether the JAR, AMP and config archives should be taken from the artifact cache when their inputs (the
+     * content of the archived files, the POM and the archive configuration) match the inputs of an archive built
+     * before, by this or any other module or build sharing the cache, and stored in the cache otherwise.
+     * Only reproducible archives (see reproducible) are cached, as other archives depend on the time they were built.
+     * The dependencies staged into the AMP lib folder are cached as well (whether reproducible or not), by the
+     * coordinates and size of the dependencies, unless reconcileDependencies is enabled
+     *
+     * @parameter property="maven.alfresco.artifactCache" default-value="false"
+     */
+    protected boolean artifactCache;
+
+    /**
+     * The artifact cache folder, shared by all the builds using it
+     *
+     * @parameter property="maven.alfresco.artifactCacheDirectory" default-value="${user.home}/.m2/alfresco-artifact-cache"
+     */
+    protected File artifactCacheDirectory;
+
+    /**
+     * Maximum size of the artifact cache in MB, beyond which the least recently used archives are evicted
+     *
+     * @parameter property="maven.alfresco.artifactCacheSize" default-value="4096"
+     */
+    protected long artifactCacheSize;
+
+    /**
+     * Whether to optimize the JavaScript and CSS files of the web folder of the AMP before archiving it: each file
+     * is minified and written next to it with the hash of its content in its name, the files of each folder are
+     * bundled, and web/asset-manifest.json maps the original names to the fingerprinted ones. Only the files
+     * changed since the last build are processed again
+     *
+     * @parameter property="maven.alfresco.webAssets" default-value="false"
+     */
+    protected boolean webAssets;
+
+    /**
+     * Whether the JavaScript and CSS files of each folder are bundled (in name order) when optimizing web assets
+     *
+     * @parameter property="maven.alfresco.webAssets.bundle" default-value="true"
+     */
+    protected boolean webAssetsBundle;
+
+    /**
+     * Whether gzipped copies (.gz) of the optimized web assets are written next to them, to be served as is by
+     * a front proxy or servlet container supporting precompressed files
+     *
+     * @parameter property="maven.alfresco.webAssets.precompress" default-value="true"
+     */
+    protected boolean webAssetsPrecompress;
+
+    /**
+     * File recording the web assets optimized by the last build, so that only the changed ones are processed again
+     *
+     * @parameter property="maven.alfresco.webAssets.stateFile" default-value="${project.build.directory}/amp-web-assets.properties"
+     */
+    protected File webAssetsStateFile;
+
     /**
      * @component
      */
     protected MavenProjectHelper projectHelper;
 
+    /**
+     * @component
+     */
+    protected RepositorySystem repositorySystem;
+
+    /**
+     * @parameter default-value="${localRepository}"
+     * @required
+     * @readonly
+     */
+    protected ArtifactRepository localRepository;
+
+    /**
+     * The fingerprints of the previous build, only available when packaging incrementally
+     */
+    protected BuildState buildState;
+
+    /**
+     * The time and I/O of each phase of the current execution
+     */
+    protected BuildMetrics buildMetrics;
+
+    private boolean linksSupported = true;
+
+    private ArtifactCache cache;
+
     public void execute()
             throws MojoExecutionException {
 
+        if (isReproducible()) {
+            try {
+                getLog().debug("Reproducible archive entries time: " + new Date(getOutputTime(this.outputTimestamp)));
+            } catch (IllegalArgumentException e) {
+                throw new MojoExecutionException(e.getMessage(), e);
+            }
+        }
+
+        if (incremental) {
+            buildState = new BuildState(buildStateFile, incrementalHashing);
+            try {
+                buildState.load();
+            } catch (IOException e) {
+                throw new MojoExecutionException("Error reading build state from " + buildStateFile, e);
+            }
+        }
+
+        if (artifactCache) {
+            if (isReproducible()) {
+                cache = new ArtifactCache(artifactCacheDirectory, artifactCacheSize * 1024 * 1024, getLog());
+            } else {
+                getLog().warn("The artifact cache only holds reproducible archives, enable reproducible to use it");
+            }
+        }
+
+        buildMetrics = new BuildMetrics(project.getId(), "amp");
         if(includeDependencies) {
+            buildMetrics.start("dependencies");
         	gatherDependencies();
         }
         
+        buildMetrics.start("jar");
         File jarFile = createJarArchive();
         if (this.attachClasses) {
             this.projectHelper.attachArtifact(this.project, "jar", "classes", jarFile);
         }
 
+        if (webAssets) {
+            buildMetrics.start("web");
+            optimizeWebAssets();
+        }
+
+        buildMetrics.start("amp");
         File ampFile = createArchive();
         if (this.classifier != null) {
             this.projectHelper.attachArtifact(this.project, "amp", this.classifier, ampFile);
@@ -155,9 +483,24 @@ public class AmpMojo extends AbstractMojo {
         }
         
         if (attachConfig) {
+            buildMetrics.start("config");
             File configFile = createConfigArchive();
             this.projectHelper.attachArtifact(this.project, "jar", "config", configFile);
         }
+
+        if (buildState != null) {
+            try {
+                buildState.save();
+            } catch (IOException e) {
+                throw new MojoExecutionException("Error writing build state to " + buildStateFile, e);
+            }
+        }
+
+        try {
+            buildMetrics.report(getLog(), reportMetrics ? metricsDirectory : null);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing build metrics to " + metricsDirectory, e);
+        }
     }
 
     /**
@@ -178,9 +521,27 @@ public class AmpMojo extends AbstractMojo {
         jarArchiver.setArchiver(new JarArchiver());
         jarArchiver.setOutputFile(jarFile);
         
+        Map<String, String> inputs = fingerprintInputs(this.classesDirectory, new String[] {}, new String[] {});
+        if (isUpToDate("jar", inputs, jarFile, isParallelArchiver() ? null : jarArchiver.getArchiver())) {
+            return jarFile;
+        }
+        String cacheKey = getCacheKey("jar", this.classesDirectory, new String[] {}, new String[] {});
+        if (restoreFromCache(cacheKey, jarFile)) {
+            recordInputs("jar", inputs, jarFile);
+            return jarFile;
+        }
+        if (isParallelArchiver()) {
+            createParallelArchive(jarFile, this.classesDirectory, new String[] {}, new String[] {});
+            recordInputs("jar", inputs, jarFile);
+            recordMetrics(this.classesDirectory, jarFile);
+            storeInCache(cacheKey, jarFile);
+            return jarFile;
+        }
         try {
             jarArchiver.getArchiver().addDirectory(this.classesDirectory, new String[] {}, new String[] {});
             jarArchiver.createArchive(this.session, this.project, this.archive);
+            recordInputs("jar", inputs, jarFile);
+            recordMetrics(this.classesDirectory, jarFile);
             return jarFile;
         }
         catch (Exception e) {
@@ -188,6 +549,53 @@ public class AmpMojo extends AbstractMojo {
         }
     }
     
+    /**
+     * Minifies, bundles and compresses the JavaScript and CSS files of the web folder of the AMP build directory
+     * changed since the last build, see {@link WebAssetPipeline}
+     */
+    protected void optimizeWebAssets() throws MojoExecutionException {
+        File webDirectory = new File(this.ampBuildDirectory, AmpModel.AMP_FOLDER_WEB);
+        if (!webDirectory.isDirectory()) {
+            getLog().debug("No web assets to optimize in " + webDirectory);
+            return;
+        }
+        WebAssetPipeline pipeline = new WebAssetPipeline(webDirectory, this.webAssetsStateFile, getLog());
+        pipeline.setBundle(this.webAssetsBundle);
+        pipeline.setPrecompress(this.webAssetsPrecompress);
+        pipeline.setTemplateDirectory(new File(this.ampBuildDirectory, AmpModel.AMP_FOLDER_CONFIG));
+        try {
+            // Only the jsp, css, images, scripts and php folders of the web folder are installed in the WAR
+            pipeline.setManifestFile(new File(this.ampBuildDirectory, AmpModel.AMP_FOLDER_CONFIG + "/alfresco/module/"
+                    + getModuleId() + "/" + WebAssetPipeline.MANIFEST));
+            pipeline.process();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error optimizing the web assets of " + webDirectory, e);
+        }
+        buildMetrics.getCurrentPhase().read(pipeline.getBytesRead()).written(pipeline.getBytesWritten())
+                .entries(pipeline.getProcessed());
+    }
+
+    /**
+     * @return the module.id of the module.properties of the AMP build directory, or else the artifactId of the project
+     */
+    private String getModuleId() throws IOException {
+        File file = new File(this.ampBuildDirectory, AmpDescriptor.MODULE_PROPERTIES);
+        if (file.isFile()) {
+            Properties properties = new Properties();
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+            String moduleId = properties.getProperty(AmpDescriptor.PROP_ID, "").trim();
+            if (moduleId.length() > 0) {
+                return moduleId;
+            }
+        }
+        return this.project.getArtifactId();
+    }
+
     /**
      * Creates and returns the AMP archive, invoking the AmpArchiver
      *
@@ -215,16 +623,246 @@ public class AmpMojo extends AbstractMojo {
         if (!this.ampBuildDirectory.exists()) {
             getLog().warn("ampBuildDirectory does not exist - AMP will be empty");
         } else {
-              try {
-                ampArchiver.getArchiver().addDirectory(this.ampBuildDirectory, new String[]{"**"}, new String[]{});
-                ampArchiver.createArchive(this.session, this.project, this.archive);
+              Map<String, String> inputs = fingerprintInputs(this.ampBuildDirectory, new String[]{"**"}, new String[]{});
+              if (isUpToDate("amp", inputs, ampFile, isParallelArchiver() ? null : ampArchiver.getArchiver())) {
+                  return ampFile;
+              }
+              String cacheKey = getCacheKey("amp", this.ampBuildDirectory, new String[]{"**"}, new String[]{});
+              if (restoreFromCache(cacheKey, ampFile)) {
+                  recordInputs("amp", inputs, ampFile);
+                  writeChecksum(ampFile);
+                  return ampFile;
               }
-              catch (Exception e) {
-                  throw new MojoExecutionException("Error creating AMP", e);
+              long start = System.currentTimeMillis();
+              if (isParallelArchiver()) {
+                  createParallelArchive(ampFile, this.ampBuildDirectory, new String[]{"**"}, new String[]{});
+              } else {
+                  createPlexusArchive(ampArchiver);
+              }
+              long elapsed = System.currentTimeMillis() - start;
+              recordInputs("amp", inputs, ampFile);
+              recordMetrics(this.ampBuildDirectory, ampFile);
+              if (isReproducible()) {
+                  writeChecksum(ampFile);
+              }
+              storeInCache(cacheKey, ampFile);
+              if (this.compareArchivers) {
+                  buildMetrics.start("compare");
+                  compareArchivers(ampFile, elapsed);
               }
         }
         return ampFile;
     }
+
+    /**
+     * Creates the AMP archive using the plexus AmpArchiver
+     */
+    private void createPlexusArchive(MavenArchiver ampArchiver) throws MojoExecutionException {
+        try {
+            ampArchiver.getArchiver().addDirectory(this.ampBuildDirectory, new String[]{"**"}, new String[]{});
+            ampArchiver.createArchive(this.session, this.project, this.archive);
+        }
+        catch (Exception e) {
+            throw new MojoExecutionException("Error creating AMP", e);
+        }
+    }
+
+    /**
+     * Creates an archive (including manifest and Maven descriptor, as MavenArchiver would do)
+     * using the ParallelZipWriter
+     *
+     * @param archiveFile the archive to create
+     * @param directory   the directory containing the files to archive
+     * @param includes    the files to include, all if empty
+     * @param excludes    the files to exclude
+     */
+    protected void createParallelArchive(File archiveFile, File directory, String[] includes, String[] excludes)
+            throws MojoExecutionException {
+        ParallelZipWriter writer = new ParallelZipWriter(archiveFile, this.archiverThreads);
+        if (!this.archive.isCompress()) {
+            writer.setCompressionLevel(0);
+        }
+        if (isReproducible()) {
+            writer.setSorted(true);
+            writer.setFixedTime(getOutputTime(this.outputTimestamp));
+        }
+        try {
+            long now = System.currentTimeMillis();
+            ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+            getManifest().write(manifest);
+            writer.addBytes("META-INF/MANIFEST.MF", manifest.toByteArray(), now);
+            if (this.archive.isAddMavenDescriptor() && this.project.getFile() != null) {
+                String descriptorPath = "META-INF/maven/" + this.project.getGroupId() + "/" + this.project.getArtifactId() + "/";
+                writer.addFile(this.project.getFile(), descriptorPath + "pom.xml");
+                String pomProperties = "version=" + this.project.getVersion() + "\n"
+                        + "groupId=" + this.project.getGroupId() + "\n"
+                        + "artifactId=" + this.project.getArtifactId() + "\n";
+                writer.addBytes(descriptorPath + "pom.properties", pomProperties.getBytes("ISO-8859-1"), now);
+            }
+            List<String> allExcludes = new ArrayList<String>();
+            for (String exclude : excludes) {
+                allExcludes.add(exclude);
+            }
+            allExcludes.add("META-INF/MANIFEST.MF");
+            writer.addDirectory(directory, "", includes, allExcludes.toArray(new String[allExcludes.size()]));
+            int entries = writer.write();
+            getLog().debug("Written " + entries + " entries to " + archiveFile + " using " + writer.getThreads() + " threads");
+        } catch (Exception e) {
+            throw new MojoExecutionException("Error creating " + archiveFile, e);
+        }
+    }
+
+    /**
+     * Builds the manifest the same way MavenArchiver does, merging the user provided manifest file if any
+     */
+    private Manifest getManifest() throws Exception {
+        Manifest manifest = new MavenArchiver().getManifest(this.session, this.project, this.archive);
+        File manifestFile = this.archive.getManifestFile();
+        if (manifestFile != null) {
+            InputStream in = new FileInputStream(manifestFile);
+            try {
+                manifest.getMainAttributes().putAll(new java.util.jar.Manifest(in).getMainAttributes());
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        if (isReproducible()) {
+            // Depend on the machine building the archive rather than on its inputs
+            manifest.getMainAttributes().remove(new Attributes.Name("Built-By"));
+            manifest.getMainAttributes().remove(new Attributes.Name("Build-Jdk"));
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the SHA-1 of a reproducible archive next to it (as archive.sha1), so that later steps
+     * can find out whether the archive actually changed without comparing its content
+     */
+    private void writeChecksum(File archiveFile) throws MojoExecutionException {
+        File checksumFile = new File(archiveFile.getPath() + ".sha1");
+        try {
+            String checksum = BuildState.checksum(archiveFile);
+            FileUtils.writeStringToFile(checksumFile, checksum, "US-ASCII");
+            getLog().info("Reproducible AMP " + archiveFile.getName() + " SHA-1: " + checksum);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing checksum of " + archiveFile + " to " + checksumFile, e);
+        }
+    }
+
+    protected boolean isParallelArchiver() {
+        return this.parallelArchiver || isReproducible();
+    }
+
+    protected boolean isReproducible() {
+        return this.reproducible || (this.outputTimestamp != null && this.outputTimestamp.trim().length() > 1);
+    }
+
+    /**
+     * Parses outputTimestamp the same way Maven plugins supporting project.build.outputTimestamp do: either
+     * a number of seconds since the epoch or an ISO 8601 date/time; empty or single character values
+     * (used to disable reproducible builds) mean no timestamp
+     *
+     * @return the timestamp in milliseconds since the epoch, or DEFAULT_OUTPUT_TIME if not set
+     */
+    static long getOutputTime(String outputTimestamp) {
+        if (outputTimestamp == null || outputTimestamp.trim().length() < 2) {
+            return DEFAULT_OUTPUT_TIME;
+        }
+        String value = outputTimestamp.trim();
+        if (value.matches("\\d+")) {
+            return Long.parseLong(value) * 1000;
+        }
+        try {
+            // javax.xml.datatype rather than javax.xml.bind, which is no longer part of the JDK from Java 11
+            return DatatypeFactory.newInstance().newXMLGregorianCalendar(value).toGregorianCalendar().getTimeInMillis();
+        } catch (DatatypeConfigurationException e) {
+            throw new IllegalStateException("No XML datatype factory to parse outputTimestamp", e);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid outputTimestamp '" + value
+                    + "': expected an ISO 8601 date/time (e.g. 2014-01-01T00:00:00Z) or a number of seconds since the epoch", e);
+        }
+    }
+
+    /**
+     * Builds the AMP once more with the other archiver, logging the time taken by both and
+     * failing if the files they contain differ
+     *
+     * @param ampFile the AMP just created
+     * @param elapsed the time it took to create ampFile, in milliseconds
+     */
+    private void compareArchivers(File ampFile, long elapsed) throws MojoExecutionException {
+        File comparisonFile = new File(ampFile.getPath() + ".compare");
+        long start = System.currentTimeMillis();
+        if (isParallelArchiver()) {
+            MavenArchiver ampArchiver = new MavenArchiver();
+            ampArchiver.setArchiver(new AmpArchiver());
+            ampArchiver.setOutputFile(comparisonFile);
+            createPlexusArchive(ampArchiver);
+        } else {
+            createParallelArchive(comparisonFile, this.ampBuildDirectory, new String[]{"**"}, new String[]{});
+        }
+        long comparisonElapsed = System.currentTimeMillis() - start;
+        long parallelElapsed = isParallelArchiver() ? elapsed : comparisonElapsed;
+        long plexusElapsed = isParallelArchiver() ? comparisonElapsed : elapsed;
+        getLog().info("AMP created in " + parallelElapsed + " ms (" + (isParallelArchiver() ? ampFile : comparisonFile).length()
+                + " bytes) by the parallel archiver and in " + plexusElapsed + " ms ("
+                + (isParallelArchiver() ? comparisonFile : ampFile).length() + " bytes) by the plexus archiver");
+        try {
+            List<String> differences = compareArchiveContent(ampFile, comparisonFile);
+            if (!differences.isEmpty()) {
+                for (String difference : differences) {
+                    getLog().error(difference);
+                }
+                throw new MojoExecutionException("The parallel and plexus archivers produced different AMPs, see "
+                        + ampFile + " and " + comparisonFile);
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error comparing " + ampFile + " and " + comparisonFile, e);
+        }
+        comparisonFile.delete();
+    }
+
+    /**
+     * Compares the files contained in two archives by name, size and CRC. Directories and generated
+     * metadata (manifest and pom.properties) are not compared
+     *
+     * @return the differences found, empty if the archives have the same content
+     */
+    private static List<String> compareArchiveContent(File expected, File actual) throws IOException {
+        Map<String, String> expectedEntries = listArchiveContent(expected);
+        Map<String, String> actualEntries = listArchiveContent(actual);
+        List<String> differences = new ArrayList<String>();
+        for (Map.Entry<String, String> entry : expectedEntries.entrySet()) {
+            String actualContent = actualEntries.remove(entry.getKey());
+            if (actualContent == null) {
+                differences.add(entry.getKey() + " is missing from " + actual.getName());
+            } else if (!actualContent.equals(entry.getValue())) {
+                differences.add(entry.getKey() + " differs between " + expected.getName() + " and " + actual.getName());
+            }
+        }
+        for (String name : actualEntries.keySet()) {
+            differences.add(name + " is missing from " + expected.getName());
+        }
+        return differences;
+    }
+
+    private static Map<String, String> listArchiveContent(File archiveFile) throws IOException {
+        Map<String, String> content = new TreeMap<String, String>();
+        ZipFile zip = new ZipFile(archiveFile);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (!entry.isDirectory() && !name.equals("META-INF/MANIFEST.MF") && !name.endsWith("/pom.properties")) {
+                    content.put(name, entry.getSize() + ":" + entry.getCrc());
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return content;
+    }
     
     /**
      * Creates and returns the config archive, invoking the MavenArchiver
@@ -244,12 +882,31 @@ public class AmpMojo extends AbstractMojo {
         configArchiver.setArchiver(new JarArchiver());
         configArchiver.setOutputFile(configFile);
         
+        File configDirectory = new File(this.ampBuildDirectory, "config");
+        Map<String, String> inputs = fingerprintInputs(configDirectory, new String[] { }, new String[] { "**/*.class" });
+        if (isUpToDate("config", inputs, configFile, isParallelArchiver() ? null : configArchiver.getArchiver())) {
+            return configFile;
+        }
+        String cacheKey = getCacheKey("config", configDirectory, new String[] { }, new String[] { "**/*.class" });
+        if (restoreFromCache(cacheKey, configFile)) {
+            recordInputs("config", inputs, configFile);
+            return configFile;
+        }
+        if (isParallelArchiver()) {
+            createParallelArchive(configFile, configDirectory, new String[] { }, new String[] { "**/*.class" });
+            recordInputs("config", inputs, configFile);
+            recordMetrics(configDirectory, configFile);
+            storeInCache(cacheKey, configFile);
+            return configFile;
+        }
         try {
             configArchiver.getArchiver().addDirectory(
-                    new File(this.ampBuildDirectory, "config"), 
+                    configDirectory, 
                     new String[] { }, 
                     new String[] { "**/*.class" });
             configArchiver.createArchive(this.session, this.project, this.archive);
+            recordInputs("config", inputs, configFile);
+            recordMetrics(configDirectory, configFile);
             return configFile;
         }
         catch (Exception e) {
@@ -257,6 +914,147 @@ public class AmpMojo extends AbstractMojo {
         }
     }
 
+    /**
+     * Fingerprints the inputs of an archive, when packaging incrementally
+     *
+     * @return the fingerprints of the files to be archived, or null if not packaging incrementally
+     */
+    protected Map<String, String> fingerprintInputs(File directory, String[] includes, String[] excludes)
+            throws MojoExecutionException {
+        if (this.buildState == null) {
+            return null;
+        }
+        try {
+            return this.buildState.fingerprint(directory, includes, excludes);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error fingerprinting the content of " + directory, e);
+        }
+    }
+
+    /**
+     * Checks whether an archive needs to be (re-)created, when packaging incrementally.
+     * If only additions or modifications were made since the last build, the archiver is switched to
+     * update mode, so that only the changed entries are written again into the existing archive.
+     *
+     * @param scope      the build state scope of the archive
+     * @param inputs     the current fingerprints of the archive inputs
+     * @param archive    the archive file
+     * @param archiver   the archiver that would create the archive, null if it does not support updates
+     * @return true if the existing archive is up to date and can be used as is
+     */
+    protected boolean isUpToDate(String scope, Map<String, String> inputs, File archive, JarArchiver archiver)
+            throws MojoExecutionException {
+        if (this.buildState == null) {
+            return false;
+        }
+        try {
+            if (!this.buildState.isOutputUnchanged(scope, archive, getBuildConfiguration())) {
+                getLog().debug("No reusable " + scope + " archive found in " + archive + ", creating it");
+                return false;
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error fingerprinting " + archive, e);
+        }
+        BuildState.Delta delta = this.buildState.compare(scope, inputs);
+        if (delta.isEmpty()) {
+            getLog().info("Skipping creation of " + archive.getName() + " - no changes since the last build");
+            return true;
+        }
+        if (delta.getRemoved().isEmpty() && archiver != null) {
+            getLog().info("Updating " + archive.getName() + " with changed entries (" + delta + ")");
+            archiver.setUpdateMode(true);
+        } else {
+            getLog().info("Re-creating " + archive.getName() + " (" + delta + ")");
+        }
+        return false;
+    }
+
+    /**
+     * Records the inputs an archive has just been created from, when packaging incrementally
+     */
+    protected void recordInputs(String scope, Map<String, String> inputs, File archive)
+            throws MojoExecutionException {
+        if (this.buildState == null) {
+            return;
+        }
+        try {
+            this.buildState.update(scope, inputs, archive, getBuildConfiguration());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error fingerprinting " + archive, e);
+        }
+    }
+
+    /**
+     * Records the size of the files an archive was just created from, and the size and entries of the archive,
+     * in the current phase metrics
+     */
+    protected void recordMetrics(File directory, File archive) throws MojoExecutionException {
+        if (this.buildMetrics == null || this.buildMetrics.getCurrentPhase() == null) {
+            return;
+        }
+        try {
+            this.buildMetrics.getCurrentPhase().archive(directory, archive);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error reading " + archive, e);
+        }
+    }
+
+    /**
+     * Computes the artifact cache key of an archive, from the content of the files to archive and the
+     * configuration of the build
+     *
+     * @return the key, or null if the artifact cache is not used
+     */
+    protected String getCacheKey(String scope, File directory, String[] includes, String[] excludes)
+            throws MojoExecutionException {
+        if (this.cache == null) {
+            return null;
+        }
+        try {
+            Map<String, String> inputs = new TreeMap<String, String>();
+            for (Map.Entry<String, String> input : new BuildState(this.buildStateFile, true).fingerprint(directory, includes, excludes).entrySet()) {
+                // Modification times are left out, as they differ between checkouts and clean builds
+                String[] fingerprint = input.getValue().split(":");
+                inputs.put(input.getKey(), fingerprint[0] + ":" + fingerprint[2]);
+            }
+            File pom = this.project.getFile();
+            String output = scope + ":" + this.project.getId() + ":" + this.classifier
+                    + ":" + (pom != null && pom.isFile() ? BuildState.checksum(pom) : "-")
+                    + ":" + this.archive.isCompress() + ":" + getOutputTime(this.outputTimestamp);
+            return ArtifactCache.key(output, inputs);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error fingerprinting the content of " + directory, e);
+        }
+    }
+
+    /**
+     * @return whether the archive was restored from the artifact cache
+     */
+    protected boolean restoreFromCache(String cacheKey, File archive) {
+        return cacheKey != null && this.cache.restore(cacheKey, archive);
+    }
+
+    protected void storeInCache(String cacheKey, File archive) throws MojoExecutionException {
+        if (cacheKey == null) {
+            return;
+        }
+        try {
+            this.cache.store(cacheKey, archive);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error storing " + archive + " in the artifact cache " + this.artifactCacheDirectory, e);
+        }
+    }
+
+    /**
+     * Describes the build configuration the archives depend on other than their content (i.e. project
+     * coordinates and POM), so that changing it invalidates the archives built incrementally
+     */
+    private String getBuildConfiguration() {
+        File pom = this.project.getFile();
+        return this.project.getId() + ":" + this.classifier + ":" + (pom != null ? pom.lastModified() : 0)
+                + (isReproducible() ? ":reproducible@" + getOutputTime(this.outputTimestamp) : "");
+    }
+
     /**
      * Builds a File object pointing to the target AMP package; the pointer to the File is created taking into
      * account the (optional) artifact classifier defined
@@ -287,7 +1085,43 @@ public class AmpMojo extends AbstractMojo {
         dependencies = project.getArtifacts();
 
         ScopeArtifactFilter filter = new ScopeArtifactFilter( Artifact.SCOPE_RUNTIME );
-        
+        boolean link = STAGING_LINK.equals(dependencyStaging);
+        if (!link && !STAGING_COPY.equals(dependencyStaging)) {
+            throw new MojoExecutionException("Invalid dependencyStaging '" + dependencyStaging + "', expected "
+                    + STAGING_COPY + " or " + STAGING_LINK);
+        }
+        File libDirectory = new File(ampBuildDirectory, AmpModel.AMP_FOLDER_LIB);
+        Map<String, String> previouslyStaged = readStagedDependencies();
+        Map<String, String> staged = new TreeMap<String, String>();
+        int linked = 0, copied = 0, unchanged = 0;
+        BuildMetrics.Phase phase = buildMetrics != null && buildMetrics.getCurrentPhase() != null
+                ? buildMetrics.getCurrentPhase() : new BuildMetrics(project.getId(), "amp").start("dependencies");
+
+        // The reconciliation report depends on the target WAR as well, so reconciled lib folders are not cached
+        ArtifactCache libCache = null;
+        String libCacheKey = null;
+        if (artifactCache && !reconcileDependencies) {
+            libCache = cache != null ? cache : new ArtifactCache(artifactCacheDirectory, artifactCacheSize * 1024 * 1024, getLog());
+            libCacheKey = getLibCacheKey(dependencies, filter);
+            try {
+                if (libCache.restore(libCacheKey, libDirectory, link)) {
+                    for (Artifact artifact : dependencies) {
+                        if (!artifact.isOptional() && filter.include(artifact) && AmpModel.EXTENSION_LIST.contains(artifact.getType())) {
+                            File targetFile = new File(libDirectory, artifact.getFile().getName());
+                            staged.put(targetFile.getName(), getStagedRecord(artifact.getFile(), targetFile));
+                        }
+                    }
+                    removeStaleDependencies(libDirectory, previouslyStaged, staged);
+                    phase.entries(staged.size());
+                    return;
+                }
+            } catch (IOException e) {
+                throw new MojoExecutionException("Error restoring " + libDirectory + " from the artifact cache " + artifactCacheDirectory, e);
+            }
+        }
+        WarLibraryIndex warIndex = reconcileDependencies ? loadWarIndex() : null;
+        Map<Artifact, WarLibraryIndex.Match> matches = new TreeMap<Artifact, WarLibraryIndex.Match>();
+
         for (Artifact artifact : dependencies) {
             if ( !artifact.isOptional() && filter.include( artifact ) )
             {
@@ -295,15 +1129,236 @@ public class AmpMojo extends AbstractMojo {
 
                 if (AmpModel.EXTENSION_LIST.contains(type))
                 {
-                    File targetFile = new File(ampBuildDirectory + File.separator + AmpModel.AMP_FOLDER_LIB + File.separator + artifact.getFile().getName());
+                    File targetFile = new File(libDirectory, artifact.getFile().getName());
                     String targetFilePath = targetFile.getPath();
                     try {
-                        FileUtils.copyFile(artifact.getFile(), targetFile);
+                        WarLibraryIndex.Match match = warIndex != null ? warIndex.match(artifact.getGroupId(),
+                                artifact.getArtifactId(), artifact.getBaseVersion(), artifact.getFile()) : null;
+                        if (match != null) {
+                            matches.put(artifact, match);
+                            if (match.isDuplicate() && DUPLICATES_EXCLUDE.equals(duplicateDependencies)) {
+                                continue;
+                            }
+                        }
+                        if (isStaged(artifact.getFile(), targetFile, previouslyStaged.get(targetFile.getName()))) {
+                            staged.put(targetFile.getName(), getStagedRecord(artifact.getFile(), targetFile));
+                            unchanged++;
+                            continue;
+                        }
+                        phase.entries(1);
+                        // Never write through an existing target, it may be a link to the local repository
+                        if (targetFile.exists() && !targetFile.delete()) {
+                            throw new IOException("Cannot delete " + targetFilePath);
+                        }
+                        if (link && createLink(artifact.getFile(), targetFile)) {
+                            linked++;
+                        } else {
+                            FileUtils.copyFile(artifact.getFile(), targetFile);
+                            phase.read(targetFile.length()).written(targetFile.length());
+                            copied++;
+                        }
+                        staged.put(targetFile.getName(), getStagedRecord(artifact.getFile(), targetFile));
                     } catch (IOException e) {
-                        throw new MojoExecutionException("Error copying transitive dependency " + artifact.getId() + " to file: " + targetFilePath);
+                        throw new MojoExecutionException("Error copying transitive dependency " + artifact.getId() + " to file: " + targetFilePath, e);
+                    }
+                }
+            }
+        }
+        int removed = removeStaleDependencies(libDirectory, previouslyStaged, staged);
+        getLog().debug("Staged dependencies in " + libDirectory + ": " + linked + " linked, " + copied + " copied, "
+                + unchanged + " unchanged, " + removed + " removed");
+        if (warIndex != null) {
+            phase.read(warIndex.getBytesRead());
+            reportReconciliation(matches);
+        }
+        if (libCacheKey != null) {
+            try {
+                libCache.store(libCacheKey, libDirectory, staged.keySet());
+            } catch (IOException e) {
+                throw new MojoExecutionException("Error storing " + libDirectory + " in the artifact cache " + artifactCacheDirectory, e);
+            }
+        }
+    }
+
+    /**
+     * Computes the artifact cache key of the staged lib folder, from the coordinates and size of the dependencies
+     * (and the modification time of SNAPSHOT ones, which change under the same coordinates) rather than their
+     * content, so that no dependency is read to find out the lib folder is cached
+     */
+    private String getLibCacheKey(Set<Artifact> dependencies, ScopeArtifactFilter filter) {
+        Map<String, String> inputs = new TreeMap<String, String>();
+        for (Artifact artifact : dependencies) {
+            if (!artifact.isOptional() && filter.include(artifact) && AmpModel.EXTENSION_LIST.contains(artifact.getType())) {
+                File file = artifact.getFile();
+                inputs.put(file.getName(), artifact.getId() + ":" + file.length()
+                        + (artifact.isSnapshot() ? ":" + file.lastModified() : ""));
+            }
+        }
+        return ArtifactCache.key("lib", inputs);
+    }
+
+    /**
+     * Loads the index of the libraries of the target WAR, resolving the WAR if no targetWarLocation is set
+     */
+    protected WarLibraryIndex loadWarIndex() throws MojoExecutionException {
+        if (!DUPLICATES_EXCLUDE.equals(duplicateDependencies) && !DUPLICATES_REPORT.equals(duplicateDependencies)) {
+            throw new MojoExecutionException("Invalid duplicateDependencies '" + duplicateDependencies + "', expected "
+                    + DUPLICATES_EXCLUDE + " or " + DUPLICATES_REPORT);
+        }
+        File war = targetWarLocation;
+        if (war == null) {
+            if (targetWarGroupId == null || targetWarArtifactId == null || targetWarVersion == null) {
+                throw new MojoExecutionException("No WAR to reconcile the dependencies with: set targetWarLocation, or the"
+                        + " alfresco.client.war, alfresco.client.war.groupId and alfresco.client.war.version properties");
+            }
+            Artifact warArtifact = repositorySystem.createArtifact(targetWarGroupId, targetWarArtifactId, targetWarVersion, "war");
+            ArtifactResolutionResult result = repositorySystem.resolve(new ArtifactResolutionRequest()
+                    .setArtifact(warArtifact)
+                    .setLocalRepository(localRepository)
+                    .setRemoteRepositories(project.getRemoteArtifactRepositories()));
+            if (!result.isSuccess() || warArtifact.getFile() == null) {
+                throw new MojoExecutionException("Could not resolve the WAR to reconcile the dependencies with: " + warArtifact.getId());
+            }
+            war = warArtifact.getFile();
+        }
+        if (!war.exists()) {
+            throw new MojoExecutionException("The WAR to reconcile the dependencies with does not exist: " + war);
+        }
+        WarLibraryIndex warIndex = new WarLibraryIndex(war, warIndexFile, getLog());
+        try {
+            warIndex.load();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error indexing the libraries of " + war, e);
+        }
+        return warIndex;
+    }
+
+    /**
+     * Logs the duplicates and conflicts found by reconciling the dependencies with the target WAR, writes them to
+     * dependencyReportFile, and fails the build if asked to
+     */
+    private void reportReconciliation(Map<Artifact, WarLibraryIndex.Match> matches) throws MojoExecutionException {
+        boolean exclude = DUPLICATES_EXCLUDE.equals(duplicateDependencies);
+        List<String> report = new ArrayList<String>();
+        List<String> failures = new ArrayList<String>();
+        for (Map.Entry<Artifact, WarLibraryIndex.Match> entry : matches.entrySet()) {
+            WarLibraryIndex.Match match = entry.getValue();
+            String line = match.getKind() + " " + entry.getKey().getId() + ": " + match.getDetail()
+                    + (match.isDuplicate() && exclude ? " (excluded)" : "");
+            report.add(line);
+            if (match.isDuplicate() && exclude) {
+                getLog().info("Excluded dependency " + entry.getKey().getId() + " from the AMP: " + match.getDetail());
+            } else {
+                getLog().warn("Dependency " + line);
+                failures.add(line);
+            }
+        }
+        try {
+            FileUtils.writeLines(dependencyReportFile, "UTF-8", report);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing the dependency report to " + dependencyReportFile, e);
+        }
+        if (failOnConflict && !failures.isEmpty()) {
+            throw new MojoExecutionException(failures.size() + " dependencies of the AMP conflict with the libraries of the"
+                    + " target WAR, see " + dependencyReportFile + ":\n" + StringUtils.join(failures.iterator(), "\n"));
+        }
+    }
+
+    /**
+     * Whether a dependency was already staged by a previous build: either the target is the very same file
+     * (a hard link to the local repository), or neither the source nor the target changed since the previous
+     * build staged it. No content is read, so that an unchanged build does not read every dependency twice
+     *
+     * @param record what the previous build recorded about the staged dependency, null if it was not staged
+     */
+    private boolean isStaged(File source, File target, String record) throws IOException {
+        if (!target.isFile() || target.length() != source.length()) {
+            return false;
+        }
+        return Files.isSameFile(source.toPath(), target.toPath()) || getStagedRecord(source, target).equals(record);
+    }
+
+    /**
+     * @return what is recorded in stagedDependenciesFile about a staged dependency, to find out whether it changed
+     */
+    private static String getStagedRecord(File source, File target) {
+        return source.getAbsolutePath() + "\t" + source.length() + "\t" + source.lastModified()
+                + "\t" + target.length() + "\t" + target.lastModified();
+    }
+
+    /**
+     * @return the dependencies staged by the previous build, by file name, with what was recorded about them
+     */
+    private Map<String, String> readStagedDependencies() throws MojoExecutionException {
+        Map<String, String> staged = new TreeMap<String, String>();
+        if (stagedDependenciesFile.isFile()) {
+            try {
+                for (String line : FileUtils.readLines(stagedDependenciesFile, "UTF-8")) {
+                    int tab = line.indexOf('\t');
+                    // Files written by older versions only list the file names
+                    staged.put(tab < 0 ? line : line.substring(0, tab), tab < 0 ? null : line.substring(tab + 1));
+                }
+            } catch (IOException e) {
+                throw new MojoExecutionException("Error reading the staged dependencies from " + stagedDependenciesFile, e);
+            }
+        }
+        return staged;
+    }
+
+    /**
+     * Hard links target to source, falling back to copy (for the rest of the build) if the file system does
+     * not support hard links or source and target are on different file systems
+     *
+     * @return whether the link was created
+     */
+    private boolean createLink(File source, File target) {
+        if (!linksSupported) {
+            return false;
+        }
+        try {
+            target.getParentFile().mkdirs();
+            Files.createLink(target.toPath(), source.toPath());
+            return true;
+        } catch (IOException e) {
+            getLog().info("Cannot hard link dependencies into " + target.getParent() + " (" + e + "), copying them instead");
+        } catch (UnsupportedOperationException e) {
+            getLog().info("Hard links are not supported, copying dependencies into " + target.getParent());
+        }
+        linksSupported = false;
+        return false;
+    }
+
+    /**
+     * Removes the dependencies staged by the previous build which are no longer dependencies of the project,
+     * then records the currently staged ones in stagedDependenciesFile. Files in the lib folder that were
+     * not staged by this goal are left alone.
+     *
+     * @param previouslyStaged the dependencies staged by the previous build
+     * @param staged           the dependencies staged by this build, with what is recorded about them
+     * @return the number of files removed
+     */
+    private int removeStaleDependencies(File libDirectory, Map<String, String> previouslyStaged, Map<String, String> staged)
+            throws MojoExecutionException {
+        int removed = 0;
+        try {
+            for (String name : previouslyStaged.keySet()) {
+                File stale = new File(libDirectory, name);
+                if (name.length() > 0 && !staged.containsKey(name) && stale.isFile()) {
+                    getLog().debug("Removing stale dependency " + stale);
+                    if (!stale.delete()) {
+                        throw new IOException("Cannot delete " + stale);
                     }
+                    removed++;
                 }
             }
+            List<String> lines = new ArrayList<String>(staged.size());
+            for (Map.Entry<String, String> entry : staged.entrySet()) {
+                lines.add(entry.getKey() + "\t" + entry.getValue());
+            }
+            FileUtils.writeLines(stagedDependenciesFile, "UTF-8", lines);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error removing stale dependencies from " + libDirectory, e);
         }
+        return removed;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,315 @@
+package org.alfresco.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A local cache of build outputs (JARs, AMPs, WARs with AMPs installed), addressed by the hash of the inputs
+ * they were built from, shared by all the modules and builds using the same cache folder (by default in the
+ * local Maven repository folder). An output whose inputs hash to a cached entry is copied from the cache rather
+ * than built again.
+ * <p/>
+ * An entry is either a whole file or folder, restored in place of the output, or some of the files of a folder (e.g.
+ * the files installing AMPs changed in an exploded WAR, or the dependencies staged into the AMP lib folder), restored
+ * onto the folder.
+ * <p/>
+ * Each entry is a folder named after its key, holding the cached file or folder and its size. Entries are written
+ * to a temporary folder and then moved in place, so that concurrent builds never see partial entries. The
+ * modification time of an entry records its last use: when the cache grows larger than its maximum size, the
+ * least recently used entries are evicted.
+ */
+public class ArtifactCache {
+
+    /** Bumped whenever the way outputs are built changes, so that entries of older plugin versions are not reused */
+    static final String CACHE_VERSION = "2";
+
+    private static final String CONTENT = "content";
+    private static final String SIZE = "size";
+    private static final String TEMP = "tmp";
+
+    private final File directory;
+    private final long maxSize;
+    private final Log log;
+
+    /**
+     * @param directory the cache folder
+     * @param maxSize   the maximum size of the cache, in bytes
+     */
+    public ArtifactCache(File directory, long maxSize, Log log) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.log = log;
+    }
+
+    /**
+     * Computes a cache key from a description of the output (e.g. its type and build configuration)
+     * and the fingerprints of its inputs
+     *
+     * @param output the description of the output
+     * @param inputs input name (e.g. relative path) to content hash, in a stable order
+     */
+    public static String key(String output, Map<String, String> inputs) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available in this JVM", e);
+        }
+        try {
+            digest.update((CACHE_VERSION + "\n" + output + "\n").getBytes("UTF-8"));
+            for (Map.Entry<String, String> input : inputs.entrySet()) {
+                digest.update((input.getKey() + "=" + input.getValue() + "\n").getBytes("UTF-8"));
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return BuildState.toHex(digest.digest());
+    }
+
+    /**
+     * @return a hash of the names, sizes and CRCs of the entries of an archive, which only depends on their content:
+     *         only the central directory of the archive is read
+     */
+    public static String contentHash(File archive) throws IOException {
+        Map<String, String> entries = new TreeMap<String, String>();
+        ZipFile zip = new ZipFile(archive);
+        try {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                if (!entry.isDirectory()) {
+                    entries.put(entry.getName(), entry.getSize() + ":" + Long.toHexString(entry.getCrc()));
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return key("archive", entries);
+    }
+
+    /**
+     * Copies a cached output to its location, replacing the file or folder found there
+     *
+     * @return false if the output is not cached (or could not be read from the cache), in which case the
+     *         target is left untouched
+     */
+    public boolean restore(String key, File target) {
+        File entry = getEntry(key);
+        File content = new File(entry, CONTENT);
+        if (!content.exists()) {
+            return false;
+        }
+        File temp = new File(target.getPath() + ".cached-" + UUID.randomUUID());
+        try {
+            // Keeps recently used entries from being evicted
+            entry.setLastModified(System.currentTimeMillis());
+            if (content.isDirectory()) {
+                FileUtils.copyDirectory(content, temp);
+            } else {
+                FileUtils.copyFile(content, temp);
+            }
+            delete(target);
+            Files.move(temp.toPath(), target.toPath());
+            log.info("Restored " + target.getName() + " from the artifact cache (" + key + ")");
+            return true;
+        } catch (IOException e) {
+            // e.g. the entry was evicted by a concurrent build while being copied
+            log.warn("Could not restore " + target + " from the artifact cache (" + e + "), building it");
+            FileUtils.deleteQuietly(temp);
+            return false;
+        }
+    }
+
+    /**
+     * Copies the files of a cached folder onto a folder, replacing the files found there and leaving the others
+     * alone. The files are first copied next to their target, and only then moved in place
+     *
+     * @param link whether to hard link the files rather than copying them, when the file system supports it. Only
+     *             for targets which are never written in place, as that would change the cached files as well
+     * @return false if the files are not cached (or could not be read from the cache), in which case the folder
+     *         is left untouched
+     * @throws IOException if the files read from the cache could not be moved in place
+     */
+    public boolean restore(String key, File target, boolean link) throws IOException {
+        File entry = getEntry(key);
+        File content = new File(entry, CONTENT);
+        if (!content.isDirectory()) {
+            return false;
+        }
+        Map<File, File> restored = new LinkedHashMap<File, File>();
+        try {
+            entry.setLastModified(System.currentTimeMillis());
+            for (File file : FileUtils.listFiles(content, null, true)) {
+                File targetFile = new File(target, file.getAbsolutePath().substring(content.getAbsolutePath().length() + 1));
+                File temp = new File(targetFile.getPath() + ".cached-" + UUID.randomUUID());
+                temp.getParentFile().mkdirs();
+                restored.put(temp, targetFile);
+                if (!link || !createLink(file, temp)) {
+                    FileUtils.copyFile(file, temp);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Could not restore " + target + " from the artifact cache (" + e + "), building it");
+            for (File temp : restored.keySet()) {
+                FileUtils.deleteQuietly(temp);
+            }
+            return false;
+        }
+        for (Map.Entry<File, File> file : restored.entrySet()) {
+            Files.move(file.getKey().toPath(), file.getValue().toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        log.info("Restored " + restored.size() + " file(s) of " + target.getName() + " from the artifact cache (" + key + ")");
+        return true;
+    }
+
+    /**
+     * Copies an output to the cache, unless its key is already cached, then evicts the least recently used
+     * entries if the cache grew too large
+     */
+    public void store(String key, File source) throws IOException {
+        store(key, source, null);
+    }
+
+    /**
+     * Copies some of the files of a folder to the cache, under their path relative to the folder, unless the key is
+     * already cached, then evicts the least recently used entries if the cache grew too large
+     *
+     * @param paths the relative paths (using '/' as separator) of the files to cache, null to cache the whole folder
+     */
+    public void store(String key, File source, Collection<String> paths) throws IOException {
+        File entry = getEntry(key);
+        if (new File(entry, CONTENT).exists()) {
+            entry.setLastModified(System.currentTimeMillis());
+            return;
+        }
+        File temp = new File(new File(directory, TEMP), key + "-" + UUID.randomUUID());
+        try {
+            File content = new File(temp, CONTENT);
+            long size;
+            if (paths != null) {
+                content.mkdirs();
+                for (String path : paths) {
+                    FileUtils.copyFile(new File(source, path), new File(content, path));
+                }
+                size = FileUtils.sizeOfDirectory(content);
+            } else if (source.isDirectory()) {
+                FileUtils.copyDirectory(source, content);
+                size = FileUtils.sizeOfDirectory(content);
+            } else {
+                FileUtils.copyFile(source, content);
+                size = content.length();
+            }
+            FileUtils.writeStringToFile(new File(temp, SIZE), String.valueOf(size), "UTF-8");
+            entry.getParentFile().mkdirs();
+            try {
+                Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), entry.toPath());
+            }
+            log.debug("Stored " + source + " in the artifact cache (" + key + ", " + size + " bytes)");
+        } catch (FileAlreadyExistsException e) {
+            // Stored by a concurrent build in the meantime
+        } catch (DirectoryNotEmptyException e) {
+            // Same, on file systems moving folders onto existing ones
+        } finally {
+            delete(temp);
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is no larger than its maximum size
+     */
+    void evict() throws IOException {
+        List<File> entries = new ArrayList<File>();
+        long size = 0;
+        File[] prefixes = directory.listFiles();
+        if (prefixes == null) {
+            return;
+        }
+        for (File prefix : prefixes) {
+            File[] children = prefix.isDirectory() && !prefix.getName().equals(TEMP) ? prefix.listFiles() : null;
+            if (children == null) {
+                continue;
+            }
+            for (File entry : children) {
+                entries.add(entry);
+                size += getSize(entry);
+            }
+        }
+        if (size <= maxSize) {
+            return;
+        }
+        Collections.sort(entries, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return a.lastModified() < b.lastModified() ? -1 : a.lastModified() > b.lastModified() ? 1 : 0;
+            }
+        });
+        for (File entry : entries) {
+            if (size <= maxSize) {
+                break;
+            }
+            long entrySize = getSize(entry);
+            delete(entry);
+            size -= entrySize;
+            log.debug("Evicted " + entry.getName() + " (" + entrySize + " bytes) from the artifact cache");
+        }
+    }
+
+    /**
+     * @return whether the link was created, false if the file system does not support hard links or source and
+     *         target are on different file systems
+     */
+    private static boolean createLink(File source, File target) {
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+            return true;
+        } catch (IOException e) {
+            return false;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    private File getEntry(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key);
+    }
+
+    private static long getSize(File entry) {
+        try {
+            return Long.parseLong(FileUtils.readFileToString(new File(entry, SIZE), "UTF-8").trim());
+        } catch (IOException e) {
+            return 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void delete(File file) throws IOException {
+        if (file.isDirectory()) {
+            FileUtils.deleteDirectory(file);
+        } else if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot delete " + file);
+        }
+    }
+}
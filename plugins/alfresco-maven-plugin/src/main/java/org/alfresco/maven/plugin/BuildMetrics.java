@@ -0,0 +1,232 @@
+package org.alfresco.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Records the wall time, bytes read and written and entries (files, archive entries, AMPs...) processed by
+ * each phase of a goal, e.g. staging dependencies, creating the JAR and creating the AMP.
+ * <p/>
+ * The metrics are logged at debug level, or as a summary at info level when reporting is enabled, in which
+ * case they are also written as JSON and CSV (one line per phase) to the metrics directory, named after the
+ * goal, so that CI servers can archive and chart them.
+ */
+public class BuildMetrics {
+
+    static final String CSV_HEADER = "module,goal,phase,start,elapsedMs,bytesRead,bytesWritten,entries";
+
+    private final String module;
+    private final String goal;
+    private final long start = System.currentTimeMillis();
+    private final List<Phase> phases = new ArrayList<Phase>();
+
+    /**
+     * @param module the id of the module (project) being built
+     * @param goal   the goal (or component) the metrics are recorded for, also naming the report files
+     */
+    public BuildMetrics(String module, String goal) {
+        this.module = module;
+        this.goal = goal;
+    }
+
+    /**
+     * Starts timing a phase, ending the phase currently running if any
+     */
+    public Phase start(String name) {
+        if (!phases.isEmpty()) {
+            phases.get(phases.size() - 1).end();
+        }
+        Phase phase = new Phase(name);
+        phases.add(phase);
+        return phase;
+    }
+
+    /**
+     * @return the phase running (or last run), null if no phase was started yet
+     */
+    public Phase getCurrentPhase() {
+        return phases.isEmpty() ? null : phases.get(phases.size() - 1);
+    }
+
+    /**
+     * @return the time elapsed from the creation of the metrics to the end of the last phase
+     */
+    public long getElapsed() {
+        Phase last = getCurrentPhase();
+        return last != null ? last.start + last.getElapsed() - start : System.currentTimeMillis() - start;
+    }
+
+    public List<Phase> getPhases() {
+        return Collections.unmodifiableList(phases);
+    }
+
+    /**
+     * Ends the running phase, logs the metrics and, if reportDirectory is not null, writes the report files
+     */
+    public void report(Log log, File reportDirectory) throws IOException {
+        if (!phases.isEmpty()) {
+            phases.get(phases.size() - 1).end();
+        }
+        if (reportDirectory == null) {
+            if (log.isDebugEnabled()) {
+                for (Phase phase : phases) {
+                    log.debug(goal + " " + phase);
+                }
+            }
+            return;
+        }
+        log.info("------------------------------------------------------------------------");
+        log.info(goal + " metrics (" + getElapsed() + " ms)");
+        for (Phase phase : phases) {
+            log.info("  " + phase);
+        }
+        log.info("------------------------------------------------------------------------");
+        reportDirectory.mkdirs();
+        FileUtils.writeStringToFile(new File(reportDirectory, goal + ".json"), toJson(), "UTF-8");
+        FileUtils.writeStringToFile(new File(reportDirectory, goal + ".csv"), toCsv(), "UTF-8");
+    }
+
+    String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"module\": ").append(quote(module))
+                .append(",\n  \"goal\": ").append(quote(goal))
+                .append(",\n  \"start\": ").append(quote(format(start)))
+                .append(",\n  \"elapsedMs\": ").append(getElapsed())
+                .append(",\n  \"phases\": [");
+        for (int i = 0; i < phases.size(); i++) {
+            Phase phase = phases.get(i);
+            json.append(i > 0 ? "," : "").append("\n    {\"name\": ").append(quote(phase.name))
+                    .append(", \"elapsedMs\": ").append(phase.getElapsed())
+                    .append(", \"bytesRead\": ").append(phase.bytesRead)
+                    .append(", \"bytesWritten\": ").append(phase.bytesWritten)
+                    .append(", \"entries\": ").append(phase.entries).append('}');
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    String toCsv() {
+        StringBuilder csv = new StringBuilder(CSV_HEADER).append('\n');
+        for (Phase phase : phases) {
+            csv.append(module).append(',').append(goal).append(',').append(phase.name).append(',')
+                    .append(format(phase.start)).append(',').append(phase.getElapsed()).append(',')
+                    .append(phase.bytesRead).append(',').append(phase.bytesWritten).append(',')
+                    .append(phase.entries).append('\n');
+        }
+        return csv.toString();
+    }
+
+    private static String format(long time) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ENGLISH);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(time));
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : String.valueOf(value).toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * A timed phase of a goal
+     */
+    public static class Phase {
+
+        private final String name;
+        private final long start = System.currentTimeMillis();
+        private long end = -1;
+        private long bytesRead;
+        private long bytesWritten;
+        private long entries;
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        public Phase read(long bytes) {
+            bytesRead += bytes;
+            return this;
+        }
+
+        public Phase written(long bytes) {
+            bytesWritten += bytes;
+            return this;
+        }
+
+        public Phase entries(long count) {
+            entries += count;
+            return this;
+        }
+
+        /**
+         * Records an archive just created from the files of a directory: the size of the files as read,
+         * the size of the archive as written and the number of archive entries
+         */
+        public Phase archive(File directory, File archive) throws IOException {
+            if (directory.isDirectory()) {
+                read(FileUtils.sizeOfDirectory(directory));
+            }
+            if (archive.isFile()) {
+                written(archive.length());
+                ZipFile zip = new ZipFile(archive);
+                try {
+                    entries(zip.size());
+                } finally {
+                    zip.close();
+                }
+            }
+            return this;
+        }
+
+        public void end() {
+            if (end == -1) {
+                end = System.currentTimeMillis();
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getElapsed() {
+            return (end == -1 ? System.currentTimeMillis() : end) - start;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public long getEntries() {
+            return entries;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "%-14s %8d ms %12d bytes read %12d bytes written %8d entries",
+                    name, getElapsed(), bytesRead, bytesWritten, entries);
+        }
+    }
+}
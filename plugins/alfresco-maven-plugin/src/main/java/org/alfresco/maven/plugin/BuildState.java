@@ -0,0 +1,239 @@
+package org.alfresco.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.commons.io.IOUtils;
+import org.codehaus.plexus.util.DirectoryScanner;
+
+/**
+ * Persists the fingerprints of the inputs of the AMP packaging steps between builds, so that
+ * an archive whose inputs did not change since the last successful build does not need to be re-created.
+ * <p/>
+ * Fingerprints are grouped by scope (i.e. one scope per produced archive) and are stored as a plain
+ * properties file, usually under ${project.build.directory}. A fingerprint is made of the file size and
+ * last modification time and, optionally, of the SHA-1 of the file content. When content hashes are
+ * available on both sides, they take precedence over the modification time, so that a file which has just
+ * been touched (e.g. re-copied by the resources plugin) is not considered changed.
+ */
+public class BuildState {
+
+    private static final String SCOPE_SEPARATOR = "/";
+    private static final String OUTPUT_SUFFIX = ".output";
+    private static final String CONFIG_SUFFIX = ".config";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File stateFile;
+    private final boolean hashContent;
+    private final Properties state = new Properties();
+
+    public BuildState(File stateFile, boolean hashContent) {
+        this.stateFile = stateFile;
+        this.hashContent = hashContent;
+    }
+
+    /**
+     * Loads the fingerprints recorded by the previous build, if any
+     */
+    public void load() throws IOException {
+        state.clear();
+        if (stateFile.isFile()) {
+            InputStream in = new FileInputStream(stateFile);
+            try {
+                state.load(in);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
+    /**
+     * Stores the current fingerprints, to be used by the next build
+     */
+    public void save() throws IOException {
+        stateFile.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(stateFile);
+        try {
+            state.store(out, "Alfresco Maven Plugin build state - do not edit");
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Computes the fingerprints of all the files matching includes/excludes in a directory
+     *
+     * @return a sorted map of relative path (using '/' as separator) to fingerprint
+     */
+    public Map<String, String> fingerprint(File directory, String[] includes, String[] excludes) throws IOException {
+        Map<String, String> fingerprints = new TreeMap<String, String>();
+        if (!directory.isDirectory()) {
+            return fingerprints;
+        }
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(directory);
+        if (includes != null && includes.length > 0) {
+            scanner.setIncludes(includes);
+        }
+        if (excludes != null && excludes.length > 0) {
+            scanner.setExcludes(excludes);
+        }
+        scanner.scan();
+        for (String path : scanner.getIncludedFiles()) {
+            fingerprints.put(path.replace(File.separatorChar, '/'), fingerprint(new File(directory, path)));
+        }
+        return fingerprints;
+    }
+
+    /**
+     * Computes the fingerprint of a single file
+     */
+    public String fingerprint(File file) throws IOException {
+        String fingerprint = file.length() + ":" + file.lastModified();
+        if (hashContent) {
+            fingerprint += ":" + checksum(file);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Compares the current fingerprints of a scope with the ones recorded by the previous build
+     */
+    public Delta compare(String scope, Map<String, String> current) {
+        Delta delta = new Delta();
+        String prefix = scope + SCOPE_SEPARATOR;
+        Map<String, String> previous = new TreeMap<String, String>();
+        for (String key : state.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                previous.put(key.substring(prefix.length()), state.getProperty(key));
+            }
+        }
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            String old = previous.remove(entry.getKey());
+            if (old == null) {
+                delta.added.add(entry.getKey());
+            } else if (!sameContent(old, entry.getValue())) {
+                delta.modified.add(entry.getKey());
+            }
+        }
+        delta.removed.addAll(previous.keySet());
+        return delta;
+    }
+
+    /**
+     * Whether the output of a scope is still the one produced by the previous build and
+     * was produced using the same configuration
+     */
+    public boolean isOutputUnchanged(String scope, File output, String configuration) throws IOException {
+        return output.isFile()
+                && configuration.equals(state.getProperty(scope + CONFIG_SUFFIX))
+                && sameContent(state.getProperty(scope + OUTPUT_SUFFIX, ""), fingerprint(output));
+    }
+
+    /**
+     * Replaces the recorded fingerprints of a scope with the current ones
+     */
+    public void update(String scope, Map<String, String> current, File output, String configuration) throws IOException {
+        String prefix = scope + SCOPE_SEPARATOR;
+        for (String key : state.stringPropertyNames()) {
+            if (key.startsWith(prefix)) {
+                state.remove(key);
+            }
+        }
+        for (Map.Entry<String, String> entry : current.entrySet()) {
+            state.setProperty(prefix + entry.getKey(), entry.getValue());
+        }
+        state.setProperty(scope + OUTPUT_SUFFIX, fingerprint(output));
+        state.setProperty(scope + CONFIG_SUFFIX, configuration);
+    }
+
+    /**
+     * Two fingerprints denote the same content if sizes match and either both content hashes
+     * (when available) or the modification times match
+     */
+    private static boolean sameContent(String previous, String current) {
+        String[] a = previous.split(":");
+        String[] b = current.split(":");
+        if (a.length < 2 || b.length < 2 || !a[0].equals(b[0])) {
+            return false;
+        }
+        if (a.length > 2 && b.length > 2) {
+            return a[2].equals(b[2]);
+        }
+        return a[1].equals(b[1]);
+    }
+
+    /**
+     * Computes the SHA-1 of a file content, as a lowercase hex string
+     */
+    public static String checksum(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available in this JVM", e);
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return toHex(digest.digest());
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * The difference between two sets of fingerprints of the same scope
+     */
+    public static class Delta {
+
+        private final List<String> added = new ArrayList<String>();
+        private final List<String> modified = new ArrayList<String>();
+        private final List<String> removed = new ArrayList<String>();
+
+        public List<String> getAdded() {
+            return added;
+        }
+
+        public List<String> getModified() {
+            return modified;
+        }
+
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && modified.isEmpty() && removed.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return added.size() + " added, " + modified.size() + " modified, " + removed.size() + " removed";
+        }
+    }
+}
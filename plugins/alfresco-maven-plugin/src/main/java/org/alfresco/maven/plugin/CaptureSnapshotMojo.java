@@ -0,0 +1,92 @@
+package org.alfresco.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Captures a snapshot of the embedded repository of the project (alf_data, including the H2 database, and
+ * solr_home) once Alfresco has bootstrapped it, for the Alfresco WAR and the set of AMPs the project runs. The
+ * restore-snapshot goal then restores it, in seconds, in place of a fresh (or purged) repository.
+ * <p/>
+ * Alfresco must be stopped, so that the H2 database files are consistent: the goal fails if the database is locked.
+ *
+ * @version $Id:$
+ * @goal capture-snapshot
+ * @requiresProject
+ * @threadSafe
+ * @since 2.0.0
+ * @description Captures a snapshot of the bootstrapped embedded repository (alf_data, H2 database, solr_home)
+ */
+public class CaptureSnapshotMojo extends AbstractSnapshotMojo {
+
+    /** H2 lock files, present while the database is open */
+    private static final String H2_LOCK_SUFFIX = ".lock.db";
+
+    /**
+     * Whether to replace the snapshot of the same WAR and AMPs if it was already captured
+     *
+     * @parameter property="maven.alfresco.snapshot.overwrite" default-value="false"
+     */
+    private boolean overwrite;
+
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skipSnapshot) {
+            getLog().info("Skipping repository snapshot capture");
+            return;
+        }
+        if (!dataLocation.isDirectory()) {
+            throw new MojoFailureException("No repository found in " + dataLocation.getAbsolutePath()
+                    + " - run Alfresco once (e.g. using -Pamp-to-war) to bootstrap it before capturing a snapshot");
+        }
+        File lock = findLock(dataLocation);
+        if (lock != null) {
+            throw new MojoFailureException("The repository database is in use (" + lock.getAbsolutePath()
+                    + ") - stop Alfresco before capturing a snapshot");
+        }
+        RepositorySnapshot snapshot = getSnapshot();
+        if (snapshot.exists() && !overwrite) {
+            getLog().info("A repository snapshot of " + getWar() + " with " + getModules().keySet() + " already exists in "
+                    + snapshot.getDirectory() + " - use -Dmaven.alfresco.snapshot.overwrite=true to capture it again");
+            return;
+        }
+        BuildMetrics buildMetrics = new BuildMetrics(project.getId(), "capture-snapshot");
+        BuildMetrics.Phase phase = buildMetrics.start("capture");
+        long start = System.currentTimeMillis();
+        Properties description = new Properties();
+        description.setProperty("war", getWar());
+        for (Map.Entry<String, String> module : getModules().entrySet()) {
+            description.setProperty("amp." + module.getKey(), module.getValue());
+        }
+        description.setProperty("project", project.getId());
+        try {
+            snapshot.capture(getFolders(), description);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error capturing the repository snapshot into " + snapshot.getDirectory(), e);
+        }
+        phase.read(snapshot.getBytesCopied()).written(snapshot.getBytesCopied()).entries(snapshot.getFilesCopied());
+        getLog().info("Captured the repository snapshot of " + getWar() + " with " + getModules().keySet() + " ("
+                + snapshot.getFilesCopied() + " files) into " + snapshot.getDirectory() + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        reportBuildMetrics(buildMetrics);
+    }
+
+    /**
+     * @return an H2 lock file found in the data folder, null if the database is not open
+     */
+    private static File findLock(File directory) {
+        Collection<File> files = FileUtils.listFiles(directory, null, true);
+        for (File file : files) {
+            if (file.getName().endsWith(H2_LOCK_SUFFIX)) {
+                return file;
+            }
+        }
+        return null;
+    }
+}
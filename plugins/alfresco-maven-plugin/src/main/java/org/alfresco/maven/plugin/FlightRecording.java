@@ -0,0 +1,93 @@
+package org.alfresco.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * A Java Flight Recorder recording of the Maven JVM, where the tomcat7-maven-plugin runs the Alfresco and Share
+ * webapps. It is controlled through the DiagnosticCommand MBean, with the same commands as jcmd (JFR.start,
+ * JFR.check and JFR.stop), so that no JVM option is needed: the recording starts right before Tomcat does.
+ * <p/>
+ * Needs a JVM with Flight Recorder: OpenJDK 8u262 and later, or Oracle JDK 7u40 and later, whose commercial features
+ * are unlocked first.
+ */
+public class FlightRecording {
+
+    /** The name of the recording in the JVM, one per build */
+    static final String NAME = "alfresco-maven-plugin";
+
+    private static final String DIAGNOSTIC_COMMAND = "com.sun.management:type=DiagnosticCommand";
+    private static final String[] SIGNATURE = { String[].class.getName() };
+
+    private final File file;
+
+    /**
+     * @param file the file the recording is written to when stopped, or when the JVM exits
+     */
+    public FlightRecording(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Starts recording
+     *
+     * @param settings the JFR settings of the recording, e.g. profile (the detailed settings of the JDK) or default
+     */
+    public void start(String settings) throws IOException {
+        try {
+            // Only exists, and is needed, on Oracle JDK 7 and 8
+            execute("vmUnlockCommercialFeatures");
+        } catch (IOException e) {
+            // Flight Recorder is not a commercial feature of this JVM
+        }
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        // Written on exit too, so that the recording of a Tomcat stopped with Ctrl+C can still be reported on
+        execute("jfrStart", "name=" + NAME, "settings=" + settings, "filename=" + file.getAbsolutePath(),
+                "dumponexit=true", "disk=true");
+    }
+
+    /**
+     * @return whether the recording was started in this JVM and is still running
+     */
+    public boolean isRunning() {
+        try {
+            return execute("jfrCheck", "name=" + NAME).contains("(running)");
+        } catch (IOException e) {
+            // Not started, or Flight Recorder not available
+            return false;
+        }
+    }
+
+    /**
+     * Stops recording, writing the recording to its file
+     */
+    public void stop() throws IOException {
+        execute("jfrStop", "name=" + NAME);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private static String execute(String command, String... arguments) throws IOException {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Object output = server.invoke(new ObjectName(DIAGNOSTIC_COMMAND), command, new Object[] { arguments }, SIGNATURE);
+            return output != null ? output.toString() : "";
+        } catch (ReflectionException e) {
+            throw new IOException("Java Flight Recorder is not available in this JVM (" + System.getProperty("java.vm.name")
+                    + " " + System.getProperty("java.version") + ")", e);
+        } catch (JMException e) {
+            throw new IOException("Java Flight Recorder command " + command + " failed: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            // The diagnostic command failed, e.g. a recording of the same name exists
+            throw new IOException("Java Flight Recorder command " + command + " failed: " + e.getMessage(), e);
+        }
+    }
+}
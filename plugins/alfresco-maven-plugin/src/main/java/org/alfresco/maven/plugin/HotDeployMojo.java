@@ -0,0 +1,336 @@
+package org.alfresco.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+
+import org.alfresco.maven.plugin.install.AmpDescriptor;
+import org.alfresco.maven.plugin.install.AmpFileMapping;
+import org.alfresco.maven.plugin.install.InstalledModule;
+import org.alfresco.maven.plugin.install.WarOverlayEngine;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.Base64;
+import org.codehaus.plexus.util.DirectoryScanner;
+
+/**
+ * Pushes the changes made to an AMP into the exploded WAR it is installed in (e.g. by the amp-to-war profile), while
+ * the webapp is running, then refreshes the Alfresco web scripts (or the Share web scripts and Surf caches).
+ * <p/>
+ * The content of ${ampBuildDirectory} is mapped onto the WAR the same way Alfresco MMT would install the AMP, and only
+ * the files whose content differs from the deployed ones are copied. Classes and resources in ${classesDirectory} are
+ * pushed into WEB-INF/classes, where they take precedence over the module JAR. Files previously added by the module
+ * which the AMP no longer provides are removed. All changes are recorded in the modifications.install of the module,
+ * so that they are undone when the module is installed again.
+ * <p/>
+ * Web scripts, templates, client side resources and messages are picked up straight away; changes to Spring contexts
+ * and classes require a restart (or a debugger able to hot swap classes).
+ *
+ * @version $Id:$
+ * @goal hot-deploy
+ * @requiresProject
+ * @threadSafe
+ * @since 2.0.0
+ * @description Pushes the changed AMP files into a running exploded Alfresco / Share WAR and refreshes its web scripts
+ */
+public class HotDeployMojo extends AbstractMojo {
+
+    private static final String SHARE_MARKER = "WEB-INF/surf.xml";
+    private static final String[] ALFRESCO_REFRESH_PATHS = {"/service/index"};
+    private static final String[] SHARE_REFRESH_PATHS = {"/page/index", "/page/caches/dependency/clear"};
+
+    /**
+     * Folder containing the AMP content, as aggregated by the build before packaging
+     *
+     * @parameter property="maven.alfresco.ampBuildDirectory" default-value="${project.build.directory}/${project.build.finalName}"
+     * @required
+     */
+    private File ampBuildDirectory;
+
+    /**
+     * Folder containing the compiled classes and resources of the module, pushed into WEB-INF/classes
+     *
+     * @parameter default-value="${project.build.outputDirectory}"
+     * @required
+     */
+    private File classesDirectory;
+
+    /**
+     * The exploded WAR the AMP is installed in
+     *
+     * @parameter property="maven.alfresco.warLocation" default-value="${project.build.directory}/${project.build.finalName}-war"
+     * @required
+     */
+    private File warLocation;
+
+    /**
+     * Whether the JARs in the AMP lib folder should be pushed as well; they are only loaded on restart
+     *
+     * @parameter property="maven.alfresco.hotDeployLibraries" default-value="false"
+     */
+    private boolean includeLibraries;
+
+    /**
+     * URL of the running webapp, used to refresh its web scripts after pushing changes. Leave empty not to refresh
+     *
+     * @parameter property="maven.alfresco.webappUrl" default-value="http://localhost:8080/${alfresco.client.war}"
+     */
+    private String webappUrl;
+
+    /**
+     * Paths (relative to webappUrl) to POST to in order to refresh the webapp. Defaults to the web script index for
+     * Alfresco, and to the web script index and the dependency caches for Share
+     *
+     * @parameter
+     */
+    private List<String> refreshPaths;
+
+    /**
+     * User (an administrator) used to refresh the webapp. The webapp is not refreshed when not set
+     *
+     * @parameter property="maven.alfresco.refreshUsername"
+     */
+    private String refreshUsername;
+
+    /**
+     * Password of refreshUsername
+     *
+     * @parameter property="maven.alfresco.refreshPassword"
+     */
+    private String refreshPassword;
+
+    /**
+     * Whether to print a summary of the time, bytes read and written and files processed by each phase of the
+     * goal, and write it as JSON and CSV to metricsDirectory. The metrics are otherwise only logged in debug mode
+     *
+     * @parameter property="maven.alfresco.metrics" default-value="false"
+     */
+    private boolean reportMetrics;
+
+    /**
+     * Folder the metrics reports are written to, as hot-deploy.json and hot-deploy.csv
+     *
+     * @parameter property="maven.alfresco.metricsDirectory" default-value="${project.build.directory}/alfresco-metrics"
+     */
+    private File metricsDirectory;
+
+    /**
+     * [Read Only] The Maven project.
+     *
+     * @parameter default-value="${project}"
+     * @required
+     * @readonly
+     */
+    private MavenProject project;
+
+    public void execute() throws MojoExecutionException {
+        if (!warLocation.isDirectory()) {
+            throw new MojoExecutionException("No exploded WAR found in " + warLocation.getAbsolutePath()
+                    + " - hot deployment requires the AMP to be installed in an exploded WAR, e.g. using -Pamp-to-war");
+        }
+        long start = System.currentTimeMillis();
+        BuildMetrics buildMetrics = new BuildMetrics(project.getId(), "hot-deploy");
+        try {
+            Properties moduleProperties = loadProperties(new File(ampBuildDirectory, AmpDescriptor.MODULE_PROPERTIES));
+            String moduleId = moduleProperties != null ? moduleProperties.getProperty(AmpDescriptor.PROP_ID, "").trim() : "";
+            InstalledModule installed = moduleId.length() > 0 ? InstalledModule.read(warLocation, moduleId) : null;
+            if (installed == null) {
+                throw new MojoExecutionException("Module " + moduleId + " is not installed in " + warLocation.getAbsolutePath()
+                        + " - install the AMP before hot deploying changes");
+            }
+
+            buildMetrics.start("scan");
+            Map<String, File> sources = getSources();
+            BuildMetrics.Phase phase = buildMetrics.start("push").entries(sources.size());
+            List<String> pushed = new ArrayList<String>();
+            for (Map.Entry<String, File> source : sources.entrySet()) {
+                if (push(source.getValue(), source.getKey(), installed)) {
+                    pushed.add(source.getKey());
+                    phase.read(source.getValue().length()).written(source.getValue().length());
+                }
+            }
+            List<String> removed = new ArrayList<String>();
+            for (Iterator<String> adds = installed.getAdds().iterator(); adds.hasNext(); ) {
+                String path = adds.next();
+                if (!sources.containsKey(path) && (includeLibraries || !path.startsWith("/WEB-INF/lib/"))) {
+                    Files.deleteIfExists(new File(warLocation, path).toPath());
+                    adds.remove();
+                    removed.add(path);
+                }
+            }
+            if (pushed.isEmpty() && removed.isEmpty()) {
+                getLog().info("No changes to hot deploy into " + warLocation);
+                reportMetrics(buildMetrics);
+                return;
+            }
+            FileUtils.writeByteArrayToFile(new File(warLocation, InstalledModule.getModuleFolder(moduleId)
+                    + "/" + WarOverlayEngine.MODIFICATIONS_INSTALL), installed.toBytes());
+            for (String path : pushed) {
+                getLog().debug("Pushed " + path);
+            }
+            for (String path : removed) {
+                getLog().debug("Removed " + path);
+            }
+            getLog().info("Hot deployed " + pushed.size() + " changed and " + removed.size() + " removed file(s) into "
+                    + warLocation + " in " + (System.currentTimeMillis() - start) + " ms");
+            for (String path : pushed) {
+                if (path.endsWith(".class") || path.endsWith("-context.xml") || path.startsWith("/WEB-INF/lib/")) {
+                    getLog().warn("Changes to classes, libraries and Spring contexts (e.g. " + path + ") are only picked up on restart");
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error hot deploying " + ampBuildDirectory + " into " + warLocation, e);
+        }
+        buildMetrics.start("refresh");
+        refresh();
+        reportMetrics(buildMetrics);
+    }
+
+    private void reportMetrics(BuildMetrics buildMetrics) throws MojoExecutionException {
+        try {
+            buildMetrics.report(getLog(), reportMetrics ? metricsDirectory : null);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing build metrics to " + metricsDirectory, e);
+        }
+    }
+
+    /**
+     * @return WAR path to the file that should be deployed there, for all the files of the AMP and the module classes
+     */
+    private Map<String, File> getSources() throws IOException {
+        Map<String, File> sources = new TreeMap<String, File>();
+        AmpFileMapping mapping = new AmpFileMapping(loadProperties(new File(ampBuildDirectory, AmpFileMapping.FILE_MAPPING_PROPERTIES)));
+        for (String path : scan(ampBuildDirectory)) {
+            String destination = mapping.getDestination("/" + path);
+            if (destination != null && (includeLibraries || !path.startsWith(AmpModel.AMP_FOLDER_LIB + "/"))) {
+                sources.put(destination, new File(ampBuildDirectory, path));
+            }
+        }
+        for (String path : scan(classesDirectory)) {
+            sources.put("/WEB-INF/classes/" + path, new File(classesDirectory, path));
+        }
+        return sources;
+    }
+
+    private static List<String> scan(File directory) {
+        List<String> paths = new ArrayList<String>();
+        if (directory.isDirectory()) {
+            DirectoryScanner scanner = new DirectoryScanner();
+            scanner.setBasedir(directory);
+            scanner.scan();
+            for (String path : scanner.getIncludedFiles()) {
+                paths.add(path.replace(File.separatorChar, '/'));
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Copies a file into the WAR unless the deployed one has the same content, recording it in the module
+     * modifications if it was not installed by the module yet
+     *
+     * @return whether the file was copied
+     */
+    private boolean push(File source, String path, InstalledModule installed) throws IOException {
+        File target = new File(warLocation, path);
+        boolean exists = target.isFile();
+        if (exists && target.length() == source.length()
+                && (target.lastModified() == source.lastModified() || BuildState.checksum(target).equals(BuildState.checksum(source)))) {
+            return false;
+        }
+        if (!installed.getAdds().contains(path) && !installed.getUpdates().containsKey(path)) {
+            if (exists) {
+                // Replacing a file of the WAR (or of another module), which has to be backed up as MMT would do
+                String backup = WarOverlayEngine.BACKUP_DIR + "/" + UUID.randomUUID() + ".bin";
+                File backupFile = new File(warLocation, backup);
+                backupFile.getParentFile().mkdirs();
+                Files.copy(target.toPath(), backupFile.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+                installed.getUpdates().put(path, backup);
+            } else {
+                installed.getAdds().add(path);
+            }
+        }
+        target.getParentFile().mkdirs();
+        Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        return true;
+    }
+
+    /**
+     * POSTs reset=on to the refresh paths of the webapp, warning (rather than failing) if it is not running
+     */
+    private void refresh() {
+        if (webappUrl == null || webappUrl.trim().length() == 0) {
+            return;
+        }
+        if (refreshUsername == null || refreshUsername.length() == 0) {
+            getLog().warn("Not refreshing " + webappUrl + ": set maven.alfresco.refreshUsername and maven.alfresco.refreshPassword"
+                    + " (e.g. in a profile of your settings.xml) to refresh its web scripts");
+            return;
+        }
+        List<String> paths = refreshPaths;
+        if (paths == null || paths.isEmpty()) {
+            paths = Arrays.asList(new File(warLocation, SHARE_MARKER).isFile() ? SHARE_REFRESH_PATHS : ALFRESCO_REFRESH_PATHS);
+        }
+        for (String path : paths) {
+            String url = webappUrl.replaceAll("/+$", "") + path;
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setConnectTimeout(5000);
+                connection.setReadTimeout(60000);
+                connection.setRequestProperty("Authorization", "Basic "
+                        + new String(Base64.encodeBase64((refreshUsername + ":" + (refreshPassword != null ? refreshPassword : ""))
+                        .getBytes("UTF-8")), "US-ASCII"));
+                connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+                OutputStream out = connection.getOutputStream();
+                try {
+                    out.write("reset=on".getBytes("UTF-8"));
+                } finally {
+                    IOUtils.closeQuietly(out);
+                }
+                int status = connection.getResponseCode();
+                if (status >= 400) {
+                    getLog().warn("Refreshing " + url + " failed with HTTP status " + status);
+                } else {
+                    getLog().info("Refreshed " + url);
+                }
+                connection.disconnect();
+            } catch (IOException e) {
+                getLog().warn("Could not refresh " + url + " (" + e + "), is the webapp running?");
+            }
+        }
+    }
+
+    private static Properties loadProperties(File file) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return properties;
+    }
+}
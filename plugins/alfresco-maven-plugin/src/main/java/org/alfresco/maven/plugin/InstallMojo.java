@@ -1,12 +1,29 @@
 package org.alfresco.maven.plugin;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
 
+import org.alfresco.maven.plugin.install.AmpDescriptor;
+import org.alfresco.maven.plugin.install.InstallManifest;
+import org.alfresco.maven.plugin.install.WarOverlayEngine;
 import org.alfresco.repo.module.tool.ModuleManagementTool;
+import org.apache.commons.io.IOUtils;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
 
 /**
  * Performs a AMP to WAR overlay invoking the Alfresco Repository ModuleManagementTool.
@@ -18,6 +35,7 @@ import org.apache.maven.plugin.MojoFailureException;
  * @requiresDependencyResolution
  * @since 1.0
  * @goal install
+ * @threadSafe
  * @description Installs one or more AMPs onto an Alfresco / Share WAR (or
  *              exploded WAR folder)
  */
@@ -78,6 +96,98 @@ public class InstallMojo extends AbstractMojo {
      */
     private boolean skipAmpInstallation;
 
+    /**
+     * Whether AMPs should be installed by the plugin overlay engine rather than by Alfresco MMT. The engine
+     * reads all AMPs concurrently and writes the WAR once, rather than once per AMP, producing the same result
+     * as installing the AMPs one after the other with MMT. AMPs the engine cannot install (modules already
+     * installed in the WAR, or declaring repository version, edition or module dependency constraints)
+     * are installed by MMT.
+     *
+     * @parameter property="maven.alfresco.parallelInstall" default-value="false"
+     */
+    private boolean parallelInstall;
+
+    /**
+     * Number of threads used by the overlay engine to read AMPs and write exploded WARs. Defaults to the number of available processors
+     *
+     * @parameter property="maven.alfresco.installThreads" default-value="0"
+     */
+    private int installThreads;
+
+    /**
+     * Whether the installation should be skipped when neither the WAR nor the AMPs changed since the last
+     * installation, as recorded in installManifest. When only some AMPs changed and the WAR is exploded,
+     * only the modules of the changed AMPs are installed again.
+     *
+     * @parameter property="maven.alfresco.incrementalInstall" default-value="false"
+     */
+    private boolean incrementalInstall;
+
+    /**
+     * File where incremental installation records the AMPs installed onto the WAR
+     *
+     * @parameter property="maven.alfresco.installManifest" default-value="${project.build.directory}/amp-install-manifest.properties"
+     */
+    private File installManifest;
+
+    /**
+     * Whether the WAR with the AMPs installed should be taken from the artifact cache when the same AMPs were
+     * installed onto the same WAR before, by this or any other module or build sharing the cache, and stored in the
+     * cache otherwise. The AMPs and a WAR file are identified by the names, sizes and CRCs of their entries, the
+     * JARs of an exploded WAR by size and modification time and its other files by content. For exploded WARs, only
+     * the files the installation added or changed are cached. Not used when backup is enabled
+     *
+     * @parameter property="maven.alfresco.artifactCache" default-value="false"
+     */
+    private boolean artifactCache;
+
+    /**
+     * The artifact cache folder, shared by all the builds using it
+     *
+     * @parameter property="maven.alfresco.artifactCacheDirectory" default-value="${user.home}/.m2/alfresco-artifact-cache"
+     */
+    private File artifactCacheDirectory;
+
+    /**
+     * Maximum size of the artifact cache in MB, beyond which the least recently used WARs and archives are evicted
+     *
+     * @parameter property="maven.alfresco.artifactCacheSize" default-value="4096"
+     */
+    private long artifactCacheSize;
+
+    /**
+     * File where the checksums of the files of an exploded WAR are kept along with their size and modification
+     * time, so that only the files changed since the last build are read again to compute its artifact cache key
+     *
+     * @parameter property="maven.alfresco.artifactCacheChecksums" default-value="${project.build.directory}/amp-install-checksums.properties"
+     */
+    private File artifactCacheChecksums;
+
+    /**
+     * Whether to print a summary of the time, bytes read and written and entries processed by each phase of the
+     * installation, and write it as JSON and CSV to metricsDirectory. The metrics are otherwise only logged in debug mode
+     *
+     * @parameter property="maven.alfresco.metrics" default-value="false"
+     */
+    private boolean reportMetrics;
+
+    /**
+     * Folder the metrics reports are written to, as install.json and install.csv
+     *
+     * @parameter property="maven.alfresco.metricsDirectory" default-value="${project.build.directory}/alfresco-metrics"
+     */
+    private File metricsDirectory;
+
+    /**
+     * [Read Only] The Maven project.
+     *
+     * @parameter default-value="${project}"
+     * @readonly
+     */
+    private MavenProject project;
+
+    private BuildMetrics buildMetrics;
+
     public InstallMojo() {
     }
 
@@ -88,6 +198,196 @@ public class InstallMojo extends AbstractMojo {
         }
         // Checks appropriate input params are in place
         checkParams();
+        buildMetrics = new BuildMetrics(project != null ? project.getId() : "standalone", "install");
+        InstallManifest manifest = null;
+        if (incrementalInstall) {
+            buildMetrics.start("manifest");
+            manifest = new InstallManifest(installManifest, warLocation);
+            if (installChangedModules(manifest)) {
+                reportBuildMetrics();
+                return;
+            }
+            // Whatever happens next, the last installation is no longer what the WAR contains
+            manifest.invalidate();
+        }
+        ArtifactCache cache = null;
+        String cacheKey = null;
+        Map<String, String> before = null;
+        if (artifactCache && !backup) {
+            buildMetrics.start("cache");
+            cache = new ArtifactCache(artifactCacheDirectory, artifactCacheSize * 1024 * 1024, getLog());
+            before = stat(warLocation);
+            cacheKey = getCacheKey(before);
+        }
+        if (cacheKey == null || !restoreFromCache(cache, cacheKey)) {
+            if (!parallelInstall || !installWithEngine()) {
+                installWithMmt();
+            }
+            if (cacheKey != null) {
+                buildMetrics.start("cache");
+                storeInCache(cache, cacheKey, before);
+            }
+        }
+        if (manifest != null) {
+            buildMetrics.start("record");
+            recordInstallation(manifest);
+        }
+        reportBuildMetrics();
+    }
+
+    /**
+     * Computes the artifact cache key of the WAR with the AMPs installed, from the AMPs and the WAR before installing
+     * them. The archives are not read as a whole: the AMPs and a WAR file are identified by the names, sizes and CRCs
+     * of their entries, read from their central directory. The JARs of an exploded WAR, which hold most of its bytes,
+     * are identified by size and modification time (which unpacking the WAR keeps from the WAR entries), and only its
+     * other files by content, as some (e.g. the test resources copied into the WAR) are written again by every build:
+     * their checksums are kept in artifactCacheChecksums, so that only the files whose size or modification time
+     * changed are read again
+     *
+     * @param before the size and modification time of the files of the WAR, by path
+     */
+    private String getCacheKey(Map<String, String> before) throws MojoExecutionException, MojoFailureException {
+        try {
+            Map<String, String> inputs = new LinkedHashMap<String, String>();
+            for (File ampFile : getAmpFiles()) {
+                inputs.put("amp:" + ampFile.getName(), ArtifactCache.contentHash(ampFile));
+            }
+            long read = 0;
+            if (warLocation.isFile()) {
+                inputs.put("war", ArtifactCache.contentHash(warLocation));
+            } else {
+                Properties previous = loadChecksums();
+                Properties checksums = new Properties();
+                for (Map.Entry<String, String> file : before.entrySet()) {
+                    if (file.getKey().endsWith(".jar")) {
+                        inputs.put(file.getKey(), file.getValue());
+                        continue;
+                    }
+                    // Size, modification time and SHA-1
+                    String checksum = previous.getProperty(file.getKey());
+                    if (checksum == null || !checksum.startsWith(file.getValue() + ":")) {
+                        File content = new File(warLocation, file.getKey());
+                        checksum = file.getValue() + ":" + BuildState.checksum(content);
+                        read += content.length();
+                    }
+                    checksums.setProperty(file.getKey(), checksum);
+                    String[] fingerprint = checksum.split(":");
+                    inputs.put(file.getKey(), fingerprint[0] + ":" + fingerprint[2]);
+                }
+                saveChecksums(checksums);
+            }
+            buildMetrics.getCurrentPhase().read(read).entries(inputs.size());
+            return ArtifactCache.key("war:" + warLocation.isDirectory() + ":" + force + ":" + parallelInstall, inputs);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error fingerprinting " + warLocation.getAbsolutePath(), e);
+        }
+    }
+
+    private Properties loadChecksums() throws IOException {
+        Properties checksums = new Properties();
+        if (artifactCacheChecksums != null && artifactCacheChecksums.isFile()) {
+            InputStream in = new FileInputStream(artifactCacheChecksums);
+            try {
+                checksums.load(in);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        return checksums;
+    }
+
+    private void saveChecksums(Properties checksums) throws IOException {
+        if (artifactCacheChecksums == null) {
+            return;
+        }
+        artifactCacheChecksums.getAbsoluteFile().getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(artifactCacheChecksums);
+        try {
+            checksums.store(out, "Alfresco Maven Plugin exploded WAR checksums - do not edit");
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * @return the size and modification time of the WAR file, or of the files of the exploded WAR, by path
+     */
+    private Map<String, String> stat(File war) throws MojoExecutionException {
+        if (war.isFile()) {
+            return Collections.singletonMap(war.getName(), war.length() + ":" + war.lastModified());
+        }
+        try {
+            return new BuildState(installManifest, false).fingerprint(war, null, null);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error listing the files of " + war.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Restores the WAR from the artifact cache: the WAR file, or the files the installation adds to or changes
+     * in the exploded WAR
+     *
+     * @return false if the WAR with these AMPs installed is not cached
+     */
+    private boolean restoreFromCache(ArtifactCache cache, String cacheKey) throws MojoExecutionException {
+        if (warLocation.isFile()) {
+            return cache.restore(cacheKey, warLocation);
+        }
+        try {
+            // Copied rather than linked, as later steps of the build may write files of the WAR in place
+            return cache.restore(cacheKey, warLocation, false);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error restoring " + warLocation + " from the artifact cache " + artifactCacheDirectory, e);
+        }
+    }
+
+    /**
+     * Stores the WAR in the artifact cache: the WAR file, or the files the installation added to or changed in the
+     * exploded WAR
+     *
+     * @param before the size and modification time of the files of the WAR before the installation, by path
+     */
+    private void storeInCache(ArtifactCache cache, String cacheKey, Map<String, String> before) throws MojoExecutionException {
+        try {
+            if (warLocation.isFile()) {
+                cache.store(cacheKey, warLocation);
+                return;
+            }
+            Map<String, String> after = stat(warLocation);
+            if (!after.keySet().containsAll(before.keySet())) {
+                getLog().debug("The installation removed files from " + warLocation + ", not caching it");
+                return;
+            }
+            List<String> changed = new ArrayList<String>();
+            long size = 0;
+            for (Map.Entry<String, String> file : after.entrySet()) {
+                if (!file.getValue().equals(before.get(file.getKey()))) {
+                    changed.add(file.getKey());
+                    size += new File(warLocation, file.getKey()).length();
+                }
+            }
+            cache.store(cacheKey, warLocation, changed);
+            buildMetrics.getCurrentPhase().written(size).entries(changed.size());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error storing " + warLocation + " in the artifact cache " + artifactCacheDirectory, e);
+        }
+    }
+
+    private void reportBuildMetrics() throws MojoExecutionException {
+        try {
+            buildMetrics.report(getLog(), reportMetrics ? metricsDirectory : null);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing build metrics to " + metricsDirectory, e);
+        }
+    }
+
+    /**
+     * Invokes Alfresco MMT
+     */
+    private void installWithMmt() throws MojoExecutionException, MojoFailureException {
+        BuildMetrics.Phase phase = buildMetrics.start("mmt");
+        List<File> ampFiles = getAmpFiles();
+        phase.read(sizeOf(ampFiles)).entries(ampFiles.size());
         ModuleManagementTool mmt = new ModuleManagementTool();
         mmt.setVerbose(verbose);
         /**
@@ -95,26 +395,167 @@ public class InstallMojo extends AbstractMojo {
          * file; if ampLocation is a folder all contained AMPs are installed otherwise 
          * a single AMP install is attempted with the ampLocation
          */
-        if(ampLocation.isDirectory())
-        {
-            try {
-                mmt.installModules(ampLocation.getAbsolutePath(),
+        synchronized (AmpModel.MODULE_MANAGEMENT_TOOL_LOCK) {
+            if(ampLocation.isDirectory())
+            {
+                try {
+                    mmt.installModules(ampLocation.getAbsolutePath(),
+                            warLocation.getAbsolutePath(), false, // preview
+                            force, // force install
+                            backup); // backup
+                } catch (IOException e) {
+                    throw new MojoExecutionException("ampLocation " + ampLocation.getAbsolutePath() + " did not contain AMP files - AMP installation cannot proceed");
+                } // backup
+            } else if(ampLocation.isFile())
+            {
+                mmt.installModule(ampLocation.getAbsolutePath(),
                         warLocation.getAbsolutePath(), false, // preview
                         force, // force install
                         backup); // backup
-            } catch (IOException e) {
+            } else
+            {
+                throw new MojoFailureException("ampLocation " + ampLocation.getAbsolutePath() + " was neither an AMP file or a folder containing AMP files - AMP installation cannot proceed");
+            }
+        }
+        if (warLocation.isFile()) {
+            phase.written(warLocation.length());
+        }
+    }
+
+    /**
+     * Installs the AMP(s) with the WarOverlayEngine
+     *
+     * @return false if the AMPs need to be installed by MMT instead
+     */
+    private boolean installWithEngine() throws MojoExecutionException, MojoFailureException {
+        WarOverlayEngine engine = createEngine();
+        List<AmpDescriptor> amps = Collections.emptyList();
+        try {
+            long start = System.currentTimeMillis();
+            BuildMetrics.Phase phase = buildMetrics.start("read");
+            List<File> ampFiles = getAmpFiles();
+            amps = engine.read(ampFiles);
+            phase.entries(countFiles(amps));
+            String unsupported = engine.getUnsupportedReason(amps);
+            if (unsupported != null) {
+                getLog().info(unsupported + ", installing AMPs with Alfresco MMT");
+                return false;
+            }
+            phase = buildMetrics.start("overlay");
+            engine.install(amps, backup);
+            phase.read(sizeOf(ampFiles)).written(engine.getBytesWritten()).entries(engine.getFilesWritten());
+            getLog().info("Installed " + amps.size() + " AMP(s) onto " + warLocation + " in " + (System.currentTimeMillis() - start) + " ms");
+            return true;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error installing AMP(s) from " + ampLocation.getAbsolutePath() + " onto " + warLocation.getAbsolutePath(), e);
+        } finally {
+            WarOverlayEngine.close(amps);
+        }
+    }
+
+    /**
+     * Compares the AMPs and the WAR with the ones recorded in the install manifest, skipping the installation if
+     * nothing changed, and re-installing only the changed modules onto an exploded WAR if possible
+     *
+     * @return false if all AMPs need to be installed
+     */
+    private boolean installChangedModules(InstallManifest manifest) throws MojoExecutionException, MojoFailureException {
+        WarOverlayEngine engine = createEngine();
+        List<AmpDescriptor> amps = Collections.emptyList();
+        try {
+            manifest.load();
+            List<File> ampFiles = getAmpFiles();
+            amps = engine.read(ampFiles);
+            Map<String, String> checksums = InstallManifest.checksums(amps);
+            buildMetrics.getCurrentPhase().read(sizeOf(ampFiles)).entries(ampFiles.size());
+            List<String> changed = manifest.getChangedModules(amps, checksums);
+            if (changed == null) {
+                getLog().debug("The WAR or the set of AMPs changed since the last installation, installing all AMPs");
+                return false;
+            }
+            if (changed.isEmpty()) {
+                getLog().info("AMP(s) unchanged since the last installation onto " + warLocation + ", skipping installation");
+                return true;
+            }
+            List<AmpDescriptor> changedAmps = new ArrayList<AmpDescriptor>();
+            Set<String> others = new TreeSet<String>(checksums.keySet());
+            for (AmpDescriptor amp : amps) {
+                if (changed.contains(amp.getId())) {
+                    changedAmps.add(amp);
+                    others.remove(amp.getId());
+                }
+            }
+            String unsupported = engine.getReinstallUnsupportedReason(changedAmps, others);
+            if (unsupported != null) {
+                getLog().info(unsupported + ", installing all AMPs");
+                return false;
+            }
+            long start = System.currentTimeMillis();
+            BuildMetrics.Phase phase = buildMetrics.start("reinstall");
+            engine.reinstall(changedAmps);
+            phase.written(engine.getBytesWritten()).entries(engine.getFilesWritten());
+            buildMetrics.start("record");
+            manifest.record(amps, checksums);
+            getLog().info("Re-installed changed module(s) " + changed + " onto " + warLocation + " in " + (System.currentTimeMillis() - start) + " ms");
+            return true;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error installing changed AMP(s) from " + ampLocation.getAbsolutePath() + " onto " + warLocation.getAbsolutePath(), e);
+        } finally {
+            WarOverlayEngine.close(amps);
+        }
+    }
+
+    /**
+     * Records the AMPs just installed and the resulting WAR in the install manifest
+     */
+    private void recordInstallation(InstallManifest manifest) throws MojoExecutionException, MojoFailureException {
+        List<AmpDescriptor> amps = Collections.emptyList();
+        try {
+            amps = createEngine().read(getAmpFiles());
+            manifest.record(amps, InstallManifest.checksums(amps));
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing install manifest " + installManifest, e);
+        } finally {
+            WarOverlayEngine.close(amps);
+        }
+    }
+
+    private WarOverlayEngine createEngine() {
+        WarOverlayEngine engine = new WarOverlayEngine(warLocation, installThreads, getLog());
+        engine.setVerbose(verbose);
+        return engine;
+    }
+
+    /**
+     * @return the AMP file in ampLocation, or the AMP files found in the ampLocation folder
+     */
+    private List<File> getAmpFiles() throws MojoExecutionException, MojoFailureException {
+        if (ampLocation.isDirectory()) {
+            List<File> ampFiles = WarOverlayEngine.findAmps(ampLocation);
+            if (ampFiles.isEmpty()) {
                 throw new MojoExecutionException("ampLocation " + ampLocation.getAbsolutePath() + " did not contain AMP files - AMP installation cannot proceed");
-            } // backup
-        } else if(ampLocation.isFile())
-        {
-            mmt.installModule(ampLocation.getAbsolutePath(),
-                    warLocation.getAbsolutePath(), false, // preview
-                    force, // force install
-                    backup); // backup
-        } else
-        {
-            throw new MojoFailureException("ampLocation " + ampLocation.getAbsolutePath() + " was neither an AMP file or a folder containing AMP files - AMP installation cannot proceed");
+            }
+            return ampFiles;
+        } else if (ampLocation.isFile()) {
+            return Collections.singletonList(ampLocation);
+        }
+        throw new MojoFailureException("ampLocation " + ampLocation.getAbsolutePath() + " was neither an AMP file or a folder containing AMP files - AMP installation cannot proceed");
+    }
+
+    private static long sizeOf(List<File> files) {
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        return size;
+    }
+
+    private static long countFiles(List<AmpDescriptor> amps) {
+        long count = 0;
+        for (AmpDescriptor amp : amps) {
+            count += amp.getFiles().size();
         }
+        return count;
     }
 
     private void checkParams() throws MojoExecutionException {
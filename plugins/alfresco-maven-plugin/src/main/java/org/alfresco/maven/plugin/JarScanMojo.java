@@ -0,0 +1,175 @@
+package org.alfresco.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Writes the JARs of the webapps run by the tomcat7-maven-plugin that Tomcat does not need to scan for TLDs, web
+ * fragments and annotations in the Tomcat context.xml of the webapps (see {@link TomcatJarScan}): bound after the
+ * install goal, it reads the WEB-INF/lib of the WAR with the AMPs installed, and writes its skip list in the
+ * jarsToSkip of the JarScanner of the context.xml copied from the tomcat folder of the project. The JarScanner is an
+ * org.alfresco.maven.tomcat.SkippingJarScanner, of the alfresco-tomcat module the SDK parent POM adds to the
+ * tomcat7-maven-plugin.
+ * <p/>
+ * In the all-in-one runner, the context.xml shared by the Solr, Alfresco and Share webapps is written from a template
+ * with the JARs of the three webapps.
+ *
+ * @version $Id:$
+ * @goal jar-scan
+ * @phase package
+ * @requiresProject
+ * @threadSafe
+ * @since 2.0.0
+ * @description Writes the JARs of the webapps that Tomcat does not need to scan in their context.xml
+ */
+public class JarScanMojo extends AbstractMojo {
+
+    /**
+     * The WAR file or exploded WAR the AMPs are installed in, whose JARs are read
+     *
+     * @parameter property="maven.alfresco.warLocation" default-value="${project.build.directory}/${project.build.finalName}-war"
+     */
+    private File warLocation;
+
+    /**
+     * The WAR files or exploded WARs whose JARs are read, instead of warLocation, when the context.xml is shared by
+     * several webapps. Missing ones are left out
+     *
+     * @parameter
+     */
+    private List<File> webapps;
+
+    /**
+     * The Tomcat context.xml the skip list is written in, updated in place unless a contextTemplate is given
+     *
+     * @parameter property="maven.alfresco.jarScan.contextFile" default-value="${project.build.directory}/${project.build.finalName}-war/WEB-INF/context.xml"
+     * @required
+     */
+    private File contextFile;
+
+    /**
+     * The Tomcat context.xml the contextFile is written from, with the skip list
+     *
+     * @parameter property="maven.alfresco.jarScan.contextTemplate"
+     */
+    private File contextTemplate;
+
+    /**
+     * JARs always scanned, as comma separated file names with * wildcards, e.g. the JARs of the classes a
+     * ServletContainerInitializer of the webapp looks for
+     *
+     * @parameter property="maven.alfresco.jarScan.jarsToScan"
+     */
+    private String jarsToScan;
+
+    /**
+     * File where what was found in each JAR is kept, so that only changed JARs are read again
+     *
+     * @parameter property="maven.alfresco.jarScan.cache" default-value="${project.build.directory}/jar-scan-cache.properties"
+     * @required
+     */
+    private File jarScanCache;
+
+    /**
+     * Writes an empty skip list, so that Tomcat scans all the JARs
+     *
+     * @parameter property="maven.alfresco.jarScan.skip" default-value="false"
+     */
+    private boolean skipJarScan;
+
+    /**
+     * Whether to print a summary of the time and bytes read by the scan, and write it as JSON and CSV to
+     * metricsDirectory. The metrics are otherwise only logged in debug mode
+     *
+     * @parameter property="maven.alfresco.metrics" default-value="false"
+     */
+    private boolean reportMetrics;
+
+    /**
+     * Folder the metrics reports are written to, as jar-scan.json and jar-scan.csv
+     *
+     * @parameter property="maven.alfresco.metricsDirectory" default-value="${project.build.directory}/alfresco-metrics"
+     */
+    private File metricsDirectory;
+
+    /**
+     * @parameter default-value="${project}"
+     * @readonly
+     * @required
+     */
+    private MavenProject project;
+
+    public void execute() throws MojoExecutionException {
+        List<File> scanned = new ArrayList<File>();
+        if (skipJarScan) {
+            getLog().info("Skipping the Tomcat JAR scan, all JARs are scanned");
+        } else {
+            for (File webapp : webapps != null && !webapps.isEmpty() ? webapps : Collections.singletonList(warLocation)) {
+                if (webapp.exists()) {
+                    scanned.add(webapp);
+                } else {
+                    getLog().warn("No webapp found in " + webapp + ", its JARs are not skipped");
+                }
+            }
+        }
+
+        BuildMetrics buildMetrics = new BuildMetrics(project.getId(), "jar-scan");
+        BuildMetrics.Phase phase = buildMetrics.start("scan");
+        TomcatJarScan jarScan;
+        try {
+            jarScan = new TomcatJarScan(jarScanCache, TomcatJarScan.toPatterns(jarsToScan));
+            for (File webapp : scanned) {
+                jarScan.scan(webapp);
+            }
+            if (!scanned.isEmpty()) {
+                jarScan.save();
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error reading the JARs of " + scanned, e);
+        }
+        phase.read(jarScan.getBytesRead()).entries(jarScan.getJars());
+
+        buildMetrics.start("write");
+        Set<String> jarsToSkip = jarScan.getJarsToSkip();
+        File source = contextTemplate != null ? contextTemplate : contextFile;
+        try {
+            String context = source.isFile() ? FileUtils.readFileToString(source, "UTF-8")
+                    : "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Context>\n</Context>\n";
+            String updated = TomcatJarScan.writeJarsToSkip(context, jarsToSkip);
+            if (!contextFile.isFile() || !updated.equals(FileUtils.readFileToString(contextFile, "UTF-8"))) {
+                FileUtils.writeStringToFile(contextFile, updated, "UTF-8");
+            }
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException("Cannot write the JARs to skip in " + source + ": " + e.getMessage());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing the JARs to skip in " + contextFile, e);
+        }
+
+        if (!scanned.isEmpty()) {
+            getLog().info("Tomcat skips " + jarsToSkip.size() + " of the " + jarScan.getJars() + " JARs of " + scanned
+                    + " (see " + contextFile + ")");
+        }
+        for (Map.Entry<String, String> jar : jarScan.getJarsToScan().entrySet()) {
+            getLog().info("  scans " + jar.getKey() + ": " + jar.getValue());
+        }
+        if (!jarScan.getHandlesTypes().isEmpty()) {
+            getLog().warn("No JAR is skipped, as " + jarScan.getHandlesTypes() + " have a ServletContainerInitializer annotated"
+                    + " with @HandlesTypes, which is given the classes of all the JARs of the types it handles");
+        }
+        try {
+            buildMetrics.report(getLog(), reportMetrics ? metricsDirectory : null);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing build metrics to " + metricsDirectory, e);
+        }
+    }
+}
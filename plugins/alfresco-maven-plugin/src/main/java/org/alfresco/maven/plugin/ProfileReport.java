@@ -0,0 +1,573 @@
+package org.alfresco.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * A report of the hotspots of a Java Flight Recorder recording, in text and HTML: the methods using the most CPU,
+ * allocating the most memory and waiting the longest for locks, each attributed to the closest method of the
+ * project packages on the stack (e.g. the DemoComponent method calling the NodeService, rather than the Alfresco or
+ * Hibernate method at the top of the stack), followed by the garbage collection pauses of the whole JVM.
+ * <p/>
+ * The recording is read with the jdk.jfr.consumer API, through reflection as the plugin runs on Java 7 too: reading
+ * a recording needs Maven to run on Java 11 or later, or OpenJDK 8u262 or later.
+ */
+public class ProfileReport {
+
+    static final String EXECUTION_SAMPLE = "jdk.ExecutionSample";
+    static final String ALLOCATION_SAMPLE = "jdk.ObjectAllocationSample";
+    static final String ALLOCATION_IN_NEW_TLAB = "jdk.ObjectAllocationInNewTLAB";
+    static final String ALLOCATION_OUTSIDE_TLAB = "jdk.ObjectAllocationOutsideTLAB";
+    static final String MONITOR_ENTER = "jdk.JavaMonitorEnter";
+    static final String THREAD_PARK = "jdk.ThreadPark";
+    static final String GARBAGE_COLLECTION = "jdk.GarbageCollection";
+
+    static final String TEXT_REPORT = "profile-report.txt";
+    static final String HTML_REPORT = "profile-report.html";
+
+    private static final String RECORDING_FILE = "jdk.jfr.consumer.RecordingFile";
+    private static final long MILLI = 1000000L;
+    private static final Map<Character, String> PRIMITIVES = new HashMap<Character, String>();
+
+    static {
+        PRIMITIVES.put('Z', "boolean");
+        PRIMITIVES.put('B', "byte");
+        PRIMITIVES.put('C', "char");
+        PRIMITIVES.put('S', "short");
+        PRIMITIVES.put('I', "int");
+        PRIMITIVES.put('J', "long");
+        PRIMITIVES.put('F', "float");
+        PRIMITIVES.put('D', "double");
+    }
+
+    private final List<String> packages;
+    private final int top;
+
+    /** Class name to whether it is in the project packages */
+    private final Map<String, Boolean> projectClasses = new HashMap<String, Boolean>();
+    private final Map<String, Method> methods = new HashMap<String, Method>();
+
+    private final Map<String, Hotspot> cpu = new HashMap<String, Hotspot>();
+    /** Allocations sampled by Java 16 and later, estimating the bytes allocated */
+    private final Map<String, Hotspot> sampledAllocations = new HashMap<String, Hotspot>();
+    /** Allocations of new TLABs and outside TLABs, by older Java versions */
+    private final Map<String, Hotspot> tlabAllocations = new HashMap<String, Hotspot>();
+    private final Map<String, Hotspot> locks = new HashMap<String, Hotspot>();
+    private final Map<String, Hotspot> collectors = new HashMap<String, Hotspot>();
+    private final List<Pause> pauses = new ArrayList<Pause>();
+
+    private long samples;
+    private long projectSamples;
+    private long sampledBytes;
+    private long tlabBytes;
+    private long blockedNanos;
+    private long events;
+    private long firstEvent = Long.MAX_VALUE;
+    private long lastEvent = Long.MIN_VALUE;
+
+    /**
+     * @param packages the project packages, e.g. org.alfresco.demoamp, or none to attribute each event to the top of its
+     *                 stack
+     * @param top      the number of hotspots listed by each section of the report
+     */
+    public ProfileReport(List<String> packages, int top) {
+        this.packages = packages;
+        this.top = top;
+    }
+
+    /**
+     * Reads the events of a recording
+     */
+    public void read(File recording) throws IOException {
+        Object file;
+        try {
+            file = Class.forName(RECORDING_FILE).getConstructor(Path.class).newInstance(recording.toPath());
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Reading Java Flight Recorder recordings needs Maven to run on Java 11 or later, or OpenJDK "
+                    + "8u262 or later (running on " + System.getProperty("java.version") + ") - open " + recording
+                    + " in Java Mission Control instead");
+        } catch (InvocationTargetException e) {
+            throw asIOException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Could not read " + recording, e);
+        }
+        try {
+            while ((Boolean) call(file, "hasMoreEvents")) {
+                add(call(file, "readEvent"));
+            }
+        } finally {
+            call(file, "close");
+        }
+    }
+
+    /**
+     * Writes the text and HTML reports
+     *
+     * @return the text report
+     */
+    public String write(File directory, String title) throws IOException {
+        List<Table> tables = getTables();
+        String text = toText(title, tables);
+        FileUtils.writeStringToFile(new File(directory, TEXT_REPORT), text, "UTF-8");
+        FileUtils.writeStringToFile(new File(directory, HTML_REPORT), toHtml(title, tables), "UTF-8");
+        return text;
+    }
+
+    public long getEvents() {
+        return events;
+    }
+
+    private void add(Object event) throws IOException {
+        String type = (String) call(call(event, "getEventType"), "getName");
+        if (EXECUTION_SAMPLE.equals(type)) {
+            addSample(getStack(event));
+        } else if (ALLOCATION_SAMPLE.equals(type)) {
+            long bytes = (Long) call(event, "getLong", "weight");
+            sampledBytes += bytes;
+            addHotspot(sampledAllocations, getStack(event), getClassName(event, "objectClass"), bytes);
+        } else if (ALLOCATION_IN_NEW_TLAB.equals(type) || ALLOCATION_OUTSIDE_TLAB.equals(type)) {
+            long bytes = (Long) call(event, "getLong", ALLOCATION_IN_NEW_TLAB.equals(type) ? "tlabSize" : "allocationSize");
+            tlabBytes += bytes;
+            addHotspot(tlabAllocations, getStack(event), getClassName(event, "objectClass"), bytes);
+        } else if (MONITOR_ENTER.equals(type) || THREAD_PARK.equals(type)) {
+            long nanos = toNanos(call(event, "getDuration"));
+            blockedNanos += nanos;
+            String lock = MONITOR_ENTER.equals(type) ? "monitor " + getClassName(event, "monitorClass")
+                    : "park " + getClassName(event, "parkedClass");
+            addHotspot(locks, getStack(event), lock, nanos);
+        } else if (GARBAGE_COLLECTION.equals(type)) {
+            String collector = (String) call(event, "getString", "name");
+            long sum = toNanos(call(event, "getDuration", "sumOfPauses"));
+            long longest = toNanos(call(event, "getDuration", "longestPause"));
+            Hotspot hotspot = getHotspot(collectors, collector, null);
+            hotspot.add(sum);
+            hotspot.max = Math.max(hotspot.max, longest);
+            pauses.add(new Pause(toMillis(call(event, "getStartTime")), collector, (String) call(event, "getString", "cause"), sum));
+        } else {
+            return;
+        }
+        events++;
+        firstEvent = Math.min(firstEvent, toMillis(call(event, "getStartTime")));
+        lastEvent = Math.max(lastEvent, toMillis(call(event, "getEndTime")));
+    }
+
+    private void addSample(List<String> stack) {
+        samples++;
+        String hotspot = getProjectMethod(stack);
+        if (hotspot == null) {
+            return;
+        }
+        projectSamples++;
+        getHotspot(cpu, hotspot, null).add(1);
+        if (hotspot.equals(stack.get(0))) {
+            getHotspot(cpu, hotspot, null).self++;
+        }
+        // Counted once per sample, even for recursive calls
+        Set<String> onStack = new HashSet<String>();
+        for (String method : stack) {
+            if (isProject(method) && onStack.add(method)) {
+                getHotspot(cpu, method, null).inclusive++;
+            }
+        }
+    }
+
+    private void addHotspot(Map<String, Hotspot> hotspots, List<String> stack, String detail, long value) {
+        String method = getProjectMethod(stack);
+        if (method != null) {
+            getHotspot(hotspots, method, detail).add(value);
+        }
+    }
+
+    private static Hotspot getHotspot(Map<String, Hotspot> hotspots, String method, String detail) {
+        String key = detail != null ? method + " " + detail : method;
+        Hotspot hotspot = hotspots.get(key);
+        if (hotspot == null) {
+            hotspot = new Hotspot(method, detail);
+            hotspots.put(key, hotspot);
+        }
+        return hotspot;
+    }
+
+    /**
+     * @return the closest method of the project packages to the top of the stack, the top of the stack if no project
+     *         packages are given, or null
+     */
+    private String getProjectMethod(List<String> stack) {
+        for (String method : stack) {
+            if (isProject(method)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    private boolean isProject(String method) {
+        String className = method.substring(0, Math.max(0, method.lastIndexOf('.')));
+        Boolean project = projectClasses.get(className);
+        if (project == null) {
+            project = packages.isEmpty();
+            for (String projectPackage : packages) {
+                if (className.startsWith(projectPackage + ".")) {
+                    project = true;
+                    break;
+                }
+            }
+            projectClasses.put(className, project);
+        }
+        return project;
+    }
+
+    /**
+     * @return the methods of the stack trace of an event, as class.method, top first
+     */
+    private List<String> getStack(Object event) throws IOException {
+        Object stackTrace = call(event, "getStackTrace");
+        if (stackTrace == null) {
+            return Collections.emptyList();
+        }
+        List<?> frames = (List<?>) call(stackTrace, "getFrames");
+        List<String> stack = new ArrayList<String>(frames.size());
+        for (Object frame : frames) {
+            Object method = call(frame, "getMethod");
+            stack.add(call(call(method, "getType"), "getName") + "." + call(method, "getName"));
+        }
+        return stack;
+    }
+
+    private String getClassName(Object event, String field) throws IOException {
+        Object type = call(event, "getClass", field);
+        return type != null ? toSourceName((String) call(type, "getName")) : "-";
+    }
+
+    /**
+     * @return the name of a class as written in the sources, e.g. byte[] for [B
+     */
+    static String toSourceName(String className) {
+        int dimensions = 0;
+        while (dimensions < className.length() && className.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        if (dimensions == 0) {
+            return className;
+        }
+        String component = className.substring(dimensions);
+        if (component.startsWith("L") && component.endsWith(";")) {
+            component = component.substring(1, component.length() - 1);
+        } else if (component.length() == 1) {
+            component = PRIMITIVES.get(component.charAt(0));
+        }
+        StringBuilder name = new StringBuilder(component);
+        for (int i = 0; i < dimensions; i++) {
+            name.append("[]");
+        }
+        return name.toString();
+    }
+
+    private long toNanos(Object duration) throws IOException {
+        return (Long) call(duration, "toNanos");
+    }
+
+    private long toMillis(Object instant) throws IOException {
+        return (Long) call(instant, "toEpochMilli");
+    }
+
+    /**
+     * Calls a public method of the jdk.jfr.consumer API (or java.time, not available on Java 7)
+     */
+    private Object call(Object target, String name, String... arguments) throws IOException {
+        String key = target.getClass().getName() + "#" + name + "/" + arguments.length;
+        try {
+            Method method = methods.get(key);
+            if (method == null) {
+                Class<?>[] types = new Class<?>[arguments.length];
+                Arrays.fill(types, String.class);
+                method = target.getClass().getMethod(name, types);
+                methods.put(key, method);
+            }
+            return method.invoke(target, (Object[]) arguments);
+        } catch (InvocationTargetException e) {
+            throw asIOException(e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Unsupported Java Flight Recorder API: " + e, e);
+        }
+    }
+
+    private static IOException asIOException(Throwable e) {
+        return e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+    }
+
+    private List<Table> getTables() {
+        List<Table> tables = new ArrayList<Table>();
+        String scope = packages.isEmpty() ? "" : " in " + join(packages);
+
+        Table table = new Table("Top CPU methods", projectSamples + " of the " + samples + " execution samples" + scope
+                + ", by closest project method (Self: at the top of the stack, Total: anywhere on the stack)",
+                4, "Samples", "%", "Self", "Total", "Method");
+        for (Hotspot hotspot : sort(cpu.values(), false)) {
+            if (hotspot.count > 0) {
+                table.add(String.valueOf(hotspot.count), percent(hotspot.count, samples), String.valueOf(hotspot.self),
+                        String.valueOf(hotspot.inclusive), hotspot.method);
+            }
+        }
+        tables.add(table);
+
+        // Java 16 and later sample allocations, older versions record the allocation of TLABs
+        boolean sampled = !sampledAllocations.isEmpty() || tlabAllocations.isEmpty();
+        long allocated = sampled ? sampledBytes : tlabBytes;
+        table = new Table("Allocation hotspots", bytes(allocated) + " allocated (as estimated by " + (sampled
+                ? "allocation samples" : "TLAB allocations") + "), by closest project method" + scope, 3, "Bytes", "%",
+                "Samples", "Method", "Class");
+        for (Hotspot hotspot : sort((sampled ? sampledAllocations : tlabAllocations).values(), true)) {
+            table.add(bytes(hotspot.total), percent(hotspot.total, allocated), String.valueOf(hotspot.count),
+                    hotspot.method, hotspot.detail);
+        }
+        tables.add(table);
+
+        table = new Table("Lock contention", millis(blockedNanos) + " ms spent blocked on monitors or parked (over the "
+                + "recording thresholds), by closest project method" + scope, 3, "Blocked ms", "Events", "Max ms",
+                "Method", "Lock");
+        for (Hotspot hotspot : sort(locks.values(), true)) {
+            table.add(millis(hotspot.total), String.valueOf(hotspot.count), millis(hotspot.max), hotspot.method,
+                    hotspot.detail);
+        }
+        tables.add(table);
+
+        long recorded = events > 0 ? lastEvent - firstEvent : 0;
+        table = new Table("GC pauses", pauses.size() + " garbage collections of the whole JVM over the "
+                + (recorded / 1000) + " s of the recording", 4, "Collections", "Pause ms", "Max ms", "% of time", "Collector");
+        for (Hotspot hotspot : sort(collectors.values(), true)) {
+            table.add(String.valueOf(hotspot.count), millis(hotspot.total), millis(hotspot.max),
+                    percent(hotspot.total / MILLI, recorded), hotspot.method);
+        }
+        tables.add(table);
+
+        table = new Table("Longest GC pauses", null, 1, "Pause ms", "Time", "Collector", "Cause");
+        Collections.sort(pauses, new Comparator<Pause>() {
+            public int compare(Pause pause, Pause other) {
+                return pause.nanos > other.nanos ? -1 : pause.nanos < other.nanos ? 1 : 0;
+            }
+        });
+        SimpleDateFormat time = new SimpleDateFormat("HH:mm:ss.SSS");
+        for (Pause pause : pauses.subList(0, Math.min(top, pauses.size()))) {
+            table.add(millis(pause.nanos), time.format(new Date(pause.time)), pause.collector, pause.cause);
+        }
+        tables.add(table);
+        return tables;
+    }
+
+    /**
+     * @return the top hotspots, by total (allocated bytes, blocked time, pause time) or by count (samples)
+     */
+    private List<Hotspot> sort(Collection<Hotspot> hotspots, final boolean byTotal) {
+        List<Hotspot> sorted = new ArrayList<Hotspot>(hotspots);
+        Collections.sort(sorted, new Comparator<Hotspot>() {
+            public int compare(Hotspot hotspot, Hotspot other) {
+                long value = byTotal ? hotspot.total : hotspot.count;
+                long otherValue = byTotal ? other.total : other.count;
+                if (value != otherValue) {
+                    return value > otherValue ? -1 : 1;
+                }
+                return hotspot.method.compareTo(other.method);
+            }
+        });
+        return sorted.subList(0, Math.min(top, sorted.size()));
+    }
+
+    private static String toText(String title, List<Table> tables) {
+        StringBuilder text = new StringBuilder(title).append('\n');
+        for (Table table : tables) {
+            text.append('\n').append(table.title).append('\n');
+            if (table.summary != null) {
+                text.append(table.summary).append('\n');
+            }
+            if (table.rows.isEmpty()) {
+                text.append("  none\n");
+                continue;
+            }
+            int[] widths = new int[table.columns.length];
+            for (int i = 0; i < widths.length; i++) {
+                widths[i] = table.columns[i].length();
+                for (String[] row : table.rows) {
+                    widths[i] = Math.max(widths[i], row[i].length());
+                }
+            }
+            appendRow(text, table, table.columns, widths);
+            for (String[] row : table.rows) {
+                appendRow(text, table, row, widths);
+            }
+        }
+        return text.toString();
+    }
+
+    private static void appendRow(StringBuilder text, Table table, String[] row, int[] widths) {
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < row.length; i++) {
+            line.append("  ");
+            // Numbers right aligned, names left aligned
+            boolean number = i < table.numbers;
+            for (int pad = row[i].length(); number && pad < widths[i]; pad++) {
+                line.append(' ');
+            }
+            line.append(row[i]);
+            for (int pad = row[i].length(); !number && i < row.length - 1 && pad < widths[i]; pad++) {
+                line.append(' ');
+            }
+        }
+        text.append(line).append('\n');
+    }
+
+    private static String toHtml(String title, List<Table> tables) {
+        StringBuilder html = new StringBuilder("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"UTF-8\">\n<title>")
+                .append(escape(title)).append("</title>\n<style>\n")
+                .append("body { font-family: sans-serif; font-size: 13px; }\n")
+                .append("table { border-collapse: collapse; margin-bottom: 16px; }\n")
+                .append("th, td { border: 1px solid #ccc; padding: 2px 8px; text-align: left; }\n")
+                .append("td.number { text-align: right; }\n")
+                .append("th { background: #eee; }\n")
+                .append("</style>\n</head>\n<body>\n<h1>").append(escape(title)).append("</h1>\n");
+        for (Table table : tables) {
+            html.append("<h2>").append(escape(table.title)).append("</h2>\n");
+            if (table.summary != null) {
+                html.append("<p>").append(escape(table.summary)).append("</p>\n");
+            }
+            if (table.rows.isEmpty()) {
+                html.append("<p>None</p>\n");
+                continue;
+            }
+            html.append("<table>\n<tr>");
+            for (String column : table.columns) {
+                html.append("<th>").append(escape(column)).append("</th>");
+            }
+            html.append("</tr>\n");
+            for (String[] row : table.rows) {
+                html.append("<tr>");
+                for (int i = 0; i < row.length; i++) {
+                    html.append(i < table.numbers ? "<td class=\"number\">" : "<td>").append(escape(row[i])).append("</td>");
+                }
+                html.append("</tr>\n");
+            }
+            html.append("</table>\n");
+        }
+        return html.append("</body>\n</html>\n").toString();
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            joined.append(joined.length() > 0 ? ", " : "").append(value);
+        }
+        return joined.toString();
+    }
+
+    private static String percent(long value, long total) {
+        return String.format(Locale.ENGLISH, "%.1f", total > 0 ? value * 100d / total : 0);
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ENGLISH, "%.1f", nanos / (double) MILLI);
+    }
+
+    private static String bytes(long bytes) {
+        if (bytes >= 1024L * 1024 * 1024) {
+            return String.format(Locale.ENGLISH, "%.1f GB", bytes / (1024d * 1024 * 1024));
+        }
+        if (bytes >= 1024L * 1024) {
+            return String.format(Locale.ENGLISH, "%.1f MB", bytes / (1024d * 1024));
+        }
+        return String.format(Locale.ENGLISH, "%.1f KB", bytes / 1024d);
+    }
+
+    /**
+     * The events attributed to a method of the project, e.g. the CPU samples of its calls
+     */
+    private static class Hotspot {
+
+        final String method;
+        /** What the method allocates or waits for, if anything */
+        final String detail;
+        long count;
+        long total;
+        long max;
+        /** CPU samples with the method at the top of the stack */
+        long self;
+        /** CPU samples with the method anywhere on the stack */
+        long inclusive;
+
+        Hotspot(String method, String detail) {
+            this.method = method;
+            this.detail = detail;
+        }
+
+        void add(long value) {
+            count++;
+            total += value;
+            max = Math.max(max, value);
+        }
+    }
+
+    /**
+     * A garbage collection
+     */
+    private static class Pause {
+
+        final long time;
+        final String collector;
+        final String cause;
+        final long nanos;
+
+        Pause(long time, String collector, String cause, long nanos) {
+            this.time = time;
+            this.collector = collector;
+            this.cause = cause;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * A section of the report, whose first columns are numbers
+     */
+    private static class Table {
+
+        final String title;
+        final String summary;
+        final int numbers;
+        final String[] columns;
+        final List<String[]> rows = new ArrayList<String[]>();
+
+        Table(String title, String summary, int numbers, String... columns) {
+            this.title = title;
+            this.summary = summary;
+            this.numbers = numbers;
+            this.columns = columns;
+        }
+
+        void add(String... row) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = row[i] != null ? row[i] : "-";
+            }
+            rows.add(row);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package org.alfresco.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Writes the hotspots report of the Java Flight Recorder recording of the webapps run by the tomcat7-maven-plugin
+ * (see {@link ProfileReport}): top CPU methods, allocation hotspots, lock contention and GC pauses, filtered to the
+ * project packages.
+ * <p/>
+ * When the recording started by the start-profiling goal is still running (Tomcat running forked, with
+ * maven.tomcat.fork), the goal first waits for Enter to be pressed (or for the given duration), then stops the
+ * recording. Otherwise it reports on the recording file written when Maven last exited, e.g. after stopping Tomcat
+ * with Ctrl+C: run mvn alfresco:profile-report.
+ *
+ * @version $Id:$
+ * @goal profile-report
+ * @phase verify
+ * @requiresProject
+ * @threadSafe
+ * @since 2.0.0
+ * @description Writes a text and HTML report of the CPU, allocation, lock and GC hotspots of a Java Flight Recorder recording
+ */
+public class ProfileReportMojo extends AbstractProfilingMojo {
+
+    /**
+     * The project packages the hotspots are attributed to, comma separated, e.g. org.alfresco.demoamp. By default, the
+     * packages of the project classes, if any, otherwise all the code
+     *
+     * @parameter property="maven.alfresco.profile.packages"
+     */
+    private String packages;
+
+    /**
+     * The number of hotspots listed by each section of the report
+     *
+     * @parameter property="maven.alfresco.profile.top" default-value="20"
+     */
+    private int top;
+
+    /**
+     * How long to keep recording, in seconds, when the recording is running: -1 waits for Enter to be pressed (in
+     * batch mode, stops right away, e.g. once a load test ran in the post-integration-test phase)
+     *
+     * @parameter property="maven.alfresco.profile.duration" default-value="-1"
+     */
+    private int duration;
+
+    /**
+     * Folder the profile-report.txt and profile-report.html reports are written to
+     *
+     * @parameter property="maven.alfresco.profile.reportDirectory" default-value="${project.build.directory}/alfresco-profile"
+     * @required
+     */
+    private File reportDirectory;
+
+    /**
+     * @parameter default-value="${settings.interactiveMode}"
+     * @readonly
+     */
+    private boolean interactiveMode;
+
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (skipProfiling) {
+            getLog().info("Skipping profiling");
+            return;
+        }
+        FlightRecording recording = getRecording();
+        if (runsTomcat() && recording.isRunning()) {
+            awaitEndOfRecording();
+            try {
+                recording.stop();
+            } catch (IOException e) {
+                throw new MojoExecutionException("Could not stop recording with Java Flight Recorder", e);
+            }
+        } else if (!recordingFile.isFile()) {
+            if (!runsTomcat()) {
+                getLog().debug("No recording of " + project.getId() + " to report on");
+                return;
+            }
+            throw new MojoFailureException("No Java Flight Recorder recording found in " + recordingFile
+                    + " - run Tomcat with the profile profile (e.g. -Pamp-to-war,profile) first");
+        }
+
+        List<String> projectPackages = getPackages();
+        if (projectPackages.isEmpty()) {
+            getLog().info("No project packages to report on, reporting on all the code - use -Dmaven.alfresco.profile.packages to set them");
+        }
+        ProfileReport report = new ProfileReport(projectPackages, top);
+        BuildMetrics buildMetrics = new BuildMetrics(project.getId(), "profile-report");
+        BuildMetrics.Phase phase = buildMetrics.start("report");
+        String text;
+        try {
+            report.read(recordingFile);
+            text = report.write(reportDirectory, "Profile of " + project.getId() + " (" + recordingFile.getName() + ")");
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error reporting on the recording " + recordingFile, e);
+        }
+        phase.read(recordingFile.length()).entries(report.getEvents())
+                .written(new File(reportDirectory, ProfileReport.TEXT_REPORT).length()
+                        + new File(reportDirectory, ProfileReport.HTML_REPORT).length());
+        phase.end();
+        getLog().info("Reported on the " + report.getEvents() + " events of " + recordingFile + " in "
+                + phase.getElapsed() + " ms:\n\n" + text);
+        getLog().info("Report written to " + new File(reportDirectory, ProfileReport.HTML_REPORT)
+                + " - open the recording in Java Mission Control for the full details");
+        reportMetrics(buildMetrics);
+    }
+
+    private void awaitEndOfRecording() throws MojoExecutionException {
+        try {
+            if (duration > 0) {
+                getLog().info("Profiling for " + duration + " seconds");
+                Thread.sleep(duration * 1000L);
+            } else if (duration < 0 && interactiveMode) {
+                getLog().info("Profiling - press Enter to stop and write the report");
+                while (System.in.read() != '\n') {
+                    // Consumes the line
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while profiling", e);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not read the console", e);
+        }
+    }
+
+    /**
+     * @return the packages given, or else the topmost packages of the project classes
+     */
+    private List<String> getPackages() {
+        List<String> projectPackages = new ArrayList<String>();
+        if (packages != null) {
+            for (String projectPackage : packages.split(",")) {
+                if (projectPackage.trim().length() > 0) {
+                    projectPackages.add(projectPackage.trim());
+                }
+            }
+            return projectPackages;
+        }
+        TreeSet<String> found = new TreeSet<String>();
+        findPackages(new File(project.getBuild().getOutputDirectory()), "", found);
+        for (String projectPackage : found) {
+            // Sorted, so that a package comes right before its subpackages
+            if (projectPackages.isEmpty() || !projectPackage.startsWith(projectPackages.get(projectPackages.size() - 1) + ".")) {
+                projectPackages.add(projectPackage);
+            }
+        }
+        return projectPackages;
+    }
+
+    private static void findPackages(File directory, String name, TreeSet<String> found) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                findPackages(file, name.length() > 0 ? name + "." + file.getName() : file.getName(), found);
+            } else if (file.getName().endsWith(".class") && name.length() > 0) {
+                found.add(name);
+            }
+        }
+    }
+}
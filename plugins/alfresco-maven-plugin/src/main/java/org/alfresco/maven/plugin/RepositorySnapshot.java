@@ -0,0 +1,210 @@
+package org.alfresco.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A copy of the folders of an embedded Alfresco repository (alf_data with its H2 database, solr_home) taken right
+ * after its bootstrap, kept in a snapshot folder named after the Alfresco WAR and the AMPs installed into it, so
+ * that a fresh (or purged) repository is restored in seconds instead of being created and bootstrapped again.
+ * <p/>
+ * Snapshots are written to a temporary folder and then moved in place, so that concurrent builds never see partial
+ * snapshots. On restore, the files of the content store folders, which Alfresco never modifies once written, are
+ * hard linked to the snapshot (when the file system allows it) rather than copied; all the other files (the H2
+ * database, indexes...) are modified in place by the repository and are therefore copied.
+ */
+public class RepositorySnapshot {
+
+    static final String PROPERTIES = "snapshot.properties";
+    static final String FOLDERS_PROPERTY = "folders";
+
+    private static final String TEMP = "tmp";
+
+    private final File snapshotsDirectory;
+    private final String key;
+    private final File directory;
+    private final Log log;
+
+    private long filesLinked;
+    private long filesCopied;
+    private long bytesCopied;
+
+    /**
+     * @param snapshotsDirectory the folder holding all snapshots
+     * @param key                the key of the snapshot, see {@link #key(String, Map)}
+     */
+    public RepositorySnapshot(File snapshotsDirectory, String key, Log log) {
+        this.snapshotsDirectory = snapshotsDirectory;
+        this.key = key;
+        this.directory = new File(snapshotsDirectory, key);
+        this.log = log;
+    }
+
+    /**
+     * Computes the key of the snapshot of a repository
+     *
+     * @param war     the coordinates and content hash of the Alfresco WAR the repository runs
+     * @param modules the AMPs installed into the WAR (groupId:artifactId to version and content hash), in a stable order
+     */
+    public static String key(String war, Map<String, String> modules) {
+        return ArtifactCache.key("repository-snapshot " + war, modules);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public boolean exists() {
+        return new File(directory, PROPERTIES).isFile();
+    }
+
+    /**
+     * Copies the repository folders into the snapshot, replacing the snapshot if it already exists
+     *
+     * @param folders     the folders to capture, by name in the snapshot; folders that do not exist are skipped
+     * @param description what the snapshot was taken from, stored in snapshot.properties
+     */
+    public void capture(Map<String, File> folders, Properties description) throws IOException {
+        File temp = new File(new File(snapshotsDirectory, TEMP), key + "-" + UUID.randomUUID());
+        try {
+            temp.mkdirs();
+            StringBuilder captured = new StringBuilder();
+            for (Map.Entry<String, File> folder : folders.entrySet()) {
+                if (!folder.getValue().isDirectory()) {
+                    log.debug(folder.getValue() + " does not exist, not captured");
+                    continue;
+                }
+                FileUtils.copyDirectory(folder.getValue(), new File(temp, folder.getKey()));
+                filesCopied += count(folder.getValue());
+                bytesCopied += FileUtils.sizeOfDirectory(folder.getValue());
+                captured.append(captured.length() > 0 ? "," : "").append(folder.getKey());
+            }
+            Properties properties = new Properties();
+            properties.putAll(description);
+            properties.setProperty(FOLDERS_PROPERTY, captured.toString());
+            OutputStream out = new FileOutputStream(new File(temp, PROPERTIES));
+            try {
+                properties.store(out, "Alfresco repository snapshot");
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
+            if (directory.exists()) {
+                FileUtils.deleteDirectory(directory);
+            }
+            try {
+                Files.move(temp.toPath(), directory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), directory.toPath());
+            }
+        } finally {
+            FileUtils.deleteQuietly(temp);
+        }
+    }
+
+    /**
+     * Replaces the repository folders with their copy in the snapshot
+     *
+     * @param folders       the folders to restore, by name in the snapshot; folders not in the snapshot are left untouched
+     * @param linkedFolders the names of the subfolders (e.g. contentstore) whose files are never modified in place,
+     *                      and can therefore be hard linked to the snapshot
+     */
+    public void restore(Map<String, File> folders, Collection<String> linkedFolders) throws IOException {
+        String captured = getProperties().getProperty(FOLDERS_PROPERTY, "");
+        for (Map.Entry<String, File> folder : folders.entrySet()) {
+            if (!("," + captured + ",").contains("," + folder.getKey() + ",")) {
+                continue;
+            }
+            File target = folder.getValue();
+            if (target.exists()) {
+                FileUtils.deleteDirectory(target);
+            }
+            restoreFolder(new File(directory, folder.getKey()).toPath(), target.toPath(), linkedFolders);
+        }
+    }
+
+    public Properties getProperties() throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(new File(directory, PROPERTIES));
+        try {
+            properties.load(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return properties;
+    }
+
+    public long getFilesLinked() {
+        return filesLinked;
+    }
+
+    public long getFilesCopied() {
+        return filesCopied;
+    }
+
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    private void restoreFolder(final Path source, final Path target, final Collection<String> linkedFolders) throws IOException {
+        Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+
+            private boolean linksSupported = true;
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path relative = source.relativize(file);
+                Path copy = target.resolve(relative.toString());
+                if (linksSupported && relative.getNameCount() > 1 && linkedFolders.contains(relative.getName(0).toString())) {
+                    try {
+                        Files.createLink(copy, file);
+                        filesLinked++;
+                        return FileVisitResult.CONTINUE;
+                    } catch (IOException e) {
+                        log.debug("Cannot hard link " + file + " (" + e + "), copying the snapshot files instead");
+                        linksSupported = false;
+                    } catch (UnsupportedOperationException e) {
+                        log.debug("Hard links are not supported, copying the snapshot files instead");
+                        linksSupported = false;
+                    }
+                }
+                Files.copy(file, copy, StandardCopyOption.COPY_ATTRIBUTES);
+                filesCopied++;
+                bytesCopied += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private static long count(File directory) {
+        return FileUtils.listFiles(directory, null, true).size();
+    }
+}
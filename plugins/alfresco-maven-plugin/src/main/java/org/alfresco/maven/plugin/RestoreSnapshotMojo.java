@@ -0,0 +1,85 @@
+package org.alfresco.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+
+/**
+ * Restores the snapshot of the embedded repository captured by the capture-snapshot goal for the Alfresco WAR and
+ * the set of AMPs the project runs, when the repository does not exist yet (first run, or after -Ppurge), so that
+ * Alfresco starts on an already bootstrapped repository instead of creating its database and bootstrapping it.
+ * <p/>
+ * The content store files, which Alfresco never modifies, are hard linked to the snapshot when the file system
+ * supports it; the H2 database and the indexes are copied.
+ *
+ * @version $Id:$
+ * @goal restore-snapshot
+ * @requiresProject
+ * @threadSafe
+ * @since 2.0.0
+ * @description Restores the snapshot of the bootstrapped embedded repository (alf_data, H2 database, solr_home) before Alfresco starts
+ */
+public class RestoreSnapshotMojo extends AbstractSnapshotMojo {
+
+    /**
+     * Whether to replace an existing repository with the snapshot. By default the snapshot is only restored when
+     * there is no repository, so that the content of the development repository is kept between runs
+     *
+     * @parameter property="maven.alfresco.snapshot.force" default-value="false"
+     */
+    private boolean force;
+
+    /**
+     * The alf_data subfolders whose files are never modified once written, hard linked to the snapshot rather
+     * than copied. Defaults to contentstore and contentstore.deleted
+     *
+     * @parameter
+     */
+    private List<String> linkedFolders;
+
+    public void execute() throws MojoExecutionException {
+        if (skipSnapshot) {
+            getLog().info("Skipping repository snapshot restore");
+            return;
+        }
+        if (isNotEmpty(dataLocation) && !force) {
+            getLog().debug("The repository in " + dataLocation + " already exists, not restoring the snapshot");
+            return;
+        }
+        RepositorySnapshot snapshot;
+        try {
+            snapshot = getSnapshot();
+        } catch (MojoFailureException e) {
+            getLog().info(e.getMessage() + " - not restoring the repository snapshot");
+            return;
+        }
+        if (!snapshot.exists()) {
+            getLog().info("No repository snapshot of " + getWar() + " with " + getModules().keySet() + " - Alfresco will bootstrap"
+                    + " a new repository; once started and stopped, run mvn alfresco:capture-snapshot to snapshot it");
+            return;
+        }
+        BuildMetrics buildMetrics = new BuildMetrics(project.getId(), "restore-snapshot");
+        BuildMetrics.Phase phase = buildMetrics.start("restore");
+        long start = System.currentTimeMillis();
+        try {
+            snapshot.restore(getFolders(), linkedFolders != null ? linkedFolders : Arrays.asList("contentstore", "contentstore.deleted"));
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error restoring the repository snapshot " + snapshot.getDirectory(), e);
+        }
+        phase.read(snapshot.getBytesCopied()).written(snapshot.getBytesCopied())
+                .entries(snapshot.getFilesCopied() + snapshot.getFilesLinked());
+        getLog().info("Restored the repository snapshot of " + getWar() + " with " + getModules().keySet() + " ("
+                + snapshot.getFilesCopied() + " files copied, " + snapshot.getFilesLinked() + " linked) in "
+                + (System.currentTimeMillis() - start) + " ms");
+        reportBuildMetrics(buildMetrics);
+    }
+
+    private static boolean isNotEmpty(File directory) {
+        String[] children = directory.list();
+        return children != null && children.length > 0;
+    }
+}
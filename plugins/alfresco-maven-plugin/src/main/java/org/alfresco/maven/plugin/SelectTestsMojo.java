@@ -0,0 +1,274 @@
+package org.alfresco.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * Excludes from the Surefire run the test classes which passed last time they ran, and which touch nothing that
+ * changed since (module classes, Spring context files of the beans they use), as recorded by the alfresco-rad
+ * TestImpactListener. Any other change to the module configuration (e.g. a content model or a properties file)
+ * runs all the tests, while changes outside the test classpath (e.g. the CSS or JS of src/main/amp/web) run none.
+ * <p/>
+ * The excluded test classes are written to the excludesFile of the Surefire configuration of the
+ * enable-alfresco-testing profile. The selection is opt-in, with -Dmaven.alfresco.testImpact.select: all the tests
+ * run otherwise. Tests named with -Dtest are always run; -Dmaven.alfresco.testImpact.full runs all the tests.
+ *
+ * @version $Id:$
+ * @goal select-tests
+ * @phase process-test-classes
+ * @requiresProject
+ * @threadSafe
+ * @since 2.0.0
+ * @description Excludes the test classes unaffected by the changes since they last passed from the test run
+ */
+public class SelectTestsMojo extends AbstractMojo {
+
+    // As written by the alfresco-rad TestImpactListener
+    private static final String TESTS_FOLDER = "tests";
+    private static final String MODULE_RECORD = "module.properties";
+    private static final String OUTCOME = "outcome";
+    private static final String PASSED = "passed";
+    private static final String FOLDERS = "folders";
+    private static final String INPUT_PREFIX = "input.";
+    private static final String SPRING_PREFIX = "spring.";
+    private static final String CONFIG_PREFIX = "config.";
+
+    /** Surefire excludes inner classes by default, unless excludes are given */
+    private static final String DEFAULT_EXCLUDE = "**/*$*";
+
+    /**
+     * Folder the test impact records are written to by the TestImpactListener
+     *
+     * @parameter property="maven.alfresco.testImpact.directory" default-value="${project.build.directory}/test-impact"
+     * @required
+     */
+    private File impactDirectory;
+
+    /**
+     * The Surefire excludesFile, written with the test classes to exclude
+     *
+     * @parameter property="maven.alfresco.testImpact.excludesFile" default-value="${project.build.directory}/test-impact/excludes.txt"
+     * @required
+     */
+    private File excludesFile;
+
+    /**
+     * Whether to exclude the unaffected test classes at all. All the tests run by default, the excludesFile then
+     * only holding the default Surefire exclusion
+     *
+     * @parameter property="maven.alfresco.testImpact.select" default-value="false"
+     */
+    private boolean select;
+
+    /**
+     * Runs all the tests, whatever changed
+     *
+     * @parameter property="maven.alfresco.testImpact.full" default-value="false"
+     */
+    private boolean fullRun;
+
+    /**
+     * The tests selected on the command line, if any, which are run whatever changed
+     *
+     * @parameter property="test"
+     */
+    private String test;
+
+    /**
+     * Whether to print a summary of the time, bytes read and written and files processed by each phase of the
+     * goal, and write it as JSON and CSV to metricsDirectory. The metrics are otherwise only logged in debug mode
+     *
+     * @parameter property="maven.alfresco.metrics" default-value="false"
+     */
+    private boolean reportMetrics;
+
+    /**
+     * Folder the metrics reports are written to, named after the goal
+     *
+     * @parameter property="maven.alfresco.metricsDirectory" default-value="${project.build.directory}/alfresco-metrics"
+     */
+    private File metricsDirectory;
+
+    /**
+     * [Read Only] The Maven project.
+     *
+     * @parameter default-value="${project}"
+     * @required
+     * @readonly
+     */
+    private MavenProject project;
+
+    public void execute() throws MojoExecutionException {
+        BuildMetrics buildMetrics = new BuildMetrics(project.getId(), "select-tests");
+        List<String> excludes = new ArrayList<String>();
+        excludes.add(DEFAULT_EXCLUDE);
+        try {
+            String reason = getFullRunReason();
+            if (!select) {
+                getLog().debug("Running all tests: maven.alfresco.testImpact.select is not set");
+            } else if (reason != null) {
+                getLog().info("Running all tests: " + reason);
+            } else {
+                BuildMetrics.Phase phase = buildMetrics.start("select");
+                Checksums checksums = new Checksums();
+                String changed = getChangedConfig(checksums);
+                File[] records = new File(impactDirectory, TESTS_FOLDER).listFiles();
+                if (changed != null) {
+                    getLog().info("Running all tests: " + changed + " changed");
+                } else if (records != null) {
+                    int selected = 0;
+                    for (File record : records) {
+                        String testClass = record.getName().substring(0, record.getName().length() - ".properties".length());
+                        String input = getChangedInput(load(record), checksums);
+                        if (input == null) {
+                            excludes.add(testClass.replace('.', '/') + ".java");
+                        } else {
+                            selected++;
+                            getLog().debug("Running " + testClass + ": " + input);
+                        }
+                    }
+                    getLog().info("Excluded " + (excludes.size() - 1) + " test classes unaffected by the changes since they last passed,"
+                            + " running " + selected + " affected test classes and the new ones"
+                            + " (use -Dmaven.alfresco.testImpact.full to run all tests)");
+                }
+                phase.read(checksums.bytesRead).entries(checksums.checksums.size() + (records != null ? records.length : 0));
+            }
+            excludesFile.getParentFile().mkdirs();
+            FileUtils.writeLines(excludesFile, "UTF-8", excludes);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error selecting the tests to run from " + impactDirectory, e);
+        }
+        try {
+            buildMetrics.report(getLog(), reportMetrics ? metricsDirectory : null);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing build metrics to " + metricsDirectory, e);
+        }
+    }
+
+    /**
+     * @return why all the tests must run, or null if they can be selected
+     */
+    private String getFullRunReason() {
+        if (fullRun) {
+            return "maven.alfresco.testImpact.full is set";
+        }
+        if (test != null && test.trim().length() > 0) {
+            return "tests selected with -Dtest";
+        }
+        if (!new File(impactDirectory, MODULE_RECORD).isFile()) {
+            return "no test impact recorded yet in " + impactDirectory;
+        }
+        return null;
+    }
+
+    /**
+     * @return the module configuration file (other than a Spring context file) added, removed or changed since the
+     *         last run, null if none
+     */
+    private String getChangedConfig(Checksums checksums) throws IOException {
+        Properties module = load(new File(impactDirectory, MODULE_RECORD));
+        for (String key : module.stringPropertyNames()) {
+            File file = new File(key.substring(key.indexOf('.') + 1));
+            if (key.startsWith(CONFIG_PREFIX) && !module.getProperty(key).equals(checksums.get(file))) {
+                return file.getPath();
+            }
+            if (key.startsWith(SPRING_PREFIX) && !file.isFile()) {
+                return file.getPath();
+            }
+        }
+        for (String folder : module.getProperty(FOLDERS, "").split(File.pathSeparator)) {
+            if (folder.length() > 0) {
+                String added = getAddedFile(new File(folder), module);
+                if (added != null) {
+                    return added;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String getAddedFile(File folder, Properties module) {
+        File[] children = folder.listFiles();
+        if (children == null) {
+            return null;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                String added = getAddedFile(child, module);
+                if (added != null) {
+                    return added;
+                }
+            } else if (!child.getName().endsWith(".class") && !module.containsKey(CONFIG_PREFIX + child.getAbsolutePath())
+                    && !module.containsKey(SPRING_PREFIX + child.getAbsolutePath())) {
+                return child.getPath();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the input of a test class changed since it last ran (or why it must run), null if it can be excluded
+     */
+    private static String getChangedInput(Properties record, Checksums checksums) throws IOException {
+        if (!PASSED.equals(record.getProperty(OUTCOME))) {
+            return "failed last time";
+        }
+        for (String key : record.stringPropertyNames()) {
+            if (key.startsWith(INPUT_PREFIX)) {
+                File input = new File(key.substring(INPUT_PREFIX.length()));
+                if (!record.getProperty(key).equals(checksums.get(input))) {
+                    return input.getPath() + " changed";
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return properties;
+    }
+
+    /**
+     * The checksums of the files, computed once per build
+     */
+    private static class Checksums {
+
+        final Map<File, String> checksums = new HashMap<File, String>();
+        long bytesRead;
+
+        /**
+         * @return the SHA-1 of the file, null if it does not exist
+         */
+        String get(File file) throws IOException {
+            if (!checksums.containsKey(file)) {
+                String checksum = null;
+                if (file.isFile()) {
+                    checksum = BuildState.checksum(file);
+                    bytesRead += file.length();
+                }
+                checksums.put(file, checksum);
+            }
+            return checksums.get(file);
+        }
+    }
+}
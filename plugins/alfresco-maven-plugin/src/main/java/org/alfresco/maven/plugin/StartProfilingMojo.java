@@ -0,0 +1,57 @@
+package org.alfresco.maven.plugin;
+
+import java.io.IOException;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Starts a Java Flight Recorder recording of the Maven JVM, right before the tomcat7-maven-plugin runs the Alfresco
+ * and Share webapps in it. The recording is stopped, and reported on, by the profile-report goal, or written to the
+ * recording file when Maven exits (e.g. when Tomcat is stopped with Ctrl+C).
+ *
+ * @version $Id:$
+ * @goal start-profiling
+ * @phase pre-integration-test
+ * @requiresProject
+ * @threadSafe
+ * @since 2.0.0
+ * @description Starts a Java Flight Recorder recording of the webapps run by the tomcat7-maven-plugin
+ */
+public class StartProfilingMojo extends AbstractProfilingMojo {
+
+    /**
+     * The JFR settings of the recording: profile (the detailed settings of the JDK, sampling the CPU every 10 ms and
+     * recording allocations), default (lower overhead) or the path of a custom .jfc file
+     *
+     * @parameter property="maven.alfresco.profile.settings" default-value="profile"
+     * @required
+     */
+    private String settings;
+
+    public void execute() throws MojoExecutionException {
+        if (skipProfiling) {
+            getLog().info("Skipping profiling");
+            return;
+        }
+        if (!runsTomcat()) {
+            getLog().debug("Not profiling " + project.getId() + ", which does not run Tomcat");
+            return;
+        }
+        FlightRecording recording = getRecording();
+        if (recording.isRunning()) {
+            // Started by a previous module of the build: a single recording covers the JVM
+            getLog().info("Java Flight Recorder is already recording this build");
+            return;
+        }
+        BuildMetrics buildMetrics = new BuildMetrics(project.getId(), "start-profiling");
+        buildMetrics.start("start");
+        try {
+            recording.start(settings);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Could not start recording with Java Flight Recorder", e);
+        }
+        getLog().info("Recording with Java Flight Recorder (" + settings + " settings) into " + recordingFile
+                + " - the profile-report goal writes the hotspots report");
+        reportMetrics(buildMetrics);
+    }
+}
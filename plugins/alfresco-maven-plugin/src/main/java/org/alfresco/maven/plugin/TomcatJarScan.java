@@ -0,0 +1,357 @@
+package org.alfresco.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Finds the JARs of webapps (WEB-INF/lib) that Tomcat does not need to scan when starting them: the ones without TLD
+ * (META-INF/*.tld), web fragment (META-INF/web-fragment.xml), ServletContainerInitializer, static resources
+ * (META-INF/resources) or class annotated with the Servlet 3.0 @WebServlet, @WebFilter or @WebListener. Tomcat 7 opens
+ * and reads all the others on every start, which takes seconds for the hundreds of JARs of Alfresco and Share.
+ * <p/>
+ * Finding them means reading all the JARs, so what was found is kept in a properties file, and a JAR only read again
+ * when it changes. The skip list is then written in the JarScanner element of a Tomcat context.xml, whose
+ * org.alfresco.maven.tomcat.SkippingJarScanner (of alfresco-tomcat) skips them.
+ * <p/>
+ * A ServletContainerInitializer annotated with @HandlesTypes (e.g. the one of Spring 3.1 and later) is given the
+ * classes of all the JARs of its webapp of the types it handles: when a JAR has one, no JAR is skipped, so that
+ * Tomcat still finds these classes.
+ */
+public class TomcatJarScan {
+
+    /** The JarScanner of alfresco-tomcat, skipping the JARs of its jarsToSkip attribute */
+    public static final String SKIPPING_JAR_SCANNER = "org.alfresco.maven.tomcat.SkippingJarScanner";
+
+    /** Bumped whenever what needs scanning changes, so that caches of older plugin versions are read again */
+    static final String CACHE_VERSION = "2";
+
+    /** Why a JAR with a ServletContainerInitializer annotated with @HandlesTypes is scanned */
+    static final String HANDLES_TYPES_INITIALIZER = "ServletContainerInitializer with @HandlesTypes";
+
+    private static final String VERSION = "version";
+    private static final String LIB = "WEB-INF/lib/";
+    private static final String SERVLET_CONTAINER_INITIALIZER = "META-INF/services/javax.servlet.ServletContainerInitializer";
+    /** Only the class level annotations Tomcat looks for, as referenced by the constant pool of the annotated classes */
+    private static final byte[] SERVLET_ANNOTATIONS = "Ljavax/servlet/annotation/Web".getBytes();
+    private static final byte[] HANDLES_TYPES = "Ljavax/servlet/annotation/HandlesTypes;".getBytes();
+    private static final Pattern COMMENT = Pattern.compile("<!--.*?-->", Pattern.DOTALL);
+    private static final Pattern JAR_SCANNER = Pattern.compile("<JarScanner\\b[^>]*?(/?)>");
+    private static final Pattern CLASS_NAME = Pattern.compile("\\sclassName\\s*=\\s*\"([^\"]*)\"");
+    private static final Pattern JARS_TO_SKIP = Pattern.compile("\\sjarsToSkip\\s*=\\s*\"[^\"]*\"");
+
+    private final File cacheFile;
+    private final List<Pattern> jarsToScan;
+    private final Properties cache = new Properties();
+    private final Properties updatedCache = new Properties();
+
+    /** The JARs which can be skipped */
+    private final Set<String> skippable = new TreeSet<String>();
+    /** The JARs which need scanning, and why */
+    private final Map<String, String> needed = new TreeMap<String, String>();
+    /** The JARs with a ServletContainerInitializer annotated with @HandlesTypes */
+    private final Set<String> handlesTypes = new TreeSet<String>();
+    private int jars;
+    private long bytesRead;
+
+    /**
+     * @param cacheFile  the file what was found is kept in between builds
+     * @param jarsToScan file name patterns (with * wildcards) of the JARs never skipped
+     */
+    public TomcatJarScan(File cacheFile, List<Pattern> jarsToScan) throws IOException {
+        this.cacheFile = cacheFile;
+        this.jarsToScan = jarsToScan;
+        if (cacheFile.isFile()) {
+            InputStream in = new FileInputStream(cacheFile);
+            try {
+                cache.load(in);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+            if (!CACHE_VERSION.equals(cache.getProperty(VERSION))) {
+                cache.clear();
+            }
+        }
+    }
+
+    /**
+     * @param patterns comma separated file name patterns, with * wildcards
+     */
+    public static List<Pattern> toPatterns(String patterns) {
+        List<Pattern> compiled = new ArrayList<Pattern>();
+        if (patterns != null) {
+            for (String pattern : patterns.split(",")) {
+                if (pattern.trim().length() > 0) {
+                    compiled.add(Pattern.compile(Pattern.quote(pattern.trim()).replace("*", "\\E.*\\Q")));
+                }
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Finds the JARs of a webapp that need scanning
+     *
+     * @param webapp a WAR file, or an exploded WAR folder
+     */
+    public void scan(File webapp) throws IOException {
+        if (webapp.isFile()) {
+            ZipFile war = new ZipFile(webapp);
+            try {
+                Enumeration<? extends ZipEntry> entries = war.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    String name = getJarName(entry.getName());
+                    if (name != null) {
+                        String key = name + "/" + entry.getSize() + "/" + Long.toHexString(entry.getCrc());
+                        if (!cache.containsKey(key)) {
+                            InputStream in = war.getInputStream(entry);
+                            try {
+                                cache.setProperty(key, findScannedContent(in));
+                            } finally {
+                                IOUtils.closeQuietly(in);
+                            }
+                            bytesRead += entry.getSize();
+                        }
+                        add(name, key);
+                    }
+                }
+            } finally {
+                war.close();
+            }
+        } else {
+            File[] libraries = new File(webapp, LIB).listFiles();
+            if (libraries == null) {
+                throw new IOException(webapp + " is neither a WAR file nor an exploded WAR");
+            }
+            Arrays.sort(libraries);
+            for (File library : libraries) {
+                if (!library.isFile() || !library.getName().endsWith(".jar")) {
+                    continue;
+                }
+                String key = library.getName() + "/" + library.length() + "/" + library.lastModified();
+                if (!cache.containsKey(key)) {
+                    InputStream in = new FileInputStream(library);
+                    try {
+                        cache.setProperty(key, findScannedContent(in));
+                    } finally {
+                        IOUtils.closeQuietly(in);
+                    }
+                    bytesRead += library.length();
+                }
+                add(library.getName(), key);
+            }
+        }
+    }
+
+    /**
+     * Keeps what was found in the JARs scanned, dropping the JARs no longer found
+     */
+    public void save() throws IOException {
+        updatedCache.setProperty(VERSION, CACHE_VERSION);
+        cacheFile.getAbsoluteFile().getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(cacheFile);
+        try {
+            updatedCache.store(out, "Alfresco Maven Plugin Tomcat JAR scan cache - do not edit");
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * @return the JARs Tomcat can skip: as the skip list applies to JAR names, a JAR is only skipped when none of the
+     *         webapps scanned has a JAR of the same name which needs scanning; none when a JAR has a
+     *         ServletContainerInitializer annotated with @HandlesTypes, see {@link #getHandlesTypes()}
+     */
+    public Set<String> getJarsToSkip() {
+        if (!handlesTypes.isEmpty()) {
+            return new TreeSet<String>();
+        }
+        Set<String> jarsToSkip = new TreeSet<String>(skippable);
+        jarsToSkip.removeAll(needed.keySet());
+        return jarsToSkip;
+    }
+
+    /**
+     * @return the JARs Tomcat still scans, and why
+     */
+    public Map<String, String> getJarsToScan() {
+        return needed;
+    }
+
+    /**
+     * @return the JARs with a ServletContainerInitializer annotated with @HandlesTypes, whose classes are looked for in
+     *         all the JARs, so that no JAR is skipped
+     */
+    public Set<String> getHandlesTypes() {
+        return handlesTypes;
+    }
+
+    /**
+     * @return the number of JARs found, in all the webapps scanned
+     */
+    public int getJars() {
+        return jars;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Writes a skip list in the JarScanner element of a Tomcat context.xml, adding the element if needed
+     *
+     * @return the updated context.xml
+     * @throws IllegalArgumentException if the context.xml has no Context element, or another JarScanner
+     */
+    public static String writeJarsToSkip(String contextXml, Set<String> jarsToSkip) {
+        StringBuilder list = new StringBuilder();
+        for (String jar : jarsToSkip) {
+            list.append(list.length() > 0 ? "," : "").append(jar);
+        }
+        String attribute = " jarsToSkip=\"" + escape(list.toString()) + "\"";
+        // Elements commented out are left alone
+        String uncommented = blankComments(contextXml);
+        Matcher jarScanner = JAR_SCANNER.matcher(uncommented);
+        if (!jarScanner.find()) {
+            int end = uncommented.lastIndexOf("</Context>");
+            if (end < 0) {
+                throw new IllegalArgumentException("no Context element");
+            }
+            return contextXml.substring(0, end) + "  <JarScanner className=\"" + SKIPPING_JAR_SCANNER + "\"" + attribute
+                    + "/>\n" + contextXml.substring(end);
+        }
+        String element = contextXml.substring(jarScanner.start(), jarScanner.end());
+        Matcher className = CLASS_NAME.matcher(element);
+        if (!className.find()) {
+            element = element.replaceFirst("^<JarScanner", "<JarScanner className=\"" + SKIPPING_JAR_SCANNER + "\"");
+        } else if (!SKIPPING_JAR_SCANNER.equals(className.group(1))) {
+            throw new IllegalArgumentException("its JarScanner is a " + className.group(1) + ", not a " + SKIPPING_JAR_SCANNER);
+        }
+        Matcher existing = JARS_TO_SKIP.matcher(element);
+        if (existing.find()) {
+            element = element.substring(0, existing.start()) + attribute + element.substring(existing.end());
+        } else {
+            int end = element.length() - jarScanner.group(1).length() - 1;
+            element = element.substring(0, end).replaceFirst("\\s*$", "") + attribute + element.substring(end);
+        }
+        return contextXml.substring(0, jarScanner.start()) + element + contextXml.substring(jarScanner.end());
+    }
+
+    private void add(String name, String key) {
+        jars++;
+        String content = cache.getProperty(key);
+        updatedCache.setProperty(key, content);
+        if (HANDLES_TYPES_INITIALIZER.equals(content)) {
+            handlesTypes.add(name);
+        }
+        for (Pattern pattern : jarsToScan) {
+            if (pattern.matcher(name).matches()) {
+                content = "listed in jarsToScan";
+            }
+        }
+        if (content.length() > 0) {
+            needed.put(name, content);
+        } else {
+            skippable.add(name);
+        }
+    }
+
+    /**
+     * @return the content of a JAR Tomcat scans for, empty if none
+     */
+    static String findScannedContent(InputStream jar) throws IOException {
+        ZipInputStream zip = new ZipInputStream(jar);
+        String found = null;
+        boolean initializer = false;
+        boolean handlesTypes = false;
+        ZipEntry entry;
+        // Read to the end, as the ServletContainerInitializer, and the class annotated with @HandlesTypes, may come last
+        while ((entry = zip.getNextEntry()) != null) {
+            String name = entry.getName();
+            if (entry.isDirectory()) {
+                continue;
+            }
+            if (name.equals(SERVLET_CONTAINER_INITIALIZER)) {
+                initializer = true;
+            } else if (found == null && name.startsWith("META-INF/") && name.endsWith(".tld")) {
+                found = "TLD " + name;
+            } else if (found == null && name.equals("META-INF/web-fragment.xml")) {
+                found = "web fragment";
+            } else if (found == null && name.startsWith("META-INF/resources/")) {
+                found = "static resources";
+            } else if (name.endsWith(".class") && (found == null || !handlesTypes)) {
+                byte[] bytes = IOUtils.toByteArray(zip);
+                if (found == null && contains(bytes, SERVLET_ANNOTATIONS)) {
+                    found = "Servlet annotations in " + name;
+                }
+                handlesTypes = handlesTypes || contains(bytes, HANDLES_TYPES);
+            }
+        }
+        if (initializer) {
+            return handlesTypes ? HANDLES_TYPES_INITIALIZER : "ServletContainerInitializer";
+        }
+        return found != null ? found : "";
+    }
+
+    /**
+     * @return the name of the library of a WAR entry, null if the entry is not a library
+     */
+    private static String getJarName(String entry) {
+        if (!entry.startsWith(LIB) || !entry.endsWith(".jar") || entry.indexOf('/', LIB.length()) >= 0) {
+            return null;
+        }
+        return entry.substring(LIB.length());
+    }
+
+    private static boolean contains(byte[] bytes, byte[] part) {
+        for (int i = 0; i <= bytes.length - part.length; i++) {
+            int j = 0;
+            while (j < part.length && bytes[i + j] == part[j]) {
+                j++;
+            }
+            if (j == part.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the XML, with its comments replaced by as many spaces
+     */
+    private static String blankComments(String xml) {
+        StringBuffer blanked = new StringBuffer();
+        Matcher comment = COMMENT.matcher(xml);
+        while (comment.find()) {
+            char[] spaces = new char[comment.end() - comment.start()];
+            Arrays.fill(spaces, ' ');
+            comment.appendReplacement(blanked, new String(spaces));
+        }
+        comment.appendTail(blanked);
+        return blanked.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;");
+    }
+}
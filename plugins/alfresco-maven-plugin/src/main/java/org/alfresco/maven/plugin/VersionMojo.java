@@ -1,8 +1,11 @@
 package org.alfresco.maven.plugin;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.TimeZone;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -26,7 +29,7 @@ import org.apache.maven.project.MavenProject;
  */
 public class VersionMojo extends AbstractMojo {
 	
-  	private static final DateFormat TIMESTAMP_FORMATTER = new SimpleDateFormat("yyMMddHHmm");
+  	private static final String TIMESTAMP_PATTERN = "yyMMddHHmm";
 
     /**
      * The snapshotSuffix used to identify and strip the -SNAPSHOT version suffix
@@ -47,6 +50,15 @@ public class VersionMojo extends AbstractMojo {
      */
     protected boolean snapshotToTimestamp;
 
+    /**
+     * When set (as an ISO 8601 date/time or a number of seconds since the epoch), snapshotToTimestamp uses
+     * this timestamp (in UTC) instead of the current time, so that the version, and the AMP it is filtered
+     * into, do not change between two builds of the same sources.
+     *
+     * @parameter property="maven.alfresco.outputTimestamp" default-value="${project.build.outputTimestamp}"
+     */
+    protected String outputTimestamp;
+
     /**
      * Allows to append a custom (numeric) value to the current artifact's version,
      * i.e. appending the SCM build number can be accomplished defining
@@ -65,6 +77,21 @@ public class VersionMojo extends AbstractMojo {
      */
     private String propertyName;
 
+    /**
+     * Whether to print a summary of the time taken by the goal, and write it as JSON and CSV to metricsDirectory.
+     * The metrics are otherwise only logged in debug mode
+     *
+     * @parameter property="maven.alfresco.metrics" default-value="false"
+     */
+    private boolean reportMetrics;
+
+    /**
+     * Folder the metrics reports are written to, as set-version.json and set-version.csv
+     *
+     * @parameter property="maven.alfresco.metricsDirectory" default-value="${project.build.directory}/alfresco-metrics"
+     */
+    private File metricsDirectory;
+
     /**
      * [Read Only] The Maven project.
      *
@@ -102,14 +129,38 @@ public class VersionMojo extends AbstractMojo {
             normalizedVersion += "." + this.customVersionSuffix;
             getLog().info("Added custom suffix to version - " + normalizedVersion);
         } else if (this.snapshotToTimestamp) {
-            normalizedVersion += "." + TIMESTAMP_FORMATTER.format(new Date());
+            normalizedVersion += "." + getTimestamp();
             getLog().info("Added timestamp to version - " + normalizedVersion);
         }
         return normalizedVersion;
     }
 
+    /**
+     * SimpleDateFormat is not thread safe, so a formatter is created for each call rather than shared
+     * between the modules of a parallel (-T) build
+     */
+    private String getTimestamp() {
+        DateFormat formatter = new SimpleDateFormat(TIMESTAMP_PATTERN);
+        if (this.outputTimestamp != null && this.outputTimestamp.trim().length() > 1) {
+            formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+            return formatter.format(new Date(AmpMojo.getOutputTime(this.outputTimestamp)));
+        }
+        return formatter.format(new Date());
+    }
+
     @Override
     public void execute() throws MojoExecutionException, MojoFailureException {
-    	project.getProperties().put(propertyName, getNormalizedVersion());
+        BuildMetrics buildMetrics = new BuildMetrics(project.getId(), "set-version");
+        buildMetrics.start("version").entries(1);
+        try {
+    	    project.getProperties().put(propertyName, getNormalizedVersion());
+        } catch (IllegalArgumentException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+        try {
+            buildMetrics.report(getLog(), reportMetrics ? metricsDirectory : null);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Error writing build metrics to " + metricsDirectory, e);
+        }
     }
 }
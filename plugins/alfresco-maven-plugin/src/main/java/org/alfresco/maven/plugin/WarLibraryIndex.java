@@ -0,0 +1,403 @@
+package org.alfresco.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * An index of the libraries (WEB-INF/lib) of an Alfresco or Share WAR, by Maven coordinates (as found in the
+ * META-INF/maven pom.properties of each JAR) and by class (the CRC of each class file), used to find the
+ * dependencies of an AMP the WAR already ships, or ships in another version. Only the pom.properties of the JAR's
+ * own artifact are indexed, not the ones of the artifacts shaded into it, whose classes are indexed as any other.
+ * <p/>
+ * Indexing a WAR file means reading all its libraries, so the index is kept in a properties file, and only built
+ * again when the WAR (or, for an exploded WAR, one of its libraries) changes.
+ */
+public class WarLibraryIndex {
+
+    /** The dependency is in the WAR, in the same version or with the same classes */
+    public static final String DUPLICATE = "duplicate";
+
+    /** The dependency is in the WAR in another version */
+    public static final String VERSION_CONFLICT = "version-conflict";
+
+    /** Some classes of the dependency are in a library of the WAR */
+    public static final String CLASS_CONFLICT = "class-conflict";
+
+    /** Bumped whenever the index format changes, so that indexes of older plugin versions are built again */
+    static final String INDEX_VERSION = "2";
+
+    private static final String LIB = "WEB-INF/lib/";
+    private static final String KEY = "key";
+    private static final String JAR_PREFIX = "jar.";
+    private static final String CLASS_PREFIX = "class.";
+
+    private final File war;
+    private final File indexFile;
+    private final Log log;
+
+    /** groupId:artifactId to the libraries of the WAR holding it, in library name order */
+    private final Map<String, List<Library>> artifacts = new HashMap<String, List<Library>>();
+    /** Class file name to the library of the WAR holding it and its CRC, as library,crc */
+    private final Map<String, String> classes = new HashMap<String, String>();
+    private int libraries;
+    private long bytesRead;
+
+    /**
+     * @param war       the WAR file, or exploded WAR folder
+     * @param indexFile the file the index is kept in between builds
+     */
+    public WarLibraryIndex(File war, File indexFile, Log log) {
+        this.war = war;
+        this.indexFile = indexFile;
+        this.log = log;
+    }
+
+    /**
+     * Loads the index of the WAR, building it if the WAR changed since it was last built
+     */
+    public void load() throws IOException {
+        String key = getKey();
+        Properties index = new Properties();
+        if (indexFile.isFile()) {
+            InputStream in = new FileInputStream(indexFile);
+            try {
+                index.load(in);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        if (!key.equals(index.getProperty(KEY))) {
+            index = build();
+            index.setProperty(KEY, key);
+            indexFile.getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(indexFile);
+            try {
+                index.store(out, "Alfresco Maven Plugin WAR library index - do not edit");
+            } finally {
+                IOUtils.closeQuietly(out);
+            }
+        }
+        for (String name : index.stringPropertyNames()) {
+            String value = index.getProperty(name);
+            if (name.startsWith(JAR_PREFIX)) {
+                libraries++;
+                String library = name.substring(JAR_PREFIX.length());
+                for (String coordinates : value.split(";")) {
+                    int version = coordinates.lastIndexOf(':');
+                    if (version > 0) {
+                        String artifact = coordinates.substring(0, version);
+                        if (!artifacts.containsKey(artifact)) {
+                            artifacts.put(artifact, new ArrayList<Library>());
+                        }
+                        artifacts.get(artifact).add(new Library(library, coordinates.substring(version + 1)));
+                    }
+                }
+            } else if (name.startsWith(CLASS_PREFIX)) {
+                classes.put(name.substring(CLASS_PREFIX.length()), value);
+            }
+        }
+        for (Map.Entry<String, List<Library>> artifact : artifacts.entrySet()) {
+            if (artifact.getValue().size() > 1) {
+                Collections.sort(artifact.getValue());
+                log.warn(war + " ships " + artifact.getKey() + " more than once: " + describe(artifact.getValue()));
+            }
+        }
+        log.debug("Indexed " + libraries + " libraries and " + classes.size() + " classes of " + war);
+    }
+
+    /**
+     * @return what the WAR holds of a dependency, null if none of it
+     */
+    public Match match(String groupId, String artifactId, String version, File jar) throws IOException {
+        List<Library> shipped = artifacts.get(groupId + ":" + artifactId);
+        if (shipped != null) {
+            for (Library library : shipped) {
+                if (version.equals(library.version)) {
+                    List<Library> others = new ArrayList<Library>(shipped);
+                    others.remove(library);
+                    return new Match(DUPLICATE, library.name, "same version in " + LIB + library.name
+                            + (others.isEmpty() ? "" : " (the WAR also ships " + describe(others) + ")"));
+                }
+            }
+            return new Match(VERSION_CONFLICT, shipped.get(0).name, "version " + version + " while the WAR ships "
+                    + describe(shipped));
+        }
+        // Not known by its coordinates (e.g. a repackaged or renamed library): compared class by class
+        Map<String, int[]> overlaps = new TreeMap<String, int[]>();
+        int total = 0;
+        ZipFile zip = new ZipFile(jar);
+        try {
+            bytesRead += jar.length();
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!isClass(entry)) {
+                    continue;
+                }
+                total++;
+                String indexed = classes.get(entry.getName());
+                if (indexed != null) {
+                    int comma = indexed.lastIndexOf(',');
+                    String name = indexed.substring(0, comma);
+                    if (!overlaps.containsKey(name)) {
+                        // Classes in common, and identical classes
+                        overlaps.put(name, new int[2]);
+                    }
+                    overlaps.get(name)[0]++;
+                    if (Long.toHexString(entry.getCrc()).equals(indexed.substring(comma + 1))) {
+                        overlaps.get(name)[1]++;
+                    }
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        // The library of the WAR with the most classes in common
+        Map.Entry<String, int[]> closest = null;
+        for (Map.Entry<String, int[]> overlap : overlaps.entrySet()) {
+            if (closest == null || overlap.getValue()[0] > closest.getValue()[0]) {
+                closest = overlap;
+            }
+        }
+        if (closest == null) {
+            return null;
+        }
+        int[] counts = closest.getValue();
+        if (counts[1] == total) {
+            return new Match(DUPLICATE, closest.getKey(), "same classes as " + LIB + closest.getKey());
+        }
+        return new Match(CLASS_CONFLICT, closest.getKey(), counts[0] + " of its " + total + " classes are also in "
+                + LIB + closest.getKey() + ", " + (counts[0] - counts[1]) + " of them different");
+    }
+
+    /**
+     * @return the versions of an artifact in the WAR, e.g. version 3.0.5 in WEB-INF/lib/spring-core-3.0.5.jar
+     */
+    private static String describe(List<Library> libraries) {
+        StringBuilder description = new StringBuilder();
+        for (Library library : libraries) {
+            description.append(description.length() > 0 ? ", " : "").append("version ").append(library.version)
+                    .append(" in ").append(LIB).append(library.name);
+        }
+        return description.toString();
+    }
+
+    /**
+     * @return the number of libraries of the WAR
+     */
+    public int getLibraries() {
+        return libraries;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return what the index was built from: the size and time of the WAR file, or of the libraries of the
+     *         exploded WAR
+     */
+    private String getKey() throws IOException {
+        StringBuilder key = new StringBuilder(INDEX_VERSION).append(':').append(war.getAbsolutePath());
+        if (war.isFile()) {
+            key.append(':').append(war.length()).append(':').append(war.lastModified());
+        } else {
+            File[] jars = new File(war, LIB).listFiles();
+            if (jars == null) {
+                throw new IOException(war + " is neither a WAR file nor an exploded WAR");
+            }
+            Arrays.sort(jars);
+            for (File jar : jars) {
+                key.append(':').append(jar.getName()).append('/').append(jar.length()).append('/').append(jar.lastModified());
+            }
+        }
+        return key.toString();
+    }
+
+    private Properties build() throws IOException {
+        log.info("Indexing the libraries of " + war);
+        Properties index = new Properties();
+        if (war.isFile()) {
+            ZipFile zip = new ZipFile(war);
+            try {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    String name = entry.getName();
+                    if (!name.startsWith(LIB) || !name.endsWith(".jar") || name.indexOf('/', LIB.length()) >= 0) {
+                        continue;
+                    }
+                    // Extracted, as only a ZipFile reads the CRCs of the entries without inflating them
+                    File jar = File.createTempFile("war-library", ".jar", indexFile.getParentFile());
+                    try {
+                        InputStream in = zip.getInputStream(entry);
+                        try {
+                            FileUtils.copyInputStreamToFile(in, jar);
+                        } finally {
+                            IOUtils.closeQuietly(in);
+                        }
+                        index(name.substring(LIB.length()), jar, index);
+                    } finally {
+                        FileUtils.deleteQuietly(jar);
+                    }
+                }
+            } finally {
+                zip.close();
+            }
+        } else {
+            File[] jars = new File(war, LIB).listFiles();
+            Arrays.sort(jars);
+            for (File jar : jars) {
+                if (jar.isFile() && jar.getName().endsWith(".jar")) {
+                    index(jar.getName(), jar, index);
+                }
+            }
+        }
+        return index;
+    }
+
+    private void index(String name, File jar, Properties index) throws IOException {
+        bytesRead += jar.length();
+        List<Properties> poms = new ArrayList<Properties>();
+        ZipFile zip;
+        try {
+            zip = new ZipFile(jar);
+        } catch (IOException e) {
+            log.warn("Could not index " + LIB + name + " (" + e + ")");
+            index.setProperty(JAR_PREFIX + name, "");
+            return;
+        }
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.getName().startsWith("META-INF/maven/") && entry.getName().endsWith("/pom.properties")) {
+                    Properties pom = new Properties();
+                    InputStream in = zip.getInputStream(entry);
+                    try {
+                        pom.load(in);
+                    } finally {
+                        IOUtils.closeQuietly(in);
+                    }
+                    if (pom.getProperty("groupId") != null && pom.getProperty("artifactId") != null) {
+                        poms.add(pom);
+                    }
+                } else if (isClass(entry) && !index.containsKey(CLASS_PREFIX + entry.getName())) {
+                    index.setProperty(CLASS_PREFIX + entry.getName(), name + "," + Long.toHexString(entry.getCrc()));
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        StringBuilder coordinates = new StringBuilder();
+        for (Properties pom : poms) {
+            // A single pom.properties is the JAR's own, whatever the JAR is named
+            if (poms.size() == 1 || isNamedAfter(name, pom.getProperty("artifactId"), pom.getProperty("version"))) {
+                coordinates.append(coordinates.length() > 0 ? ";" : "").append(pom.getProperty("groupId"))
+                        .append(':').append(pom.getProperty("artifactId")).append(':').append(pom.getProperty("version"));
+            }
+        }
+        if (poms.size() > 1) {
+            log.debug(LIB + name + " holds " + poms.size() + " pom.properties, indexed as " + coordinates);
+        }
+        index.setProperty(JAR_PREFIX + name, coordinates.toString());
+    }
+
+    /**
+     * @return whether a JAR is named after an artifact, e.g. spring-core-3.0.5.RELEASE.jar, or
+     *         my-library-1.0-20140101.120000-1.jar for a SNAPSHOT version
+     */
+    private static boolean isNamedAfter(String name, String artifactId, String version) {
+        if (name.equals(artifactId + ".jar")) {
+            return true;
+        }
+        if (version == null) {
+            return false;
+        }
+        if (version.endsWith("-SNAPSHOT")) {
+            version = version.substring(0, version.length() - "SNAPSHOT".length());
+        }
+        return name.startsWith(artifactId + "-" + version);
+    }
+
+    private static boolean isClass(ZipEntry entry) {
+        // Not the classes of other Java versions of multi-release JARs, nor module descriptors
+        return entry.getName().endsWith(".class") && !entry.getName().startsWith("META-INF/")
+                && !entry.getName().endsWith("module-info.class");
+    }
+
+    /**
+     * A library of the WAR
+     */
+    private static class Library implements Comparable<Library> {
+
+        final String name;
+        final String version;
+
+        Library(String name, String version) {
+            this.name = name;
+            this.version = version;
+        }
+
+        public int compareTo(Library other) {
+            return name.compareTo(other.name);
+        }
+    }
+
+    /**
+     * What the WAR holds of a dependency
+     */
+    public static class Match {
+
+        private final String kind;
+        private final String library;
+        private final String detail;
+
+        Match(String kind, String library, String detail) {
+            this.kind = kind;
+            this.library = library;
+            this.detail = detail;
+        }
+
+        /**
+         * @return {@link #DUPLICATE}, {@link #VERSION_CONFLICT} or {@link #CLASS_CONFLICT}
+         */
+        public String getKind() {
+            return kind;
+        }
+
+        /**
+         * @return the name of the library of the WAR, e.g. spring-core-3.0.5.RELEASE.jar
+         */
+        public String getLibrary() {
+            return library;
+        }
+
+        public String getDetail() {
+            return detail;
+        }
+
+        public boolean isDuplicate() {
+            return DUPLICATE.equals(kind);
+        }
+    }
+}
@@ -0,0 +1,743 @@
+package org.alfresco.maven.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Optimizes the JavaScript and CSS files of the web folder of an AMP before it is archived:
+ * <ul>
+ * <li>each file is minified (comments and redundant white space removed, see {@link #minifyJs} and
+ * {@link #minifyCss}) and written next to it with the hash of its content in its name, e.g. css/demoamp.css to
+ * css/demoamp.1a2b3c4d.css, so that it can be cached by clients for ever</li>
+ * <li>the files of the same type in the same folder are bundled, in name order, into a single fingerprinted file
+ * named bundle, e.g. scripts/bundle.5e6f7a8b.js</li>
+ * <li>a .gz sibling is written next to each fingerprinted file (when smaller), to be served as is by a front
+ * proxy or servlet container supporting precompressed files</li>
+ * <li>{@link #MANIFEST} maps the original names (and the bundle names, e.g. scripts/bundle.js) to the
+ * fingerprinted names, and lists the files of each bundle: written where {@link #setManifestFile} says, e.g. in
+ * the module folder of the config folder, as the ModuleManagementTool only installs the jsp, css, images, scripts
+ * and php folders of the web folder</li>
+ * <li>the references to the original names (and to the bundle names) in the pages of the web folder and in the
+ * templates of the config folder (HTML, JSP and FreeMarker files) are rewritten to the fingerprinted names, see
+ * {@link #rewriteReferences}</li>
+ * </ul>
+ * The original JavaScript and CSS files are left untouched, so that other references to them keep working. The
+ * pipeline is incremental: the checksums of the files processed and the names of the files produced are kept in a
+ * state file, so that only added or changed files are minified and compressed again, and the files produced for
+ * removed or changed files are deleted. Files already minified (named *.min.js or *-min.js, as Share does) are
+ * fingerprinted and compressed, but not minified again.
+ */
+public class WebAssetPipeline {
+
+    /** The name of the manifest of the fingerprinted files */
+    public static final String MANIFEST = "asset-manifest.json";
+
+    /** Bumped whenever the files produced change, so that the files of older plugin versions are produced again */
+    static final String PIPELINE_VERSION = "2";
+
+    /** Version 1 wrote the manifest to the web folder, out of the folders installed in the WAR */
+    private static final String WEB_MANIFEST_VERSION = "1";
+
+    static final String BUNDLE = "bundle";
+
+    private static final String CONFIG = "config";
+    private static final String SOURCE_PREFIX = "source.";
+    private static final String OUTPUT_PREFIX = "output.";
+    private static final String BUNDLE_PREFIX = "bundle.";
+    private static final String GZIP_EXTENSION = ".gz";
+    private static final int FINGERPRINT_LENGTH = 8;
+    private static final Pattern MINIFIED = Pattern.compile(".*[.-]min\\.(js|css)");
+    /** The files whose references to the JavaScript and CSS files are rewritten */
+    private static final Pattern PAGE = Pattern.compile(".*\\.(html|htm|xhtml|jsp|ftl)");
+    /** A path to a JavaScript or CSS file, as a whole: not followed by other characters of a path */
+    private static final Pattern REFERENCE = Pattern.compile("[A-Za-z0-9_.~/-]+\\.(?:js|css)(?![A-Za-z0-9_.~/-])");
+
+    /**
+     * Files are processed as ISO-8859-1, which maps each byte to a char and back: the minifiers only look at ASCII
+     * characters, which never occur in the multi-byte sequences of UTF-8, so files are kept as is whatever their
+     * encoding
+     */
+    private static final Charset BYTES = Charset.forName("ISO-8859-1");
+
+    private final File webDirectory;
+    private final File stateFile;
+    private final Log log;
+
+    private File templateDirectory;
+    private File manifestFile;
+    private boolean bundle = true;
+    private boolean precompress = true;
+
+    private long bytesRead;
+    private long bytesWritten;
+    private int processed;
+    private int reused;
+    private int rewritten;
+
+    /**
+     * @param webDirectory the web folder of the AMP build directory
+     * @param stateFile    the file keeping the state of the pipeline between builds
+     */
+    public WebAssetPipeline(File webDirectory, File stateFile, Log log) {
+        this.webDirectory = webDirectory;
+        this.stateFile = stateFile;
+        this.log = log;
+    }
+
+    /**
+     * A folder (the config folder of the AMP build directory) whose templates refer to the web assets by their path
+     * in the web folder, e.g. ${url.context}/res/css/demoamp.css
+     */
+    public void setTemplateDirectory(File templateDirectory) {
+        this.templateDirectory = templateDirectory;
+    }
+
+    /**
+     * The file the manifest is written to, e.g. config/alfresco/module/[module id]/asset-manifest.json in the AMP
+     * build directory: none is written if not set
+     */
+    public void setManifestFile(File manifestFile) {
+        this.manifestFile = manifestFile;
+    }
+
+    /**
+     * Whether the files of the same type in the same folder are bundled
+     */
+    public void setBundle(boolean bundle) {
+        this.bundle = bundle;
+    }
+
+    /**
+     * Whether .gz siblings of the fingerprinted files are written
+     */
+    public void setPrecompress(boolean precompress) {
+        this.precompress = precompress;
+    }
+
+    /**
+     * Minifies, bundles and compresses the files of the web folder added or changed since the last run, and
+     * removes the files produced for the ones removed or changed
+     */
+    public void process() throws IOException {
+        Properties previous = new Properties();
+        if (stateFile.isFile()) {
+            InputStream in = new FileInputStream(stateFile);
+            try {
+                previous.load(in);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        String config = PIPELINE_VERSION + ",bundle=" + bundle + ",precompress=" + precompress;
+        boolean sameConfig = config.equals(previous.getProperty(CONFIG));
+        if (previous.getProperty(CONFIG, "").startsWith(WEB_MANIFEST_VERSION + ",")) {
+            FileUtils.deleteQuietly(new File(webDirectory, MANIFEST));
+        }
+
+        Set<String> produced = new HashSet<String>();
+        for (String key : previous.stringPropertyNames()) {
+            if (key.startsWith(OUTPUT_PREFIX) || key.startsWith(BUNDLE_PREFIX)) {
+                produced.add(previous.getProperty(key));
+            }
+        }
+        List<String> sources = new ArrayList<String>();
+        scan(webDirectory, "", produced, sources);
+
+        Properties state = new Properties();
+        state.setProperty(CONFIG, config);
+        Map<String, String> assets = new TreeMap<String, String>();
+        Map<String, List<String>> groups = new TreeMap<String, List<String>>();
+        for (String source : sources) {
+            File file = new File(webDirectory, source);
+            String checksum = BuildState.checksum(file);
+            bytesRead += file.length();
+            String output = previous.getProperty(OUTPUT_PREFIX + source);
+            if (sameConfig && checksum.equals(previous.getProperty(SOURCE_PREFIX + source))
+                    && output != null && new File(webDirectory, output).isFile()) {
+                reused++;
+            } else {
+                byte[] content = FileUtils.readFileToByteArray(file);
+                byte[] minified = MINIFIED.matcher(file.getName()).matches() ? content : minify(source, content);
+                output = fingerprint(source, minified);
+                write(output, minified);
+                processed++;
+                log.debug("Minified " + source + " to " + output + " (" + content.length + " to " + minified.length + " bytes)");
+            }
+            state.setProperty(SOURCE_PREFIX + source, checksum);
+            state.setProperty(OUTPUT_PREFIX + source, output);
+            assets.put(source, output);
+            String group = getBundleName(source);
+            if (!groups.containsKey(group)) {
+                groups.put(group, new ArrayList<String>());
+            }
+            groups.get(group).add(source);
+        }
+
+        Map<String, List<String>> bundles = new TreeMap<String, List<String>>();
+        if (bundle) {
+            for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+                String output = createBundle(group.getKey(), group.getValue(), assets);
+                if (output != null) {
+                    state.setProperty(BUNDLE_PREFIX + group.getKey(), output);
+                    assets.put(group.getKey(), output);
+                    bundles.put(group.getKey(), group.getValue());
+                }
+            }
+        }
+
+        // The references to the files produced by the previous run are rewritten as well, as the pages referring to
+        // them are only copied again when they change
+        Map<String, String> renames = new HashMap<String, String>(assets);
+        for (String key : previous.stringPropertyNames()) {
+            String output = null;
+            if (key.startsWith(OUTPUT_PREFIX)) {
+                output = assets.get(key.substring(OUTPUT_PREFIX.length()));
+            } else if (key.startsWith(BUNDLE_PREFIX)) {
+                output = assets.get(key.substring(BUNDLE_PREFIX.length()));
+            }
+            if (output != null) {
+                renames.put(previous.getProperty(key), output);
+            }
+        }
+        rewriteReferences(webDirectory, "", renames);
+        if (templateDirectory != null) {
+            rewriteReferences(templateDirectory, null, renames);
+        }
+
+        // Files produced for removed or changed files, or by another configuration
+        Set<String> current = new HashSet<String>(assets.values());
+        for (String stale : produced) {
+            if (!current.contains(stale)) {
+                FileUtils.deleteQuietly(new File(webDirectory, stale));
+                FileUtils.deleteQuietly(new File(webDirectory, stale + GZIP_EXTENSION));
+                log.debug("Removed stale " + stale);
+            }
+        }
+
+        if (manifestFile != null) {
+            byte[] manifest = toJson(assets, bundles).getBytes("UTF-8");
+            if (!manifestFile.isFile() || !Arrays.equals(manifest, FileUtils.readFileToByteArray(manifestFile))) {
+                FileUtils.writeByteArrayToFile(manifestFile, manifest);
+                bytesWritten += manifest.length;
+            }
+        }
+
+        stateFile.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(stateFile);
+        try {
+            state.store(out, "Alfresco Maven Plugin web asset state - do not edit");
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+        log.info("Web assets: " + processed + " minified, " + reused + " unchanged, " + bundles.size() + " bundles, "
+                + rewritten + " pages rewritten");
+    }
+
+    /**
+     * Collects the relative paths of the JavaScript and CSS files of a folder, except the ones produced by the
+     * previous run (as recorded in the state file: a file named like a fingerprinted one is a source otherwise)
+     */
+    private void scan(File directory, String path, Set<String> produced, List<String> sources) {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            String relative = path + child.getName();
+            if (child.isDirectory()) {
+                scan(child, relative + "/", produced, sources);
+            } else if ((relative.endsWith(".js") || relative.endsWith(".css")) && !produced.contains(relative)) {
+                sources.add(relative);
+            }
+        }
+    }
+
+    /**
+     * @return the name of the bundle of a file, e.g. scripts/bundle.js for scripts/demoamp.js
+     */
+    private static String getBundleName(String source) {
+        int slash = source.lastIndexOf('/');
+        return source.substring(0, slash + 1) + BUNDLE + source.substring(source.lastIndexOf('.'));
+    }
+
+    /**
+     * Writes the bundle of a group of files, named after its content as any other fingerprinted file (and only
+     * written again when that content changed, see {@link #write})
+     *
+     * @return the fingerprinted name of the bundle, or null if the group is not bundled
+     */
+    private String createBundle(String name, List<String> sources, Map<String, String> assets) throws IOException {
+        if (sources.size() < 2 || assets.containsKey(name)) {
+            // A single file, or a file with the name of the bundle
+            return null;
+        }
+        boolean js = name.endsWith(".js");
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (String source : sources) {
+            byte[] minified = FileUtils.readFileToByteArray(new File(webDirectory, assets.get(source)));
+            if (!js && containsAtRule(minified)) {
+                // Which are only valid at the top of a stylesheet
+                log.debug("Not bundling " + name + ": " + source + " contains @import or @charset rules");
+                return null;
+            }
+            content.write(minified);
+            // Terminates statements the next file would otherwise continue
+            content.write(js ? ";\n".getBytes(BYTES) : "\n".getBytes(BYTES));
+        }
+        byte[] bundled = content.toByteArray();
+        String output = fingerprint(name, bundled);
+        write(output, bundled);
+        log.debug("Bundled " + sources + " to " + output);
+        return output;
+    }
+
+    /**
+     * Rewrites the references to the original (or previously fingerprinted) names of the web assets in the pages of
+     * a folder and its sub folders to their fingerprinted names. References are paths of the web folder, e.g.
+     * css/demoamp.css, which may be preceded by anything up to a / (e.g. /share/res/css/demoamp.css), the longest
+     * path found winning; in the web folder, they may be relative to the page as well (e.g. demoamp.css in a page
+     * of the css folder). Paths to other files (e.g. of another webapp) which happen to end with the path of a web
+     * asset are rewritten as well.
+     *
+     * @param path the path of the folder in the web folder, ending with /, or null if not in the web folder
+     */
+    private void rewriteReferences(File directory, String path, Map<String, String> renames) throws IOException {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isDirectory()) {
+                rewriteReferences(child, path != null ? path + child.getName() + "/" : null, renames);
+            } else if (PAGE.matcher(child.getName()).matches()) {
+                String page = new String(FileUtils.readFileToByteArray(child), BYTES);
+                bytesRead += child.length();
+                Matcher matcher = REFERENCE.matcher(page);
+                StringBuffer out = new StringBuffer(page.length());
+                int references = 0;
+                while (matcher.find()) {
+                    String renamed = rename(matcher.group(), path, renames);
+                    if (renamed != null && !renamed.equals(matcher.group())) {
+                        matcher.appendReplacement(out, Matcher.quoteReplacement(renamed));
+                        references++;
+                    }
+                }
+                if (references > 0) {
+                    matcher.appendTail(out);
+                    byte[] content = out.toString().getBytes(BYTES);
+                    FileUtils.writeByteArrayToFile(child, content);
+                    bytesWritten += content.length;
+                    rewritten++;
+                    log.debug("Rewrote " + references + " references in " + child);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the reference to the fingerprinted name of the web asset a reference points to, null if it points to
+     *         no web asset
+     */
+    private static String rename(String reference, String path, Map<String, String> renames) {
+        if (path != null && !reference.startsWith("/")) {
+            String relative = reference.startsWith("./") ? reference.substring(2) : reference;
+            String renamed = renames.get(path + relative);
+            if (renamed != null) {
+                // In the same folder as the original
+                return reference.substring(0, reference.length() - relative.length()) + renamed.substring(path.length());
+            }
+        }
+        for (int slash = reference.indexOf('/'); slash >= 0; slash = reference.indexOf('/', slash + 1)) {
+            String renamed = renames.get(reference.substring(slash + 1));
+            if (renamed != null) {
+                return reference.substring(0, slash + 1) + renamed;
+            }
+        }
+        // Relative to the web folder, in a template
+        return path == null ? renames.get(reference) : null;
+    }
+
+    private static boolean containsAtRule(byte[] css) {
+        String content = new String(css, BYTES);
+        return content.contains("@import") || content.contains("@charset");
+    }
+
+    private static byte[] minify(String source, byte[] content) {
+        String text = new String(content, BYTES);
+        // A UTF-8 byte order mark, which would end up in the middle of bundles
+        if (text.startsWith("\u00ef\u00bb\u00bf")) {
+            text = text.substring(3);
+        }
+        return (source.endsWith(".js") ? minifyJs(text) : minifyCss(text)).getBytes(BYTES);
+    }
+
+    /**
+     * @return the name of a file with the hash of its content, e.g. css/demoamp.1a2b3c4d.css
+     */
+    private static String fingerprint(String source, byte[] content) {
+        return insertFingerprint(source, hash(content));
+    }
+
+    private static String insertFingerprint(String name, String hash) {
+        int dot = name.lastIndexOf('.');
+        return name.substring(0, dot) + "." + hash.substring(0, FINGERPRINT_LENGTH) + name.substring(dot);
+    }
+
+    private static String hash(byte[] content) {
+        try {
+            return BuildState.toHex(MessageDigest.getInstance("SHA-1").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available in this JVM", e);
+        }
+    }
+
+    /**
+     * Writes a produced file, unless it already has that content, and its .gz sibling, unless it is newer than an
+     * unchanged file
+     */
+    private void write(String output, byte[] content) throws IOException {
+        File file = new File(webDirectory, output);
+        File gzip = new File(webDirectory, output + GZIP_EXTENSION);
+        boolean unchanged = file.isFile() && file.length() == content.length
+                && Arrays.equals(content, FileUtils.readFileToByteArray(file));
+        if (!unchanged) {
+            FileUtils.writeByteArrayToFile(file, content);
+            bytesWritten += content.length;
+        }
+        if (!precompress) {
+            FileUtils.deleteQuietly(gzip);
+            return;
+        }
+        if (unchanged && gzip.isFile() && gzip.lastModified() >= file.lastModified()) {
+            return;
+        }
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        // The header of the JDK GZIPOutputStream has no time nor name, so the same content gives the same bytes
+        GZIPOutputStream out = new GZIPOutputStream(compressed) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        };
+        out.write(content);
+        out.close();
+        if (compressed.size() < content.length) {
+            FileUtils.writeByteArrayToFile(gzip, compressed.toByteArray());
+            bytesWritten += compressed.size();
+        } else {
+            FileUtils.deleteQuietly(gzip);
+        }
+    }
+
+    private static String toJson(Map<String, String> assets, Map<String, List<String>> bundles) {
+        StringBuilder json = new StringBuilder("{\n  \"assets\": {");
+        String separator = "\n    ";
+        for (Map.Entry<String, String> asset : assets.entrySet()) {
+            json.append(separator).append(quote(asset.getKey())).append(": ").append(quote(asset.getValue()));
+            separator = ",\n    ";
+        }
+        json.append("\n  },\n  \"bundles\": {");
+        separator = "\n    ";
+        for (Map.Entry<String, List<String>> bundle : bundles.entrySet()) {
+            json.append(separator).append(quote(bundle.getKey())).append(": [");
+            for (int i = 0; i < bundle.getValue().size(); i++) {
+                json.append(i > 0 ? ", " : "").append(quote(bundle.getValue().get(i)));
+            }
+            json.append(']');
+            separator = ",\n    ";
+        }
+        return json.append("\n  }\n}\n").toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Removes the comments and the redundant white space of a script, conservatively: line breaks are kept (as
+     * removing them may change the meaning of a script relying on automatic semicolon insertion), strings, template
+     * literals and regular expressions are copied as is, and so are comments starting with /*! or holding
+     * a @license or @preserve tag, and conditional compilation comments
+     */
+    static String minifyJs(String script) {
+        StringBuilder out = new StringBuilder(script.length());
+        int length = script.length();
+        int i = 0;
+        // Whether a / starts a regular expression rather than a division, from the last significant character
+        boolean regexAllowed = true;
+        boolean pendingSpace = false;
+        boolean pendingLine = false;
+        while (i < length) {
+            char c = script.charAt(i);
+            if (c == '\n' || c == '\r') {
+                pendingLine = true;
+                i++;
+            } else if (c == ' ' || c == '\t' || c == '\f' || c == '\u000b') {
+                pendingSpace = true;
+                i++;
+            } else if (c == '/' && i + 1 < length && script.charAt(i + 1) == '/') {
+                int end = i;
+                while (end < length && script.charAt(end) != '\n' && script.charAt(end) != '\r') {
+                    end++;
+                }
+                i = end;
+            } else if (c == '/' && i + 1 < length && script.charAt(i + 1) == '*') {
+                int end = script.indexOf("*/", i + 2);
+                end = end < 0 ? length : end + 2;
+                String comment = script.substring(i, end);
+                if (isPreserved(comment)) {
+                    appendPending(out, pendingSpace, pendingLine, '/');
+                    pendingSpace = pendingLine = false;
+                    out.append(comment);
+                } else if (comment.indexOf('\n') >= 0 || comment.indexOf('\r') >= 0) {
+                    pendingLine = true;
+                } else {
+                    pendingSpace = true;
+                }
+                i = end;
+            } else {
+                appendPending(out, pendingSpace, pendingLine, c);
+                pendingSpace = pendingLine = false;
+                int end;
+                if (c == '"' || c == '\'' || c == '`') {
+                    end = skipQuoted(script, i, c, c == '`');
+                    regexAllowed = false;
+                } else if (c == '/' && regexAllowed) {
+                    end = skipRegex(script, i);
+                    regexAllowed = false;
+                } else if (Character.isJavaIdentifierPart(c)) {
+                    end = i;
+                    while (end < length && Character.isJavaIdentifierPart(script.charAt(end))) {
+                        end++;
+                    }
+                    String word = script.substring(i, end);
+                    // A regular expression may follow keywords such as return, but not names nor numbers
+                    regexAllowed = word.equals("return") || word.equals("typeof") || word.equals("instanceof")
+                            || word.equals("in") || word.equals("of") || word.equals("new") || word.equals("delete")
+                            || word.equals("void") || word.equals("throw") || word.equals("case") || word.equals("do")
+                            || word.equals("else") || word.equals("yield") || word.equals("await");
+                } else {
+                    end = i + 1;
+                    regexAllowed = c != ')' && c != ']';
+                }
+                out.append(script, i, end);
+                i = end;
+            }
+        }
+        return out.append('\n').toString();
+    }
+
+    /**
+     * Keeps a single line break in place of the white space and comments removed, or a single space where the
+     * tokens around would otherwise be read differently (e.g. two names, or a + followed by ++), none at the start
+     * of the output
+     */
+    private static void appendPending(StringBuilder out, boolean space, boolean line, char next) {
+        if (out.length() == 0) {
+            return;
+        }
+        char last = out.charAt(out.length() - 1);
+        if (line) {
+            out.append('\n');
+        } else if (space && (isWordPart(last) && isWordPart(next)
+                || (last == '+' || last == '-') && (next == '+' || next == '-')
+                || last == '/' && (next == '/' || next == '*')
+                || Character.isDigit(last) && next == '.'
+                || last == '<' && next == '!' || last == '-' && next == '>')) {
+            out.append(' ');
+        }
+    }
+
+    private static boolean isWordPart(char c) {
+        // Any non ASCII character, which may be part of the UTF-8 encoding of a name
+        return c > 0x7f || c == '\\' || Character.isJavaIdentifierPart(c);
+    }
+
+    private static boolean isPreserved(String comment) {
+        return comment.startsWith("/*!") || comment.startsWith("/*@") || comment.contains("@license")
+                || comment.contains("@preserve");
+    }
+
+    /**
+     * @return the index after the end of a quoted string, starting at its opening quote
+     */
+    private static int skipQuoted(String text, int start, char quote, boolean multiline) {
+        int i = start + 1;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else if (!multiline && (c == '\n' || c == '\r')) {
+                // Unterminated: copied up to the line break
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return text.length();
+    }
+
+    /**
+     * @return the index after the end of a regular expression literal and its flags, starting at its opening /
+     */
+    private static int skipRegex(String script, int start) {
+        int i = start + 1;
+        boolean inClass = false;
+        while (i < script.length()) {
+            char c = script.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '\n' || c == '\r') {
+                // Not a regular expression after all: copied up to the line break
+                return i;
+            }
+            i++;
+            if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if (c == '/' && !inClass) {
+                break;
+            }
+        }
+        while (i < script.length() && Character.isJavaIdentifierPart(script.charAt(i))) {
+            i++;
+        }
+        return Math.min(i, script.length());
+    }
+
+    /**
+     * Removes the comments and the redundant white space of a stylesheet: white space is collapsed to a single
+     * space, and removed around braces, semicolons, commas and after colons. Strings and url() values (which may
+     * hold white space or comment delimiters, e.g. in data URIs) are copied as is, and so are comments starting
+     * with /*!
+     */
+    static String minifyCss(String stylesheet) {
+        StringBuilder out = new StringBuilder(stylesheet.length());
+        int length = stylesheet.length();
+        int i = 0;
+        boolean pendingSpace = false;
+        while (i < length) {
+            char c = stylesheet.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f') {
+                pendingSpace = true;
+                i++;
+            } else if (c == '/' && i + 1 < length && stylesheet.charAt(i + 1) == '*') {
+                int end = stylesheet.indexOf("*/", i + 2);
+                end = end < 0 ? length : end + 2;
+                if (stylesheet.startsWith("/*!", i)) {
+                    out.append(stylesheet, i, end).append('\n');
+                    pendingSpace = false;
+                } else {
+                    pendingSpace = true;
+                }
+                i = end;
+            } else {
+                char last = out.length() > 0 ? out.charAt(out.length() - 1) : '{';
+                if (c == '}' && last == ';') {
+                    // The last declaration of a block needs no semicolon
+                    out.setLength(out.length() - 1);
+                } else if (pendingSpace && "{};,:\n".indexOf(last) < 0 && "{};,".indexOf(c) < 0) {
+                    out.append(' ');
+                }
+                pendingSpace = false;
+                int end;
+                if (c == '"' || c == '\'') {
+                    end = skipQuoted(stylesheet, i, c, false);
+                } else if ((c == 'u' || c == 'U') && stylesheet.regionMatches(true, i, "url(", 0, 4)) {
+                    end = skipUrl(stylesheet, i);
+                } else {
+                    end = i + 1;
+                }
+                out.append(stylesheet, i, end);
+                i = end;
+            }
+        }
+        return out.append('\n').toString();
+    }
+
+    /**
+     * @return the index after the closing parenthesis of a url() value, starting at url(
+     */
+    private static int skipUrl(String stylesheet, int start) {
+        int i = start + 4;
+        while (i < stylesheet.length() && stylesheet.charAt(i) != ')') {
+            char c = stylesheet.charAt(i);
+            if (c == '"' || c == '\'') {
+                i = skipQuoted(stylesheet, i, c, false);
+            } else {
+                i += c == '\\' ? 2 : 1;
+            }
+        }
+        return Math.min(i + 1, stylesheet.length());
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * @return the number of files minified, or compressed, by the last run
+     */
+    public int getProcessed() {
+        return processed;
+    }
+
+    /**
+     * @return the number of files unchanged since the run before the last one
+     */
+    public int getReused() {
+        return reused;
+    }
+
+    /**
+     * @return the number of pages and templates whose references were rewritten by the last run
+     */
+    public int getRewritten() {
+        return rewritten;
+    }
+}
@@ -1,7 +1,16 @@
 package org.alfresco.maven.plugin.archiver;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
 
+import org.alfresco.maven.plugin.AmpModel;
+import org.alfresco.maven.plugin.BuildMetrics;
+import org.alfresco.maven.plugin.install.AmpDescriptor;
+import org.alfresco.maven.plugin.install.InstalledModule;
+import org.alfresco.maven.plugin.install.WarOverlayEngine;
 import org.alfresco.repo.module.tool.ModuleManagementTool;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.LegacySupport;
@@ -13,11 +22,22 @@ import org.codehaus.plexus.component.annotations.Requirement;
 /**
  * This class provides AMP unpacking support for projects depending on AMPs
  * This allows for example AMPs to be specified as <overlay> in the maven-war-plugin
+ * <p/>
+ * AMPs are installed natively (see {@link WarOverlayEngine}): the AMP entries are streamed straight into the
+ * destination, files which are already identical are left untouched, and an AMP unpacked again onto the same
+ * exploded WAR only updates what changed. The ModuleManagementTool is only used when the module requires checks
+ * it alone performs (repository version, editions, module dependencies), or when native unpacking is disabled
+ * with -Dmaven.alfresco.nativeAmpUnpack=false. With -Dmaven.alfresco.metrics=true, the time and I/O of each AMP
+ * overlay is reported in ${project.build.directory}/alfresco-metrics/amp-overlay-[AMP name].json (and .csv)
  * @author mindthegab
  *
  */
 public class AmpUnArchiver extends AbstractZipUnArchiver {
 
+    static final String NATIVE_UNPACK_PROPERTY = "maven.alfresco.nativeAmpUnpack";
+    static final String METRICS_PROPERTY = "maven.alfresco.metrics";
+    static final String METRICS_DIRECTORY = "alfresco-metrics";
+
     public AmpUnArchiver()
     {
     }
@@ -29,44 +49,143 @@ public class AmpUnArchiver extends AbstractZipUnArchiver {
      * By default the AMPs are unpacked in ${project.directory}/${project.build.finalName}
      */
     public File getDestDirectory() {
-        MavenSession session = legacySupport.getSession();
-        MavenProject project = session.getCurrentProject();
+        MavenProject project = getCurrentProject();
+        if (project == null) {
+            return super.getDestDirectory();
+        }
         return new File(project.getBuild().getDirectory() + File.separator + project.getBuild().getFinalName());
     }
 
+    /**
+     * The project the AMP is unpacked for. In parallel (-T) builds, Maven hands each module its own copy of the
+     * session, bound to the thread running its mojos, so this is the project of the calling mojo as long as the
+     * unarchiver is not shared between modules: the component is therefore looked up per use (see components.xml)
+     * and the project is only resolved from the thread the unarchiver is run by.
+     *
+     * @return null when not called from a Maven build
+     */
+    private MavenProject getCurrentProject() {
+        MavenSession session = getSession();
+        return session != null ? session.getCurrentProject() : null;
+    }
+
     @Override
     protected void execute() throws ArchiverException {
         try {
+            MavenProject project = getCurrentProject();
+            getLogger().debug("getDestFile ():" + getDestFile());
+            getLogger().debug("getDestDirectory ():" + getDestDirectory());
+
+            File destLocation = (getDestFile() == null || !getDestFile().exists() ) ? getDestDirectory() : getDestFile();
+
+            String ampName = getSourceFile().getName().replaceFirst("\\.amp$", "");
+            BuildMetrics buildMetrics = new BuildMetrics(project != null ? project.getId() : ampName, "amp-overlay-" + ampName);
+            if (isEnabled(NATIVE_UNPACK_PROPERTY, true) && installNatively(destLocation, buildMetrics.start("unpack"))) {
+                reportMetrics(project, buildMetrics);
+                return;
+            }
+            buildMetrics.start("mmt").read(getSourceFile().length()).entries(1);
             /**
              * Invoke the ModuleManagementTool to install AMP modules on the WAR file;
              * so far, no backup or force flags are enabled
              */
             ModuleManagementTool mmt = new ModuleManagementTool();
             mmt.setVerbose(false);
-            getLogger().info("getDestFile ():" + getDestFile());
-            getLogger().info("getDestFile ():" + getDestFile());
-            getLogger().info("getDestDirectory ():" + getDestDirectory());
-            
-            File destLocation = (getDestFile() == null || !getDestFile().exists() ) ? getDestDirectory() : getDestFile();
-            
             getLogger().info("Installing " + getSourceFile() + " into " + destLocation);
             try {
-                mmt.installModule(
-                        getSourceFile().getAbsolutePath(),
-                        destLocation.getAbsolutePath(),
-                        false,  //preview
-                        true,   //force install
-                        false); //backup
+                synchronized (AmpModel.MODULE_MANAGEMENT_TOOL_LOCK) {
+                    mmt.installModule(
+                            getSourceFile().getAbsolutePath(),
+                            destLocation.getAbsolutePath(),
+                            false,  //preview
+                            true,   //force install
+                            false); //backup
+                }
             } catch (Exception e) {
-                throw new MojoExecutionException("Problems while installing " + 
+                throw new MojoExecutionException("Problems while installing " +
             getSourceFile().getAbsolutePath() + " onto " + destLocation.getAbsolutePath(), e);
             }
             getLogger().debug("MMT invocation for " +  getSourceFile().getAbsolutePath() + "complete");
+            reportMetrics(project, buildMetrics);
         } catch (Exception e) {
             throw new ArchiverException("Error while expanding "
                     + getSourceFile().getAbsolutePath(), e);
         } finally {
-      
+
+        }
+    }
+
+    /**
+     * @return the session of the calling module, null when the unarchiver is used outside of a Maven build
+     */
+    private MavenSession getSession() {
+        return legacySupport != null ? legacySupport.getSession() : null;
+    }
+
+    /**
+     * Reads a flag from the user or system properties of the build, as components have no configuration of their own
+     */
+    private boolean isEnabled(String property, boolean defaultValue) {
+        MavenSession session = getSession();
+        if (session == null) {
+            return defaultValue;
+        }
+        String value = session.getUserProperties().getProperty(property,
+                session.getSystemProperties().getProperty(property, String.valueOf(defaultValue)));
+        return Boolean.parseBoolean(value.trim());
+    }
+
+    /**
+     * Logs the unpacking metrics, writing them to ${project.build.directory}/alfresco-metrics
+     * when -Dmaven.alfresco.metrics=true
+     */
+    private void reportMetrics(MavenProject project, BuildMetrics buildMetrics) throws IOException {
+        File reportDirectory = null;
+        if (project != null && isEnabled(METRICS_PROPERTY, false)) {
+            reportDirectory = new File(project.getBuild().getDirectory(), METRICS_DIRECTORY);
+        }
+        buildMetrics.report(new LoggerLog(getLogger()), reportDirectory);
+    }
+
+    /**
+     * Installs the AMP without the ModuleManagementTool, installing it again (updating only what changed) if the
+     * module is already installed in the exploded WAR
+     *
+     * @return false if the AMP requires the ModuleManagementTool, in which case nothing was installed
+     */
+    private boolean installNatively(File destLocation, BuildMetrics.Phase phase) throws IOException {
+        long start = System.currentTimeMillis();
+        if (!destLocation.exists()) {
+            destLocation.mkdirs();
+        }
+        WarOverlayEngine engine = new WarOverlayEngine(destLocation, 0, new LoggerLog(getLogger()));
+        List<AmpDescriptor> amps = engine.read(Collections.singletonList(getSourceFile()));
+        try {
+            String moduleId = amps.get(0).getId();
+            boolean installed = destLocation.isDirectory() && InstalledModule.read(destLocation, moduleId) != null;
+            String reason;
+            if (installed) {
+                Set<String> others = WarOverlayEngine.getInstalledModules(destLocation);
+                others.remove(moduleId);
+                reason = engine.getReinstallUnsupportedReason(amps, others);
+            } else {
+                reason = engine.getUnsupportedReason(amps);
+            }
+            if (reason != null) {
+                getLogger().info(reason + ", installing " + getSourceFile().getName() + " with the ModuleManagementTool");
+                return false;
+            }
+            if (installed) {
+                engine.reinstall(amps);
+            } else {
+                engine.install(amps, false);
+            }
+            phase.read(getSourceFile().length()).written(engine.getBytesWritten()).entries(engine.getFilesWritten());
+            getLogger().info("Installed " + amps.get(0) + " into " + destLocation + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            return true;
+        } finally {
+            WarOverlayEngine.close(amps);
         }
     }
 
@@ -0,0 +1,80 @@
+package org.alfresco.maven.plugin.archiver;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * Exposes the Plexus logger of an archiver component as a Maven plugin log, for the code shared with the mojos
+ */
+class LoggerLog implements Log {
+
+    private final Logger logger;
+
+    LoggerLog(Logger logger) {
+        this.logger = logger;
+    }
+
+    public boolean isDebugEnabled() {
+        return logger.isDebugEnabled();
+    }
+
+    public void debug(CharSequence content) {
+        logger.debug(String.valueOf(content));
+    }
+
+    public void debug(CharSequence content, Throwable error) {
+        logger.debug(String.valueOf(content), error);
+    }
+
+    public void debug(Throwable error) {
+        logger.debug(error.getMessage(), error);
+    }
+
+    public boolean isInfoEnabled() {
+        return logger.isInfoEnabled();
+    }
+
+    public void info(CharSequence content) {
+        logger.info(String.valueOf(content));
+    }
+
+    public void info(CharSequence content, Throwable error) {
+        logger.info(String.valueOf(content), error);
+    }
+
+    public void info(Throwable error) {
+        logger.info(error.getMessage(), error);
+    }
+
+    public boolean isWarnEnabled() {
+        return logger.isWarnEnabled();
+    }
+
+    public void warn(CharSequence content) {
+        logger.warn(String.valueOf(content));
+    }
+
+    public void warn(CharSequence content, Throwable error) {
+        logger.warn(String.valueOf(content), error);
+    }
+
+    public void warn(Throwable error) {
+        logger.warn(error.getMessage(), error);
+    }
+
+    public boolean isErrorEnabled() {
+        return logger.isErrorEnabled();
+    }
+
+    public void error(CharSequence content) {
+        logger.error(String.valueOf(content));
+    }
+
+    public void error(CharSequence content, Throwable error) {
+        logger.error(String.valueOf(content), error);
+    }
+
+    public void error(Throwable error) {
+        logger.error(error.getMessage(), error);
+    }
+}
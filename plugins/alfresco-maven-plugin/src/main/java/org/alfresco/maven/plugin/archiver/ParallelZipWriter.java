@@ -0,0 +1,614 @@
+package org.alfresco.maven.plugin.archiver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.codehaus.plexus.util.DirectoryScanner;
+
+/**
+ * Writes ZIP based archives (AMP, JAR) compressing the entries in parallel on a pool of worker threads.
+ * <p/>
+ * Entries are deflated concurrently and then written, in the order they were added, by a single thread onto
+ * a plain ZIP stream (no ZIP64 extensions), which is what Alfresco MMT and the JDK ZIP implementation expect.
+ * Only a bounded window of entries is compressed ahead of the writer, to keep memory usage under control, while
+ * large entries are streamed by the writer itself. Entries that are already compressed (nested JARs, images,
+ * archives) are stored rather than deflated again.
+ * <p/>
+ * When sorting and a fixed time are enabled, the archive only depends on the names and content of the entries,
+ * so that identical inputs always produce a byte-identical archive.
+ */
+public class ParallelZipWriter {
+
+    /**
+     * File extensions (lowercase) of content which is already compressed, and is therefore stored as is
+     */
+    public static final List<String> STORED_EXTENSIONS = Arrays.asList(new String[] {
+            "jar", "zip", "amp", "war", "ear", "gz", "tgz", "bz2", "xz", "7z",
+            "png", "jpg", "jpeg", "gif", "ico", "swf", "woff", "woff2", "mp3", "mp4", "flv"});
+
+    public static final int DEFAULT_FILE_MODE = 0100644;
+    public static final int DEFAULT_DIRECTORY_MODE = 040755;
+
+    /** Entries bigger than this are deflated by the writer thread directly onto the stream */
+    private static final long STREAMING_THRESHOLD = 8 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_ENTRIES = 0xffff;
+    private static final long MAX_SIZE = 0xffffffffL;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int VERSION_MADE_BY_UNIX = (3 << 8) | VERSION_DEFLATED;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final File destFile;
+    private final int threads;
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+    private final Set<String> storedExtensions = new HashSet<String>(STORED_EXTENSIONS);
+    private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    private boolean sorted;
+    private long fixedTime = -1;
+
+    /**
+     * @param destFile the archive to write
+     * @param threads  the number of compression threads; 0 or less to use one per available processor
+     */
+    public ParallelZipWriter(File destFile, int threads) {
+        this.destFile = destFile;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public File getDestFile() {
+        return destFile;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Whether the entries should be written in name order (keeping the manifest first, as JarInputStream
+     * expects) rather than in the order they were added
+     */
+    public void setSorted(boolean sorted) {
+        this.sorted = sorted;
+    }
+
+    /**
+     * Sets the modification time of all the entries, regardless of the time of the files they come from.
+     * The time is converted to the (time zone less) ZIP format using UTC, so that the archive does not depend
+     * on the time zone of the machine it is built on
+     *
+     * @param fixedTime the time in milliseconds since the epoch, or a negative value to use the file times
+     */
+    public void setFixedTime(long fixedTime) {
+        this.fixedTime = fixedTime;
+    }
+
+    /**
+     * Replaces the list of extensions (without dot) of files that are stored without compression
+     */
+    public void setStoredExtensions(List<String> extensions) {
+        storedExtensions.clear();
+        for (String extension : extensions) {
+            storedExtensions.add(extension.toLowerCase(Locale.ENGLISH));
+        }
+    }
+
+    /**
+     * Adds all files matching includes/excludes in a directory, together with their parent directories
+     *
+     * @param prefix the path (possibly empty) the files are added under in the archive
+     */
+    public void addDirectory(File directory, String prefix, String[] includes, String[] excludes) {
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(directory);
+        if (includes != null && includes.length > 0) {
+            scanner.setIncludes(includes);
+        }
+        if (excludes != null && excludes.length > 0) {
+            scanner.setExcludes(excludes);
+        }
+        scanner.scan();
+        for (String path : scanner.getIncludedFiles()) {
+            addFile(new File(directory, path), prefix + path.replace(File.separatorChar, '/'));
+        }
+    }
+
+    /**
+     * Adds a file under the given name; an entry previously added with the same name is replaced
+     */
+    public void addFile(File file, String name) {
+        addParentDirectories(name);
+        Entry entry = new Entry(name, DEFAULT_FILE_MODE);
+        entry.file = file;
+        entry.time = file.lastModified();
+        entries.put(name, entry);
+    }
+
+    /**
+     * Adds an in-memory entry under the given name; an entry previously added with the same name is replaced
+     */
+    public void addBytes(String name, byte[] content, long time) {
+        addParentDirectories(name);
+        Entry entry = new Entry(name, DEFAULT_FILE_MODE);
+        entry.content = content;
+        entry.time = time;
+        entries.put(name, entry);
+    }
+
+    private void addParentDirectories(String name) {
+        int index = name.indexOf('/');
+        while (index > 0) {
+            String directory = name.substring(0, index + 1);
+            if (!entries.containsKey(directory)) {
+                Entry entry = new Entry(directory, DEFAULT_DIRECTORY_MODE);
+                entry.time = System.currentTimeMillis();
+                entries.put(directory, entry);
+            }
+            index = name.indexOf('/', index + 1);
+        }
+    }
+
+    /**
+     * @return the names of the entries added so far, in archive order
+     */
+    public List<String> getEntryNames() {
+        List<String> names = new ArrayList<String>(entries.size());
+        for (Entry entry : getOrderedEntries()) {
+            names.add(entry.name);
+        }
+        return names;
+    }
+
+    private List<Entry> getOrderedEntries() {
+        List<Entry> ordered = new ArrayList<Entry>(entries.values());
+        if (sorted) {
+            Collections.sort(ordered, ENTRY_ORDER);
+        }
+        return ordered;
+    }
+
+    private static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+        public int compare(Entry a, Entry b) {
+            int rankA = rank(a.name);
+            int rankB = rank(b.name);
+            return rankA != rankB ? rankA - rankB : a.name.compareTo(b.name);
+        }
+
+        private int rank(String name) {
+            if (name.equals("META-INF/")) {
+                return 0;
+            }
+            return name.equals("META-INF/MANIFEST.MF") ? 1 : 2;
+        }
+    };
+
+    /**
+     * Compresses all the added entries and writes the archive
+     *
+     * @return the number of entries written
+     */
+    public int write() throws IOException {
+        if (entries.size() > MAX_ENTRIES) {
+            throw new IOException("Too many entries (" + entries.size() + ") for " + destFile + ": ZIP64 archives are not supported");
+        }
+        destFile.getAbsoluteFile().getParentFile().mkdirs();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count = 0;
+
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "amp-deflater-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        CountingOutputStream out = new CountingOutputStream(
+                new BufferedOutputStream(new FileOutputStream(destFile), BUFFER_SIZE));
+        List<Written> written = new ArrayList<Written>(entries.size());
+        try {
+            int window = threads * 4;
+            LinkedList<Future<Written>> pending = new LinkedList<Future<Written>>();
+            Iterator<Entry> iterator = getOrderedEntries().iterator();
+            while (iterator.hasNext() || !pending.isEmpty()) {
+                while (iterator.hasNext() && pending.size() < window) {
+                    pending.add(executor.submit(new Compressor(iterator.next())));
+                }
+                Written entry = get(pending.removeFirst());
+                entry.offset = out.getCount();
+                writeEntry(entry, out);
+                written.add(entry);
+            }
+            long centralDirectoryOffset = out.getCount();
+            for (Written entry : written) {
+                writeCentralDirectoryHeader(entry, out);
+            }
+            writeEndOfCentralDirectory(written.size(), centralDirectoryOffset, out.getCount() - centralDirectoryOffset, out);
+            out.flush();
+        } finally {
+            executor.shutdownNow();
+            IOUtils.closeQuietly(out);
+        }
+        return written.size();
+    }
+
+    private static Written get(Future<Written> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing archive entries");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error compressing archive entry", e.getCause());
+        }
+    }
+
+    private boolean isStored(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > name.lastIndexOf('/') && storedExtensions.contains(name.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Computes the CRC of an entry and, unless it's stored or too big to be kept in memory, its deflated content
+     */
+    private class Compressor implements Callable<Written> {
+
+        private final Entry entry;
+
+        Compressor(Entry entry) {
+            this.entry = entry;
+        }
+
+        public Written call() throws IOException {
+            Written result = new Written(entry);
+            if (entry.isDirectory()) {
+                result.method = STORED;
+                return result;
+            }
+            long size = entry.file != null ? entry.file.length() : entry.content.length;
+            if (size > MAX_SIZE) {
+                throw new IOException(entry.file + " is too big to be archived: ZIP64 archives are not supported");
+            }
+            if (isStored(entry.name)) {
+                result.method = STORED;
+                result.crc = crc(entry);
+                result.size = size;
+                result.compressedSize = size;
+                return result;
+            }
+            if (size > STREAMING_THRESHOLD) {
+                // Deflated directly onto the archive stream by the writer thread
+                result.method = DEFLATED;
+                result.streamed = true;
+                return result;
+            }
+            byte[] content = entry.content != null ? entry.content : readFully(entry.file, (int) size);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream(Math.max(64, content.length / 2));
+            Deflater deflater = new Deflater(compressionLevel, true);
+            try {
+                DeflaterOutputStream deflaterStream = new DeflaterOutputStream(deflated, deflater, BUFFER_SIZE);
+                deflaterStream.write(content);
+                deflaterStream.finish();
+            } finally {
+                deflater.end();
+            }
+            result.crc = crc.getValue();
+            result.size = content.length;
+            if (deflated.size() < content.length) {
+                result.method = DEFLATED;
+                result.data = deflated.toByteArray();
+            } else {
+                result.method = STORED;
+                result.data = content;
+            }
+            result.compressedSize = result.data.length;
+            return result;
+        }
+    }
+
+    private static byte[] readFully(File file, int size) throws IOException {
+        byte[] content = new byte[size];
+        InputStream in = new FileInputStream(file);
+        try {
+            new DataInputStream(in).readFully(content);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return content;
+    }
+
+    private static long crc(Entry entry) throws IOException {
+        CRC32 crc = new CRC32();
+        if (entry.content != null) {
+            crc.update(entry.content);
+            return crc.getValue();
+        }
+        InputStream in = new FileInputStream(entry.file);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return crc.getValue();
+    }
+
+    private void writeEntry(Written entry, CountingOutputStream out) throws IOException {
+        if (entry.streamed) {
+            writeLocalHeader(entry, out);
+            CRC32 crc = new CRC32();
+            long start = out.getCount();
+            Deflater deflater = new Deflater(compressionLevel, true);
+            InputStream in = new FileInputStream(entry.entry.file);
+            try {
+                DeflaterOutputStream deflaterStream = new DeflaterOutputStream(new NonClosingOutputStream(out), deflater, BUFFER_SIZE);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                long size = 0;
+                while ((read = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, read);
+                    deflaterStream.write(buffer, 0, read);
+                    size += read;
+                }
+                deflaterStream.finish();
+                entry.size = size;
+            } finally {
+                deflater.end();
+                IOUtils.closeQuietly(in);
+            }
+            entry.crc = crc.getValue();
+            entry.compressedSize = out.getCount() - start;
+            writeInt(out, DATA_DESCRIPTOR_SIGNATURE);
+            writeInt(out, entry.crc);
+            writeInt(out, entry.compressedSize);
+            writeInt(out, entry.size);
+        } else {
+            writeLocalHeader(entry, out);
+            if (entry.data != null) {
+                out.write(entry.data);
+            } else if (entry.entry.content != null) {
+                out.write(entry.entry.content);
+            } else if (entry.entry.file != null) {
+                InputStream in = new FileInputStream(entry.entry.file);
+                try {
+                    long copied = IOUtils.copyLarge(in, out);
+                    if (copied != entry.size) {
+                        throw new IOException(entry.entry.file + " changed while being archived");
+                    }
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
+            }
+        }
+        if (out.getCount() > MAX_SIZE) {
+            throw new IOException(destFile + " is too big: ZIP64 archives are not supported");
+        }
+    }
+
+    private void writeLocalHeader(Written entry, OutputStream out) throws IOException {
+        byte[] name = entry.entry.name.getBytes("UTF-8");
+        writeInt(out, LOCAL_HEADER_SIGNATURE);
+        writeShort(out, entry.method == DEFLATED ? VERSION_DEFLATED : VERSION_STORED);
+        writeShort(out, entry.flags());
+        writeShort(out, entry.method);
+        writeInt(out, getDosTime(entry.entry));
+        if (entry.streamed) {
+            writeInt(out, 0);
+            writeInt(out, 0);
+            writeInt(out, 0);
+        } else {
+            writeInt(out, entry.crc);
+            writeInt(out, entry.compressedSize);
+            writeInt(out, entry.size);
+        }
+        writeShort(out, name.length);
+        writeShort(out, 0);
+        out.write(name);
+    }
+
+    private void writeCentralDirectoryHeader(Written entry, OutputStream out) throws IOException {
+        byte[] name = entry.entry.name.getBytes("UTF-8");
+        writeInt(out, CENTRAL_HEADER_SIGNATURE);
+        writeShort(out, VERSION_MADE_BY_UNIX);
+        writeShort(out, entry.method == DEFLATED ? VERSION_DEFLATED : VERSION_STORED);
+        writeShort(out, entry.flags());
+        writeShort(out, entry.method);
+        writeInt(out, getDosTime(entry.entry));
+        writeInt(out, entry.crc);
+        writeInt(out, entry.compressedSize);
+        writeInt(out, entry.size);
+        writeShort(out, name.length);
+        writeShort(out, 0); // extra field length
+        writeShort(out, 0); // comment length
+        writeShort(out, 0); // disk number
+        writeShort(out, 0); // internal attributes
+        writeInt(out, ((long) entry.entry.mode << 16) | (entry.entry.isDirectory() ? 0x10 : 0));
+        writeInt(out, entry.offset);
+        out.write(name);
+    }
+
+    private static void writeEndOfCentralDirectory(int count, long offset, long size, OutputStream out) throws IOException {
+        writeInt(out, END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, count);
+        writeShort(out, count);
+        writeInt(out, size);
+        writeInt(out, offset);
+        writeShort(out, 0);
+    }
+
+    private long getDosTime(Entry entry) {
+        if (fixedTime >= 0) {
+            return toDosTime(fixedTime, TimeZone.getTimeZone("UTC"));
+        }
+        return toDosTime(entry.time, TimeZone.getDefault());
+    }
+
+    /**
+     * Converts a Java time to the MS-DOS date/time format used in ZIP headers, rounding it up to
+     * the next even second the same way the plexus archiver does
+     */
+    static long toDosTime(long time, TimeZone timeZone) {
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(time + 1999);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (year - 1980) << 25)
+                | ((calendar.get(Calendar.MONTH) + 1) << 21)
+                | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+                | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+                | (calendar.get(Calendar.MINUTE) << 5)
+                | (calendar.get(Calendar.SECOND) >> 1);
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value & 0xff);
+        out.write((value >>> 8) & 0xff);
+    }
+
+    private static void writeInt(OutputStream out, long value) throws IOException {
+        out.write((int) (value & 0xff));
+        out.write((int) ((value >>> 8) & 0xff));
+        out.write((int) ((value >>> 16) & 0xff));
+        out.write((int) ((value >>> 24) & 0xff));
+    }
+
+    /**
+     * An entry to be archived, either a file, an in-memory content or a directory
+     */
+    private static class Entry {
+
+        private final String name;
+        private final int mode;
+        private File file;
+        private byte[] content;
+        private long time;
+
+        Entry(String name, int mode) {
+            this.name = name;
+            this.mode = mode;
+        }
+
+        boolean isDirectory() {
+            return file == null && content == null;
+        }
+    }
+
+    /**
+     * An entry ready to be (or already) written onto the archive
+     */
+    private static class Written {
+
+        private final Entry entry;
+        private int method;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private byte[] data;
+        private boolean streamed;
+        private long offset;
+
+        Written(Entry entry) {
+            this.entry = entry;
+        }
+
+        int flags() {
+            return FLAG_UTF8 | (streamed ? FLAG_DATA_DESCRIPTOR : 0);
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+
+    private static class NonClosingOutputStream extends FilterOutputStream {
+
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.alfresco.maven.plugin.install;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * The content of an AMP relevant to its installation: the module details found in module.properties and
+ * the WAR files and folders its content is mapped to. The AMP is kept open until closed, so that its
+ * entries can be read while installing it.
+ */
+public class AmpDescriptor implements Closeable {
+
+    public static final String MODULE_PROPERTIES = "module.properties";
+    public static final String PROP_ID = "module.id";
+    public static final String PROP_VERSION = "module.version";
+    public static final String PROP_ALIASES = "module.aliases";
+
+    /** module.properties entries whose checks are only performed by the ModuleManagementTool */
+    private static final String[] MMT_ONLY_PROPERTIES = {
+            "module.repo.version.min", "module.repo.version.max", "module.editions"};
+    private static final String PROP_DEPENDS_PREFIX = "module.depends.";
+
+    private final File file;
+    private final ZipFile zip;
+    private final Properties moduleProperties = new Properties();
+    private final AmpFileMapping mapping;
+    /** WAR path to AMP entry */
+    private final Map<String, ZipEntry> files = new TreeMap<String, ZipEntry>();
+    /** WAR folders below the mapped folders */
+    private final Set<String> folders = new TreeSet<String>();
+
+    /**
+     * Opens an AMP and reads its module details and file mapping
+     */
+    public AmpDescriptor(File file) throws IOException {
+        this.file = file;
+        this.zip = new ZipFile(file);
+        try {
+            ZipEntry moduleEntry = zip.getEntry(MODULE_PROPERTIES);
+            if (moduleEntry == null) {
+                throw new IOException("No " + MODULE_PROPERTIES + " found in " + file);
+            }
+            load(moduleEntry, moduleProperties);
+            if (getId() == null) {
+                throw new IOException("No " + PROP_ID + " found in the " + MODULE_PROPERTIES + " of " + file);
+            }
+            ZipEntry mappingEntry = zip.getEntry(AmpFileMapping.FILE_MAPPING_PROPERTIES);
+            Properties customMapping = null;
+            if (mappingEntry != null) {
+                customMapping = new Properties();
+                load(mappingEntry, customMapping);
+            }
+            this.mapping = new AmpFileMapping(customMapping);
+            scan();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private void load(ZipEntry entry, Properties properties) throws IOException {
+        InputStream in = zip.getInputStream(entry);
+        try {
+            properties.load(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void scan() {
+        Enumeration<? extends ZipEntry> entries = zip.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            String ampPath = AmpFileMapping.normalize(entry.getName());
+            String destination = mapping.getDestination(ampPath);
+            if (destination == null) {
+                continue;
+            }
+            if (entry.isDirectory()) {
+                folders.add(destination);
+            } else {
+                files.put(destination, entry);
+            }
+            // Folders are not necessarily stored as entries
+            for (int index = ampPath.lastIndexOf('/'); index > 0; index = ampPath.lastIndexOf('/', index - 1)) {
+                String folder = ampPath.substring(0, index);
+                if (mapping.isMappedFolder(folder)) {
+                    break;
+                }
+                String folderDestination = mapping.getDestination(folder);
+                if (folderDestination == null) {
+                    break;
+                }
+                folders.add(folderDestination);
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getId() {
+        String id = moduleProperties.getProperty(PROP_ID);
+        return id != null ? id.trim() : null;
+    }
+
+    public String getVersion() {
+        String version = moduleProperties.getProperty(PROP_VERSION);
+        return version != null ? version.trim() : null;
+    }
+
+    public List<String> getAliases() {
+        List<String> aliases = new ArrayList<String>();
+        String value = moduleProperties.getProperty(PROP_ALIASES);
+        if (value != null) {
+            for (String alias : value.split(",")) {
+                if (alias.trim().length() > 0) {
+                    aliases.add(alias.trim());
+                }
+            }
+        }
+        return aliases;
+    }
+
+    public Properties getModuleProperties() {
+        return moduleProperties;
+    }
+
+    /**
+     * @return the module.properties entries requiring checks only the ModuleManagementTool performs
+     *         (repository version, editions and module dependencies), empty if there are none
+     */
+    public List<String> getUncheckedProperties() {
+        List<String> unchecked = new ArrayList<String>();
+        for (String name : MMT_ONLY_PROPERTIES) {
+            String value = moduleProperties.getProperty(name);
+            if (value != null && value.trim().length() > 0) {
+                unchecked.add(name);
+            }
+        }
+        for (String name : moduleProperties.stringPropertyNames()) {
+            if (name.startsWith(PROP_DEPENDS_PREFIX)) {
+                unchecked.add(name);
+            }
+        }
+        return unchecked;
+    }
+
+    /**
+     * @return the WAR paths of the files installed by this AMP, sorted, mapped to their AMP entry
+     */
+    public Map<String, ZipEntry> getFiles() {
+        return Collections.unmodifiableMap(files);
+    }
+
+    /**
+     * @return the WAR paths of the folders below the mapped folders, sorted (parents first)
+     */
+    public Set<String> getFolders() {
+        return Collections.unmodifiableSet(folders);
+    }
+
+    public InputStream getInputStream(ZipEntry entry) throws IOException {
+        return zip.getInputStream(entry);
+    }
+
+    public void close() {
+        try {
+            zip.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getId() + " " + getVersion() + " (" + file.getName() + ")";
+    }
+}
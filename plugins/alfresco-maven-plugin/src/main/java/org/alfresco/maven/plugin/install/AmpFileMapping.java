@@ -0,0 +1,100 @@
+package org.alfresco.maven.plugin.install;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Maps the content of an AMP onto the WAR it is installed in, the same way the Alfresco ModuleManagementTool does:
+ * the default mapping (config to WEB-INF/classes, lib to WEB-INF/lib, ...) is used unless the AMP provides a
+ * file-mapping.properties, in which case the custom mapping is used together with the default one, unless
+ * include.default is set to false.
+ * <p/>
+ * AMP and WAR paths start with '/' and use '/' as separator.
+ */
+public class AmpFileMapping {
+
+    public static final String FILE_MAPPING_PROPERTIES = "file-mapping.properties";
+    public static final String PROP_INCLUDE_DEFAULT = "include.default";
+
+    private static final Map<String, String> DEFAULT_MAPPING;
+
+    static {
+        Map<String, String> mapping = new LinkedHashMap<String, String>();
+        mapping.put("/config", "/WEB-INF/classes");
+        mapping.put("/lib", "/WEB-INF/lib");
+        mapping.put("/licenses", "/WEB-INF/licenses");
+        mapping.put("/web/jsp", "/jsp");
+        mapping.put("/web/css", "/css");
+        mapping.put("/web/images", "/images");
+        mapping.put("/web/scripts", "/scripts");
+        mapping.put("/web/php", "/php");
+        DEFAULT_MAPPING = Collections.unmodifiableMap(mapping);
+    }
+
+    /**
+     * AMP folder to WAR folder, longest AMP folders first so that the most specific mapping wins
+     */
+    private final Map<String, String> mapping = new TreeMap<String, String>(new Comparator<String>() {
+        public int compare(String a, String b) {
+            return a.length() != b.length() ? b.length() - a.length() : a.compareTo(b);
+        }
+    });
+
+    /**
+     * @param customMapping the content of the AMP file-mapping.properties, null if the AMP does not provide one
+     */
+    public AmpFileMapping(Properties customMapping) {
+        if (customMapping == null || !"false".equalsIgnoreCase(customMapping.getProperty(PROP_INCLUDE_DEFAULT, "true").trim())) {
+            mapping.putAll(DEFAULT_MAPPING);
+        }
+        if (customMapping != null) {
+            for (String source : customMapping.stringPropertyNames()) {
+                if (!PROP_INCLUDE_DEFAULT.equals(source)) {
+                    mapping.put(normalize(source), normalize(customMapping.getProperty(source)));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the WAR path an AMP file is installed to, null if the file is not installed (e.g. module.properties)
+     */
+    public String getDestination(String ampPath) {
+        for (Map.Entry<String, String> entry : mapping.entrySet()) {
+            String source = entry.getKey();
+            if (source.length() == 0 || ampPath.startsWith(source + "/")) {
+                return entry.getValue() + ampPath.substring(source.length());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return whether the path is an AMP folder mapped onto the WAR (rather than a sub folder of one)
+     */
+    public boolean isMappedFolder(String ampPath) {
+        return mapping.containsKey(ampPath);
+    }
+
+    public Map<String, String> getMappings() {
+        return Collections.unmodifiableMap(mapping);
+    }
+
+    /**
+     * Leading '/', no trailing '/'; the root folder is the empty string
+     */
+    static String normalize(String path) {
+        String normalized = path.trim().replace('\\', '/');
+        if (!normalized.startsWith("/")) {
+            normalized = "/" + normalized;
+        }
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+}
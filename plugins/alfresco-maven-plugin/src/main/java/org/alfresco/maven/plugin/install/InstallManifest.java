@@ -0,0 +1,179 @@
+package org.alfresco.maven.plugin.install;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.alfresco.maven.plugin.BuildState;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Records what was installed onto a WAR by the last installation: the checksum, location and version of each
+ * AMP, and a fingerprint of the WAR right after the installation. Comparing it with the AMPs to install tells
+ * whether the installation can be skipped altogether, or only some of the modules need to be installed again.
+ * <p/>
+ * The fingerprint of a WAR file is its size, modification time and checksum. Exploded WARs are usually
+ * modified by other build steps (e.g. filtered resources copied into WEB-INF/classes), so their fingerprint
+ * only covers the descriptors of the base WAR (META-INF/MANIFEST.MF and WEB-INF/web.xml, by checksum) and
+ * the files installed by the modules (by size and modification time).
+ */
+public class InstallManifest {
+
+    private static final String[] BASE_WAR_FILES = {"/META-INF/MANIFEST.MF", "/WEB-INF/web.xml"};
+    private static final String PROP_WAR = "war";
+    private static final String PROP_WAR_FINGERPRINT = "war.fingerprint";
+    private static final String PROP_MODULES = "modules";
+    private static final String MODULE_PREFIX = "module.";
+    private static final String FILE_PREFIX = "file.";
+
+    private final File manifestFile;
+    private final File war;
+    private final Properties manifest = new Properties();
+
+    public InstallManifest(File manifestFile, File war) {
+        this.manifestFile = manifestFile;
+        this.war = war;
+    }
+
+    /**
+     * Computes the checksums of the given AMPs
+     *
+     * @return module id to AMP checksum, in installation order
+     */
+    public static Map<String, String> checksums(List<AmpDescriptor> amps) throws IOException {
+        Map<String, String> checksums = new LinkedHashMap<String, String>();
+        for (AmpDescriptor amp : amps) {
+            checksums.put(amp.getId(), BuildState.checksum(amp.getFile()));
+        }
+        return checksums;
+    }
+
+    public void load() throws IOException {
+        manifest.clear();
+        if (manifestFile.isFile()) {
+            InputStream in = new FileInputStream(manifestFile);
+            try {
+                manifest.load(in);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+
+    /**
+     * Compares the AMPs to install and the WAR with the ones recorded by the last installation
+     *
+     * @param amps      the AMPs to install
+     * @param checksums the checksums of the AMPs to install
+     * @return the ids of the modules whose AMP changed since the last installation, empty if none did,
+     *         null if the WAR or the set of AMPs changed (in which case all AMPs need to be installed)
+     */
+    public List<String> getChangedModules(List<AmpDescriptor> amps, Map<String, String> checksums) throws IOException {
+        if (!war.getAbsolutePath().equals(manifest.getProperty(PROP_WAR))
+                || !getModules(checksums.keySet()).equals(manifest.getProperty(PROP_MODULES))
+                || !fingerprint().equals(getRecordedFingerprint())) {
+            return null;
+        }
+        List<String> changed = new ArrayList<String>();
+        for (AmpDescriptor amp : amps) {
+            String prefix = MODULE_PREFIX + amp.getId();
+            if (!amp.getFile().getAbsolutePath().equals(manifest.getProperty(prefix + ".amp"))
+                    || !String.valueOf(amp.getVersion()).equals(manifest.getProperty(prefix + ".version"))
+                    || !checksums.get(amp.getId()).equals(manifest.getProperty(prefix + ".checksum"))) {
+                changed.add(amp.getId());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Records the AMPs just installed, and the WAR as it is after their installation
+     */
+    public void record(List<AmpDescriptor> amps, Map<String, String> checksums) throws IOException {
+        manifest.clear();
+        manifest.setProperty(PROP_WAR, war.getAbsolutePath());
+        manifest.setProperty(PROP_MODULES, getModules(checksums.keySet()));
+        for (AmpDescriptor amp : amps) {
+            String prefix = MODULE_PREFIX + amp.getId();
+            manifest.setProperty(prefix + ".amp", amp.getFile().getAbsolutePath());
+            manifest.setProperty(prefix + ".version", String.valueOf(amp.getVersion()));
+            manifest.setProperty(prefix + ".checksum", checksums.get(amp.getId()));
+        }
+        manifest.putAll(fingerprint());
+        save();
+    }
+
+    /**
+     * Forgets the last installation, e.g. because the current one failed
+     */
+    public void invalidate() {
+        manifestFile.delete();
+    }
+
+    private void save() throws IOException {
+        manifestFile.getAbsoluteFile().getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(manifestFile);
+        try {
+            manifest.store(out, "Alfresco Maven Plugin install manifest - do not edit");
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    private static String getModules(Set<String> ids) {
+        return new TreeSet<String>(ids).toString();
+    }
+
+    private Properties getRecordedFingerprint() {
+        Properties fingerprint = new Properties();
+        for (String name : manifest.stringPropertyNames()) {
+            if (name.equals(PROP_WAR_FINGERPRINT) || name.startsWith(FILE_PREFIX)) {
+                fingerprint.setProperty(name, manifest.getProperty(name));
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * @return the current fingerprint of the WAR, as properties to be recorded in the manifest
+     */
+    private Properties fingerprint() throws IOException {
+        Properties fingerprint = new Properties();
+        if (!war.isDirectory()) {
+            fingerprint.setProperty(PROP_WAR_FINGERPRINT, war.length() + ":" + war.lastModified() + ":" + BuildState.checksum(war));
+            return fingerprint;
+        }
+        StringBuilder base = new StringBuilder();
+        for (String path : BASE_WAR_FILES) {
+            File file = new File(war, path);
+            base.append(file.isFile() ? BuildState.checksum(file) : "-").append(':');
+        }
+        fingerprint.setProperty(PROP_WAR_FINGERPRINT, base.toString());
+        for (String id : manifest.stringPropertyNames()) {
+            if (!id.startsWith(MODULE_PREFIX) || !id.endsWith(".checksum")) {
+                continue;
+            }
+            id = id.substring(MODULE_PREFIX.length(), id.length() - ".checksum".length());
+            InstalledModule module = InstalledModule.read(war, id);
+            if (module == null) {
+                fingerprint.setProperty(FILE_PREFIX + InstalledModule.getModuleFolder(id), "-");
+                continue;
+            }
+            for (String path : module.getInstalledFiles()) {
+                File file = new File(war, path);
+                fingerprint.setProperty(FILE_PREFIX + path, file.isFile() ? file.length() + ":" + file.lastModified() : "-");
+            }
+        }
+        return fingerprint;
+    }
+}
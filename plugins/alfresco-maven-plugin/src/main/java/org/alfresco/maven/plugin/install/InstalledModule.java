@@ -0,0 +1,116 @@
+package org.alfresco.maven.plugin.install;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * The modifications.install record of a module installed in an exploded WAR: the files the module added,
+ * the files it replaced (with their backup) and the folders it created, as written by the Alfresco
+ * ModuleManagementTool or by the {@link WarOverlayEngine}.
+ */
+public class InstalledModule {
+
+    static final String MOD_ADD_FILE = "add";
+    static final String MOD_UPDATE_FILE = "update";
+    static final String MOD_MK_DIR = "mkdir";
+
+    private final String id;
+    private final Set<String> adds = new LinkedHashSet<String>();
+    /** Replaced file to its backup */
+    private final Map<String, String> updates = new LinkedHashMap<String, String>();
+    private final Set<String> mkdirs = new LinkedHashSet<String>();
+
+    public InstalledModule(String id) {
+        this.id = id;
+    }
+
+    /**
+     * @return the WAR path of the module folder (holding module.properties and modifications.install)
+     */
+    public static String getModuleFolder(String id) {
+        return WarOverlayEngine.MODULE_DIR + "/" + id;
+    }
+
+    /**
+     * Reads the record of a module installed in an exploded WAR
+     *
+     * @return the record, null if the module is not installed
+     */
+    public static InstalledModule read(File war, String id) throws IOException {
+        File record = new File(war, getModuleFolder(id) + "/" + WarOverlayEngine.MODIFICATIONS_INSTALL);
+        if (!record.isFile()) {
+            return null;
+        }
+        InstalledModule module = new InstalledModule(id);
+        for (String line : FileUtils.readLines(record, "UTF-8")) {
+            int separator = line.indexOf('=');
+            if (separator < 0) {
+                continue;
+            }
+            String type = line.substring(0, separator).trim();
+            String value = line.substring(separator + 1).trim();
+            if (MOD_ADD_FILE.equals(type)) {
+                module.adds.add(value);
+            } else if (MOD_UPDATE_FILE.equals(type)) {
+                int backup = value.indexOf('|');
+                module.updates.put(value.substring(0, backup), value.substring(backup + 1));
+            } else if (MOD_MK_DIR.equals(type)) {
+                module.mkdirs.add(value);
+            }
+        }
+        return module;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Set<String> getAdds() {
+        return adds;
+    }
+
+    public Map<String, String> getUpdates() {
+        return updates;
+    }
+
+    public Set<String> getMkdirs() {
+        return mkdirs;
+    }
+
+    /**
+     * @return the WAR paths of all the files the module installed (added or replaced), followed by
+     *         the module records
+     */
+    public List<String> getInstalledFiles() {
+        List<String> files = new ArrayList<String>(adds);
+        files.addAll(updates.keySet());
+        files.add(getModuleFolder(id) + "/" + AmpDescriptor.MODULE_PROPERTIES);
+        files.add(getModuleFolder(id) + "/" + WarOverlayEngine.MODIFICATIONS_INSTALL);
+        return files;
+    }
+
+    /**
+     * @return the content of the modifications.install record
+     */
+    public byte[] toBytes() throws IOException {
+        StringBuilder record = new StringBuilder();
+        for (String add : adds) {
+            record.append(MOD_ADD_FILE).append('=').append(add).append('\n');
+        }
+        for (Map.Entry<String, String> update : updates.entrySet()) {
+            record.append(MOD_UPDATE_FILE).append('=').append(update.getKey()).append('|').append(update.getValue()).append('\n');
+        }
+        for (String mkdir : mkdirs) {
+            record.append(MOD_MK_DIR).append('=').append(mkdir).append('\n');
+        }
+        return record.toString().getBytes("UTF-8");
+    }
+}
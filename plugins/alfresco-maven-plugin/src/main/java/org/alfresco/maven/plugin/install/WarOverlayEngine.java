@@ -0,0 +1,726 @@
+package org.alfresco.maven.plugin.install;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Installs several AMPs onto a WAR (or exploded WAR) at once, producing the same WAR content as installing
+ * them one after the other with the Alfresco ModuleManagementTool: files are mapped the same way, files replaced
+ * by a module are backed up in the module backup folder, and each module gets its module.properties and
+ * modifications.install records.
+ * <p/>
+ * Unlike the ModuleManagementTool, which re-opens and rewrites the WAR for every AMP, the AMPs are read concurrently,
+ * the final content of every WAR file is resolved up front (the last AMP wins, as it would when installing
+ * sequentially) and the WAR is then written in a single pass.
+ * <p/>
+ * Only fresh installs are supported: upgrading modules already installed in the WAR, and checking repository
+ * version, edition and module dependency constraints is left to the ModuleManagementTool
+ * (see {@link #getUnsupportedReason(List)}).
+ */
+public class WarOverlayEngine {
+
+    public static final String MODULE_DIR = "/WEB-INF/classes/alfresco/module";
+    public static final String BACKUP_DIR = MODULE_DIR + "/backup";
+    public static final String MODIFICATIONS_INSTALL = "modifications.install";
+
+    private static final String PROP_INSTALL_STATE = "module.installState";
+    private static final String PROP_INSTALL_DATE = "module.installDate";
+    private static final String INSTALLED = "INSTALLED";
+
+    private final File war;
+    private final int threads;
+    private final Log log;
+    private boolean verbose;
+    private final AtomicLong filesWritten = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    /**
+     * @param war     the WAR file or exploded WAR folder to install AMPs onto
+     * @param threads the number of threads reading AMPs and writing exploded WARs; 0 or less to use one per
+     *                available processor
+     */
+    public WarOverlayEngine(File war, int threads, Log log) {
+        this.war = war;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        this.log = log;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * @return the number of files (installed files, backups and module records) written by this engine so far
+     */
+    public long getFilesWritten() {
+        return filesWritten.get();
+    }
+
+    /**
+     * @return the number of bytes written by this engine so far; the size of the whole WAR for WAR files
+     */
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * Lists the AMPs found in a folder and its sub folders, in the (path) order they are installed
+     */
+    public static List<File> findAmps(File directory) {
+        List<File> amps = new ArrayList<File>();
+        File[] children = directory.listFiles();
+        if (children != null) {
+            Arrays.sort(children);
+            for (File child : children) {
+                if (child.isFile() && child.getName().toLowerCase(Locale.ENGLISH).endsWith(".amp")) {
+                    amps.add(child);
+                } else if (child.isDirectory()) {
+                    amps.addAll(findAmps(child));
+                }
+            }
+        }
+        return amps;
+    }
+
+    /**
+     * Reads the given AMPs concurrently
+     *
+     * @return the descriptors of the AMPs, in the same order; to be closed by the caller
+     */
+    public List<AmpDescriptor> read(List<File> ampFiles) throws IOException {
+        List<Callable<AmpDescriptor>> readers = new ArrayList<Callable<AmpDescriptor>>();
+        for (final File ampFile : ampFiles) {
+            readers.add(new Callable<AmpDescriptor>() {
+                public AmpDescriptor call() throws IOException {
+                    return new AmpDescriptor(ampFile);
+                }
+            });
+        }
+        List<AmpDescriptor> amps = new ArrayList<AmpDescriptor>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, ampFiles.size())));
+        try {
+            IOException failure = null;
+            for (Future<AmpDescriptor> future : executor.invokeAll(readers)) {
+                try {
+                    amps.add(get(future));
+                } catch (IOException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+            if (failure != null) {
+                close(amps);
+                throw failure;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close(amps);
+            throw new IOException("Interrupted while reading AMPs");
+        } finally {
+            executor.shutdownNow();
+        }
+        return amps;
+    }
+
+    public static void close(List<AmpDescriptor> amps) {
+        for (AmpDescriptor amp : amps) {
+            amp.close();
+        }
+    }
+
+    /**
+     * Checks whether the AMPs can be installed by this engine
+     *
+     * @return why the AMPs cannot be installed by this engine, null if they can
+     */
+    public String getUnsupportedReason(List<AmpDescriptor> amps) throws IOException {
+        WarContent content = WarContent.open(war);
+        Map<String, AmpDescriptor> ids = new HashMap<String, AmpDescriptor>();
+        for (AmpDescriptor amp : amps) {
+            List<String> names = new ArrayList<String>(amp.getAliases());
+            names.add(0, amp.getId());
+            for (String name : names) {
+                AmpDescriptor other = ids.put(name, amp);
+                if (other != null) {
+                    return "Module " + name + " is provided by both " + other.getFile().getName() + " and " + amp.getFile().getName();
+                }
+                if (content.exists(MODULE_DIR + "/" + name + "/" + AmpDescriptor.MODULE_PROPERTIES)) {
+                    return "Module " + name + " is already installed in " + war;
+                }
+            }
+            List<String> unchecked = amp.getUncheckedProperties();
+            if (!unchecked.isEmpty()) {
+                return "Module " + amp.getId() + " declares " + unchecked;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Installs the AMPs onto the WAR, in the given order
+     *
+     * @param backupWar whether a copy of the WAR should be made before installing
+     */
+    public void install(List<AmpDescriptor> amps, boolean backupWar) throws IOException {
+        if (backupWar) {
+            File backup = new File(war.getPath() + "-" + System.currentTimeMillis() + ".bak");
+            log.info("Backing up " + war + " to " + backup);
+            if (war.isDirectory()) {
+                FileUtils.copyDirectory(war, backup);
+            } else {
+                FileUtils.copyFile(war, backup);
+            }
+        }
+        Overlay overlay = plan(amps, WarContent.open(war));
+        if (war.isDirectory()) {
+            applyToDirectory(overlay);
+        } else {
+            applyToArchive(overlay);
+        }
+        if (!war.setLastModified(System.currentTimeMillis())) {
+            log.debug("Could not update the modification time of " + war);
+        }
+    }
+
+    /**
+     * Resolves what every AMP adds or replaces, in installation order, and therefore the final
+     * content of each installed file and the files each module backs up
+     */
+    Overlay plan(List<AmpDescriptor> amps, WarContent content) throws IOException {
+        Overlay overlay = new Overlay();
+        Set<String> existingFolders = new HashSet<String>();
+        String installDate = getInstallDate();
+        // MMT creates the module and backup folders before installing anything
+        for (String folder = BACKUP_DIR; folder.length() > 0; folder = parent(folder)) {
+            existingFolders.add(folder);
+            overlay.folders.add(folder);
+        }
+        for (AmpDescriptor amp : amps) {
+            InstalledModule record = new InstalledModule(amp.getId());
+            for (String folder : amp.getFolders()) {
+                if (!content.exists(folder) && !existingFolders.contains(folder)) {
+                    record.getMkdirs().add(folder);
+                }
+            }
+            for (Map.Entry<String, ZipEntry> file : amp.getFiles().entrySet()) {
+                String path = file.getKey();
+                Source previous = overlay.files.get(path);
+                if (previous == null && content.exists(path)) {
+                    previous = new Source(null, path);
+                }
+                if (previous == null) {
+                    record.getAdds().add(path);
+                } else {
+                    String backup = newBackupPath();
+                    record.getUpdates().put(path, backup);
+                    overlay.backups.put(backup, previous);
+                }
+                overlay.files.put(path, new Source(amp, file.getValue()));
+                for (String folder = parent(path); folder.length() > 0; folder = parent(folder)) {
+                    existingFolders.add(folder);
+                    overlay.folders.add(folder);
+                }
+            }
+            addModuleRecords(amp, record, installDate, overlay);
+            log("Installing " + amp + ": " + record.getAdds().size() + " files added, " + record.getUpdates().size() + " updated");
+        }
+        return overlay;
+    }
+
+    /**
+     * Checks whether modules installed in an exploded WAR can be installed again, with new versions of their AMPs,
+     * without installing all the other modules again: the modules must be installed, and none of the files they
+     * installed or are about to install can be installed by other modules as well
+     *
+     * @param amps the new versions of the AMPs of the modules to install again
+     * @param others the ids of the other modules installed in the WAR
+     * @return why the modules cannot be installed again by this engine, null if they can
+     */
+    public String getReinstallUnsupportedReason(List<AmpDescriptor> amps, Collection<String> others) throws IOException {
+        if (!war.isDirectory()) {
+            return war + " is not an exploded WAR";
+        }
+        Set<String> othersFiles = new HashSet<String>();
+        for (String other : others) {
+            InstalledModule module = InstalledModule.read(war, other);
+            if (module == null) {
+                return "Module " + other + " is not installed in " + war;
+            }
+            othersFiles.addAll(module.getInstalledFiles());
+        }
+        for (AmpDescriptor amp : amps) {
+            InstalledModule installed = InstalledModule.read(war, amp.getId());
+            if (installed == null) {
+                return "Module " + amp.getId() + " is not installed in " + war;
+            }
+            if (!amp.getUncheckedProperties().isEmpty()) {
+                return "Module " + amp.getId() + " declares " + amp.getUncheckedProperties();
+            }
+            Set<String> files = new HashSet<String>(installed.getInstalledFiles());
+            files.addAll(amp.getFiles().keySet());
+            files.retainAll(othersFiles);
+            if (!files.isEmpty()) {
+                return "Module " + amp.getId() + " shares " + files.iterator().next() + " with another module";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Installs new versions of modules already installed in an exploded WAR, producing the same content as
+     * uninstalling and installing them again with MMT: files no longer provided are removed (or restored from
+     * their backup), the others are replaced, and the module records are updated. The other modules are
+     * not touched, see {@link #getReinstallUnsupportedReason(List, Collection)}.
+     */
+    public void reinstall(List<AmpDescriptor> amps) throws IOException {
+        Overlay overlay = new Overlay();
+        WarContent content = WarContent.open(war);
+        String installDate = getInstallDate();
+        for (AmpDescriptor amp : amps) {
+            InstalledModule installed = InstalledModule.read(war, amp.getId());
+            InstalledModule record = new InstalledModule(amp.getId());
+            Map<String, ZipEntry> files = amp.getFiles();
+            for (String add : installed.getAdds()) {
+                if (!files.containsKey(add)) {
+                    overlay.deletes.add(add);
+                }
+            }
+            for (Map.Entry<String, String> update : installed.getUpdates().entrySet()) {
+                if (!files.containsKey(update.getKey())) {
+                    overlay.restores.put(update.getKey(), update.getValue());
+                }
+            }
+            record.getMkdirs().addAll(installed.getMkdirs());
+            for (String folder : amp.getFolders()) {
+                if (!content.exists(folder)) {
+                    record.getMkdirs().add(folder);
+                }
+            }
+            for (Map.Entry<String, ZipEntry> file : files.entrySet()) {
+                String path = file.getKey();
+                if (installed.getAdds().contains(path)) {
+                    record.getAdds().add(path);
+                } else if (installed.getUpdates().containsKey(path)) {
+                    record.getUpdates().put(path, installed.getUpdates().get(path));
+                } else if (content.exists(path)) {
+                    String backup = newBackupPath();
+                    record.getUpdates().put(path, backup);
+                    overlay.backups.put(backup, new Source(null, path));
+                } else {
+                    record.getAdds().add(path);
+                }
+                overlay.files.put(path, new Source(amp, file.getValue()));
+            }
+            addModuleRecords(amp, record, installDate, overlay);
+            log("Re-installing " + amp + ": " + files.size() + " files installed");
+        }
+        applyToDirectory(overlay);
+    }
+
+    private void addModuleRecords(AmpDescriptor amp, InstalledModule record, String installDate, Overlay overlay) throws IOException {
+        String moduleDir = InstalledModule.getModuleFolder(amp.getId());
+        overlay.folders.add(moduleDir);
+        overlay.generated.put(moduleDir + "/" + MODIFICATIONS_INSTALL, record.toBytes());
+        Properties moduleProperties = new Properties();
+        moduleProperties.putAll(amp.getModuleProperties());
+        moduleProperties.setProperty(PROP_INSTALL_STATE, INSTALLED);
+        moduleProperties.setProperty(PROP_INSTALL_DATE, installDate);
+        ByteArrayOutputStream properties = new ByteArrayOutputStream();
+        moduleProperties.store(properties, null);
+        overlay.generated.put(moduleDir + "/" + AmpDescriptor.MODULE_PROPERTIES, properties.toByteArray());
+    }
+
+    private static String getInstallDate() {
+        return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX").format(new Date());
+    }
+
+    private static String newBackupPath() {
+        return BACKUP_DIR + "/" + UUID.randomUUID() + ".bin";
+    }
+
+    private void log(String message) {
+        if (verbose) {
+            log.info(message);
+        } else {
+            log.debug(message);
+        }
+    }
+
+    /**
+     * Lists the modules installed in an exploded WAR
+     *
+     * @return the ids of the modules having a modifications.install record, empty for WAR files
+     */
+    public static Set<String> getInstalledModules(File war) {
+        Set<String> ids = new TreeSet<String>();
+        File[] folders = new File(war, MODULE_DIR).listFiles();
+        if (folders != null) {
+            for (File folder : folders) {
+                if (new File(folder, MODIFICATIONS_INSTALL).isFile()) {
+                    ids.add(folder.getName());
+                }
+            }
+        }
+        return ids;
+    }
+
+    private void applyToDirectory(final Overlay overlay) throws IOException {
+        // Undo what is no longer installed by re-installed modules
+        for (String delete : overlay.deletes) {
+            Files.deleteIfExists(new File(war, delete).toPath());
+        }
+        for (Map.Entry<String, String> restore : overlay.restores.entrySet()) {
+            File backup = new File(war, restore.getValue());
+            Files.move(backup.toPath(), new File(war, restore.getKey()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        // Back up the replaced files first, as they are about to be overwritten
+        List<Callable<Void>> backups = new ArrayList<Callable<Void>>();
+        for (final Map.Entry<String, Source> backup : overlay.backups.entrySet()) {
+            backups.add(new Callable<Void>() {
+                public Void call() throws IOException {
+                    copyTo(backup.getValue(), new File(war, backup.getKey()));
+                    return null;
+                }
+            });
+        }
+        runAll(backups);
+        List<Callable<Void>> files = new ArrayList<Callable<Void>>();
+        final AtomicInteger unchanged = new AtomicInteger();
+        for (final Map.Entry<String, Source> file : overlay.files.entrySet()) {
+            files.add(new Callable<Void>() {
+                public Void call() throws IOException {
+                    if (!copyTo(file.getValue(), new File(war, file.getKey()))) {
+                        unchanged.incrementAndGet();
+                    }
+                    return null;
+                }
+            });
+        }
+        runAll(files);
+        if (unchanged.get() > 0) {
+            log(unchanged.get() + " of " + files.size() + " installed files were already up to date in " + war);
+        }
+        for (String folder : overlay.folders) {
+            new File(war, folder).mkdirs();
+        }
+        for (Map.Entry<String, byte[]> generated : overlay.generated.entrySet()) {
+            FileUtils.writeByteArrayToFile(new File(war, generated.getKey()), generated.getValue());
+            filesWritten.incrementAndGet();
+            bytesWritten.addAndGet(generated.getValue().length);
+        }
+    }
+
+    /**
+     * Copies the content of a file to the (exploded) WAR, unless the AMP entry is identical to the target file
+     * already there, as when the AMP is unpacked again onto the same WAR
+     *
+     * @return whether the file was copied
+     */
+    private boolean copyTo(Source source, File target) throws IOException {
+        target.getParentFile().mkdirs();
+        if (source.amp == null) {
+            Files.copy(new File(war, source.path).toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            filesWritten.incrementAndGet();
+            bytesWritten.addAndGet(target.length());
+            return true;
+        }
+        if (isUnchanged(source.entry, target)) {
+            return false;
+        }
+        InputStream in = source.amp.getInputStream(source.entry);
+        try {
+            Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        if (source.entry.getTime() != -1) {
+            target.setLastModified(source.entry.getTime());
+        }
+        filesWritten.incrementAndGet();
+        bytesWritten.addAndGet(target.length());
+        return true;
+    }
+
+    /**
+     * Compares a file with an AMP entry using the size and CRC recorded in the AMP central directory,
+     * so that only the file needs to be read
+     */
+    private static boolean isUnchanged(ZipEntry entry, File file) throws IOException {
+        if (!file.isFile() || entry.getSize() != file.length() || entry.getCrc() == -1) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        return crc.getValue() == entry.getCrc();
+    }
+
+    /**
+     * Rewrites the WAR archive once: original entries which are not replaced are copied over, followed by
+     * the backups, the new folders, the installed files and the module records
+     */
+    private void applyToArchive(Overlay overlay) throws IOException {
+        File target = new File(war.getPath() + ".installing");
+        ZipFile original = new ZipFile(war);
+        try {
+            ZipOutputStream out = new ZipOutputStream(new FileOutputStream(target));
+            try {
+                Set<String> written = new HashSet<String>();
+                Enumeration<? extends ZipEntry> entries = original.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    String path = AmpFileMapping.normalize(entry.getName());
+                    if (!entry.isDirectory() && (overlay.files.containsKey(path) || overlay.generated.containsKey(path))) {
+                        continue;
+                    }
+                    if (written.add(entry.getName())) {
+                        copyEntry(original, entry, entry.getName(), out);
+                    }
+                }
+                for (Map.Entry<String, Source> backup : overlay.backups.entrySet()) {
+                    Source source = backup.getValue();
+                    if (source.amp == null) {
+                        copyEntry(original, original.getEntry(source.path.substring(1)), backup.getKey().substring(1), out);
+                    } else {
+                        copyEntry(source.amp, source.entry, backup.getKey().substring(1), out);
+                    }
+                }
+                for (String folder : overlay.folders) {
+                    String name = folder.substring(1) + "/";
+                    if (original.getEntry(name) == null && written.add(name)) {
+                        ZipEntry entry = new ZipEntry(name);
+                        entry.setTime(System.currentTimeMillis());
+                        out.putNextEntry(entry);
+                        out.closeEntry();
+                    }
+                }
+                for (Map.Entry<String, Source> file : overlay.files.entrySet()) {
+                    Source source = file.getValue();
+                    copyEntry(source.amp, source.entry, file.getKey().substring(1), out);
+                }
+                for (Map.Entry<String, byte[]> generated : overlay.generated.entrySet()) {
+                    ZipEntry entry = new ZipEntry(generated.getKey().substring(1));
+                    entry.setTime(System.currentTimeMillis());
+                    out.putNextEntry(entry);
+                    out.write(generated.getValue());
+                    out.closeEntry();
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            target.delete();
+            throw e;
+        } finally {
+            original.close();
+        }
+        Files.move(target.toPath(), war.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        filesWritten.addAndGet(overlay.files.size() + overlay.backups.size() + overlay.generated.size());
+        bytesWritten.addAndGet(war.length());
+    }
+
+    private static void copyEntry(ZipFile zip, ZipEntry entry, String name, ZipOutputStream out) throws IOException {
+        InputStream in = zip.getInputStream(entry);
+        try {
+            copyEntry(in, entry, name, out);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private static void copyEntry(AmpDescriptor amp, ZipEntry entry, String name, ZipOutputStream out) throws IOException {
+        InputStream in = amp.getInputStream(entry);
+        try {
+            copyEntry(in, entry, name, out);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * Copies an entry keeping its compression method; stored entries need their size and CRC up front
+     */
+    private static void copyEntry(InputStream in, ZipEntry source, String name, ZipOutputStream out) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setTime(source.getTime());
+        if (source.getMethod() == ZipEntry.STORED && source.getSize() >= 0 && source.getCrc() != -1) {
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(source.getSize());
+            entry.setCompressedSize(source.getSize());
+            entry.setCrc(source.getCrc());
+        } else if (source.getMethod() == ZipEntry.STORED && !source.isDirectory()) {
+            byte[] content = IOUtils.toByteArray(in);
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            entry.setCompressedSize(content.length);
+            entry.setCrc(crc.getValue());
+            out.putNextEntry(entry);
+            out.write(content);
+            out.closeEntry();
+            return;
+        }
+        out.putNextEntry(entry);
+        IOUtils.copy(in, out);
+        out.closeEntry();
+    }
+
+    private void runAll(List<Callable<Void>> tasks) throws IOException {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()));
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                get(future);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while installing AMPs onto " + war);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while installing AMPs");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private static String parent(String path) {
+        int index = path.lastIndexOf('/');
+        return index > 0 ? path.substring(0, index) : "";
+    }
+
+    /**
+     * Where the content of an installed or backed up file comes from: an AMP entry, or the WAR itself
+     */
+    static class Source {
+
+        private final AmpDescriptor amp;
+        private final ZipEntry entry;
+        private final String path;
+
+        Source(AmpDescriptor amp, ZipEntry entry) {
+            this.amp = amp;
+            this.entry = entry;
+            this.path = null;
+        }
+
+        Source(AmpDescriptor amp, String path) {
+            this.amp = amp;
+            this.entry = null;
+            this.path = path;
+        }
+    }
+
+    /**
+     * The changes to apply to the WAR, keyed by WAR path
+     */
+    static class Overlay {
+
+        /** Final content of the installed files */
+        final Map<String, Source> files = new TreeMap<String, Source>();
+        /** Content of the files replaced while installing, to be saved in the backup folder */
+        final Map<String, Source> backups = new LinkedHashMap<String, Source>();
+        /** Folders containing installed files and module records */
+        final Set<String> folders = new TreeSet<String>();
+        /** module.properties and modifications.install of each module */
+        final Map<String, byte[]> generated = new TreeMap<String, byte[]>();
+        /** Files added by a previous install which are no longer installed */
+        final Set<String> deletes = new TreeSet<String>();
+        /** Files replaced by a previous install which are no longer replaced, to their backup */
+        final Map<String, String> restores = new TreeMap<String, String>();
+    }
+
+    /**
+     * The files and folders of the WAR before installing
+     */
+    abstract static class WarContent {
+
+        abstract boolean exists(String path);
+
+        static WarContent open(final File war) throws IOException {
+            if (war.isDirectory()) {
+                return new WarContent() {
+                    boolean exists(String path) {
+                        return new File(war, path).exists();
+                    }
+                };
+            }
+            final Set<String> paths = new HashSet<String>();
+            ZipFile zip = new ZipFile(war);
+            try {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    for (String path = AmpFileMapping.normalize(entries.nextElement().getName());
+                         path.length() > 0 && paths.add(path); path = parent(path)) {
+                        // Folders are not necessarily stored as entries
+                    }
+                }
+            } finally {
+                zip.close();
+            }
+            return new WarContent() {
+                boolean exists(String path) {
+                    return paths.contains(path);
+                }
+            };
+        }
+    }
+}
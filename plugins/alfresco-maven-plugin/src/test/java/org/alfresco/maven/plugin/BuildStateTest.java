@@ -0,0 +1,160 @@
+package org.alfresco.maven.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.model.Model;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.archiver.jar.JarArchiver;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks what the {@link BuildState} finds changed in the inputs of an archive from one build to the next, and how
+ * the {@link AmpMojo} packages incrementally from it: an archive whose inputs did not change is kept as is, one with
+ * added or modified inputs only is updated in place, and one with removed inputs is created again.
+ */
+public class BuildStateTest {
+
+    private static final String SCOPE = "amp";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File input;
+    private File archive;
+    private File stateFile;
+
+    @Before
+    public void createFiles() throws IOException {
+        input = folder.newFolder("input");
+        write("config/module-context.xml", "<beans/>");
+        write("web/css/module.css", "h1 {}");
+        archive = new File(folder.getRoot(), "module.amp");
+        FileUtils.writeStringToFile(archive, "archive", "UTF-8");
+        stateFile = new File(folder.getRoot(), "build-state.properties");
+    }
+
+    @Test
+    public void fingerprintsFollowTheFiles() throws IOException {
+        BuildState state = new BuildState(stateFile, false);
+        Map<String, String> before = state.fingerprint(input, null, new String[] { "web/**" });
+        assertEquals(Collections.singleton("config/module-context.xml"), before.keySet());
+
+        // Same size, other time
+        File file = new File(input, "config/module-context.xml");
+        assertTrue(file.setLastModified(file.lastModified() - 10000));
+        assertFalse(before.equals(state.fingerprint(input, null, new String[] { "web/**" })));
+        assertEquals(Arrays.asList("config/module-context.xml"), state.compare(SCOPE, before).getAdded());
+    }
+
+    @Test
+    public void contentHashesWinOverTimes() throws IOException {
+        BuildState state = new BuildState(stateFile, true);
+        Map<String, String> before = state.fingerprint(input, null, null);
+        state.update(SCOPE, before, archive, "configuration");
+        state.save();
+
+        state = new BuildState(stateFile, true);
+        state.load();
+        // Touched (e.g. copied again by the resources plugin), but not changed
+        File css = new File(input, "web/css/module.css");
+        assertTrue(css.setLastModified(css.lastModified() - 10000));
+        assertTrue(state.compare(SCOPE, state.fingerprint(input, null, null)).isEmpty());
+
+        // Same size, other content
+        write("web/css/module.css", "h2 {}");
+        BuildState.Delta delta = state.compare(SCOPE, state.fingerprint(input, null, null));
+        assertEquals(Arrays.asList("web/css/module.css"), delta.getModified());
+        assertTrue(delta.getAdded().isEmpty());
+        assertTrue(delta.getRemoved().isEmpty());
+    }
+
+    @Test
+    public void outputIsUnchangedForTheSameArchiveAndConfiguration() throws IOException {
+        BuildState state = new BuildState(stateFile, false);
+        assertFalse(state.isOutputUnchanged(SCOPE, archive, "configuration"));
+        state.update(SCOPE, state.fingerprint(input, null, null), archive, "configuration");
+        assertTrue(state.isOutputUnchanged(SCOPE, archive, "configuration"));
+        assertFalse(state.isOutputUnchanged(SCOPE, archive, "other configuration"));
+
+        FileUtils.writeStringToFile(archive, "other archive", "UTF-8");
+        assertFalse(state.isOutputUnchanged(SCOPE, archive, "configuration"));
+        assertTrue(archive.delete());
+        assertFalse(state.isOutputUnchanged(SCOPE, archive, "configuration"));
+    }
+
+    @Test
+    public void ampMojoSkipsUpdatesOrRecreatesTheArchive() throws Exception {
+        AmpMojo amp = createAmpMojo();
+        Map<String, String> inputs = amp.buildState.fingerprint(input, null, null);
+        JarArchiver archiver = new JarArchiver();
+        assertFalse(amp.isUpToDate(SCOPE, inputs, archive, archiver));
+        assertFalse(archiver.isInUpdateMode());
+        amp.recordInputs(SCOPE, inputs, archive);
+        amp.buildState.save();
+
+        // Next build, nothing changed
+        amp = createAmpMojo();
+        archiver = new JarArchiver();
+        assertTrue(amp.isUpToDate(SCOPE, amp.buildState.fingerprint(input, null, null), archive, archiver));
+        assertFalse(archiver.isInUpdateMode());
+
+        // Added and modified files only: the existing archive is updated
+        write("config/added.properties", "key=value");
+        write("web/css/module.css", "h1 { margin: 0 }");
+        assertFalse(amp.isUpToDate(SCOPE, amp.buildState.fingerprint(input, null, null), archive, archiver));
+        assertTrue(archiver.isInUpdateMode());
+
+        // Unless the archiver cannot update archives
+        assertFalse(amp.isUpToDate(SCOPE, amp.buildState.fingerprint(input, null, null), archive, null));
+
+        // A removed file: the archive is created again
+        assertTrue(new File(input, "config/module-context.xml").delete());
+        archiver = new JarArchiver();
+        assertFalse(amp.isUpToDate(SCOPE, amp.buildState.fingerprint(input, null, null), archive, archiver));
+        assertFalse(archiver.isInUpdateMode());
+    }
+
+    @Test
+    public void ampMojoRecreatesTheArchiveOfAnotherConfiguration() throws Exception {
+        AmpMojo amp = createAmpMojo();
+        Map<String, String> inputs = amp.buildState.fingerprint(input, null, null);
+        amp.recordInputs(SCOPE, inputs, archive);
+        amp.buildState.save();
+
+        amp = createAmpMojo();
+        amp.classifier = "other";
+        JarArchiver archiver = new JarArchiver();
+        assertFalse(amp.isUpToDate(SCOPE, inputs, archive, archiver));
+        assertFalse(archiver.isInUpdateMode());
+    }
+
+    private AmpMojo createAmpMojo() throws IOException, MojoExecutionException {
+        Model model = new Model();
+        model.setGroupId("test");
+        model.setArtifactId("module");
+        model.setVersion("1.0");
+        model.setPackaging("amp");
+        AmpMojo amp = new AmpMojo();
+        amp.project = new MavenProject(model);
+        amp.buildState = new BuildState(stateFile, true);
+        amp.buildState.load();
+        return amp;
+    }
+
+    private void write(String path, String content) throws IOException {
+        FileUtils.writeStringToFile(new File(input, path), content, "UTF-8");
+    }
+}
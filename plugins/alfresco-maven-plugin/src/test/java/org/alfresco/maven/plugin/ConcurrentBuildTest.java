@@ -0,0 +1,302 @@
+package org.alfresco.maven.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.alfresco.maven.plugin.archiver.AmpUnArchiver;
+import org.alfresco.maven.plugin.install.InstalledModule;
+import org.alfresco.maven.plugin.install.WarOverlayEngine;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.LegacySupport;
+import org.apache.maven.plugin.internal.DefaultLegacySupport;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Builds several modules at the same time, one thread per module as a parallel (-T) reactor build does: each
+ * thread runs set-version and amp for its AMP module, then overlays the AMP onto its WAR module with the
+ * {@link AmpUnArchiver} and installs it onto a WAR with the install goal. As in Maven, the session of the module
+ * a thread builds is bound to that thread through {@link LegacySupport}, and the unarchiver finds its project
+ * (where to unpack, whether to write metrics) there. Checks that every module only holds its own version,
+ * dependencies and AMP, i.e. that nothing leaks between the modules built in parallel.
+ * <p/>
+ * Half of the installs go through the ModuleManagementTool, so that they run one at a time on the shared lock
+ * while the other modules keep building.
+ */
+public class ConcurrentBuildTest {
+
+    private static final int MODULES = 8;
+
+    /** 2014-01-01T00:00:00Z, in seconds */
+    private static final long OUTPUT_TIME = 1388534400L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final LegacySupport legacySupport = new DefaultLegacySupport();
+    private File baseWar;
+    private File decoy;
+    private List<Module> modules;
+
+    @Before
+    public void createReactor() throws IOException {
+        baseWar = folder.newFolder("war");
+        FileUtils.writeStringToFile(new File(baseWar, "WEB-INF/web.xml"), "<web-app/>", "UTF-8");
+        FileUtils.writeStringToFile(new File(baseWar, "META-INF/MANIFEST.MF"), "Manifest-Version: 1.0\n", "UTF-8");
+        FileUtils.writeStringToFile(new File(baseWar, "WEB-INF/classes/alfresco/version.properties"),
+                "version.major=5\nversion.minor=0\nversion.revision=0\nversion.label=\nversion.edition=Community\n", "UTF-8");
+        // Where the overlays would go if the unarchiver did not find the project of the calling module
+        decoy = new File(folder.getRoot(), "decoy");
+        modules = new ArrayList<Module>();
+        for (int i = 0; i < MODULES; i++) {
+            modules.add(new Module(i, new File(folder.getRoot(), "module" + i)));
+        }
+    }
+
+    @Test
+    public void buildsModulesConcurrentlyWithoutCrossTalk() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final Map<Integer, Throwable> failures = Collections.synchronizedMap(new TreeMap<Integer, Throwable>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (final Module module : modules) {
+            Thread thread = new Thread("module" + module.index) {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        module.build();
+                    } catch (Throwable e) {
+                        failures.put(module.index, e);
+                    } finally {
+                        legacySupport.setSession(null);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Map.Entry<Integer, Throwable> failure : failures.entrySet()) {
+            throw new AssertionError("module" + failure.getKey() + " failed", failure.getValue());
+        }
+
+        for (Module module : modules) {
+            module.check();
+        }
+        assertFalse("An AMP was unpacked outside of its module", decoy.exists());
+    }
+
+    /**
+     * An AMP module and the WAR module it is overlaid onto
+     */
+    private class Module {
+
+        private final int index;
+        private final String moduleId;
+        private final MavenProject ampProject;
+        private final MavenProject warProject;
+        private final MavenSession ampSession;
+        private final MavenSession warSession;
+        private final File dependency;
+        private final File installWar;
+
+        Module(int index, File directory) throws IOException {
+            this.index = index;
+            this.moduleId = "module" + index;
+
+            ampProject = createProject(moduleId, "1." + index + "-SNAPSHOT", "amp", new File(directory, "amp"));
+            File target = new File(ampProject.getBuild().getDirectory());
+            FileUtils.writeStringToFile(new File(ampProject.getBuild().getOutputDirectory(), moduleId + ".txt"), moduleId, "UTF-8");
+            File ampBuildDirectory = new File(target, ampProject.getBuild().getFinalName());
+            FileUtils.writeStringToFile(new File(ampBuildDirectory, "module.properties"),
+                    "module.id=" + moduleId + "\nmodule.version=1." + index + "\nmodule.title=" + moduleId + "\n", "UTF-8");
+            FileUtils.writeStringToFile(new File(ampBuildDirectory, "config/alfresco/module/" + moduleId + "/module-context.xml"),
+                    "<beans id=\"" + moduleId + "\"/>", "UTF-8");
+            FileUtils.writeStringToFile(new File(ampBuildDirectory, "web/css/" + moduleId + ".css"), "h" + index + " {}", "UTF-8");
+            dependency = new File(directory, "repository/dependency" + index + "-1.0.jar");
+            FileUtils.writeStringToFile(dependency, "dependency of " + moduleId, "UTF-8");
+            DefaultArtifact artifact = new DefaultArtifact("test", "dependency" + index, "1.0", Artifact.SCOPE_RUNTIME,
+                    "jar", null, new DefaultArtifactHandler("jar"));
+            artifact.setFile(dependency);
+            ampProject.setArtifacts(Collections.<Artifact>singleton(artifact));
+
+            warProject = createProject(moduleId + "-war", "1." + index + "-SNAPSHOT", "war", new File(directory, "war"));
+            installWar = new File(directory, "install-war");
+            FileUtils.copyDirectory(baseWar, installWar);
+
+            ampSession = createSession(ampProject, new Properties());
+            Properties warProperties = new Properties();
+            // Only some modules ask for metrics, which the unarchiver reads from the session
+            warProperties.setProperty("maven.alfresco.metrics", String.valueOf(index % 2 == 0));
+            warSession = createSession(warProject, warProperties);
+        }
+
+        void build() throws Exception {
+            legacySupport.setSession(ampSession);
+            VersionMojo version = new VersionMojo();
+            set(version, "project", ampProject);
+            set(version, "version", ampProject.getVersion());
+            set(version, "snapshotSuffix", "-SNAPSHOT");
+            set(version, "snapshotToTimestamp", true);
+            set(version, "outputTimestamp", String.valueOf(OUTPUT_TIME + index * 3600));
+            set(version, "propertyName", "noSnapshotVersion");
+            version.execute();
+
+            File target = new File(ampProject.getBuild().getDirectory());
+            AmpMojo amp = new AmpMojo();
+            set(amp, "project", ampProject);
+            set(amp, "session", ampSession);
+            set(amp, "ampFinalName", ampProject.getBuild().getFinalName());
+            set(amp, "ampBuildDirectory", new File(target, ampProject.getBuild().getFinalName()));
+            set(amp, "ampFinalDir", target);
+            set(amp, "classesDirectory", new File(ampProject.getBuild().getOutputDirectory()));
+            set(amp, "includeDependencies", true);
+            set(amp, "dependencyStaging", "copy");
+            set(amp, "stagedDependenciesFile", new File(target, "amp-staged-dependencies.txt"));
+            set(amp, "duplicateDependencies", "exclude");
+            set(amp, "reproducible", true);
+            set(amp, "metricsDirectory", new File(target, "alfresco-metrics"));
+            amp.execute();
+
+            // The same thread then builds the WAR module, as Maven does with the next module it is given
+            legacySupport.setSession(warSession);
+            AmpUnArchiver unArchiver = new AmpUnArchiver();
+            set(unArchiver, "legacySupport", legacySupport);
+            unArchiver.enableLogging(new ConsoleLogger(Logger.LEVEL_WARN, moduleId));
+            unArchiver.setSourceFile(getAmp());
+            unArchiver.setDestDirectory(decoy);
+            unArchiver.extract();
+
+            InstallMojo install = new InstallMojo();
+            set(install, "project", warProject);
+            set(install, "ampLocation", getAmp());
+            set(install, "warLocation", installWar);
+            set(install, "force", true);
+            set(install, "parallelInstall", index % 2 == 0);
+            set(install, "installManifest", new File(warProject.getBuild().getDirectory(), "amp-install-manifest.properties"));
+            set(install, "metricsDirectory", new File(warProject.getBuild().getDirectory(), "alfresco-metrics"));
+            install.execute();
+        }
+
+        void check() throws IOException {
+            SimpleDateFormat format = new SimpleDateFormat("yyMMddHHmm");
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            assertEquals("1." + index + "." + format.format(new Date((OUTPUT_TIME + index * 3600) * 1000)),
+                    ampProject.getProperties().getProperty("noSnapshotVersion"));
+
+            Set<String> libraries = new HashSet<String>();
+            ZipFile zip = new ZipFile(getAmp());
+            try {
+                for (ZipEntry entry : Collections.list(zip.entries())) {
+                    if (entry.getName().startsWith("lib/") && !entry.isDirectory()) {
+                        libraries.add(entry.getName());
+                    }
+                }
+                ZipEntry properties = zip.getEntry("module.properties");
+                assertNotNull(properties);
+                assertTrue(IOUtils.toString(zip.getInputStream(properties), "UTF-8").contains("module.id=" + moduleId + "\n"));
+            } finally {
+                zip.close();
+            }
+            Set<String> expected = new HashSet<String>();
+            expected.add("lib/" + dependency.getName());
+            expected.add("lib/" + ampProject.getBuild().getFinalName() + ".jar");
+            assertEquals(expected, libraries);
+            assertEquals(getAmp(), ampProject.getArtifact().getFile());
+
+            File overlay = new File(warProject.getBuild().getDirectory(), warProject.getBuild().getFinalName());
+            assertEquals(Collections.singleton(moduleId), WarOverlayEngine.getInstalledModules(overlay));
+            assertTrue(new File(overlay, "css/" + moduleId + ".css").isFile());
+            File metrics = new File(warProject.getBuild().getDirectory(), "alfresco-metrics/amp-overlay-" + ampProject.getBuild().getFinalName() + ".json");
+            assertEquals(metrics.getPath(), index % 2 == 0, metrics.isFile());
+
+            assertNotNull(moduleId + " is not installed in " + installWar, InstalledModule.read(installWar, moduleId));
+            assertEquals(Collections.singleton(moduleId), WarOverlayEngine.getInstalledModules(installWar));
+        }
+
+        private File getAmp() {
+            return new File(ampProject.getBuild().getDirectory(), ampProject.getBuild().getFinalName() + ".amp");
+        }
+    }
+
+    private static MavenProject createProject(String artifactId, String version, String packaging, File basedir) throws IOException {
+        MavenProject project = new MavenProject();
+        project.setGroupId("test");
+        project.setArtifactId(artifactId);
+        project.setVersion(version);
+        project.setPackaging(packaging);
+        project.setFile(new File(basedir, "pom.xml"));
+        // Archived into META-INF/maven by the MavenArchiver
+        FileUtils.writeStringToFile(project.getFile(), "<project><groupId>test</groupId><artifactId>" + artifactId
+                + "</artifactId><version>" + version + "</version></project>", "UTF-8");
+        project.getBuild().setDirectory(new File(basedir, "target").getAbsolutePath());
+        project.getBuild().setOutputDirectory(new File(basedir, "target/classes").getAbsolutePath());
+        project.getBuild().setFinalName(artifactId + "-" + version);
+        project.setArtifact(new DefaultArtifact("test", artifactId, version, Artifact.SCOPE_COMPILE, packaging, null,
+                new DefaultArtifactHandler(packaging)));
+        return project;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static MavenSession createSession(MavenProject project, Properties userProperties) {
+        MavenExecutionRequest request = new DefaultMavenExecutionRequest();
+        request.setUserProperties(userProperties);
+        request.setSystemProperties(new Properties());
+        MavenSession session = new MavenSession(null, request, new DefaultMavenExecutionResult(), project);
+        session.setCurrentProject(project);
+        return session;
+    }
+
+    /**
+     * Sets a mojo or component field, as Maven injects them
+     */
+    private static void set(Object target, String name, Object value) throws Exception {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                // Declared by a super class
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+}
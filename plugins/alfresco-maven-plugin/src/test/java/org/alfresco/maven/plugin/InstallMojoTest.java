@@ -0,0 +1,192 @@
+package org.alfresco.maven.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Installs an AMP onto fresh copies of the same WAR, as every clean build does, and checks that the artifact cache
+ * recognizes them by content rather than by modification time, and that it only reads again the files of an
+ * exploded WAR that changed.
+ */
+public class InstallMojoTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File war;
+    private File amp;
+    private File cache;
+    private File checksums;
+
+    @Before
+    public void createFixtures() throws IOException {
+        war = folder.newFolder("war");
+        FileUtils.writeStringToFile(new File(war, "WEB-INF/web.xml"), "<web-app/>", "UTF-8");
+        FileUtils.writeStringToFile(new File(war, "META-INF/MANIFEST.MF"), "Manifest-Version: 1.0\n", "UTF-8");
+        FileUtils.writeStringToFile(new File(war, "WEB-INF/classes/alfresco/version.properties"),
+                "version.major=5\nversion.minor=0\nversion.revision=0\nversion.label=\nversion.edition=Community\n", "UTF-8");
+        FileUtils.writeStringToFile(new File(war, "WEB-INF/lib/existing.jar"), "existing library", "UTF-8");
+        FileUtils.writeStringToFile(new File(war, "index.jsp"), "WAR index", "UTF-8");
+
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        entries.put("module.properties", "module.id=test.module\nmodule.version=1.0\nmodule.title=Test\nmodule.description=Test module\n");
+        entries.put("lib/module.jar", "module library");
+        entries.put("web/css/module.css", "h1 {}");
+        amp = createArchive(new File(folder.getRoot(), "module.amp"), entries);
+
+        cache = new File(folder.getRoot(), "cache");
+        checksums = new File(folder.getRoot(), "amp-install-checksums.properties");
+    }
+
+    @Test
+    public void recognizesRebuiltWarFiles() throws Exception {
+        File first = zip(war, "first.war", 1000000000000L);
+        install(first);
+        assertEquals(1, countCacheEntries());
+
+        // The same WAR packaged again: same entries, with new times
+        File second = zip(war, "second.war", 1100000000000L);
+        install(second);
+        assertEquals(1, countCacheEntries());
+        ZipFile zip = new ZipFile(second);
+        try {
+            assertNotNull(zip.getEntry("css/module.css"));
+        } finally {
+            zip.close();
+        }
+    }
+
+    @Test
+    public void hashesOnlyTheChangedFilesOfExplodedWars() throws Exception {
+        File first = copy("first");
+        install(first);
+        assertEquals(1, countCacheEntries());
+        assertTrue(checksums.isFile());
+
+        // Unpacked again, with the resources copied into the WAR written again with the same content
+        File second = copy("second");
+        touch(new File(second, "index.jsp"));
+        install(second);
+        assertEquals(1, countCacheEntries());
+        assertTrue(new File(second, "css/module.css").isFile());
+        Properties recorded = load(checksums);
+        assertTrue(recorded.getProperty("index.jsp").startsWith(new File(second, "index.jsp").length() + ":"
+                + new File(second, "index.jsp").lastModified() + ":"));
+
+        // Then with a different content: a new installation
+        File third = copy("third");
+        FileUtils.writeStringToFile(new File(third, "index.jsp"), "New index", "UTF-8");
+        install(third);
+        assertEquals(2, countCacheEntries());
+        assertTrue(new File(third, "css/module.css").isFile());
+    }
+
+    private void install(File target) throws Exception {
+        InstallMojo install = new InstallMojo();
+        set(install, "ampLocation", amp);
+        set(install, "warLocation", target);
+        set(install, "force", true);
+        set(install, "parallelInstall", true);
+        set(install, "artifactCache", true);
+        set(install, "artifactCacheDirectory", cache);
+        set(install, "artifactCacheSize", 100L);
+        set(install, "artifactCacheChecksums", checksums);
+        install.execute();
+    }
+
+    private int countCacheEntries() {
+        int count = 0;
+        for (File prefix : cache.listFiles()) {
+            if (prefix.isDirectory()) {
+                count += prefix.listFiles().length;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copies the WAR as unpacking it does, with the times of its entries
+     */
+    private File copy(String name) throws IOException {
+        File copy = new File(folder.getRoot(), name);
+        FileUtils.copyDirectory(war, copy, true);
+        return copy;
+    }
+
+    private static void touch(File file) {
+        file.setLastModified(file.lastModified() + 60000);
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    private File zip(File directory, String name, long time) throws IOException {
+        File archive = new File(folder.getRoot(), name);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            for (File file : FileUtils.listFiles(directory, null, true)) {
+                ZipEntry entry = new ZipEntry(file.getAbsolutePath().substring(directory.getAbsolutePath().length() + 1)
+                        .replace(File.separatorChar, '/'));
+                entry.setTime(time);
+                out.putNextEntry(entry);
+                out.write(FileUtils.readFileToByteArray(file));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        archive.setLastModified(time);
+        return archive;
+    }
+
+    private static File createArchive(File archive, Map<String, String> entries) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue().getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return archive;
+    }
+
+    /**
+     * Sets a mojo field, as Maven injects them
+     */
+    private static void set(Object target, String name, Object value) throws Exception {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
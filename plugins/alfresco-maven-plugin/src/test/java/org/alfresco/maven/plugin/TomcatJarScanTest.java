@@ -0,0 +1,92 @@
+package org.alfresco.maven.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks which JARs of a webapp the {@link TomcatJarScan} lets Tomcat skip, and that none is skipped when a
+ * ServletContainerInitializer is given the classes of all the JARs.
+ */
+public class TomcatJarScanTest {
+
+    private static final String INITIALIZER = "META-INF/services/javax.servlet.ServletContainerInitializer";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File lib;
+
+    @Before
+    public void createWebapp() throws IOException {
+        lib = new File(folder.newFolder("webapp"), "WEB-INF/lib");
+        lib.mkdirs();
+        createJar("plain.jar", "org/example/Plain.class", "class org.example.Plain");
+        createJar("taglib.jar", "META-INF/c.tld", "<taglib/>");
+        createJar("servlet.jar", "org/example/MyServlet.class", "Ljavax/servlet/annotation/WebServlet;");
+    }
+
+    @Test
+    public void skipsTheJarsWithNothingToScan() throws IOException {
+        // Without @HandlesTypes, the initializer does not look at the other JARs
+        createJar("initializer.jar", INITIALIZER, "org.example.Initializer", "org/example/Initializer.class", "class org.example.Initializer");
+        TomcatJarScan scan = scan();
+        assertEquals(Collections.singleton("plain.jar"), scan.getJarsToSkip());
+        assertEquals(new TreeSet<String>(Arrays.asList("initializer.jar", "servlet.jar", "taglib.jar")), scan.getJarsToScan().keySet());
+        assertEquals("ServletContainerInitializer", scan.getJarsToScan().get("initializer.jar"));
+        assertTrue(scan.getHandlesTypes().isEmpty());
+    }
+
+    @Test
+    public void skipsNoJarForAnInitializerHandlingTypes() throws IOException {
+        // The annotated class comes after a TLD and before the service file
+        createJar("spring-web.jar", "META-INF/spring.tld", "<taglib/>", "org/example/Initializer.class",
+                "Ljavax/servlet/annotation/HandlesTypes;", INITIALIZER, "org.example.Initializer");
+        TomcatJarScan scan = scan();
+        assertEquals(TomcatJarScan.HANDLES_TYPES_INITIALIZER, scan.getJarsToScan().get("spring-web.jar"));
+        assertEquals(Collections.singleton("spring-web.jar"), scan.getHandlesTypes());
+        assertTrue(scan.getJarsToSkip().isEmpty());
+
+        // Also when listed in jarsToScan, or read from the cache
+        scan = new TomcatJarScan(new File(folder.getRoot(), "cache.properties"), TomcatJarScan.toPatterns("spring-*.jar"));
+        scan.scan(lib.getParentFile().getParentFile());
+        assertEquals(0, scan.getBytesRead());
+        assertTrue(scan.getJarsToSkip().isEmpty());
+    }
+
+    private TomcatJarScan scan() throws IOException {
+        TomcatJarScan scan = new TomcatJarScan(new File(folder.getRoot(), "cache.properties"), TomcatJarScan.toPatterns(null));
+        scan.scan(lib.getParentFile().getParentFile());
+        scan.save();
+        return scan;
+    }
+
+    /**
+     * @param entries the names and contents of the entries, in order
+     */
+    private void createJar(String name, String... entries) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(new File(lib, name)));
+        try {
+            for (int i = 0; i < entries.length; i += 2) {
+                out.putNextEntry(new ZipEntry(entries[i]));
+                out.write(entries[i + 1].getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
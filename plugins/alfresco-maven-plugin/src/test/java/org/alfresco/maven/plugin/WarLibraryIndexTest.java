@@ -0,0 +1,105 @@
+package org.alfresco.maven.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks what the {@link WarLibraryIndex} finds of the dependencies of an AMP in the libraries of a WAR, when the
+ * WAR ships several versions of a library, and libraries shading others.
+ */
+public class WarLibraryIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private WarLibraryIndex index;
+
+    @Before
+    public void createWar() throws IOException {
+        File war = folder.newFolder("war");
+        File lib = new File(war, "WEB-INF/lib");
+        lib.mkdirs();
+        createJar(new File(lib, "commons-lang-2.4.jar"), pom("commons-lang", "commons-lang", "2.4"), "org/apache/commons/lang/StringUtils.class");
+        createJar(new File(lib, "commons-lang-2.6.jar"), pom("commons-lang", "commons-lang", "2.6"), "org/apache/commons/lang/StringUtils.class");
+        // Shades guava, whose pom.properties it keeps
+        Map<String, String> shaded = pom("org.example", "shading-library", "1.0");
+        shaded.putAll(pom("com.google.guava", "guava", "18.0"));
+        createJar(new File(lib, "shading-library-1.0.jar"), shaded, "com/google/common/base/Joiner.class");
+        // Renamed, with a single pom.properties
+        createJar(new File(lib, "renamed.jar"), pom("org.example", "original-name", "2.0"), "org/example/Original.class");
+
+        index = new WarLibraryIndex(war, new File(folder.getRoot(), "index.properties"), new SystemStreamLog());
+        index.load();
+    }
+
+    @Test
+    public void reportsEveryVersionOfTheWar() throws IOException {
+        WarLibraryIndex.Match match = index.match("commons-lang", "commons-lang", "2.6", null);
+        assertEquals(WarLibraryIndex.DUPLICATE, match.getKind());
+        assertEquals("commons-lang-2.6.jar", match.getLibrary());
+        assertEquals("same version in WEB-INF/lib/commons-lang-2.6.jar (the WAR also ships version 2.4 in"
+                + " WEB-INF/lib/commons-lang-2.4.jar)", match.getDetail());
+
+        match = index.match("commons-lang", "commons-lang", "2.5", null);
+        assertEquals(WarLibraryIndex.VERSION_CONFLICT, match.getKind());
+        assertEquals("version 2.5 while the WAR ships version 2.4 in WEB-INF/lib/commons-lang-2.4.jar, version 2.6 in"
+                + " WEB-INF/lib/commons-lang-2.6.jar", match.getDetail());
+    }
+
+    @Test
+    public void indexesTheOwnCoordinatesOfShadingLibrariesOnly() throws IOException {
+        assertEquals(WarLibraryIndex.DUPLICATE, index.match("org.example", "shading-library", "1.0", null).getKind());
+        assertEquals(WarLibraryIndex.DUPLICATE, index.match("org.example", "original-name", "2.0", null).getKind());
+
+        // Compared class by class instead
+        File guava = folder.newFile("guava-18.0.jar");
+        createJar(guava, pom("com.google.guava", "guava", "18.0"), "com/google/common/base/Joiner.class",
+                "com/google/common/base/Splitter.class");
+        WarLibraryIndex.Match match = index.match("com.google.guava", "guava", "18.0", guava);
+        assertEquals(WarLibraryIndex.CLASS_CONFLICT, match.getKind());
+        assertEquals("shading-library-1.0.jar", match.getLibrary());
+
+        File other = folder.newFile("other-1.0.jar");
+        createJar(other, pom("org.example", "other", "1.0"), "org/example/Other.class");
+        assertNull(index.match("org.example", "other", "1.0", other));
+    }
+
+    private static Map<String, String> pom(String groupId, String artifactId, String version) {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+        entries.put("META-INF/maven/" + groupId + "/" + artifactId + "/pom.properties",
+                "groupId=" + groupId + "\nartifactId=" + artifactId + "\nversion=" + version + "\n");
+        return entries;
+    }
+
+    private static void createJar(File jar, Map<String, String> entries, String... classes) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue().getBytes("UTF-8"));
+                out.closeEntry();
+            }
+            for (String name : classes) {
+                out.putNextEntry(new ZipEntry(name));
+                out.write(name.getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package org.alfresco.maven.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the {@link WebAssetPipeline} minifiers keep what scripts and stylesheets mean (strings, regular
+ * expressions, url() values), and that the files it produces, and the references to them, follow the changes of
+ * the web folder from one run to the next.
+ */
+public class WebAssetPipelineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File web;
+    private File config;
+    private File stateFile;
+
+    @Before
+    public void createFolders() throws IOException {
+        web = folder.newFolder("web");
+        config = folder.newFolder("config");
+        stateFile = new File(folder.getRoot(), "state.properties");
+    }
+
+    @Test
+    public void minifyJsRemovesCommentsAndWhiteSpace() {
+        assertEquals("var a=1;\nvar b=a+1;\n",
+                WebAssetPipeline.minifyJs("// Header\nvar a = 1; /* inline */\n\n\tvar b = a + 1; // trailing\n"));
+        // Line breaks are kept, as automatic semicolon insertion may rely on them
+        assertEquals("a=1\nb=2\n", WebAssetPipeline.minifyJs("a = 1\n/* multi\nline */ b = 2"));
+        assertEquals("/*! keep me */\nvar a=1;\n", WebAssetPipeline.minifyJs("/*! keep me */\nvar a = 1;"));
+        assertEquals("/* @license MIT */var a;\n", WebAssetPipeline.minifyJs("/* @license MIT */ var a;"));
+    }
+
+    @Test
+    public void minifyJsKeepsTheSpaceTokensNeed() {
+        assertEquals("var name=typeof value;\n", WebAssetPipeline.minifyJs("var name = typeof value;"));
+        assertEquals("a=b+ +c;\nd=e- -f;\n", WebAssetPipeline.minifyJs("a = b + +c;\nd = e - -f;"));
+        assertEquals("x=1 .toString();\n", WebAssetPipeline.minifyJs("x = 1 .toString();"));
+    }
+
+    @Test
+    public void minifyJsCopiesStrings() {
+        assertEquals("var s=\"a  // not a comment /* nor this */\";\n",
+                WebAssetPipeline.minifyJs("var s = \"a  // not a comment /* nor this */\";"));
+        assertEquals("var s='it\\'s  \"quoted\"';\n", WebAssetPipeline.minifyJs("var s = 'it\\'s  \"quoted\"';"));
+        assertEquals("var t=`line  one\n  line // two`;\n", WebAssetPipeline.minifyJs("var t = `line  one\n  line // two`;"));
+    }
+
+    @Test
+    public void minifyJsCopiesRegularExpressions() {
+        assertEquals("var r=/\\/\\/ [/*]  'x/g;\n", WebAssetPipeline.minifyJs("var r = /\\/\\/ [/*]  'x/g;"));
+        assertEquals("return/a  b/.test(s)\n", WebAssetPipeline.minifyJs("return /a  b/.test(s)"));
+        assertEquals("f(/ x /i,1)\n", WebAssetPipeline.minifyJs("f( / x /i, 1 )"));
+        // Divisions are not regular expressions
+        assertEquals("var q=a/b/c;\nvar p=(a)/2/c;\n", WebAssetPipeline.minifyJs("var q = a / b / c;\nvar p = (a) / 2 / c;"));
+    }
+
+    @Test
+    public void minifyCssRemovesCommentsAndWhiteSpace() {
+        assertEquals("a,b{color:red;margin:0 auto}\n",
+                WebAssetPipeline.minifyCss("/* Header */\na, b {\n  color: red;\n  margin: 0  auto;\n}\n"));
+        assertEquals("/*! keep me */\ndiv :first-child{top:0}\n",
+                WebAssetPipeline.minifyCss("/*! keep me */\ndiv :first-child { top: 0; }"));
+    }
+
+    @Test
+    public void minifyCssCopiesStringsAndUrls() {
+        assertEquals("a:after{content:\"  /* not a comment */ \"}\n",
+                WebAssetPipeline.minifyCss("a:after { content: \"  /* not a comment */ \"; }"));
+        assertEquals("a{background:url(data:image/svg+xml,<svg>/* x */</svg>) no-repeat}\n",
+                WebAssetPipeline.minifyCss("a { background: url(data:image/svg+xml,<svg>/* x */</svg>)  no-repeat; }"));
+        assertEquals("a{background:URL( \"my image.png\" )}\n",
+                WebAssetPipeline.minifyCss("a { background: URL( \"my image.png\" ) }"));
+        assertEquals("a{background:url(a\\)b.png)}\n", WebAssetPipeline.minifyCss("a { background: url(a\\)b.png) }"));
+    }
+
+    @Test
+    public void rewritesReferencesToFingerprintedNames() throws IOException {
+        write(web, "css/demoamp.css", "body {\n  margin: 0;\n}\n");
+        write(web, "scripts/first.js", "var first = 1;\n");
+        write(web, "scripts/second.js", "var second = 2;\n");
+        write(web, "index.html", "<link href=\"css/demoamp.css\"><script src=\"scripts/bundle.js\"></script>"
+                + "<script src=\"other/first.js\"></script><a href=\"css/demoamp.css.map\">");
+        write(web, "css/page.html", "<link href=\"./demoamp.css\"><link href=\"demoamp.css?v=1\">");
+        write(config, "alfresco/site-webscripts/demo.get.html.ftl",
+                "<@link href=\"${url.context}/res/css/demoamp.css\"/><@script src=\"${url.context}/res/scripts/first.js\"/>");
+
+        process();
+        String css = getAsset("css/demoamp.css");
+        String bundle = getAsset("scripts/bundle.js");
+        String first = getAsset("scripts/first.js");
+        assertTrue(css, css.matches("css/demoamp\\.[0-9a-f]{8}\\.css"));
+        assertEquals("body{margin:0}\n", read(web, css));
+        assertEquals("<link href=\"" + css + "\"><script src=\"" + bundle + "\"></script>"
+                + "<script src=\"other/first.js\"></script><a href=\"css/demoamp.css.map\">", read(web, "index.html"));
+        String name = css.substring("css/".length());
+        assertEquals("<link href=\"./" + name + "\"><link href=\"" + name + "?v=1\">", read(web, "css/page.html"));
+        assertEquals("<@link href=\"${url.context}/res/" + css + "\"/><@script src=\"${url.context}/res/" + first + "\"/>",
+                read(config, "alfresco/site-webscripts/demo.get.html.ftl"));
+
+        // The pages already rewritten by the previous run follow the new names
+        write(web, "css/demoamp.css", "body {\n  margin: 1px;\n}\n");
+        write(web, "scripts/second.js", "var second = 3;\n");
+        process();
+        String changedCss = getAsset("css/demoamp.css");
+        String changedBundle = getAsset("scripts/bundle.js");
+        assertFalse(changedCss.equals(css));
+        assertFalse(changedBundle.equals(bundle));
+        assertFalse(new File(web, css).exists());
+        assertFalse(new File(web, bundle).exists());
+        assertEquals("<link href=\"" + changedCss + "\"><script src=\"" + changedBundle + "\"></script>"
+                + "<script src=\"other/first.js\"></script><a href=\"css/demoamp.css.map\">", read(web, "index.html"));
+        assertEquals("<@link href=\"${url.context}/res/" + changedCss + "\"/><@script src=\"${url.context}/res/" + first + "\"/>",
+                read(config, "alfresco/site-webscripts/demo.get.html.ftl"));
+    }
+
+    @Test
+    public void writesBundlesAgainWhenTheirContentChanges() throws IOException {
+        write(web, "scripts/first.js", "var first = 1;\n");
+        write(web, "scripts/second.js", "var second = '" + repeat("second", 100) + "';\n");
+        process();
+        String bundle = getAsset("scripts/bundle.js");
+        assertEquals("var first=1;\n;\nvar second='" + repeat("second", 100) + "';\n;\n", read(web, bundle));
+        assertEquals(read(web, bundle), gunzip(new File(web, bundle + ".gz")));
+
+        // A bundle (or its .gz) damaged or removed since is written again
+        write(web, bundle, "damaged");
+        assertTrue(new File(web, bundle + ".gz").delete());
+        process();
+        assertEquals(bundle, getAsset("scripts/bundle.js"));
+        assertEquals("var first=1;\n;\nvar second='" + repeat("second", 100) + "';\n;\n", read(web, bundle));
+        assertEquals(read(web, bundle), gunzip(new File(web, bundle + ".gz")));
+    }
+
+    @Test
+    public void processesFilesNamedLikeFingerprintedOnes() throws IOException {
+        write(web, "scripts/library.12345678.js", "var library = 1;\n");
+        process();
+        String library = getAsset("scripts/library.12345678.js");
+        assertNotNull(library);
+        assertEquals("var library=1;\n", read(web, library));
+
+        // But not the files produced by the previous run
+        process();
+        assertEquals(library, getAsset("scripts/library.12345678.js"));
+        assertEquals(1, getAssets().size());
+    }
+
+    @Test
+    public void writesTheManifestWhereTheWarGetsIt() throws IOException {
+        write(web, "scripts/first.js", "var first = 1;\n");
+        // Written by the first version of the pipeline
+        write(web, WebAssetPipeline.MANIFEST, "{}");
+        FileUtils.writeStringToFile(stateFile, "config=1,bundle=true,precompress=true\n", "ISO-8859-1");
+        process();
+        assertFalse(new File(web, WebAssetPipeline.MANIFEST).exists());
+        String manifest = read(config, "alfresco/module/demoamp/" + WebAssetPipeline.MANIFEST);
+        assertTrue(manifest, manifest.contains("\"scripts/first.js\": \"" + getAsset("scripts/first.js") + "\""));
+    }
+
+    private void process() throws IOException {
+        WebAssetPipeline pipeline = new WebAssetPipeline(web, stateFile, new SystemStreamLog());
+        pipeline.setTemplateDirectory(config);
+        pipeline.setManifestFile(new File(config, "alfresco/module/demoamp/" + WebAssetPipeline.MANIFEST));
+        pipeline.process();
+    }
+
+    private Properties getAssets() throws IOException {
+        Properties assets = new Properties();
+        Properties state = new Properties();
+        FileInputStream in = new FileInputStream(stateFile);
+        try {
+            state.load(in);
+        } finally {
+            in.close();
+        }
+        for (String key : state.stringPropertyNames()) {
+            if (key.startsWith("output.") || key.startsWith("bundle.")) {
+                assets.setProperty(key.substring(key.indexOf('.') + 1), state.getProperty(key));
+            }
+        }
+        return assets;
+    }
+
+    private String getAsset(String name) throws IOException {
+        return getAssets().getProperty(name);
+    }
+
+    private static void write(File directory, String path, String content) throws IOException {
+        FileUtils.writeStringToFile(new File(directory, path), content, "UTF-8");
+    }
+
+    private static String read(File directory, String path) throws IOException {
+        return FileUtils.readFileToString(new File(directory, path), "UTF-8");
+    }
+
+    private static String gunzip(File file) throws IOException {
+        GZIPInputStream in = new GZIPInputStream(new FileInputStream(file));
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder repeated = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            repeated.append(text);
+        }
+        return repeated.toString();
+    }
+}
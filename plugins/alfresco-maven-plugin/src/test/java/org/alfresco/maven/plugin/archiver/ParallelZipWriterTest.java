@@ -0,0 +1,198 @@
+package org.alfresco.maven.plugin.archiver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.jar.JarInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that the archives written by {@link ParallelZipWriter} hold the entries they were given, as read back by the
+ * JDK, and that sorted archives with a fixed time only depend on the entries.
+ */
+public class ParallelZipWriterTest {
+
+    /** 2014-01-01T00:00:00Z */
+    private static final long FIXED_TIME = 1388534400000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File input;
+    private Map<String, byte[]> files;
+
+    @Before
+    public void createInput() throws IOException {
+        input = folder.newFolder("input");
+        files = new LinkedHashMap<String, byte[]>();
+        Random random = new Random(42);
+        files.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\nCreated-By: test\r\n\r\n".getBytes("UTF-8"));
+        files.put("module.properties", "module.id=test\nmodule.version=1.0\n".getBytes("UTF-8"));
+        files.put("config/alfresco/module/test/module-context.xml", repeat("<beans/>\n", 1000));
+        files.put("config/empty.txt", new byte[0]);
+        files.put("web/images/logo.png", randomBytes(random, 20000));
+        files.put("lib/dependency.jar", randomBytes(random, 50000));
+        // Bigger than the streaming threshold, so deflated by the writer thread rather than by the workers
+        files.put("lib/big.bin", repeat("0123456789abcdef", 9 * 1024 * 1024 / 16 + 1));
+        for (int i = 0; i < 200; i++) {
+            files.put("config/alfresco/messages/messages_" + i + ".properties", repeat("key" + i + "=value\n", i));
+        }
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            FileUtils.writeByteArrayToFile(new File(input, file.getKey()), file.getValue());
+        }
+    }
+
+    @Test
+    public void writesEveryEntry() throws IOException {
+        File archive = new File(folder.getRoot(), "test.amp");
+        ParallelZipWriter writer = new ParallelZipWriter(archive, 4);
+        writer.addDirectory(input, "", null, null);
+        // Names are written in UTF-8 (not read from the disk, whose file name encoding depends on the locale)
+        writer.addBytes("web/scripts/\u00e9t\u00e9.js", "var summer = 1;".getBytes("UTF-8"), FIXED_TIME);
+        int written = writer.write();
+
+        Map<String, byte[]> expected = new LinkedHashMap<String, byte[]>(files);
+        expected.put("web/scripts/\u00e9t\u00e9.js", "var summer = 1;".getBytes("UTF-8"));
+
+        ZipFile zip = new ZipFile(archive);
+        try {
+            assertEquals(written, zip.size());
+            List<String> read = new ArrayList<String>();
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                read.add(entry.getName());
+                byte[] content = expected.get(entry.getName());
+                assertNotNull("Unexpected entry " + entry.getName(), content);
+                InputStream in = zip.getInputStream(entry);
+                try {
+                    assertArrayEquals(entry.getName(), content, IOUtils.toByteArray(in));
+                } finally {
+                    in.close();
+                }
+                assertEquals(entry.getName(), content.length, entry.getSize());
+                if (entry.getName().endsWith(".png") || entry.getName().endsWith(".jar")) {
+                    assertEquals(entry.getName(), ZipEntry.STORED, entry.getMethod());
+                } else if (content.length > 1000) {
+                    assertEquals(entry.getName(), ZipEntry.DEFLATED, entry.getMethod());
+                    assertTrue(entry.getName(), entry.getCompressedSize() < content.length);
+                }
+            }
+            assertEquals(expected.size(), read.size());
+            assertNotNull(zip.getEntry("config/alfresco/module/test/"));
+        } finally {
+            zip.close();
+        }
+
+        // The local headers and data descriptors are read as well when streaming, as MMT does
+        Map<String, byte[]> streamed = readStream(archive);
+        assertEquals(expected.keySet(), streamed.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), streamed.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void sortedArchiveWithFixedTimeIsReproducible() throws IOException {
+        File first = new File(folder.getRoot(), "first.jar");
+        ParallelZipWriter writer = new ParallelZipWriter(first, 1);
+        writer.setSorted(true);
+        writer.setFixedTime(FIXED_TIME);
+        writer.addDirectory(input, "", null, null);
+        writer.write();
+
+        // Same content, other file times, other order of addition and other number of threads
+        for (File file : FileUtils.listFiles(input, null, true)) {
+            assertTrue(file.setLastModified(file.lastModified() - 3600000L));
+        }
+        File second = new File(folder.getRoot(), "second.jar");
+        writer = new ParallelZipWriter(second, 8);
+        writer.setSorted(true);
+        writer.setFixedTime(FIXED_TIME);
+        List<String> names = new ArrayList<String>(files.keySet());
+        for (int i = names.size() - 1; i >= 0; i--) {
+            writer.addFile(new File(input, names.get(i)), names.get(i));
+        }
+        writer.write();
+
+        assertArrayEquals(FileUtils.readFileToByteArray(first), FileUtils.readFileToByteArray(second));
+
+        ZipFile zip = new ZipFile(second);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            List<String> order = new ArrayList<String>();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                order.add(entry.getName());
+                // The JDK reads the time zone less ZIP times in the default time zone
+                assertEquals(entry.getName(), FIXED_TIME, entry.getTime() + TimeZone.getDefault().getOffset(entry.getTime()));
+            }
+            assertEquals(Arrays.asList("META-INF/", "META-INF/MANIFEST.MF"), order.subList(0, 2));
+        } finally {
+            zip.close();
+        }
+        JarInputStream jar = new JarInputStream(new FileInputStream(second));
+        try {
+            assertNotNull("The manifest is not found by JarInputStream", jar.getManifest());
+        } finally {
+            jar.close();
+        }
+    }
+
+    private static Map<String, byte[]> readStream(File archive) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        ZipInputStream zip = new ZipInputStream(new FileInputStream(archive));
+        try {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    entries.put(entry.getName(), IOUtils.toByteArray(zip));
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return entries;
+    }
+
+    private static byte[] repeat(String text, int times) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < times; i++) {
+            out.write(text.getBytes("UTF-8"));
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] randomBytes(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
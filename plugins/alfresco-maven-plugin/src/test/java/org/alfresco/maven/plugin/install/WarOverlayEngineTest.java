@@ -0,0 +1,287 @@
+package org.alfresco.maven.plugin.install;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.alfresco.maven.plugin.AmpModel;
+import org.alfresco.maven.plugin.archiver.AmpUnArchiver;
+import org.alfresco.repo.module.tool.ModuleManagementTool;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Installs the same AMPs onto the same WAR with the Alfresco ModuleManagementTool and in process (with the
+ * {@link WarOverlayEngine}, and through the {@link AmpUnArchiver}), and checks that the resulting WARs are the same:
+ * same files with the same content (file-mapping.properties applied the same way), same module.properties (but
+ * for the install date) and same modifications.install records, with backups of the same replaced content (but
+ * for their random names).
+ */
+public class WarOverlayEngineTest {
+
+    private static final String MODULE_DIR = WarOverlayEngine.MODULE_DIR.substring(1);
+    private static final String BACKUP_DIR = WarOverlayEngine.BACKUP_DIR.substring(1) + "/";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File war;
+    private File firstAmp;
+    private File secondAmp;
+
+    @Before
+    public void createFixtures() throws IOException {
+        Map<String, String> war = new LinkedHashMap<String, String>();
+        war.put("WEB-INF/web.xml", "<web-app/>");
+        war.put("WEB-INF/classes/alfresco/version.properties",
+                "version.major=5\nversion.minor=0\nversion.revision=0\nversion.label=\nversion.edition=Community\n");
+        war.put("WEB-INF/lib/existing.jar", "existing library");
+        war.put("index.jsp", "WAR index");
+        war.put("css/base.css", "body {}");
+        this.war = folder.newFolder("war");
+        for (Map.Entry<String, String> file : war.entrySet()) {
+            FileUtils.writeStringToFile(new File(this.war, file.getKey()), file.getValue(), "UTF-8");
+        }
+
+        // Default file mapping
+        Map<String, String> first = new LinkedHashMap<String, String>();
+        first.put("module.properties", "module.id=test.first\nmodule.version=1.0\nmodule.title=First\nmodule.description=First module\n");
+        first.put("config/alfresco/module/test.first/module-context.xml", "<beans id=\"first\"/>");
+        first.put("config/alfresco/extension/shared-context.xml", "<beans id=\"shared-first\"/>");
+        first.put("lib/first.jar", "first library");
+        first.put("web/css/first.css", "h1 {}");
+        first.put("web/jsp/first/page.jsp", "first page");
+        firstAmp = createArchive("first.amp", first);
+
+        // Custom file mapping, replacing files of the WAR and of the first module
+        Map<String, String> second = new LinkedHashMap<String, String>();
+        second.put("module.properties", "module.id=test.second\nmodule.version=2.1\nmodule.title=Second\nmodule.description=Second module\n");
+        second.put("file-mapping.properties", "include.default=true\n/web=/\n/extra=/WEB-INF/classes/alfresco/extension/extra\n");
+        second.put("config/alfresco/extension/shared-context.xml", "<beans id=\"shared-second\"/>");
+        second.put("extra/extra-context.xml", "<beans id=\"extra\"/>");
+        second.put("web/index.jsp", "second index");
+        second.put("web/css/base.css", "body { margin: 0 }");
+        second.put("web/second/deep/page.html", "second page");
+        secondAmp = createArchive("second.amp", second);
+    }
+
+    @Test
+    public void installsExplodedWarsLikeTheModuleManagementTool() throws IOException {
+        File mmtWar = copy(war, "mmt-war");
+        installWithModuleManagementTool(Arrays.asList(firstAmp, secondAmp), mmtWar, false);
+
+        File engineWar = copy(war, "engine-war");
+        WarOverlayEngine engine = new WarOverlayEngine(engineWar, 2, new SystemStreamLog());
+        List<AmpDescriptor> amps = engine.read(Arrays.asList(firstAmp, secondAmp));
+        try {
+            assertNull(engine.getUnsupportedReason(amps));
+            engine.install(amps, false);
+        } finally {
+            WarOverlayEngine.close(amps);
+        }
+
+        assertSameWar(mmtWar, engineWar, true);
+    }
+
+    @Test
+    public void installsWarFilesLikeTheModuleManagementTool() throws IOException {
+        File mmtWar = zip(war, "mmt.war");
+        installWithModuleManagementTool(Arrays.asList(firstAmp, secondAmp), mmtWar, false);
+
+        File engineWar = zip(war, "engine.war");
+        WarOverlayEngine engine = new WarOverlayEngine(engineWar, 2, new SystemStreamLog());
+        List<AmpDescriptor> amps = engine.read(Arrays.asList(firstAmp, secondAmp));
+        try {
+            engine.install(amps, false);
+        } finally {
+            WarOverlayEngine.close(amps);
+        }
+
+        // Folders are not compared, as WAR files only have the entries of the folders they were created with
+        assertSameWar(unzip(mmtWar, "mmt-unzipped"), unzip(engineWar, "engine-unzipped"), false);
+    }
+
+    @Test
+    public void unpacksOverlaysLikeTheModuleManagementTool() throws IOException {
+        // As the unarchiver falls back to the ModuleManagementTool with force install
+        File mmtWar = copy(war, "mmt-overlay");
+        installWithModuleManagementTool(Arrays.asList(firstAmp, secondAmp), mmtWar, true);
+
+        File overlay = copy(war, "native-overlay");
+        for (File amp : Arrays.asList(firstAmp, secondAmp)) {
+            AmpUnArchiver unArchiver = new AmpUnArchiver();
+            unArchiver.enableLogging(new ConsoleLogger(Logger.LEVEL_WARN, "test"));
+            unArchiver.setSourceFile(amp);
+            unArchiver.setDestDirectory(overlay);
+            unArchiver.extract();
+        }
+
+        assertSameWar(mmtWar, overlay, true);
+    }
+
+    private static void installWithModuleManagementTool(List<File> amps, File war, boolean force) {
+        ModuleManagementTool mmt = new ModuleManagementTool();
+        mmt.setVerbose(false);
+        synchronized (AmpModel.MODULE_MANAGEMENT_TOOL_LOCK) {
+            for (File amp : amps) {
+                mmt.installModule(amp.getAbsolutePath(), war.getAbsolutePath(), false, force, false);
+            }
+        }
+    }
+
+    /**
+     * Compares two exploded WARs, leaving out what is expected to differ between two installs of the same AMPs
+     *
+     * @param folders whether the (empty or not) folders should be the same as well
+     */
+    private static void assertSameWar(File expected, File actual, boolean folders) throws IOException {
+        Map<String, String> expectedContent = normalize(expected, folders);
+        Map<String, String> actualContent = normalize(actual, folders);
+        assertEquals(expectedContent.keySet(), actualContent.keySet());
+        for (Map.Entry<String, String> file : expectedContent.entrySet()) {
+            assertEquals(file.getKey(), file.getValue(), actualContent.get(file.getKey()));
+        }
+        // Sanity checks of what both installed
+        assertTrue(actualContent.containsKey("WEB-INF/classes/alfresco/extension/extra/extra-context.xml"));
+        assertTrue(actualContent.containsKey("jsp/first/page.jsp"));
+        assertEquals("second index", actualContent.get("index.jsp"));
+        assertFalse(actualContent.containsKey("web/index.jsp"));
+    }
+
+    /**
+     * @return the content of the files of an exploded WAR (and its folders, with a null content), by path; the
+     *         backups are named after their content, module.properties are sorted and lose their install date, and
+     *         the modifications.install records are sorted and refer to the backups by content
+     */
+    private static Map<String, String> normalize(File war, boolean folders) throws IOException {
+        Map<String, String> content = new TreeMap<String, String>();
+        Map<String, String> backups = new HashMap<String, String>();
+        List<File> records = new ArrayList<File>();
+        for (File file : list(war)) {
+            String path = getPath(war, file);
+            if (file.isDirectory()) {
+                if (folders) {
+                    content.put(path + "/", null);
+                }
+            } else if (path.startsWith(BACKUP_DIR)) {
+                String backup = "backup of " + FileUtils.readFileToString(file, "UTF-8");
+                backups.put("/" + path, backup);
+                content.put(backup, "");
+            } else if (path.startsWith(MODULE_DIR) && file.getName().equals(AmpDescriptor.MODULE_PROPERTIES)) {
+                Properties properties = new Properties();
+                properties.load(new ByteArrayInputStream(FileUtils.readFileToByteArray(file)));
+                properties.remove("module.installDate");
+                content.put(path, new TreeMap<Object, Object>(properties).toString());
+            } else if (file.getName().equals(WarOverlayEngine.MODIFICATIONS_INSTALL)) {
+                records.add(file);
+                content.put(path, null);
+            } else {
+                content.put(path, FileUtils.readFileToString(file, "UTF-8"));
+            }
+        }
+        for (File record : records) {
+            List<String> lines = new ArrayList<String>();
+            for (String line : FileUtils.readLines(record, "UTF-8")) {
+                int backup = line.indexOf('|');
+                if (backup >= 0) {
+                    line = line.substring(0, backup + 1) + backups.get(line.substring(backup + 1).trim());
+                }
+                if (line.trim().length() > 0) {
+                    lines.add(line.trim());
+                }
+            }
+            Collections.sort(lines);
+            content.put(getPath(war, record), lines.toString());
+        }
+        return content;
+    }
+
+    /**
+     * @return the files and folders found in a folder and its sub folders
+     */
+    private static List<File> list(File directory) {
+        List<File> files = new ArrayList<File>();
+        File[] children = directory.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                files.add(child);
+                files.addAll(list(child));
+            }
+        }
+        return files;
+    }
+
+    private static String getPath(File directory, File file) {
+        return file.getAbsolutePath().substring(directory.getAbsolutePath().length() + 1).replace(File.separatorChar, '/');
+    }
+
+    private File createArchive(String name, Map<String, String> entries) throws IOException {
+        File archive = new File(folder.getRoot(), name);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            for (Map.Entry<String, String> entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue().getBytes("UTF-8"));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+        return archive;
+    }
+
+    private File copy(File directory, String name) throws IOException {
+        File copy = new File(folder.getRoot(), name);
+        FileUtils.copyDirectory(directory, copy);
+        return copy;
+    }
+
+    private File zip(File directory, String name) throws IOException {
+        Map<String, String> entries = new TreeMap<String, String>();
+        for (File file : FileUtils.listFiles(directory, null, true)) {
+            entries.put(getPath(directory, file), FileUtils.readFileToString(file, "UTF-8"));
+        }
+        return createArchive(name, entries);
+    }
+
+    private File unzip(File archive, String name) throws IOException {
+        File directory = folder.newFolder(name);
+        ZipFile zip = new ZipFile(archive);
+        try {
+            for (ZipEntry entry : Collections.list(zip.entries())) {
+                if (!entry.isDirectory()) {
+                    FileUtils.writeByteArrayToFile(new File(directory, entry.getName()),
+                            IOUtils.toByteArray(zip.getInputStream(entry)));
+                }
+            }
+        } finally {
+            zip.close();
+        }
+        return directory;
+    }
+}